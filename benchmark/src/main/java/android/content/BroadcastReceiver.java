@@ -0,0 +1,7 @@
+package android.content;
+
+/** JVM 上でベンチマークを実行するための android.content.BroadcastReceiver の代替。 */
+public abstract class BroadcastReceiver {
+
+    public abstract void onReceive(Context context, Intent intent);
+}
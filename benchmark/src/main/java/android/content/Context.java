@@ -0,0 +1,29 @@
+package android.content;
+
+import java.io.File;
+
+/** JVM 上でベンチマークを実行するための android.content.Context の代替。
+ * アプリのソースが使用するメソッドだけを持つ。
+ */
+public abstract class Context {
+    public static final int MODE_PRIVATE = 0;
+    public static final String CONNECTIVITY_SERVICE = "connectivity";
+
+    public abstract Context getApplicationContext();
+
+    public abstract String getPackageName();
+
+    public abstract SharedPreferences getSharedPreferences(String name, int mode);
+
+    public abstract File getCacheDir();
+
+    public abstract File getFilesDir();
+
+    public abstract Object getSystemService(String name);
+
+    public abstract void startActivity(Intent intent);
+
+    public abstract Intent registerReceiver(BroadcastReceiver receiver, IntentFilter filter);
+
+    public abstract void unregisterReceiver(BroadcastReceiver receiver);
+}
@@ -0,0 +1,42 @@
+package android.content;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import android.net.Uri;
+
+/** JVM 上でベンチマークを実行するための android.content.Intent の代替。 */
+public class Intent {
+    public static final String ACTION_VIEW = "android.intent.action.VIEW";
+
+    private final String mAction;
+    private final Map<String, Object> mExtras = new HashMap<String, Object>();
+    private Uri mData;
+
+    public Intent(String action) {
+        mAction = action;
+    }
+
+    public String getAction() {
+        return mAction;
+    }
+
+    public Intent setData(Uri data) {
+        mData = data;
+        return this;
+    }
+
+    public Uri getData() {
+        return mData;
+    }
+
+    public Intent putExtra(String name, boolean value) {
+        mExtras.put(name, value);
+        return this;
+    }
+
+    public boolean getBooleanExtra(String name, boolean defaultValue) {
+        Object value = mExtras.get(name);
+        return value instanceof Boolean ? (Boolean) value : defaultValue;
+    }
+}
@@ -0,0 +1,14 @@
+package android.content;
+
+/** JVM 上でベンチマークを実行するための android.content.IntentFilter の代替。 */
+public class IntentFilter {
+    private final String mAction;
+
+    public IntentFilter(String action) {
+        mAction = action;
+    }
+
+    public final boolean hasAction(String action) {
+        return mAction.equals(action);
+    }
+}
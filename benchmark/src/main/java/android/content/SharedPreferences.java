@@ -0,0 +1,30 @@
+package android.content;
+
+import java.util.Map;
+
+/** JVM 上でベンチマークを実行するための android.content.SharedPreferences の代替。 */
+public interface SharedPreferences {
+
+    Map<String, ?> getAll();
+
+    String getString(String key, String defValue);
+
+    long getLong(String key, long defValue);
+
+    boolean contains(String key);
+
+    Editor edit();
+
+    interface Editor {
+
+        Editor putString(String key, String value);
+
+        Editor putLong(String key, long value);
+
+        Editor remove(String key);
+
+        Editor clear();
+
+        boolean commit();
+    }
+}
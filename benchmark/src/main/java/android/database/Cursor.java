@@ -0,0 +1,15 @@
+package android.database;
+
+/** JVM 上でベンチマークを実行するための android.database.Cursor の代替。 */
+public interface Cursor {
+
+    int getCount();
+
+    boolean moveToNext();
+
+    int getInt(int columnIndex);
+
+    String getString(int columnIndex);
+
+    void close();
+}
@@ -0,0 +1,13 @@
+package android.database;
+
+/** JVM 上でベンチマークを実行するための android.database.SQLException の代替。 */
+public class SQLException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public SQLException() {
+    }
+
+    public SQLException(String error) {
+        super(error);
+    }
+}
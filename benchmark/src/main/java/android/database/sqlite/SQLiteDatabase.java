@@ -0,0 +1,29 @@
+package android.database.sqlite;
+
+import android.database.Cursor;
+
+/** JVM 上でベンチマークを実行するための android.database.sqlite.SQLiteDatabase の代替。
+ * JVM 上には SQLite がないため、アプリのソースをコンパイルするためのメソッドだけを持つ。
+ */
+public abstract class SQLiteDatabase {
+
+    public interface CursorFactory {
+    }
+
+    public abstract void execSQL(String sql);
+
+    public abstract Cursor rawQuery(String sql, String[] selectionArgs);
+
+    public abstract Cursor query(String table, String[] columns, String selection,
+            String[] selectionArgs, String groupBy, String having, String orderBy);
+
+    public abstract SQLiteStatement compileStatement(String sql);
+
+    public abstract int delete(String table, String whereClause, String[] whereArgs);
+
+    public abstract void beginTransaction();
+
+    public abstract void setTransactionSuccessful();
+
+    public abstract void endTransaction();
+}
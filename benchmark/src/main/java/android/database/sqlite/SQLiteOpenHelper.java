@@ -0,0 +1,29 @@
+package android.database.sqlite;
+
+import android.content.Context;
+
+/** JVM 上でベンチマークを実行するための android.database.sqlite.SQLiteOpenHelper の代替。
+ * JVM 上には SQLite がないため、データベースを開こうとすると例外を throw する。
+ * テストではデータベースを使うメソッドをサブクラスで置き換えること。
+ */
+public abstract class SQLiteOpenHelper {
+
+    public SQLiteOpenHelper(Context context, String name,
+            SQLiteDatabase.CursorFactory factory, int version) {
+    }
+
+    public abstract void onCreate(SQLiteDatabase db);
+
+    public abstract void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion);
+
+    public SQLiteDatabase getReadableDatabase() {
+        throw new UnsupportedOperationException("SQLite is not available on the JVM");
+    }
+
+    public SQLiteDatabase getWritableDatabase() {
+        throw new UnsupportedOperationException("SQLite is not available on the JVM");
+    }
+
+    public void close() {
+    }
+}
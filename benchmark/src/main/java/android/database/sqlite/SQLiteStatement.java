@@ -0,0 +1,17 @@
+package android.database.sqlite;
+
+/** JVM 上でベンチマークを実行するための android.database.sqlite.SQLiteStatement の代替。 */
+public abstract class SQLiteStatement {
+
+    public abstract void bindLong(int index, long value);
+
+    public abstract void bindString(int index, String value);
+
+    public abstract void bindNull(int index);
+
+    public abstract void clearBindings();
+
+    public abstract void execute();
+
+    public abstract void close();
+}
@@ -0,0 +1,7 @@
+package android.net;
+
+/** JVM 上でベンチマークを実行するための android.net.ConnectivityManager の代替。 */
+public class ConnectivityManager {
+    public static final String CONNECTIVITY_ACTION = "android.net.conn.CONNECTIVITY_CHANGE";
+    public static final String EXTRA_NO_CONNECTIVITY = "noConnectivity";
+}
@@ -0,0 +1,14 @@
+package android.net;
+
+import org.apache.http.conn.ssl.SSLSocketFactory;
+
+/** JVM 上でベンチマークを実行するための android.net.SSLCertificateSocketFactory の代替。
+ * JVM のデフォルトの SSLSocketFactory を返す。
+ */
+public class SSLCertificateSocketFactory {
+
+    public static SSLSocketFactory getHttpSocketFactory(int handshakeTimeoutMillis,
+            SSLSessionCache cache) {
+        return SSLSocketFactory.getSocketFactory();
+    }
+}
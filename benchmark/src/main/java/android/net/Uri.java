@@ -0,0 +1,122 @@
+package android.net;
+
+import java.io.UnsupportedEncodingException;
+
+/** JVM 上でベンチマークを実行するための android.net.Uri の代替。
+ * 文字列の URI をそのまま保持し、アプリのソースが使用する組み立てとエンコードだけを行う。
+ * エンコードの規則は Android と同じく、英数字と "_-!.~'()*" 以外を UTF-8 でパーセントエンコードする。
+ */
+public abstract class Uri {
+    private static final String DEFAULT_ALLOWED = "_-!.~'()*";
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    /*package*/ Uri() {
+    }
+
+    public static Uri parse(String uriString) {
+        return new StringUri(uriString);
+    }
+
+    public abstract Builder buildUpon();
+
+    public static String encode(String s) {
+        return encode(s, null);
+    }
+
+    public static String encode(String s, String allow) {
+        if (s == null) {
+            return null;
+        }
+        StringBuilder encoded = null;
+        int length = s.length();
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (isAllowed(c, allow)) {
+                if (encoded != null) {
+                    encoded.append(c);
+                }
+                continue;
+            }
+            if (encoded == null) {
+                encoded = new StringBuilder(length + 16).append(s, 0, i);
+            }
+            int end = i + 1;
+            while (end < length && !isAllowed(s.charAt(end), allow)) {
+                end++;
+            }
+            byte[] bytes;
+            try {
+                bytes = s.substring(i, end).getBytes("UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new AssertionError(e);
+            }
+            for (byte b : bytes) {
+                encoded.append('%').append(HEX_DIGITS[(b & 0xf0) >> 4]).append(HEX_DIGITS[b & 0xf]);
+            }
+            i = end - 1;
+        }
+        return encoded == null ? s : encoded.toString();
+    }
+
+    private static boolean isAllowed(char c, String allow) {
+        return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')
+                || DEFAULT_ALLOWED.indexOf(c) != -1
+                || (allow != null && allow.indexOf(c) != -1);
+    }
+
+    private static class StringUri extends Uri {
+        private final String mUriString;
+
+        StringUri(String uriString) {
+            mUriString = uriString;
+        }
+
+        @Override
+        public Builder buildUpon() {
+            return new Builder(mUriString);
+        }
+
+        @Override
+        public String toString() {
+            return mUriString;
+        }
+    }
+
+    public static final class Builder {
+        private final String mBase;
+        private final StringBuilder mQuery = new StringBuilder();
+        private final String mFragment;
+
+        /*package*/ Builder(String uriString) {
+            int hash = uriString.indexOf('#');
+            mFragment = hash == -1 ? null : uriString.substring(hash);
+            String rest = hash == -1 ? uriString : uriString.substring(0, hash);
+            int question = rest.indexOf('?');
+            if (question == -1) {
+                mBase = rest;
+            } else {
+                mBase = rest.substring(0, question);
+                mQuery.append(rest, question + 1, rest.length());
+            }
+        }
+
+        public Builder appendQueryParameter(String key, String value) {
+            if (mQuery.length() > 0) {
+                mQuery.append('&');
+            }
+            mQuery.append(encode(key, null)).append('=').append(encode(value, null));
+            return this;
+        }
+
+        public Uri build() {
+            StringBuilder sb = new StringBuilder(mBase);
+            if (mQuery.length() > 0) {
+                sb.append('?').append(mQuery);
+            }
+            if (mFragment != null) {
+                sb.append(mFragment);
+            }
+            return new StringUri(sb.toString());
+        }
+    }
+}
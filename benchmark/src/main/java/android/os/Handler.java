@@ -0,0 +1,25 @@
+package android.os;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/** JVM 上でベンチマークを実行するための android.os.Handler の代替。
+ * Looper はないため、すべての Handler は 1 つの「メインスレッド」で順に実行する。
+ */
+public class Handler {
+    private static final ExecutorService sMain =
+        Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "main");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+    public boolean post(Runnable r) {
+        sMain.execute(r);
+        return true;
+    }
+}
@@ -0,0 +1,13 @@
+package android.preference;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/** JVM 上でベンチマークを実行するための android.preference.PreferenceManager の代替。 */
+public class PreferenceManager {
+
+    public static SharedPreferences getDefaultSharedPreferences(Context context) {
+        return context.getSharedPreferences(context.getPackageName() + "_preferences",
+                Context.MODE_PRIVATE);
+    }
+}
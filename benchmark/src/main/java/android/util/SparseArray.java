@@ -0,0 +1,64 @@
+package android.util;
+
+import java.util.Arrays;
+
+/** JVM 上でベンチマークを実行するための android.util.SparseArray の代替。
+ * キーを昇順に並べた配列で保持する。
+ */
+public class SparseArray<E> {
+    private int[] mKeys = new int[10];
+    private Object[] mValues = new Object[10];
+    private int mSize;
+
+    @SuppressWarnings("unchecked")
+    public E get(int key) {
+        int i = Arrays.binarySearch(mKeys, 0, mSize, key);
+        return i < 0 ? null : (E) mValues[i];
+    }
+
+    public void put(int key, E value) {
+        int i = Arrays.binarySearch(mKeys, 0, mSize, key);
+        if (i >= 0) {
+            mValues[i] = value;
+            return;
+        }
+        i = ~i;
+        if (mSize == mKeys.length) {
+            mKeys = Arrays.copyOf(mKeys, mSize * 2);
+            mValues = Arrays.copyOf(mValues, mSize * 2);
+        }
+        System.arraycopy(mKeys, i, mKeys, i + 1, mSize - i);
+        System.arraycopy(mValues, i, mValues, i + 1, mSize - i);
+        mKeys[i] = key;
+        mValues[i] = value;
+        mSize++;
+    }
+
+    public void remove(int key) {
+        int i = Arrays.binarySearch(mKeys, 0, mSize, key);
+        if (i >= 0) {
+            System.arraycopy(mKeys, i + 1, mKeys, i, mSize - i - 1);
+            System.arraycopy(mValues, i + 1, mValues, i, mSize - i - 1);
+            mSize--;
+            mValues[mSize] = null;
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(mValues, 0, mSize, null);
+        mSize = 0;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public int keyAt(int index) {
+        return mKeys[index];
+    }
+
+    @SuppressWarnings("unchecked")
+    public E valueAt(int index) {
+        return (E) mValues[index];
+    }
+}
@@ -0,0 +1,90 @@
+package org.example.android.api;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.util.EntityUtils;
+import org.example.android.api.entity.MixiPerson;
+import org.example.android.benchmark.Responses;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** {@link PeopleApiClient.PeopleApiReponseHandler} で友人一覧のレスポンスをパースする速度。
+ * 本文はメモリ上にあるため、通信を含まないパースだけの時間になる。
+ * toStringDefaultFields は比較のため、ストリームで読む前と同じく本文全体を
+ * EntityUtils.toString で文字列にしてから JSONObject でパースする。
+ * 1 回あたりの確保バイト数は -prof gc の gc.alloc.rate.norm で比べる。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PeopleApiParseBenchmark {
+    /** 1 ページの友人の数 */
+    @Param({ "10", "50", "200", "1000" })
+    public int pageSize;
+
+    private HttpResponse mResponse;
+    private PeopleQuery mDefaultQuery;
+    private PeopleQuery mAllFieldsQuery;
+
+    @Setup
+    public void setUp() {
+        mResponse = Responses.response(200, Responses.people(pageSize));
+        mDefaultQuery = PeopleApiClient.defaultQuery(0, pageSize);
+        mAllFieldsQuery = new PeopleQuery.Builder()
+                .fields(PeopleQuery.FIELD_ID, PeopleQuery.FIELD_DISPLAY_NAME,
+                        PeopleQuery.FIELD_PROFILE_URL, PeopleQuery.FIELD_THUMBNAIL_URL)
+                .page(0, pageSize)
+                .build();
+    }
+
+    /** 一覧の表示に使用するフィールドだけを取り出す。 */
+    @Benchmark
+    public PeopleApiResponse defaultFields() throws IOException {
+        return new PeopleApiClient.PeopleApiReponseHandler(mDefaultQuery).handleResponse(mResponse);
+    }
+
+    /** 本文全体を文字列にしてから JSONObject でパースし、一覧の表示に使用するフィールドを取り出す。 */
+    @Benchmark
+    public PeopleApiResponse toStringDefaultFields() throws IOException, JSONException {
+        JSONObject json = new JSONObject(EntityUtils.toString(mResponse.getEntity(), "UTF-8"));
+        PeopleApiResponse res = new PeopleApiResponse();
+        res.itemsPerPage = json.getInt("itemsPerPage");
+        res.startIndex = json.getInt("startIndex");
+        res.totalResults = json.getInt("totalResults");
+        JSONArray entries = json.getJSONArray("entry");
+        int count = entries.length();
+        res.entry = new ArrayList<MixiPerson>(count);
+        for (int i = 0; i < count; i++) {
+            JSONObject entry = entries.getJSONObject(i);
+            MixiPerson person = new MixiPerson();
+            person.displayName = entry.getString("displayName");
+            person.profileUrl = entry.getString("profileUrl");
+            res.entry.add(person);
+        }
+        return res;
+    }
+
+    /** すべてのフィールドを取り出す。 */
+    @Benchmark
+    public PeopleApiResponse allFields() throws IOException {
+        return new PeopleApiClient.PeopleApiReponseHandler(mAllFieldsQuery).handleResponse(mResponse);
+    }
+}
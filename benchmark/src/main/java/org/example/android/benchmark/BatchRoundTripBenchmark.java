@@ -0,0 +1,126 @@
+package org.example.android.benchmark;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.example.android.api.PeopleApiClient;
+import org.example.android.api.PeopleApiResponse;
+import org.example.android.network.ApiFuture;
+import org.example.android.network.ApiRequestUtils;
+import org.example.android.network.RateLimiter;
+import org.example.android.network.RequestBatcher;
+import org.example.android.oauth.OAuthToken;
+import org.example.android.oauth.OAuthTokenStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** 友人一覧の複数のページを取得し終えるまでの時間を、個別のリクエストと
+ * {@link RequestBatcher} による 1 回のバッチとで比べる。
+ * {@link StubHttpServer} は友人一覧とバッチの応答を latency だけ遅らせ、携帯回線の往復時間を再現する。
+ * 個別のリクエストを並行して送る場合も、同じホストへの接続はアプリと同じく 4 本までになる。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class BatchRoundTripBenchmark {
+    private static final String ACCOUNT = "batch-benchmark@example.com";
+    private static final String BATCH_URL = "http://api.mixi-platform.com" + StubHttpServer.BATCH_PATH;
+    private static final int PAGE_SIZE = 20;
+
+    /** 取得するページの数 */
+    @Param({ "2", "5", "10" })
+    public int pages;
+
+    /** サーバが応答を遅らせる時間 (ミリ秒) */
+    @Param({ "0", "50" })
+    public long latency;
+
+    private StubHttpServer mServer;
+    private PeopleApiClient mClient;
+    private PeopleApiClient mBatchedClient;
+    private RequestBatcher mBatcher;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mServer = new StubHttpServer();
+        mServer.setLatency(latency);
+        mServer.start();
+        ApiRequestUtils.setTransport(new LocalTransport(mServer.getPort()));
+        RateLimiter.setEnabled(false);
+        BenchmarkContext context = new BenchmarkContext();
+        OAuthTokenStore store = OAuthTokenStore.getInstance(context, ACCOUNT);
+        store.setToken(new OAuthToken(
+                "2c7e4b1a9d8f6e5c3b2a1f0e9d8c7b6a5f4e3d2c", "8e9f7a5e1f0b4c2d9a6b3c7d8e9f0a1b2c3d4e5f",
+                System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1)));
+        mClient = new PeopleApiClient(context, ACCOUNT);
+        mBatchedClient = new PeopleApiClient(context, ACCOUNT);
+        // 待ち時間では送信せず、すべてのページを追加した後の flush() で送信する
+        mBatcher = new RequestBatcher(BATCH_URL, store, TimeUnit.MINUTES.toMillis(1), pages);
+        mBatchedClient.setBatcher(mBatcher);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        ApiRequestUtils.getTransport().shutdown();
+        ApiRequestUtils.setTransport(null);
+        RateLimiter.setEnabled(true);
+        mServer.stop();
+    }
+
+    /** 1 ページずつ順に取得する。 */
+    @Benchmark
+    public int sequential() throws IOException {
+        int entries = 0;
+        for (int i = 0; i < pages; i++) {
+            entries += mClient.getFriends(i * PAGE_SIZE, PAGE_SIZE).entry.size();
+        }
+        return entries;
+    }
+
+    /** すべてのページの取得を非同期に開始し、完了を待つ。 */
+    @Benchmark
+    public int parallel() throws InterruptedException, ExecutionException {
+        List<ApiFuture<PeopleApiResponse>> futures = new ArrayList<ApiFuture<PeopleApiResponse>>(pages);
+        for (int i = 0; i < pages; i++) {
+            futures.add(mClient.getFriendsAsync(i * PAGE_SIZE, PAGE_SIZE));
+        }
+        return await(futures);
+    }
+
+    /** すべてのページを 1 回のバッチで取得する。 */
+    @Benchmark
+    public int batched() throws InterruptedException, ExecutionException {
+        List<ApiFuture<PeopleApiResponse>> futures = new ArrayList<ApiFuture<PeopleApiResponse>>(pages);
+        for (int i = 0; i < pages; i++) {
+            futures.add(mBatchedClient.getFriendsAsync(i * PAGE_SIZE, PAGE_SIZE));
+        }
+        mBatcher.flush();
+        return await(futures);
+    }
+
+    private static int await(List<ApiFuture<PeopleApiResponse>> futures)
+            throws InterruptedException, ExecutionException {
+        int entries = 0;
+        for (ApiFuture<PeopleApiResponse> future : futures) {
+            entries += future.get().entry.size();
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,187 @@
+package org.example.android.benchmark;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+
+/** SharedPreferences をメモリ上に保持する、ベンチマーク用の Context。
+ * 端末のストレージの遅さを模して、ファイルの読み込みと commit() に待ち時間を加えることができる。
+ * 待ち時間は CPU を使わないため、 CPU の数が少ない環境でも I/O の待ちとして扱える。
+ */
+public class BenchmarkContext extends Context {
+    private final ConcurrentHashMap<String, InMemoryPreferences> mPreferences =
+        new ConcurrentHashMap<String, InMemoryPreferences>();
+    private final File mDirectory;
+    private final long mLoadDelayNanos;
+    private final long mCommitDelayNanos;
+
+    /** 一時ディレクトリをキャッシュとファイルの保存先とする Context を生成する。 */
+    public BenchmarkContext() {
+        this(0, 0);
+    }
+
+    /** SharedPreferences の読み書きに待ち時間を加える Context を生成する。
+     * @param loadDelayMicros SharedPreferences のファイルを最初に読み込む時の待ち時間 (マイクロ秒)
+     * @param commitDelayMicros {@link SharedPreferences.Editor#commit()} の待ち時間 (マイクロ秒)
+     */
+    public BenchmarkContext(long loadDelayMicros, long commitDelayMicros) {
+        mDirectory = new File(System.getProperty("java.io.tmpdir"), "oauth-example-benchmark");
+        mLoadDelayNanos = TimeUnit.MICROSECONDS.toNanos(loadDelayMicros);
+        mCommitDelayNanos = TimeUnit.MICROSECONDS.toNanos(commitDelayMicros);
+    }
+
+    @Override
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    @Override
+    public String getPackageName() {
+        return "org.example.android";
+    }
+
+    @Override
+    public SharedPreferences getSharedPreferences(String name, int mode) {
+        InMemoryPreferences preferences = mPreferences.get(name);
+        if (preferences == null) {
+            InMemoryPreferences created = new InMemoryPreferences(mCommitDelayNanos);
+            preferences = mPreferences.putIfAbsent(name, created);
+            if (preferences == null) {
+                preferences = created;
+                pause(mLoadDelayNanos);
+            }
+        }
+        return preferences;
+    }
+
+    @Override
+    public File getCacheDir() {
+        return new File(mDirectory, "cache");
+    }
+
+    @Override
+    public File getFilesDir() {
+        return new File(mDirectory, "files");
+    }
+
+    @Override
+    public Object getSystemService(String name) {
+        return null;
+    }
+
+    @Override
+    public void startActivity(Intent intent) {
+        throw new UnsupportedOperationException("no activities in benchmarks");
+    }
+
+    @Override
+    public Intent registerReceiver(BroadcastReceiver receiver, IntentFilter filter) {
+        return null;
+    }
+
+    @Override
+    public void unregisterReceiver(BroadcastReceiver receiver) {
+    }
+
+    private static void pause(long nanos) {
+        long end = System.nanoTime() + nanos;
+        for (long left = nanos; left > 0; left = end - System.nanoTime()) {
+            LockSupport.parkNanos(left);
+        }
+    }
+
+    /** ConcurrentHashMap に値を保持する SharedPreferences。 commit() は待ち時間の後に反映される。 */
+    private static class InMemoryPreferences implements SharedPreferences {
+        private final Map<String, Object> mValues = new ConcurrentHashMap<String, Object>();
+        private final long mCommitDelayNanos;
+
+        InMemoryPreferences(long commitDelayNanos) {
+            mCommitDelayNanos = commitDelayNanos;
+        }
+
+        @Override
+        public Map<String, ?> getAll() {
+            return Collections.unmodifiableMap(mValues);
+        }
+
+        @Override
+        public String getString(String key, String defValue) {
+            Object value = mValues.get(key);
+            return value instanceof String ? (String) value : defValue;
+        }
+
+        @Override
+        public long getLong(String key, long defValue) {
+            Object value = mValues.get(key);
+            return value instanceof Long ? (Long) value : defValue;
+        }
+
+        @Override
+        public boolean contains(String key) {
+            return mValues.containsKey(key);
+        }
+
+        @Override
+        public Editor edit() {
+            return new InMemoryEditor();
+        }
+
+        private class InMemoryEditor implements Editor {
+            private final Map<String, Object> mChanges = new ConcurrentHashMap<String, Object>();
+            private final Object mRemoved = new Object();
+            private boolean mClear;
+
+            @Override
+            public Editor putString(String key, String value) {
+                mChanges.put(key, value == null ? mRemoved : value);
+                return this;
+            }
+
+            @Override
+            public Editor putLong(String key, long value) {
+                mChanges.put(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor remove(String key) {
+                mChanges.put(key, mRemoved);
+                return this;
+            }
+
+            @Override
+            public Editor clear() {
+                mClear = true;
+                return this;
+            }
+
+            @Override
+            public boolean commit() {
+                synchronized (InMemoryPreferences.this) {
+                    // ファイルへの書き込み。同じファイルへの commit() は順に行われる
+                    pause(mCommitDelayNanos);
+                    if (mClear) {
+                        mValues.clear();
+                    }
+                    for (Map.Entry<String, Object> change : mChanges.entrySet()) {
+                        if (change.getValue() == mRemoved) {
+                            mValues.remove(change.getKey());
+                        } else {
+                            mValues.put(change.getKey(), change.getValue());
+                        }
+                    }
+                }
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package org.example.android.benchmark;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+/** HTTP/1.1 と h2c (TLS なしの HTTP/2) の両方で、友人一覧とトークンを返すサーバ。
+ * 同じポートで、接続の最初に HTTP/2 のプリフェイスを送ったクライアントとは HTTP/2 で、
+ * それ以外とは HTTP/1.1 で通信する。 {@link StubHttpServer} は HTTP/2 を話せないため、
+ * {@link org.example.android.network.Http2Transport} の試験と比較にはこちらを使う。
+ * <p>
+ * 友人一覧は startIndex に関係なく count 件の決まった本文を返し、リクエストが gzip を受け付ける場合は
+ * {@link #setCompression(boolean)} で無効にしない限り圧縮して返す。
+ */
+public class Http2StubServer {
+    static {
+        // 開始と停止のたびに出力される INFO のログを抑える
+        System.setProperty("org.eclipse.jetty.LEVEL", "WARN");
+    }
+
+    private final Server mServer;
+    private final ServerConnector mConnector;
+    private final ConcurrentHashMap<Integer, byte[][]> mPeople =
+        new ConcurrentHashMap<Integer, byte[][]>();
+    private final byte[][] mToken = StubHttpServer.encodings(Responses.token());
+    private final ConcurrentHashMap<Integer, Long> mDelays = new ConcurrentHashMap<Integer, Long>();
+    private volatile long mLatencyMillis;
+    private volatile boolean mCompression = true;
+    private final AtomicInteger mRequests = new AtomicInteger();
+    /** リクエストを送ってきたクライアントのアドレスとポート。接続ごとにポートが異なる */
+    private final Set<String> mConnections =
+        Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final Set<String> mProtocols =
+        Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private volatile String mTokenRequestBody;
+    private volatile String mTokenContentType;
+    /** 停止時に、遅らせている応答の待機を終わらせる */
+    private final CountDownLatch mStopped = new CountDownLatch(1);
+
+    /** ループバックアドレスの空いているポートでサーバを生成する。 {@link #start()} で開始する。 */
+    public Http2StubServer() {
+        mServer = new Server(new QueuedThreadPool(64, 8));
+        HttpConfiguration config = new HttpConfiguration();
+        config.setSendServerVersion(false);
+        mConnector = new ServerConnector(mServer, new HttpConnectionFactory(config),
+                new HTTP2CServerConnectionFactory(config));
+        mConnector.setHost(InetAddress.getLoopbackAddress().getHostAddress());
+        mConnector.setPort(0);
+        mServer.addConnector(mConnector);
+        mServer.setHandler(new AbstractHandler() {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request,
+                    HttpServletResponse response) throws IOException {
+                baseRequest.setHandled(true);
+                mRequests.incrementAndGet();
+                mConnections.add(request.getRemoteAddr() + ":" + request.getRemotePort());
+                mProtocols.add(request.getProtocol());
+                if (target.startsWith(StubHttpServer.PEOPLE_PATH)) {
+                    Long delay = mDelays.get(getParam(request, "startIndex", 0));
+                    sleep(delay != null ? delay : mLatencyMillis);
+                    send(request, response, people(getParam(request, "count", 20)));
+                } else if (target.equals(StubHttpServer.TOKEN_PATH)
+                        && request.getMethod().equals("POST")) {
+                    mTokenContentType = request.getContentType();
+                    mTokenRequestBody = readBody(request);
+                    send(request, response, mToken);
+                } else {
+                    response.sendError(404);
+                }
+            }
+        });
+    }
+
+    public void start() throws Exception {
+        mServer.start();
+    }
+
+    public void stop() throws Exception {
+        mStopped.countDown();
+        mServer.stop();
+    }
+
+    /** サーバの待ち受けポートを返す。 {@link #start()} の後に呼ぶ。 */
+    public int getPort() {
+        return mConnector.getLocalPort();
+    }
+
+    /** この時間以上リクエストのない接続を、サーバから閉じる。
+     * HTTP/2 の接続には GOAWAY を送ってから閉じる。
+     */
+    public void setIdleTimeout(long millis) {
+        mConnector.setIdleTimeout(millis);
+    }
+
+    /** 友人一覧の応答を、指定した時間だけ遅らせて返す。ネットワークの往復時間の代わりに使用する。 */
+    public void setLatency(long millis) {
+        mLatencyMillis = millis;
+    }
+
+    /** startIndex を指定した友人一覧の応答だけを、 {@link #setLatency(long)} の代わりに指定した時間だけ遅らせる。 */
+    public void setFriendsDelay(int startIndex, long delayMillis) {
+        mDelays.put(startIndex, delayMillis);
+    }
+
+    /** false の場合は、 gzip を受け付けるリクエストにも圧縮しない本文を返す。 */
+    public void setCompression(boolean compression) {
+        mCompression = compression;
+    }
+
+    /** これまでに受け付けたリクエストの数を返す。 */
+    public int getRequestCount() {
+        return mRequests.get();
+    }
+
+    /** これまでにリクエストを受け付けた接続の数を返す。 */
+    public int getConnectionCount() {
+        return mConnections.size();
+    }
+
+    /** これまでに受け付けたリクエストのプロトコル ("HTTP/1.1", "HTTP/2.0") を返す。 */
+    public Set<String> getProtocols() {
+        return mProtocols;
+    }
+
+    /** 最後に受け付けたトークンのリクエストの本文を返す。 */
+    public String getTokenRequestBody() {
+        return mTokenRequestBody;
+    }
+
+    /** 最後に受け付けたトークンのリクエストの Content-Type を返す。 */
+    public String getTokenContentType() {
+        return mTokenContentType;
+    }
+
+    private byte[][] people(int count) {
+        byte[][] bodies = mPeople.get(count);
+        if (bodies == null) {
+            bodies = StubHttpServer.encodings(Responses.people(count));
+            mPeople.putIfAbsent(count, bodies);
+        }
+        return bodies;
+    }
+
+    private void send(HttpServletRequest request, HttpServletResponse response, byte[][] bodies)
+            throws IOException {
+        String acceptEncoding = request.getHeader("Accept-Encoding");
+        boolean gzip = mCompression && acceptEncoding != null && acceptEncoding.contains("gzip");
+        byte[] body = gzip ? bodies[1] : bodies[0];
+        response.setStatus(200);
+        response.setContentType(Responses.CONTENT_TYPE);
+        if (gzip) {
+            response.setHeader("Content-Encoding", "gzip");
+        }
+        response.setContentLength(body.length);
+        response.getOutputStream().write(body);
+    }
+
+    private static String readBody(HttpServletRequest request) throws IOException {
+        StringBuilder body = new StringBuilder();
+        char[] buffer = new char[1024];
+        int read;
+        while ((read = request.getReader().read(buffer)) != -1) {
+            body.append(buffer, 0, read);
+        }
+        return body.toString();
+    }
+
+    private static int getParam(HttpServletRequest request, String name, int defaultValue) {
+        String value = request.getParameter(name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    private void sleep(long millis) throws IOException {
+        if (millis > 0) {
+            try {
+                mStopped.await(millis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                throw new IOException("interrupted");
+            }
+        }
+    }
+}
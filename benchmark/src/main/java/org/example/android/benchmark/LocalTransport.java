@@ -0,0 +1,52 @@
+package org.example.android.benchmark;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.protocol.HttpContext;
+import org.example.android.network.HttpClientTransport;
+import org.example.android.network.HttpTransport;
+
+/** すべてのリクエストの送信先を {@link StubHttpServer} に置き換えて、
+ * アプリと同じ {@link HttpClientTransport} (または指定したトランスポート) で送信するトランスポート。
+ */
+public class LocalTransport implements HttpTransport {
+    private final HttpTransport mDelegate;
+    private final HttpHost mTarget;
+
+    public LocalTransport(int port) {
+        this(port, new HttpClientTransport());
+    }
+
+    /** 送信先を置き換えたリクエストを delegate で送信するトランスポートを生成する。 */
+    public LocalTransport(int port, HttpTransport delegate) {
+        mTarget = new HttpHost("127.0.0.1", port, "http");
+        mDelegate = delegate;
+    }
+
+    @Override
+    public HttpResponse execute(HttpUriRequest request, HttpContext context) throws IOException {
+        if (!(request instanceof HttpRequestBase))
+            throw new IllegalArgumentException("unsupported request: " + request);
+        URI uri = request.getURI();
+        if (!mTarget.getHostName().equals(uri.getHost())) {
+            try {
+                ((HttpRequestBase) request).setURI(URIUtils.rewriteURI(uri, mTarget));
+            } catch (URISyntaxException e) {
+                throw new IOException(e.toString());
+            }
+        }
+        return mDelegate.execute(request, context);
+    }
+
+    @Override
+    public void shutdown() {
+        mDelegate.shutdown();
+    }
+}
@@ -0,0 +1,78 @@
+package org.example.android.benchmark;
+
+import java.io.UnsupportedEncodingException;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHttpResponse;
+
+/** ベンチマークで使用する API レスポンスの本文を生成する。 */
+public final class Responses {
+    public static final String CONTENT_TYPE = "application/json; charset=UTF-8";
+
+    private Responses() {
+    }
+
+    /** People API の友人一覧のレスポンスを生成する。
+     * 友人ごとに、一覧の表示に使用しないフィールドと日本語の表示名を含める。
+     * @param count 友人の数
+     */
+    public static byte[] people(int count) {
+        return people(0, count, count * 4);
+    }
+
+    /** People API の友人一覧のうち、指定した範囲のレスポンスを生成する。
+     * 一覧の i 番目の友人の ID は u(1000000 + i) 、表示名は「ユーザー i」になる。
+     * @param startIndex 先頭の友人の位置
+     * @param count 友人の数
+     * @param totalResults 一覧全体の件数
+     */
+    public static byte[] people(int startIndex, int count, int totalResults) {
+        StringBuilder sb = new StringBuilder(count * 320 + 64);
+        sb.append("{\"entry\":[");
+        for (int i = startIndex; i < startIndex + count; i++) {
+            if (i > startIndex) {
+                sb.append(',');
+            }
+            sb.append("{\"id\":\"u").append(1000000 + i).append('"')
+              .append(",\"displayName\":\"ユーザー ").append(i).append('"')
+              .append(",\"profileUrl\":\"http://mixi.jp/show_friend.pl?uid=").append(1000000 + i).append('"')
+              .append(",\"thumbnailUrl\":\"http://profile.img.mixi.jp/photo/user/").append(i)
+              .append("_s.jpg\"")
+              .append(",\"gender\":\"").append(i % 2 == 0 ? "female" : "male").append('"')
+              .append(",\"addresses\":[{\"region\":\"東京都\",\"type\":\"location\"}]")
+              .append(",\"hasApp\":").append(i % 3 == 0)
+              .append('}');
+        }
+        sb.append("],\"itemsPerPage\":").append(count)
+          .append(",\"startIndex\":").append(startIndex)
+          .append(",\"totalResults\":").append(totalResults).append('}');
+        return utf8(sb.toString());
+    }
+
+    /** トークンエンドポイントのレスポンスを生成する。 */
+    public static byte[] token() {
+        return utf8("{\"refresh_token\":\"8e9f7a5e1f0b4c2d9a6b3c7d8e9f0a1b2c3d4e5f\","
+                + "\"expires_in\":900,"
+                + "\"access_token\":\"2c7e4b1a9d8f6e5c3b2a1f0e9d8c7b6a5f4e3d2c\","
+                + "\"scope\":\"r_profile\",\"token_type\":\"Bearer\"}");
+    }
+
+    /** 本文を持つ HttpResponse を生成する。本文は何度でも読み出せる。 */
+    public static HttpResponse response(int statusCode, byte[] body) {
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, statusCode, null);
+        ByteArrayEntity entity = new ByteArrayEntity(body);
+        entity.setContentType(CONTENT_TYPE);
+        response.setEntity(entity);
+        return response;
+    }
+
+    private static byte[] utf8(String s) {
+        try {
+            return s.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package org.example.android.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.example.android.api.PeopleApiClient;
+import org.example.android.api.PeopleApiResponse;
+import org.example.android.network.ApiRequestUtils;
+import org.example.android.network.RateLimiter;
+import org.example.android.oauth.OAuthClient;
+import org.example.android.oauth.OAuthToken;
+import org.example.android.oauth.OAuthTokenStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** {@link StubHttpServer} を相手に、アプリと同じ経路でリクエストからパースまでを行う速度。
+ * 接続はアプリと同じく {@link org.example.android.network.SharedHttpClient} のプールで再利用される。
+ * レート制限はサーバの速度を測る妨げになるため無効にする。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RoundTripBenchmark {
+    private static final String ACCOUNT = "benchmark@example.com";
+
+    private StubHttpServer mServer;
+    private PeopleApiClient mClient;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mServer = new StubHttpServer();
+        mServer.start();
+        ApiRequestUtils.setTransport(new LocalTransport(mServer.getPort()));
+        RateLimiter.setEnabled(false);
+        BenchmarkContext context = new BenchmarkContext();
+        OAuthTokenStore.getInstance(context, ACCOUNT).setToken(new OAuthToken(
+                "2c7e4b1a9d8f6e5c3b2a1f0e9d8c7b6a5f4e3d2c", "8e9f7a5e1f0b4c2d9a6b3c7d8e9f0a1b2c3d4e5f",
+                System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1)));
+        mClient = new PeopleApiClient(context, ACCOUNT);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        ApiRequestUtils.getTransport().shutdown();
+        ApiRequestUtils.setTransport(null);
+        RateLimiter.setEnabled(true);
+        mServer.stop();
+    }
+
+    /** Access Token 付きの GET で友人一覧を取得する。 */
+    @Benchmark
+    public PeopleApiResponse getFriends(Page page) throws IOException {
+        return mClient.getFriends(0, page.pageSize);
+    }
+
+    /** POST でトークンをリフレッシュする。 */
+    @Benchmark
+    public OAuthToken refreshToken() throws IOException {
+        return OAuthClient.refreshToken("8e9f7a5e1f0b4c2d9a6b3c7d8e9f0a1b2c3d4e5f");
+    }
+
+    /** {@link #getFriends(Page)} で取得するページの大きさ */
+    @State(Scope.Benchmark)
+    public static class Page {
+        /** 1 ページの友人の数 */
+        @Param({ "20", "200" })
+        public int pageSize;
+    }
+}
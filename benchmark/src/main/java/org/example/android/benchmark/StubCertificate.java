@@ -0,0 +1,84 @@
+package org.example.android.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+
+/** HTTPS の {@link StubHttpServer} が使用する、 127.0.0.1 の自己署名証明書。
+ * 証明書は stub-server.p12 に保存してあり、次のコマンドで生成したもの:
+ * <pre>
+ * keytool -genkeypair -alias stub -keyalg RSA -keysize 2048 -validity 36500 \
+ *     -dname "CN=127.0.0.1" -ext SAN=ip:127.0.0.1 -keystore stub-server.p12 \
+ *     -storetype PKCS12 -storepass benchmark -keypass benchmark
+ * </pre>
+ */
+public final class StubCertificate {
+    private static final String RESOURCE = "/stub-server.p12";
+    private static final char[] PASSWORD = "benchmark".toCharArray();
+
+    private StubCertificate() {
+    }
+
+    /** 証明書と秘密鍵を含む KeyStore を返す。クライアントの信頼する証明書としても使用できる。 */
+    public static KeyStore load() throws IOException {
+        InputStream in = StubCertificate.class.getResourceAsStream(RESOURCE);
+        if (in == null)
+            throw new IOException(RESOURCE + " not found");
+        try {
+            KeyStore keyStore = KeyStore.getInstance("PKCS12");
+            keyStore.load(in, PASSWORD);
+            return keyStore;
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e.toString());
+        } finally {
+            in.close();
+        }
+    }
+
+    /** サーバ用の SSLContext を生成する。 */
+    public static SSLContext createServerContext() throws IOException {
+        try {
+            KeyManagerFactory keyManagers =
+                KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            keyManagers.init(load(), PASSWORD);
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(keyManagers.getKeyManagers(), null, null);
+            return context;
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e.toString());
+        }
+    }
+
+    /** JVM のデフォルトの SSLContext が、この証明書だけを信頼するようにする。
+     * デフォルトの SSLContext は最初に使われた時に初期化されるため、 HTTPS で通信する前に呼び出すこと。
+     */
+    public static synchronized void trustByDefault() throws IOException {
+        if (System.getProperty("javax.net.ssl.trustStore") != null) {
+            return;
+        }
+        File file = File.createTempFile("stub-server", ".p12");
+        file.deleteOnExit();
+        InputStream in = StubCertificate.class.getResourceAsStream(RESOURCE);
+        OutputStream out = new FileOutputStream(file);
+        try {
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+        } finally {
+            out.close();
+            in.close();
+        }
+        System.setProperty("javax.net.ssl.trustStore", file.getPath());
+        System.setProperty("javax.net.ssl.trustStorePassword", new String(PASSWORD));
+        System.setProperty("javax.net.ssl.trustStoreType", "PKCS12");
+    }
+}
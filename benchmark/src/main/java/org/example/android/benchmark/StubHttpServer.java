@@ -0,0 +1,472 @@
+package org.example.android.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/** People API とトークンエンドポイントの代わりに、同じプロセス内で決まったレスポンスを返す HTTP サーバ。
+ * リクエストが gzip を受け付ける場合は、圧縮した本文を返す。
+ * <p>
+ * 友人一覧は通常 startIndex に関係なく count 件の決まった本文を返す。
+ * {@link #setFriends(int, int)} を呼ぶと、実際のサーバと同じく startIndex からの範囲を、
+ * サーバ側の上限件数までに制限して返す。
+ * {@link #setCacheControl(String)} を呼ぶと、友人一覧に ETag を付け、
+ * If-None-Match が一致するリクエストには本文なしの 304 Not Modified を返す。
+ * 障害を再現するため、友人一覧のリクエストに指定したエラーを返すこともできる。
+ * {@link #setQuota(int, long)} を呼ぶと、友人一覧に一定時間ごとのリクエスト数の上限を設け、
+ * 残りの回数を X-RateLimit-Remaining と X-RateLimit-Reset で知らせ、超えたリクエストには 429 を返す。
+ * {@link #BATCH_PATH} は {@link org.example.android.network.BatchRequest} の形式のバッチを受け付け、
+ * 含まれる友人一覧のリクエストに、個別に送られた場合と同じ本文を返す。
+ */
+public class StubHttpServer {
+    public static final String PEOPLE_PATH = "/2/people/";
+    public static final String TOKEN_PATH = "/2/token";
+    public static final String BATCH_PATH = "/2/batch";
+
+    static {
+        // ヘッダと本文を別に書き込むため、 Nagle アルゴリズムで応答が遅れないようにする
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final HttpServer mServer;
+    private final ExecutorService mExecutor;
+    private final ConcurrentHashMap<Integer, byte[][]> mPeople =
+        new ConcurrentHashMap<Integer, byte[][]>();
+    private final byte[][] mToken;
+    /** 一覧全体の件数。 {@link #setFriends(int, int)} を呼ぶまでは -1 */
+    private volatile int mTotalFriends = -1;
+    private volatile int mMaxCount;
+    private final ConcurrentHashMap<Integer, Long> mDelays = new ConcurrentHashMap<Integer, Long>();
+    private volatile long mTokenDelayMillis;
+    private final AtomicInteger mTokenRequests = new AtomicInteger();
+    /** リクエストを送ってきたクライアントのアドレス。接続ごとにポートが異なる */
+    private final Set<InetSocketAddress> mConnections =
+        Collections.newSetFromMap(new ConcurrentHashMap<InetSocketAddress, Boolean>());
+    /** 友人一覧に付ける Cache-Control。 null の場合は ETag も付けない */
+    private volatile String mCacheControl;
+    /** ETag に含める友人一覧の版 */
+    private volatile int mRevision;
+    private final AtomicLong mBytesServed = new AtomicLong();
+    private final AtomicInteger mNotModified = new AtomicInteger();
+    /** 次の友人一覧のリクエストから順に返すエラー */
+    private final ConcurrentLinkedQueue<Failure> mFailures = new ConcurrentLinkedQueue<Failure>();
+    /** 友人一覧のリクエストに返し続けるエラーのステータスコード。返さない場合は 0 */
+    private volatile int mFailingStatus;
+    private final AtomicInteger mFriendsRequests = new AtomicInteger();
+    /** 1 つの期間に受け付ける友人一覧のリクエスト数。制限しない場合は 0 */
+    private int mQuota;
+    private long mQuotaWindowMillis;
+    /** 現在の期間の終わりの時刻。最初のリクエストで期間を始める */
+    private long mWindowEnd;
+    private int mWindowRequests;
+    private final AtomicInteger mTooManyRequests = new AtomicInteger();
+    /** 友人一覧とバッチの応答を遅らせる時間。ネットワークの往復時間の代わり */
+    private volatile long mLatencyMillis;
+    private final AtomicInteger mBatchRequests = new AtomicInteger();
+
+    /** ループバックアドレスの空いているポートで HTTP サーバを生成する。 {@link #start()} で開始する。 */
+    public StubHttpServer() throws IOException {
+        this(false);
+    }
+
+    /** ループバックアドレスの空いているポートでサーバを生成する。 {@link #start()} で開始する。
+     * @param https true の場合は {@link StubCertificate} の証明書を使う HTTPS サーバにする
+     */
+    public StubHttpServer(boolean https) throws IOException {
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        if (https) {
+            HttpsServer server = HttpsServer.create(address, 64);
+            server.setHttpsConfigurator(new HttpsConfigurator(StubCertificate.createServerContext()));
+            mServer = server;
+        } else {
+            mServer = HttpServer.create(address, 64);
+        }
+        mExecutor = Executors.newFixedThreadPool(4);
+        mServer.setExecutor(mExecutor);
+        mToken = encodings(Responses.token());
+        mServer.createContext(PEOPLE_PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                mFriendsRequests.incrementAndGet();
+                Failure failure = mFailures.poll();
+                if (failure == null && mFailingStatus != 0) {
+                    failure = new Failure(mFailingStatus, null);
+                }
+                if (failure == null) {
+                    failure = checkQuota(exchange);
+                }
+                if (failure != null) {
+                    sendFailure(exchange, failure);
+                    return;
+                }
+                String query = exchange.getRequestURI().getRawQuery();
+                delay(getParam(query, "startIndex", 0));
+                sleep(mLatencyMillis);
+                byte[][] bodies = friends(query);
+                if (!sendNotModified(exchange, bodies[0])) {
+                    send(exchange, bodies);
+                }
+            }
+        });
+        mServer.createContext(TOKEN_PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                // 本文は読み捨てる
+                byte[] buffer = new byte[1024];
+                while (exchange.getRequestBody().read(buffer) != -1) {
+                }
+                mTokenRequests.incrementAndGet();
+                sleep(mTokenDelayMillis);
+                send(exchange, mToken);
+            }
+        });
+        mServer.createContext(BATCH_PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                mBatchRequests.incrementAndGet();
+                sleep(mLatencyMillis);
+                byte[] body;
+                try {
+                    body = batch(new JSONArray(readBody(exchange.getRequestBody())));
+                } catch (JSONException e) {
+                    sendFailure(exchange, new Failure(400, null));
+                    return;
+                }
+                send(exchange, encodings(body));
+            }
+        });
+    }
+
+    public void start() {
+        mServer.start();
+    }
+
+    public void stop() {
+        mServer.stop(0);
+        mExecutor.shutdownNow();
+    }
+
+    /** 友人一覧を startIndex からの範囲で返すようにする。
+     * @param totalResults 一覧全体の件数
+     * @param maxCount 1 回のリクエストで返す最大の件数。 count がこれより大きい場合は切り詰める
+     */
+    public void setFriends(int totalResults, int maxCount) {
+        mMaxCount = maxCount;
+        mTotalFriends = totalResults;
+    }
+
+    /** 指定した startIndex の友人一覧のリクエストに、応答を遅らせて返す。
+     * 複数のページの応答が届く順番を決めるために使用する。
+     */
+    public void setFriendsDelay(int startIndex, long delayMillis) {
+        mDelays.put(startIndex, delayMillis);
+    }
+
+    /** トークンエンドポイントの応答を、指定した時間だけ遅らせて返す。 */
+    public void setTokenDelay(long delayMillis) {
+        mTokenDelayMillis = delayMillis;
+    }
+
+    /** トークンエンドポイントが受け付けたリクエストの数を返す。 */
+    public int getTokenRequestCount() {
+        return mTokenRequests.get();
+    }
+
+    /** 次の友人一覧のリクエストに、 1 回だけエラーを返す。
+     * 複数回呼び出した場合は、呼び出した順に 1 つずつ返す。
+     * @param statusCode ステータスコード
+     * @param retryAfter Retry-After ヘッダの値。付けない場合は null
+     */
+    public void addFriendsFailure(int statusCode, String retryAfter) {
+        mFailures.add(new Failure(statusCode, retryAfter));
+    }
+
+    /** 友人一覧のリクエストに、指定したエラーを返し続ける。
+     * @param statusCode ステータスコード。 0 の場合は通常の応答に戻す
+     */
+    public void setFriendsFailing(int statusCode) {
+        mFailingStatus = statusCode;
+    }
+
+    /** 友人一覧が受け付けたリクエストの数 (エラーを返したものを含む) を返す。 */
+    public int getFriendsRequestCount() {
+        return mFriendsRequests.get();
+    }
+
+    /** 友人一覧のリクエスト数を、期間ごとに制限する。
+     * @param requests 1 つの期間に受け付けるリクエスト数
+     * @param windowMillis 期間の長さ。 X-RateLimit-Reset は秒単位に切り上げて返す
+     */
+    public synchronized void setQuota(int requests, long windowMillis) {
+        mQuota = requests;
+        mQuotaWindowMillis = windowMillis;
+        mWindowEnd = 0;
+    }
+
+    /** 上限を超えたため 429 を返したリクエストの数を返す。 */
+    public int getTooManyRequestsCount() {
+        return mTooManyRequests.get();
+    }
+
+    /** 友人一覧に ETag と指定した Cache-Control を付けて返すようにする。
+     * @param cacheControl Cache-Control ヘッダの値 (例えば "no-cache" や "max-age=60")。
+     *     null の場合は ETag も付けない
+     */
+    public void setCacheControl(String cacheControl) {
+        mCacheControl = cacheControl;
+    }
+
+    /** 友人一覧が更新されたものとして ETag を変える。本文は変わらない。 */
+    public void changeFriends() {
+        mRevision++;
+    }
+
+    /** これまでに送信したレスポンスの本文のバイト数 (圧縮した場合は圧縮後) を返す。 */
+    public long getBytesServed() {
+        return mBytesServed.get();
+    }
+
+    /** 友人一覧とバッチの応答を、指定した時間だけ遅らせて返す。
+     * 携帯回線の往復時間を再現するために使用する。
+     */
+    public void setLatency(long millis) {
+        mLatencyMillis = millis;
+    }
+
+    /** バッチのエンドポイントが受け付けたリクエストの数を返す。
+     * バッチに含まれた友人一覧のリクエストは {@link #getFriendsRequestCount()} に数えない。
+     */
+    public int getBatchRequestCount() {
+        return mBatchRequests.get();
+    }
+
+    /** これまでに 304 Not Modified を返した数を返す。 */
+    public int getNotModifiedCount() {
+        return mNotModified.get();
+    }
+
+    /** これまでにリクエストを受け付けた接続の数を返す。
+     * クライアントが接続を再利用していれば、リクエストの数よりも少なくなる。
+     */
+    public int getConnectionCount() {
+        return mConnections.size();
+    }
+
+    /** サーバの待ち受けポートを返す。 */
+    public int getPort() {
+        return mServer.getAddress().getPort();
+    }
+
+    private byte[][] people(int count) {
+        byte[][] bodies = mPeople.get(count);
+        if (bodies == null) {
+            bodies = encodings(Responses.people(count));
+            mPeople.putIfAbsent(count, bodies);
+        }
+        return bodies;
+    }
+
+    /** 友人一覧のクエリに対する、圧縮しない本文と gzip で圧縮した本文を返す。 */
+    private byte[][] friends(String query) {
+        int startIndex = getParam(query, "startIndex", 0);
+        int count = getParam(query, "count", 20);
+        int total = mTotalFriends;
+        if (total < 0) {
+            return people(count);
+        }
+        count = Math.max(0, Math.min(Math.min(count, mMaxCount), total - startIndex));
+        return encodings(Responses.people(startIndex, count, total));
+    }
+
+    /** バッチに含まれるリクエストを順に処理し、レスポンスの JSON 配列を返す。
+     * 友人一覧以外のリクエストには 404 を返す。
+     */
+    private byte[] batch(JSONArray requests) throws JSONException, IOException {
+        JSONArray responses = new JSONArray();
+        for (int i = 0; i < requests.length(); i++) {
+            String url = requests.getJSONObject(i).getString("relative_url");
+            int separator = url.indexOf('?');
+            String path = separator < 0 ? url : url.substring(0, separator);
+            String query = separator < 0 ? null : url.substring(separator + 1);
+            JSONObject response = new JSONObject();
+            JSONArray headers = new JSONArray();
+            headers.put(new JSONObject().put("name", "Content-Type")
+                    .put("value", Responses.CONTENT_TYPE));
+            if (path.startsWith(PEOPLE_PATH)) {
+                response.put("code", 200);
+                response.put("body", new String(friends(query)[0], "UTF-8"));
+            } else {
+                response.put("code", 404);
+                response.put("body", "{\"error\":404}");
+            }
+            response.put("headers", headers);
+            responses.put(response);
+        }
+        return responses.toString().getBytes("UTF-8");
+    }
+
+    private static String readBody(InputStream in) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            body.write(buffer, 0, read);
+        }
+        return body.toString("UTF-8");
+    }
+
+    private void send(HttpExchange exchange, byte[][] bodies) throws IOException {
+        mConnections.add(exchange.getRemoteAddress());
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+        byte[] body = gzip ? bodies[1] : bodies[0];
+        mBytesServed.addAndGet(body.length);
+        exchange.getResponseHeaders().set("Content-Type", Responses.CONTENT_TYPE);
+        if (gzip) {
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+        exchange.sendResponseHeaders(200, body.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.close();
+    }
+
+    /** Cache-Control が設定されていれば ETag を付け、 If-None-Match が一致する場合は 304 を返す。
+     * @return 304 を返した場合 true
+     */
+    private boolean sendNotModified(HttpExchange exchange, byte[] body) throws IOException {
+        String cacheControl = mCacheControl;
+        if (cacheControl == null) {
+            return false;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        // gzip で圧縮した本文にも同じ値を使うため、弱い ETag にする
+        String etag = "W/\"" + mRevision + "-" + Long.toHexString(crc.getValue()) + "\"";
+        exchange.getResponseHeaders().set("ETag", etag);
+        exchange.getResponseHeaders().set("Cache-Control", cacheControl);
+        if (!etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            return false;
+        }
+        mConnections.add(exchange.getRemoteAddress());
+        mNotModified.incrementAndGet();
+        exchange.sendResponseHeaders(304, -1);
+        exchange.close();
+        return true;
+    }
+
+    /** 上限が設定されていれば残りの回数をヘッダに付け、超えている場合は返すエラーを返す。 */
+    private synchronized Failure checkQuota(HttpExchange exchange) {
+        if (mQuota == 0) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        if (now >= mWindowEnd) {
+            mWindowEnd = now + mQuotaWindowMillis;
+            mWindowRequests = 0;
+        }
+        String reset = String.valueOf((mWindowEnd - now + 999) / 1000);
+        boolean exceeded = mWindowRequests >= mQuota;
+        if (!exceeded) {
+            mWindowRequests++;
+        }
+        exchange.getResponseHeaders().set("X-RateLimit-Remaining",
+                String.valueOf(mQuota - mWindowRequests));
+        exchange.getResponseHeaders().set("X-RateLimit-Reset", reset);
+        if (!exceeded) {
+            return null;
+        }
+        mTooManyRequests.incrementAndGet();
+        return new Failure(429, reset);
+    }
+
+    private void sendFailure(HttpExchange exchange, Failure failure) throws IOException {
+        mConnections.add(exchange.getRemoteAddress());
+        if (failure.retryAfter != null) {
+            exchange.getResponseHeaders().set("Retry-After", failure.retryAfter);
+        }
+        byte[] body = ("{\"error\":" + failure.statusCode + "}").getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", Responses.CONTENT_TYPE);
+        exchange.sendResponseHeaders(failure.statusCode, body.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.close();
+    }
+
+    private void delay(int startIndex) throws IOException {
+        Long delay = mDelays.get(startIndex);
+        if (delay != null) {
+            sleep(delay);
+        }
+    }
+
+    private static void sleep(long millis) throws IOException {
+        if (millis > 0) {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                throw new IOException("interrupted");
+            }
+        }
+    }
+
+    /** パラメータの値を返す。指定がない場合は defaultValue */
+    private static int getParam(String query, String name, int defaultValue) {
+        if (query != null) {
+            String prefix = name + "=";
+            for (String param : query.split("&")) {
+                if (param.startsWith(prefix)) {
+                    return Integer.parseInt(param.substring(prefix.length()));
+                }
+            }
+        }
+        return defaultValue;
+    }
+
+    /** 圧縮しない本文と gzip で圧縮した本文を返す。 */
+    /*package*/ static byte[][] encodings(byte[] body) {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 4 + 64);
+        try {
+            GZIPOutputStream out = new GZIPOutputStream(compressed);
+            out.write(body);
+            out.close();
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return new byte[][] { body, compressed.toByteArray() };
+    }
+
+    /** 友人一覧のリクエストに返すエラー */
+    private static class Failure {
+        final int statusCode;
+        final String retryAfter;
+
+        Failure(int statusCode, String retryAfter) {
+            this.statusCode = statusCode;
+            this.retryAfter = retryAfter;
+        }
+    }
+}
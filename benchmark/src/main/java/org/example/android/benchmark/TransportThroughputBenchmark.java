@@ -0,0 +1,109 @@
+package org.example.android.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.example.android.api.PeopleApiClient;
+import org.example.android.api.PeopleApiResponse;
+import org.example.android.network.ApiRequestUtils;
+import org.example.android.network.Http2Transport;
+import org.example.android.network.HttpClientTransport;
+import org.example.android.network.HttpTransport;
+import org.example.android.network.RateLimiter;
+import org.example.android.oauth.OAuthToken;
+import org.example.android.oauth.OAuthTokenStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** 同時に 1, 8, 32 件のリクエストを送る場合の、 HTTP/1.1 ({@link HttpClientTransport}) と
+ * h2c ({@link Http2Transport}) の 1 秒あたりの友人一覧の取得数。
+ * どちらも同じ {@link Http2StubServer} を相手に、アプリと同じ経路で送信からパースまでを行う。
+ * HTTP/1.1 はホストごとに 4 接続までしか使わないため、それより多い同時のリクエストは接続を待つ。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+public class TransportThroughputBenchmark {
+    private static final String ACCOUNT = "throughput@example.com";
+
+    /** "http/1.1" は HttpClientTransport、 "h2c" は Http2Transport */
+    @Param({ "http/1.1", "h2c" })
+    public String transport;
+
+    /** サーバの応答の遅れ (ミリ秒) */
+    @Param({ "0", "20" })
+    public long latency;
+
+    private Http2StubServer mServer;
+    private PeopleApiClient mClient;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        mServer = new Http2StubServer();
+        mServer.setLatency(latency);
+        mServer.start();
+        HttpTransport delegate = transport.equals("h2c")
+                ? new Http2Transport() : new HttpClientTransport();
+        ApiRequestUtils.setTransport(new LocalTransport(mServer.getPort(), delegate));
+        RateLimiter.setEnabled(false);
+        BenchmarkContext context = new BenchmarkContext();
+        OAuthTokenStore.getInstance(context, ACCOUNT).setToken(new OAuthToken("access", "refresh",
+                System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1)));
+        mClient = new PeopleApiClient(context, ACCOUNT);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        ApiRequestUtils.getTransport().shutdown();
+        ApiRequestUtils.setTransport(null);
+        RateLimiter.setEnabled(true);
+        mServer.stop();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public PeopleApiResponse concurrency1(Cursor cursor) throws IOException {
+        return mClient.getFriends(cursor.next(), 20);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public PeopleApiResponse concurrency8(Cursor cursor) throws IOException {
+        return mClient.getFriends(cursor.next(), 20);
+    }
+
+    @Benchmark
+    @Threads(32)
+    public PeopleApiResponse concurrency32(Cursor cursor) throws IOException {
+        return mClient.getFriends(cursor.next(), 20);
+    }
+
+    /** スレッドごとに異なる startIndex を返す。
+     * 同じ URL への同時の GET は 1 回のリクエストにまとめられるため、 URL が重ならないようにする。
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        private static final AtomicInteger sThreads = new AtomicInteger();
+        private int mNext = sThreads.getAndIncrement() * 1000000;
+
+        int next() {
+            return mNext++;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package org.example.android.network;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.impl.client.BasicResponseHandler;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+import org.example.android.benchmark.StubCertificate;
+import org.example.android.benchmark.StubHttpServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** 共有の {@link SharedHttpClient} と、リクエストごとに生成して閉じる HttpClient
+ * (共有する前の AndroidHttpClient の使い方) の 1 リクエストあたりの時間。
+ * 本文の大きさの影響を除くため、 1 人分の友人一覧を取得する。
+ * リクエストごとの HttpClient は、 AndroidHttpClient と同じく TLS セッションを保存しないため、
+ * 新しい SSLContext で毎回完全なハンドシェイクを行う。
+ * ループバックなので、実際のネットワークの往復時間は含まない。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClientReuseBenchmark {
+    private static final String PATH = StubHttpServer.PEOPLE_PATH + "@me/@friends?count=1";
+
+    @Param({ "http", "https" })
+    public String scheme;
+
+    private StubHttpServer mServer;
+    private KeyStore mTrustStore;
+    private String mUrl;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        // 共有の HttpClient は JVM のデフォルトの SSLContext を使うため、先に証明書を信頼させる
+        StubCertificate.trustByDefault();
+        mTrustStore = StubCertificate.load();
+        mServer = new StubHttpServer("https".equals(scheme));
+        mServer.start();
+        mUrl = scheme + "://127.0.0.1:" + mServer.getPort() + PATH;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        SharedHttpClient.shutdown();
+        mServer.stop();
+    }
+
+    /** プールの接続を再利用する共有の HttpClient で取得する。 */
+    @Benchmark
+    public String sharedClient() throws IOException {
+        return SharedHttpClient.getInstance().execute(new HttpGet(mUrl), new BasicResponseHandler());
+    }
+
+    /** リクエストごとに HttpClient を生成し、取得した後で閉じる。 */
+    @Benchmark
+    public String perCallClient() throws IOException, GeneralSecurityException {
+        HttpParams params = new BasicHttpParams();
+        HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
+        HttpProtocolParams.setUserAgent(params, ApiRequestUtils.USER_AGENT);
+        SchemeRegistry registry = new SchemeRegistry();
+        registry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+        // 新しい SSLContext を生成するため、前のリクエストの TLS セッションは使われない
+        registry.register(new Scheme("https", new SSLSocketFactory(mTrustStore), 443));
+        DefaultHttpClient client =
+            new DefaultHttpClient(new ThreadSafeClientConnManager(params, registry), params);
+        // 接続の再利用だけを比べるため、共有の HttpClient と同じく圧縮されたレスポンスを受け取る
+        ContentEncodingInterceptor contentEncoding = new ContentEncodingInterceptor();
+        client.addRequestInterceptor(contentEncoding);
+        client.addResponseInterceptor(contentEncoding);
+        try {
+            return client.execute(new HttpGet(mUrl), new BasicResponseHandler());
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package org.example.android.network;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.NameValuePair;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.message.BasicNameValuePair;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** doGetRequest / doPostRequest が送信前に行うリクエストの組み立ての速度。
+ * GET は {@link RequestTemplate} を使用した場合とも比べる。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestConstructionBenchmark {
+    private static final String PEOPLE_URL = "http://api.mixi-platform.com/2/people/@me/@friends";
+    private static final String TOKEN_URL = "https://secure.mixi-platform.com/2/token";
+
+    private List<NameValuePair> mQuery;
+    private List<NameValuePair> mTokenBody;
+    private RequestTemplate mTemplate;
+    private int mStartIndex;
+
+    @Setup
+    public void setUp() {
+        mQuery = new ArrayList<NameValuePair>();
+        mQuery.add(new BasicNameValuePair("fields", "displayName,profileUrl"));
+        mQuery.add(new BasicNameValuePair("startIndex", "40"));
+        mQuery.add(new BasicNameValuePair("count", "20"));
+        mTokenBody = new ArrayList<NameValuePair>();
+        mTokenBody.add(new BasicNameValuePair("grant_type", "refresh_token"));
+        mTokenBody.add(new BasicNameValuePair("client_id", "0123456789abcdef0123"));
+        mTokenBody.add(new BasicNameValuePair("client_secret", "fedcba9876543210fedcba9876543210fedcba98"));
+        mTokenBody.add(new BasicNameValuePair("refresh_token", "8e9f7a5e1f0b4c2d9a6b3c7d8e9f0a1b2c3d4e5f"));
+        List<NameValuePair> fixed = new ArrayList<NameValuePair>();
+        fixed.add(new BasicNameValuePair("fields", "displayName,profileUrl"));
+        mTemplate = new RequestTemplate(PEOPLE_URL, fixed, "startIndex", "count");
+    }
+
+    /** クエリのリストから GET リクエストを組み立てる。 */
+    @Benchmark
+    public HttpGet createGetRequest() {
+        return ApiRequestUtils.createGetRequest(PEOPLE_URL, mQuery);
+    }
+
+    /** {@link RequestTemplate} から GET リクエストを組み立てる。 */
+    @Benchmark
+    public HttpGet templateGetRequest() {
+        mStartIndex += 20;
+        return mTemplate.newGet(mStartIndex, 20);
+    }
+
+    /** フォームの本文を持つ POST リクエストを組み立てる。 */
+    @Benchmark
+    public HttpPost createPostRequest() throws UnsupportedEncodingException {
+        return ApiRequestUtils.createPostRequest(TOKEN_URL, mTokenBody);
+    }
+}
@@ -0,0 +1,74 @@
+package org.example.android.oauth;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.util.EntityUtils;
+import org.example.android.benchmark.Responses;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** トークンのレスポンスのパースと、 WWW-Authenticate ヘッダからのエラーの取り出しの速度。
+ * toStringTokenResponse は比較のため、ストリームで読む前と同じく EntityUtils.toString と
+ * JSONObject でパースする。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OAuthClientBenchmark {
+    private HttpResponse mTokenResponse;
+    private HttpResponse mExpiredResponse;
+    private HttpResponse mNoErrorResponse;
+
+    @Setup
+    public void setUp() {
+        mTokenResponse = Responses.response(200, Responses.token());
+        mExpiredResponse = new BasicHttpResponse(HttpVersion.HTTP_1_1, 401, "Unauthorized");
+        mExpiredResponse.addHeader("WWW-Authenticate",
+                "OAuth realm=\"api.mixi-platform.com\", OAuth error='expired_token'");
+        mNoErrorResponse = new BasicHttpResponse(HttpVersion.HTTP_1_1, 401, "Unauthorized");
+        mNoErrorResponse.addHeader("WWW-Authenticate", "OAuth realm=\"api.mixi-platform.com\"");
+    }
+
+    /** {@link OAuthClient.TokenReponseHandler} でトークンのレスポンスをパースする。 */
+    @Benchmark
+    public OAuthToken parseTokenResponse() throws IOException {
+        return new OAuthClient.TokenReponseHandler().handleResponse(mTokenResponse);
+    }
+
+    /** 本文全体を文字列にしてから JSONObject でトークンをパースする。 */
+    @Benchmark
+    public OAuthToken toStringTokenResponse() throws IOException, JSONException {
+        JSONObject json = new JSONObject(EntityUtils.toString(mTokenResponse.getEntity(), "UTF-8"));
+        return new OAuthToken(json.getString("access_token"), json.getString("refresh_token"),
+                System.currentTimeMillis() + json.getLong("expires_in") * 1000);
+    }
+
+    /** 期限切れを示すヘッダからエラーを取り出す。 */
+    @Benchmark
+    public String getOAuthErrorExpired() {
+        return OAuthClient.getOAuthError(mExpiredResponse);
+    }
+
+    /** エラーを含まないヘッダを調べる。 */
+    @Benchmark
+    public String getOAuthErrorAbsent() {
+        return OAuthClient.getOAuthError(mNoErrorResponse);
+    }
+}
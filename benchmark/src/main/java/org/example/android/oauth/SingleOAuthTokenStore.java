@@ -0,0 +1,140 @@
+package org.example.android.oauth;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+/** アカウントごとにストアを分ける前の {@link OAuthTokenStore} の写し。
+ * {@link TokenStoreScalingBenchmark} で変更前と比較するために使用する。
+ * 1 つのインスタンスと 1 つのロック、 1 つの書き込みスレッドをすべての呼び出しで共有する。
+ * 元のコードからの変更点は次の 3 つだけ:
+ * トークンが変更できない {@link OAuthToken} になったため、変更する代わりに生成し直す。
+ * ベンチマークごとに Context を変えるため、 getInstance() の代わりにコンストラクタを使う。
+ * 書き込みスレッドを止める {@link #shutdown()} を加えた。
+ */
+public class SingleOAuthTokenStore {
+    private static final String TAG = "SingleOAuthTokenStore";
+
+    private final Context mApplicationContext;
+    private final ExecutorService mWriter;
+    private OAuthToken mToken;
+    private boolean mWritePending;
+    private boolean mClearPending;
+
+    private final Runnable mWriteTask = new Runnable() {
+        @Override
+        public void run() {
+            writeToSharedPreferences();
+        }
+    };
+
+    public SingleOAuthTokenStore(Context context) {
+        mApplicationContext = context.getApplicationContext();
+        mWriter = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, TAG);
+            }
+        });
+    }
+    public synchronized OAuthToken getToken() {
+        ensureLoaded();
+        return mToken;
+    }
+    public synchronized boolean hasToken() {
+        ensureLoaded();
+        return mToken.accessToken != null;
+    }
+    public synchronized void setToken(OAuthToken token) {
+        if (token == null)
+            throw new NullPointerException("token must not be null");
+        mToken = token;
+        saveToken();
+    }
+    public synchronized void setToken(String accessToken, String refreshToken, long expiresIn) {
+        if (accessToken == null || refreshToken == null)
+            throw new NullPointerException("token must not be null");
+        ensureLoaded();
+        mToken = new OAuthToken(accessToken, refreshToken,
+                System.currentTimeMillis() + expiresIn * 1000);
+        saveToken();
+    }
+    public synchronized void clearToken() {
+        mToken = OAuthToken.EMPTY;
+        mClearPending = true;
+        saveToken();
+    }
+    /**
+     * Blocks until every change made so far has been written to
+     * SharedPreferences. Do not call this from the UI thread.
+     */
+    public void flush() {
+        try {
+            mWriter.submit(new Runnable() {
+                @Override
+                public void run() {
+                    // the writer is single-threaded, so every earlier write has finished
+                }
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Log.w(TAG, "failed to flush token", e);
+        }
+    }
+    /** 書き込みスレッドを止める。 */
+    public void shutdown() {
+        mWriter.shutdown();
+    }
+    private void ensureLoaded() {
+        if (mToken == null) {
+            mToken = readTokenFromSharedPreferences();
+        }
+    }
+    private OAuthToken readTokenFromSharedPreferences() {
+        SharedPreferences pref = getPreferences();
+        return new OAuthToken(pref.getString("accessToken", null),
+                pref.getString("refreshToken", null),
+                pref.getLong("expiredOn", 0));
+    }
+    /** Schedules a write unless one is already waiting to run. */
+    private void saveToken() {
+        if (!mWritePending) {
+            mWritePending = true;
+            mWriter.execute(mWriteTask);
+        }
+    }
+    private void writeToSharedPreferences() {
+        String accessToken;
+        String refreshToken;
+        long expiresOn;
+        boolean clear;
+        synchronized (this) {
+            mWritePending = false;
+            clear = mClearPending;
+            mClearPending = false;
+            accessToken = mToken.accessToken;
+            refreshToken = mToken.refreshToken;
+            expiresOn = mToken.expiresOn;
+        }
+        SharedPreferences.Editor editor = getPreferences().edit();
+        if (clear) {
+            editor.clear();
+        }
+        if (accessToken != null) {
+            editor.putString("accessToken", accessToken);
+            editor.putString("refreshToken", refreshToken);
+            editor.putLong("expiredOn", expiresOn);
+        }
+        editor.commit();
+    }
+    private SharedPreferences getPreferences() {
+        return PreferenceManager.getDefaultSharedPreferences(mApplicationContext);
+    }
+}
@@ -0,0 +1,174 @@
+package org.example.android.oauth;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.example.android.benchmark.BenchmarkContext;
+import org.example.android.benchmark.LocalTransport;
+import org.example.android.benchmark.StubHttpServer;
+import org.example.android.network.ApiRequestUtils;
+import org.example.android.network.RateLimiter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+/** 複数のアカウントのトークンを 8 スレッドから同時に扱った時の、 {@link OAuthTokenStore} の処理数。
+ * 各スレッドはアカウントを順に切り替えながら、実際のストアの操作を行う。
+ * 比較対象の single* は、アカウントごとにストアを分ける前の {@link SingleOAuthTokenStore} を
+ * すべてのスレッドで共有する (変更前は、どのアカウントもこの 1 つのストアを通っていた)。
+ * <p>
+ * SharedPreferences は {@link BenchmarkContext} で、ファイルの読み込みに 1 ms,
+ * commit() に 0.5 ms かかるようにしている。トークンのリフレッシュは {@link StubHttpServer} に
+ * 2 ms 遅れて応答させ、アプリと同じ {@link org.example.android.network.SharedHttpClient} の
+ * 接続プール (同じホストへは 4 接続まで) を通して送る。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+@Threads(8)
+public class TokenStoreScalingBenchmark {
+    private static final long LOAD_DELAY_MICROS = 1000;
+    private static final long COMMIT_DELAY_MICROS = 500;
+    private static final long TOKEN_DELAY_MILLIS = 2;
+    private static final long EXPIRES_IN = 3600;
+
+    /** ストアはプロセス内でアカウントごとに 1 つなので、試行ごとに別の名前を使う */
+    private static final AtomicLong sTrial = new AtomicLong();
+
+    @Param({ "1", "4", "16", "64" })
+    public int accounts;
+
+    private StubHttpServer mServer;
+    private BenchmarkContext mContext;
+    private String mPrefix;
+    private OAuthTokenStore[] mStores;
+    private SingleOAuthTokenStore mSingle;
+    private final AtomicLong mNewAccounts = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mServer = new StubHttpServer();
+        mServer.setTokenDelay(TOKEN_DELAY_MILLIS);
+        mServer.start();
+        ApiRequestUtils.setTransport(new LocalTransport(mServer.getPort()));
+        RateLimiter.setEnabled(false);
+
+        mContext = new BenchmarkContext(LOAD_DELAY_MICROS, COMMIT_DELAY_MICROS);
+        mPrefix = "scaling-" + sTrial.incrementAndGet() + "-";
+        mStores = new OAuthTokenStore[accounts];
+        for (int i = 0; i < accounts; i++) {
+            mStores[i] = OAuthTokenStore.getInstance(mContext, mPrefix + i);
+            mStores[i].setToken("access-" + i, "refresh-" + i, EXPIRES_IN);
+            mStores[i].flush();
+        }
+        mSingle = new SingleOAuthTokenStore(
+                new BenchmarkContext(LOAD_DELAY_MICROS, COMMIT_DELAY_MICROS));
+        mSingle.setToken("access-0", "refresh-0", EXPIRES_IN);
+        mSingle.flush();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mSingle.shutdown();
+        ApiRequestUtils.getTransport().shutdown();
+        ApiRequestUtils.setTransport(null);
+        RateLimiter.setEnabled(true);
+        mServer.stop();
+    }
+
+    /** スレッドごとに、次に使うアカウント */
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int mNext;
+        private long mCount;
+
+        @Setup
+        public void setUp(ThreadParams params) {
+            // スレッドごとに別のアカウントから始める
+            mNext = params.getThreadIndex();
+        }
+
+        int next(int accounts) {
+            int index = mNext % accounts;
+            mNext = index + 1;
+            return index;
+        }
+
+        /** 書き込むトークンを変えるための番号 */
+        long count() {
+            return mCount++;
+        }
+    }
+
+    /** アカウントのストアにトークンを保存し、書き込みを待つ。 */
+    @Benchmark
+    public OAuthToken setTokenAndFlush(Cursor cursor) {
+        int account = cursor.next(accounts);
+        OAuthTokenStore store = mStores[account];
+        store.setToken("access-" + account + "-" + cursor.count(), "refresh-" + account, EXPIRES_IN);
+        store.flush();
+        return store.getToken();
+    }
+
+    /** 変更前の 1 つのストアにトークンを保存し、書き込みを待つ。 */
+    @Benchmark
+    public OAuthToken singleSetTokenAndFlush(Cursor cursor) {
+        int account = cursor.next(accounts);
+        mSingle.setToken("access-" + account + "-" + cursor.count(), "refresh-" + account, EXPIRES_IN);
+        mSingle.flush();
+        return mSingle.getToken();
+    }
+
+    /** 読み出したトークンを compare-and-set で置き換え、書き込みを待つ。 */
+    @Benchmark
+    public boolean compareAndSetTokenAndFlush(Cursor cursor) {
+        int account = cursor.next(accounts);
+        OAuthTokenStore store = mStores[account];
+        OAuthToken current = store.getToken();
+        boolean stored = store.compareAndSetToken(current, new OAuthToken(
+                "access-" + account + "-" + cursor.count(), current.refreshToken, current.expiresOn));
+        store.flush();
+        return stored;
+    }
+
+    /** まだ使っていないアカウントのストアを取得し、保存されたトークンを読み込む。
+     * 変更前は 1 つのアカウントしか扱えないため、比較対象はない。
+     */
+    @Benchmark
+    public OAuthToken firstTouch() {
+        return OAuthTokenStore.getInstance(mContext,
+                mPrefix + "new-" + mNewAccounts.incrementAndGet()).getToken();
+    }
+
+    /** アカウントのトークンをトークンエンドポイントでリフレッシュし、 compare-and-set で保存する。 */
+    @Benchmark
+    public boolean refresh(Cursor cursor) throws IOException {
+        OAuthTokenStore store = mStores[cursor.next(accounts)];
+        OAuthToken current = store.getToken();
+        return store.compareAndSetToken(current, OAuthClient.refreshToken(current.refreshToken));
+    }
+
+    /** 変更前の 1 つのストアで、トークンをリフレッシュして保存する。 */
+    @Benchmark
+    public OAuthToken singleRefresh() throws IOException {
+        OAuthToken refreshed = OAuthClient.refreshToken(mSingle.getToken().refreshToken);
+        mSingle.setToken(refreshed);
+        return refreshed;
+    }
+}
@@ -0,0 +1,106 @@
+package org.example.android.api;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.example.android.benchmark.BenchmarkContext;
+import org.example.android.benchmark.LocalTransport;
+import org.example.android.benchmark.StubHttpServer;
+import org.example.android.network.ApiFuture;
+import org.example.android.network.ApiRequestUtils;
+import org.example.android.network.RateLimiter;
+import org.example.android.network.RequestBatcher;
+import org.example.android.oauth.OAuthToken;
+import org.example.android.oauth.OAuthTokenStore;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** {@link RequestBatcher} を設定した {@link PeopleApiClient} が、複数のページの取得を
+ * 1 回のバッチで送信し、それぞれのページに正しい友人を返すことを確かめる。
+ */
+public class BatchedFriendsTest {
+    private static final String ACCOUNT = "batched-friends@example.com";
+    private static final String BATCH_URL = "http://api.mixi-platform.com" + StubHttpServer.BATCH_PATH;
+    private static final int TOTAL = 100;
+    private static final int PAGE_SIZE = 20;
+    /** 一覧の i 番目の友人の profileUrl は、これに 1000000 + i を付けたもの */
+    private static final String PROFILE_URL = "http://mixi.jp/show_friend.pl?uid=";
+
+    private StubHttpServer mServer;
+    private PeopleApiClient mClient;
+    private RequestBatcher mBatcher;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new StubHttpServer();
+        mServer.setFriends(TOTAL, TOTAL);
+        mServer.start();
+        ApiRequestUtils.setTransport(new LocalTransport(mServer.getPort()));
+        RateLimiter.setEnabled(false);
+        BenchmarkContext context = new BenchmarkContext();
+        OAuthTokenStore store = OAuthTokenStore.getInstance(context, ACCOUNT);
+        store.setToken(new OAuthToken("access", "refresh",
+                System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1)));
+        mClient = new PeopleApiClient(context, ACCOUNT);
+        // 時間では送信せず、 flush() かバッチが一杯になった時点で送信する
+        mBatcher = new RequestBatcher(BATCH_URL, store, TimeUnit.MINUTES.toMillis(1), 10);
+        mClient.setBatcher(mBatcher);
+    }
+
+    @After
+    public void tearDown() {
+        ApiRequestUtils.getTransport().shutdown();
+        ApiRequestUtils.setTransport(null);
+        RateLimiter.setEnabled(true);
+        mServer.stop();
+    }
+
+    /** 5 ページを 1 回の HTTP リクエストで取得し、ページごとの結果に分ける。 */
+    @Test
+    public void pagesShareOneRoundTrip() throws Exception {
+        List<ApiFuture<PeopleApiResponse>> pages = new ArrayList<ApiFuture<PeopleApiResponse>>();
+        for (int start = 0; start < TOTAL; start += PAGE_SIZE) {
+            pages.add(mClient.getFriendsAsync(start, PAGE_SIZE));
+        }
+        mBatcher.flush();
+        for (int i = 0; i < pages.size(); i++) {
+            PeopleApiResponse page = pages.get(i).get(10, TimeUnit.SECONDS);
+            assertEquals(i * PAGE_SIZE, page.startIndex);
+            assertEquals(PAGE_SIZE, page.entry.size());
+            assertEquals(PROFILE_URL + (1000000 + i * PAGE_SIZE), page.entry.get(0).profileUrl);
+            assertEquals(TOTAL, page.totalResults);
+        }
+        assertEquals(1, mServer.getBatchRequestCount());
+        assertEquals(0, mServer.getFriendsRequestCount());
+    }
+
+    /** 最大件数に達したバッチは flush() を待たずに送信し、残りは次のバッチになる。 */
+    @Test
+    public void fullBatchIsSentAndRestFollows() throws Exception {
+        List<ApiFuture<PeopleApiResponse>> pages = new ArrayList<ApiFuture<PeopleApiResponse>>();
+        for (int start = 0; start < 12; start++) {
+            pages.add(mClient.getFriendsAsync(start, 1));
+        }
+        mBatcher.flush();
+        for (int i = 0; i < pages.size(); i++) {
+            assertEquals(PROFILE_URL + (1000000 + i),
+                    pages.get(i).get(10, TimeUnit.SECONDS).entry.get(0).profileUrl);
+        }
+        assertEquals(2, mServer.getBatchRequestCount());
+        assertEquals(0, mServer.getFriendsRequestCount());
+    }
+
+    /** 1 件だけのバッチは、バッチのエンドポイントを使わずに通常のリクエストとして送る。 */
+    @Test
+    public void singleRequestIsSentAlone() throws Exception {
+        ApiFuture<PeopleApiResponse> page = mClient.getFriendsAsync(40, PAGE_SIZE);
+        mBatcher.flush();
+        assertEquals(PROFILE_URL + 1000040, page.get(10, TimeUnit.SECONDS).entry.get(0).profileUrl);
+        assertEquals(0, mServer.getBatchRequestCount());
+        assertEquals(1, mServer.getFriendsRequestCount());
+    }
+}
@@ -0,0 +1,191 @@
+package org.example.android.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import org.example.android.api.entity.MixiPerson;
+import org.example.android.benchmark.BenchmarkContext;
+import org.example.android.benchmark.LocalTransport;
+import org.example.android.benchmark.StubHttpServer;
+import org.example.android.network.ApiRequestUtils;
+import org.example.android.network.RateLimiter;
+import org.example.android.oauth.OAuthToken;
+import org.example.android.oauth.OAuthTokenStore;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import android.os.Handler;
+
+/** サーバが 1 回に返す件数を制限している場合に、 {@link PagedFriendList} が
+ * ページサイズを合わせた後も、各位置に正しい友人を表示することを確かめる。
+ */
+public class PagedFriendListTest {
+    private static final String ACCOUNT = "paged-friend-list@example.com";
+    private static final int TOTAL = 100;
+    private static final int PAGE_SIZE = 20;
+    private static final int SERVER_PAGE_SIZE = 10;
+    private static final long TIMEOUT_MS = 10000;
+
+    private StubHttpServer mServer;
+    private final Handler mHandler = new Handler();
+    private volatile Throwable mError;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new StubHttpServer();
+        mServer.setFriends(TOTAL, SERVER_PAGE_SIZE);
+        mServer.start();
+        ApiRequestUtils.setTransport(new LocalTransport(mServer.getPort()));
+        RateLimiter.setEnabled(false);
+    }
+
+    @After
+    public void tearDown() {
+        ApiRequestUtils.getTransport().shutdown();
+        ApiRequestUtils.setTransport(null);
+        RateLimiter.setEnabled(true);
+        mServer.stop();
+    }
+
+    /** 古いページサイズで開始した 2 ページ目の取得が、ページサイズを合わせた後に届く場合。 */
+    @Test
+    public void stalePageAfterServerLimitsPageSizeIsDiscarded() throws Exception {
+        BenchmarkContext context = new BenchmarkContext();
+        OAuthTokenStore.getInstance(context, ACCOUNT).setToken(new OAuthToken(
+                "access", "refresh", System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1)));
+        MemoryFriendListCache cache = new MemoryFriendListCache(context);
+        List<MixiPerson> cached = new ArrayList<MixiPerson>();
+        for (int i = 0; i < TOTAL; i++) {
+            cached.add(person(i));
+        }
+        cache.update(0, cached);
+        // 1 ページ目 (startIndex=0) の応答でページサイズが変わった後に、 startIndex=20 の応答を届ける
+        mServer.setFriendsDelay(PAGE_SIZE, 500);
+
+        final PagedFriendList list = new PagedFriendList(new PeopleApiClient(context, ACCOUNT),
+                cache, PAGE_SIZE, PAGE_SIZE, new PagedFriendList.Listener() {
+                    @Override
+                    public void onPageLoaded(int page, boolean fromServer) {
+                    }
+                    @Override
+                    public void onLoadingChanged(boolean loading) {
+                    }
+                    @Override
+                    public void onLoadFailed(Throwable error) {
+                        mError = error;
+                    }
+                });
+        // キャッシュから読み込んで件数が分かった状態で、 2 ページを同時にサーバから取得する
+        onMain(new Callable<Void>() {
+            @Override
+            public Void call() {
+                list.setVisibleRange(0, SERVER_PAGE_SIZE);
+                list.loadCached();
+                return null;
+            }
+        });
+        awaitIdle(list, PAGE_SIZE * 2);
+        onMain(new Callable<Void>() {
+            @Override
+            public Void call() {
+                list.start();
+                return null;
+            }
+        });
+        // 遅らせた応答が届くまで待つ
+        Thread.sleep(1000);
+        awaitIdle(list, SERVER_PAGE_SIZE * 3);
+
+        assertNull(mError);
+        for (int position = 0; position < SERVER_PAGE_SIZE * 3; position++) {
+            final int p = position;
+            String profileUrl = onMain(new Callable<String>() {
+                @Override
+                public String call() {
+                    return list.get(p).profileUrl;
+                }
+            });
+            assertEquals("position " + p, person(p).profileUrl, profileUrl);
+        }
+    }
+
+    /** 読み込み中のページがなくなり、先頭から指定した件数までを読み込むまで待つ。 */
+    private void awaitIdle(final PagedFriendList list, final int count) throws Exception {
+        long end = System.currentTimeMillis() + TIMEOUT_MS;
+        while (System.currentTimeMillis() < end) {
+            boolean idle = onMain(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return !list.isLoading() && list.isLoaded(count - 1);
+                }
+            });
+            if (idle || mError != null) {
+                return;
+            }
+            Thread.sleep(20);
+        }
+        fail("pages were not loaded");
+    }
+
+    /** PagedFriendList は UI スレッドから使用するため、 Handler のスレッドで実行する。 */
+    private <T> T onMain(Callable<T> callable) throws Exception {
+        FutureTask<T> task = new FutureTask<T>(callable);
+        mHandler.post(task);
+        return task.get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private static MixiPerson person(int position) {
+        MixiPerson person = new MixiPerson();
+        person.displayName = "user " + position;
+        person.profileUrl = "http://mixi.jp/show_friend.pl?uid=" + (1000000 + position);
+        return person;
+    }
+
+    /** SQLite の代わりにメモリに保存する {@link FriendListCache}。 */
+    private static class MemoryFriendListCache extends FriendListCache {
+        private final TreeMap<Integer, MixiPerson> mRows = new TreeMap<Integer, MixiPerson>();
+
+        MemoryFriendListCache(BenchmarkContext context) {
+            super(context);
+        }
+
+        @Override
+        public synchronized int size() {
+            return mRows.size();
+        }
+
+        @Override
+        public synchronized List<MixiPerson> load(int startIndex, int count) {
+            return new ArrayList<MixiPerson>(mRows.subMap(startIndex, startIndex + count).values());
+        }
+
+        @Override
+        public synchronized int update(int startIndex, List<MixiPerson> people) {
+            for (int i = 0; i < people.size(); i++) {
+                mRows.put(startIndex + i, people.get(i));
+            }
+            return people.size();
+        }
+
+        @Override
+        public synchronized int truncate(int size) {
+            int removed = mRows.tailMap(size).size();
+            mRows.tailMap(size).clear();
+            return removed;
+        }
+
+        @Override
+        public synchronized void clear() {
+            mRows.clear();
+        }
+    }
+}
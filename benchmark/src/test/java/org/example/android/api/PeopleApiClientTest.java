@@ -0,0 +1,30 @@
+package org.example.android.api;
+
+import org.example.android.benchmark.BenchmarkContext;
+import org.example.android.network.RequestBatcher;
+import org.example.android.oauth.OAuthTokenStore;
+import org.junit.Test;
+
+/** {@link PeopleApiClient#setBatcher(RequestBatcher)} が、別のアカウントのトークンで
+ * 送信するバッチャーを受け付けないことを確かめる。
+ */
+public class PeopleApiClientTest {
+    private static final String BATCH_URL = "http://api.mixi-platform.com/2/batch";
+
+    @Test
+    public void acceptsBatcherForSameAccount() {
+        BenchmarkContext context = new BenchmarkContext();
+        PeopleApiClient client = new PeopleApiClient(context, "a@example.com");
+        client.setBatcher(new RequestBatcher(BATCH_URL,
+                OAuthTokenStore.getInstance(context, "a@example.com"), 10, 10));
+        client.setBatcher(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsBatcherForAnotherAccount() {
+        BenchmarkContext context = new BenchmarkContext();
+        PeopleApiClient client = new PeopleApiClient(context, "a@example.com");
+        client.setBatcher(new RequestBatcher(BATCH_URL,
+                OAuthTokenStore.getInstance(context, "b@example.com"), 10, 10));
+    }
+}
@@ -0,0 +1,70 @@
+package org.example.android.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.example.android.api.entity.MixiPerson;
+import org.junit.Test;
+
+/** {@link PersonStore} が内容をそのまま返し、
+ * 1 ページ分でも MixiPerson のリストよりヒープの使用量が小さいことを確かめる。
+ */
+public class PersonStoreTest {
+    private static final int PAGE_SIZE = 20;
+
+    @Test
+    public void pageRoundTripsAndIsSmallerThanObjects() {
+        List<MixiPerson> people = page(0, PAGE_SIZE);
+        people.get(3).displayName = null;
+        people.get(5).profileUrl = null;
+        PersonStore store = new PersonStore(people);
+
+        assertEquals(PAGE_SIZE, store.size());
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            assertEquals(people.get(i).displayName, store.getDisplayName(i));
+            assertEquals(people.get(i).profileUrl, store.getProfileUrl(i));
+        }
+        assertTrue(store.estimateHeapBytes() + " >= " + store.estimateObjectHeapBytes(),
+                store.estimateHeapBytes() < store.estimateObjectHeapBytes());
+    }
+
+    /** 一覧を埋め尽くすまでページを読み込んだ場合。 */
+    @Test
+    public void pagesOfLargeListAreSmallerThanObjects() {
+        long storeBytes = 0;
+        long objectBytes = 0;
+        for (int start = 0; start < 5000; start += PAGE_SIZE) {
+            PersonStore store = new PersonStore(page(start, PAGE_SIZE));
+            storeBytes += store.estimateHeapBytes();
+            objectBytes += store.estimateObjectHeapBytes();
+        }
+        assertTrue(storeBytes + " >= " + objectBytes, storeBytes < objectBytes);
+    }
+
+    @Test
+    public void growsWhenAddedOneByOne() {
+        List<MixiPerson> people = page(0, 200);
+        PersonStore store = new PersonStore();
+        for (MixiPerson person : people) {
+            store.add(person);
+        }
+        assertEquals(200, store.size());
+        assertEquals(people.get(199).displayName, store.getDisplayName(199));
+        assertEquals(people.get(199).profileUrl, store.getProfileUrl(199));
+    }
+
+    /** {@link org.example.android.benchmark.Responses#people(int, int, int)} と同じ形の友人 */
+    private static List<MixiPerson> page(int startIndex, int count) {
+        List<MixiPerson> people = new ArrayList<MixiPerson>(count);
+        for (int i = startIndex; i < startIndex + count; i++) {
+            MixiPerson person = new MixiPerson();
+            person.displayName = "\u30e6\u30fc\u30b6\u30fc " + i;
+            person.profileUrl = "http://mixi.jp/show_friend.pl?uid=" + (1000000 + i);
+            people.add(person);
+        }
+        return people;
+    }
+}
@@ -0,0 +1,117 @@
+package org.example.android.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.impl.client.BasicResponseHandler;
+import org.example.android.benchmark.LocalTransport;
+import org.example.android.benchmark.StubHttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** 失敗し続ける {@link StubHttpServer} を相手に、 {@link CircuitBreaker} がリクエストを止め、
+ * 一定時間後の試しのリクエストの結果で再開または停止を続けることを確かめる。
+ */
+public class CircuitBreakerTest {
+    private static final String URL = "http://breaker.example.com" + StubHttpServer.PEOPLE_PATH
+            + "@me/@friends?count=1";
+    private static final int THRESHOLD = 3;
+    private static final long OPEN_MS = 300;
+
+    private StubHttpServer mServer;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new StubHttpServer();
+        mServer.start();
+        ApiRequestUtils.setTransport(new LocalTransport(mServer.getPort()));
+        RateLimiter.setEnabled(false);
+        // 再試行を除いて、 1 件のリクエストを 1 回の失敗として数える
+        ApiRequestUtils.setRetryPolicy(null);
+        CircuitBreaker.configure(THRESHOLD, OPEN_MS);
+    }
+
+    @After
+    public void tearDown() {
+        ApiRequestUtils.setRetryPolicy(new RetryPolicy());
+        CircuitBreaker.configure(5, 30 * 1000);
+        ApiRequestUtils.getTransport().shutdown();
+        ApiRequestUtils.setTransport(null);
+        RateLimiter.setEnabled(true);
+        mServer.stop();
+    }
+
+    @Test
+    public void failsFastWhileOpenAndClosesAfterSuccessfulProbe() throws Exception {
+        openBreaker();
+        // 止めている間はサーバに送らない
+        for (int i = 0; i < 10; i++) {
+            assertCircuitOpen();
+        }
+        assertEquals(THRESHOLD, mServer.getFriendsRequestCount());
+
+        mServer.setFriendsFailing(0);
+        Thread.sleep(OPEN_MS + 50);
+        get();
+        get();
+        assertEquals(THRESHOLD + 2, mServer.getFriendsRequestCount());
+    }
+
+    @Test
+    public void failedProbeReopensBreaker() throws Exception {
+        openBreaker();
+        Thread.sleep(OPEN_MS + 50);
+        assertServerError();
+        assertEquals(THRESHOLD + 1, mServer.getFriendsRequestCount());
+        // 試しのリクエストが 1 回失敗しただけで、再び止める
+        assertCircuitOpen();
+        assertEquals(THRESHOLD + 1, mServer.getFriendsRequestCount());
+    }
+
+    @Test
+    public void clientErrorsDoNotOpenBreaker() throws Exception {
+        mServer.setFriendsFailing(404);
+        for (int i = 0; i < THRESHOLD * 2; i++) {
+            try {
+                get();
+                fail();
+            } catch (HttpResponseException e) {
+                assertEquals(404, e.getStatusCode());
+            }
+        }
+        assertEquals(THRESHOLD * 2, mServer.getFriendsRequestCount());
+    }
+
+    private void openBreaker() throws IOException {
+        mServer.setFriendsFailing(503);
+        for (int i = 0; i < THRESHOLD; i++) {
+            assertServerError();
+        }
+    }
+
+    private static void assertServerError() throws IOException {
+        try {
+            get();
+            fail();
+        } catch (HttpResponseException e) {
+            assertEquals(503, e.getStatusCode());
+        }
+    }
+
+    private static void assertCircuitOpen() throws IOException {
+        try {
+            get();
+            fail();
+        } catch (CircuitOpenException e) {
+            // 止めている
+        }
+    }
+
+    private static String get() throws IOException {
+        return ApiRequestUtils.doGetRequest(URL, null, new BasicResponseHandler());
+    }
+}
@@ -0,0 +1,58 @@
+package org.example.android.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.BasicResponseHandler;
+import org.example.android.benchmark.Responses;
+import org.example.android.benchmark.StubHttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** gzip で圧縮されたレスポンスを {@link ContentEncodingInterceptor} で展開しても、
+ * {@link SharedHttpClient} が接続を再利用することを確かめる。
+ */
+public class ContentEncodingInterceptorTest {
+    private static final int REQUESTS = 50;
+
+    private StubHttpServer mServer;
+    private String mUrl;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new StubHttpServer();
+        mServer.start();
+        mUrl = "http://127.0.0.1:" + mServer.getPort() + StubHttpServer.PEOPLE_PATH
+                + "@me/@friends?count=5";
+    }
+
+    @After
+    public void tearDown() {
+        SharedHttpClient.shutdown();
+        mServer.stop();
+    }
+
+    @Test
+    public void reusesConnectionForCompressedResponses() throws Exception {
+        String expected = new String(Responses.people(5), "UTF-8");
+        for (int i = 0; i < REQUESTS; i++) {
+            String body = SharedHttpClient.getInstance().execute(
+                    new HttpGet(mUrl), new BasicResponseHandler());
+            assertEquals(expected, body);
+        }
+        // 順に送っているので、接続は 1 本で足りる
+        assertEquals(1, mServer.getConnectionCount());
+    }
+
+    @Test
+    public void reusesConnectionForUncompressedResponses() throws Exception {
+        for (int i = 0; i < REQUESTS; i++) {
+            HttpGet get = new HttpGet(mUrl);
+            get.addHeader("Accept-Encoding", "identity");
+            SharedHttpClient.getInstance().execute(get, new BasicResponseHandler());
+        }
+        assertTrue(mServer.getConnectionCount() <= 1);
+    }
+}
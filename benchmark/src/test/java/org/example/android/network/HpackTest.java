@@ -0,0 +1,69 @@
+package org.example.android.network;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/** {@link Hpack} の符号化と復号を、 RFC 7541 付録 C.4 (Huffman 符号化を使うリクエスト) の例で確かめる。 */
+public class HpackTest {
+    private static final String[][][] REQUESTS = {
+        {
+            { ":method", "GET" }, { ":scheme", "http" }, { ":path", "/" },
+            { ":authority", "www.example.com" },
+        },
+        {
+            { ":method", "GET" }, { ":scheme", "http" }, { ":path", "/" },
+            { ":authority", "www.example.com" }, { "cache-control", "no-cache" },
+        },
+        {
+            { ":method", "GET" }, { ":scheme", "https" }, { ":path", "/index.html" },
+            { ":authority", "www.example.com" }, { "custom-key", "custom-value" },
+        },
+    };
+    private static final String[] BLOCKS = {
+        "828684418cf1e3c2e5f23a6ba0ab90f4ff",
+        "828684be5886a8eb10649cbf",
+        "828785bf408825a849e95ba97d7f8925a849e95bb8e8b4bf",
+    };
+
+    @Test
+    public void decodesRfcExamples() throws Exception {
+        Hpack.Decoder decoder = new Hpack.Decoder();
+        for (int i = 0; i < BLOCKS.length; i++) {
+            byte[] block = hex(BLOCKS[i]);
+            assertHeaders(REQUESTS[i], decoder.decode(block, 0, block.length));
+        }
+    }
+
+    /** 同じ順に符号化すると、動的テーブルの参照も含めて RFC と同じバイト列になる。 */
+    @Test
+    public void encodesRfcExamples() throws Exception {
+        Hpack.Encoder encoder = new Hpack.Encoder();
+        for (int i = 0; i < REQUESTS.length; i++) {
+            List<String[]> headers = new ArrayList<String[]>();
+            for (String[] header : REQUESTS[i]) {
+                headers.add(header);
+            }
+            assertArrayEquals(hex(BLOCKS[i]), encoder.encode(headers));
+        }
+    }
+
+    private static void assertHeaders(String[][] expected, List<String[]> actual) {
+        assertEquals(expected.length, actual.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertArrayEquals(expected[i], actual.get(i));
+        }
+    }
+
+    private static byte[] hex(String s) {
+        byte[] bytes = new byte[s.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(s.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
+}
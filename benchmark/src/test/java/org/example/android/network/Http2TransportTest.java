@@ -0,0 +1,211 @@
+package org.example.android.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
+import org.example.android.api.PeopleApiClient;
+import org.example.android.api.PeopleApiResponse;
+import org.example.android.benchmark.BenchmarkContext;
+import org.example.android.benchmark.Http2StubServer;
+import org.example.android.benchmark.LocalTransport;
+import org.example.android.benchmark.Responses;
+import org.example.android.benchmark.StubHttpServer;
+import org.example.android.oauth.OAuthClient;
+import org.example.android.oauth.OAuthToken;
+import org.example.android.oauth.OAuthTokenStore;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** {@link Http2Transport} が、 h2c に対応したサーバへの同時のリクエストを 1 本の接続に多重化し、
+ * 対応していないサーバには HTTP/1.1 で送ることを確かめる。
+ */
+public class Http2TransportTest {
+    private static final String ACCOUNT = "http2@example.com";
+    private static final HttpVersion HTTP_2_0 = new HttpVersion(2, 0);
+    /** HttpClientTransport がホストごとに同時に使う接続の数 */
+    private static final int HTTP1_CONNECTIONS = 4;
+
+    private Http2StubServer mServer;
+    private Http2Transport mTransport;
+    private String mPeopleUrl;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new Http2StubServer();
+        mServer.start();
+        mTransport = new Http2Transport();
+        mPeopleUrl = "http://127.0.0.1:" + mServer.getPort() + StubHttpServer.PEOPLE_PATH
+                + "@me/@friends";
+        RateLimiter.setEnabled(false);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mTransport.shutdown();
+        ApiRequestUtils.setTransport(null);
+        RateLimiter.setEnabled(true);
+        mServer.stop();
+    }
+
+    /** 32 件の同時のリクエストを 1 本の接続で送り、応答の遅れを並行して待つ。 */
+    @Test
+    public void concurrentRequestsShareOneConnection() throws Exception {
+        final long latency = 300;
+        final int requests = 32;
+        mServer.setLatency(latency);
+        ApiRequestUtils.setTransport(new LocalTransport(mServer.getPort(), mTransport));
+        BenchmarkContext context = new BenchmarkContext();
+        OAuthTokenStore.getInstance(context, ACCOUNT).setToken(new OAuthToken("access", "refresh",
+                System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1)));
+        final PeopleApiClient client = new PeopleApiClient(context, ACCOUNT);
+
+        ExecutorService executor = Executors.newFixedThreadPool(requests);
+        try {
+            List<Future<PeopleApiResponse>> pages = new ArrayList<Future<PeopleApiResponse>>();
+            long start = System.nanoTime();
+            for (int i = 0; i < requests; i++) {
+                // 同じ URL の GET はまとめられるため、ページごとに変える
+                final int startIndex = i * 20;
+                pages.add(executor.submit(new Callable<PeopleApiResponse>() {
+                    @Override
+                    public PeopleApiResponse call() throws Exception {
+                        return client.getFriends(startIndex, 20);
+                    }
+                }));
+            }
+            for (Future<PeopleApiResponse> page : pages) {
+                assertEquals(20, page.get(10, TimeUnit.SECONDS).entry.size());
+            }
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            // HTTP/1.1 では 4 接続で順に送るため、少なくとも 32 / 4 * 300 = 2400 ms かかる
+            assertTrue("elapsed " + elapsed + " ms",
+                    elapsed < requests / HTTP1_CONNECTIONS * latency / 2);
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(requests, mServer.getRequestCount());
+        assertEquals(1, mServer.getConnectionCount());
+        assertEquals(Collections.singleton("HTTP/2.0"), mServer.getProtocols());
+    }
+
+    /** POST の本文と Content-Type を HTTP/2 で送る。 */
+    @Test
+    public void refreshTokenSendsBody() throws Exception {
+        ApiRequestUtils.setTransport(new LocalTransport(mServer.getPort(), mTransport));
+        OAuthToken token = OAuthClient.refreshToken("8e9f7a5e1f0b4c2d");
+        assertNotNull(token);
+        assertTrue(mServer.getTokenRequestBody(),
+                mServer.getTokenRequestBody().contains("refresh_token=8e9f7a5e1f0b4c2d"));
+        assertTrue(mServer.getTokenContentType(),
+                mServer.getTokenContentType().startsWith("application/x-www-form-urlencoded"));
+        assertEquals(Collections.singleton("HTTP/2.0"), mServer.getProtocols());
+    }
+
+    /** 接続全体のウィンドウ (4 MiB) より大きな本文を、 WINDOW_UPDATE を返しながら続けて受け取る。 */
+    @Test
+    public void largeResponsesExceedConnectionWindow() throws Exception {
+        mServer.setCompression(false);
+        int count = 40000;
+        int expected = Responses.people(count).length;
+        assertTrue(expected > 4 * 1024 * 1024);
+        for (int i = 0; i < 2; i++) {
+            HttpResponse response = mTransport.execute(
+                    new HttpGet(mPeopleUrl + "?count=" + count + "&startIndex=" + i), null);
+            assertEquals(HTTP_2_0, response.getProtocolVersion());
+            assertEquals(expected, EntityUtils.toByteArray(response.getEntity()).length);
+        }
+        assertEquals(1, mServer.getConnectionCount());
+    }
+
+    /** 中断したリクエストと途中で読むのをやめた本文は、同じ接続の他のリクエストに影響しない。 */
+    @Test
+    public void abortedRequestsDoNotAffectOthers() throws Exception {
+        mServer.setFriendsDelay(1, 5000);
+        final HttpGet slow = new HttpGet(mPeopleUrl + "?startIndex=1");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<HttpResponse> aborted = executor.submit(new Callable<HttpResponse>() {
+                @Override
+                public HttpResponse call() throws Exception {
+                    return mTransport.execute(slow, null);
+                }
+            });
+            assertOk(mTransport.execute(new HttpGet(mPeopleUrl + "?startIndex=2"), null));
+            slow.abort();
+            try {
+                aborted.get(2, TimeUnit.SECONDS);
+                fail("aborted request returned a response");
+            } catch (java.util.concurrent.ExecutionException e) {
+                assertTrue(e.getCause().toString(), e.getCause() instanceof IOException);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // 大きな本文の先頭だけを読んで閉じる。残りは捨てられ、接続のウィンドウに戻される
+        mServer.setCompression(false);
+        for (int i = 0; i < 5; i++) {
+            HttpResponse response = mTransport.execute(
+                    new HttpGet(mPeopleUrl + "?count=20000&startIndex=" + (10 + i)), null);
+            InputStream in = response.getEntity().getContent();
+            assertTrue(in.read(new byte[1024]) > 0);
+            in.close();
+        }
+        assertOk(mTransport.execute(new HttpGet(mPeopleUrl + "?startIndex=3"), null));
+        assertEquals(1, mServer.getConnectionCount());
+    }
+
+    /** サーバが使われていない接続を GOAWAY で閉じた後は、新しい接続で送る。 */
+    @Test
+    public void reconnectsAfterIdleGoAway() throws Exception {
+        mServer.setIdleTimeout(300);
+        assertOk(mTransport.execute(new HttpGet(mPeopleUrl + "?startIndex=1"), null));
+        Thread.sleep(1000);
+        assertOk(mTransport.execute(new HttpGet(mPeopleUrl + "?startIndex=2"), null));
+        assertEquals(2, mServer.getConnectionCount());
+    }
+
+    /** h2c に対応していないサーバには、 HTTP/1.1 で送る。 */
+    @Test
+    public void fallsBackToHttp11() throws Exception {
+        StubHttpServer server = new StubHttpServer();
+        server.start();
+        try {
+            String url = "http://127.0.0.1:" + server.getPort() + StubHttpServer.PEOPLE_PATH
+                    + "@me/@friends";
+            for (int i = 0; i < 2; i++) {
+                HttpResponse response = mTransport.execute(new HttpGet(url), null);
+                assertEquals(HttpVersion.HTTP_1_1, response.getProtocolVersion());
+                assertEquals(200, response.getStatusLine().getStatusCode());
+                EntityUtils.toByteArray(response.getEntity());
+            }
+            assertEquals(2, server.getFriendsRequestCount());
+        } finally {
+            server.stop();
+        }
+    }
+
+    private static void assertOk(HttpResponse response) throws IOException {
+        assertEquals(HTTP_2_0, response.getProtocolVersion());
+        assertEquals(200, response.getStatusLine().getStatusCode());
+        assertTrue(EntityUtils.toByteArray(response.getEntity()).length > 0);
+    }
+}
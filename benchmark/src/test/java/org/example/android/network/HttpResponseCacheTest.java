@@ -0,0 +1,133 @@
+package org.example.android.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.example.android.api.PeopleApiClient;
+import org.example.android.benchmark.BenchmarkContext;
+import org.example.android.benchmark.LocalTransport;
+import org.example.android.benchmark.StubHttpServer;
+import org.example.android.oauth.OAuthToken;
+import org.example.android.oauth.OAuthTokenStore;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** 起動のたびに同じ友人一覧を取得する場合に、 {@link HttpResponseCache} が
+ * 変更のないページを 304 Not Modified で再検証し、本文を受信しないことを確かめる。
+ * 起動し直したことにするため、取得のたびにディスクからキャッシュを読み込み直す。
+ */
+public class HttpResponseCacheTest {
+    private static final String ACCOUNT = "http-response-cache@example.com";
+    private static final int LAUNCHES = 10;
+    private static final int COUNT = 20;
+    private static final long CACHE_SIZE = 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private StubHttpServer mServer;
+    private PeopleApiClient mClient;
+    private File mCacheDir;
+    private final AtomicInteger mRequests = new AtomicInteger();
+    private final AtomicInteger mCacheHits = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new StubHttpServer();
+        mServer.start();
+        ApiRequestUtils.setTransport(new LocalTransport(mServer.getPort()));
+        RateLimiter.setEnabled(false);
+        ApiRequestUtils.setMetricsListener(new RequestMetricsListener() {
+            @Override
+            public void onRequestFinished(RequestMetrics metrics) {
+                mRequests.incrementAndGet();
+                if (metrics.isCacheHit()) {
+                    mCacheHits.incrementAndGet();
+                }
+            }
+
+            @Override
+            public void onTokenRefresh(RefreshTrigger trigger) {
+            }
+        });
+
+        BenchmarkContext context = new BenchmarkContext();
+        OAuthTokenStore.getInstance(context, ACCOUNT).setToken(new OAuthToken(
+                "access", "refresh", System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1)));
+        mClient = new PeopleApiClient(context, ACCOUNT);
+        mCacheDir = mFolder.newFolder("http");
+    }
+
+    @After
+    public void tearDown() {
+        HttpResponseCache.uninstall();
+        ApiRequestUtils.setMetricsListener(null);
+        ApiRequestUtils.getTransport().shutdown();
+        ApiRequestUtils.setTransport(null);
+        RateLimiter.setEnabled(true);
+        mServer.stop();
+    }
+
+    @Test
+    public void unchangedFriendsAreRevalidatedWithoutBody() throws Exception {
+        mServer.setCacheControl("no-cache");
+        launchAndGetFriends();
+        long firstLaunchBytes = mServer.getBytesServed();
+        assertTrue(firstLaunchBytes > 0);
+
+        for (int i = 1; i < LAUNCHES; i++) {
+            launchAndGetFriends();
+        }
+        // 2 回目以降は 304 だけが返り、本文は送られない
+        assertEquals(LAUNCHES - 1, mServer.getNotModifiedCount());
+        assertEquals(LAUNCHES - 1, mCacheHits.get());
+        assertEquals(firstLaunchBytes, mServer.getBytesServed());
+
+        // 一覧が更新されると本文を受信し直し、次の起動では再び 304 になる
+        mServer.changeFriends();
+        launchAndGetFriends();
+        assertEquals(2 * firstLaunchBytes, mServer.getBytesServed());
+        launchAndGetFriends();
+        assertEquals(LAUNCHES, mServer.getNotModifiedCount());
+        assertEquals(LAUNCHES + 2, mRequests.get());
+    }
+
+    @Test
+    public void freshFriendsAreServedWithoutRequest() throws Exception {
+        mServer.setCacheControl("max-age=600");
+        launchAndGetFriends();
+        long firstLaunchBytes = mServer.getBytesServed();
+        for (int i = 1; i < LAUNCHES; i++) {
+            launchAndGetFriends();
+        }
+        // 期限内のキャッシュはサーバに問い合わせずに返す
+        assertEquals(0, mServer.getNotModifiedCount());
+        assertEquals(LAUNCHES - 1, mCacheHits.get());
+        assertEquals(firstLaunchBytes, mServer.getBytesServed());
+    }
+
+    @Test
+    public void withoutValidatorsEveryLaunchDownloadsFriends() throws Exception {
+        launchAndGetFriends();
+        long firstLaunchBytes = mServer.getBytesServed();
+        for (int i = 1; i < LAUNCHES; i++) {
+            launchAndGetFriends();
+        }
+        assertEquals(0, mCacheHits.get());
+        assertEquals(LAUNCHES * firstLaunchBytes, mServer.getBytesServed());
+    }
+
+    /** キャッシュをディスクから読み込み直して、 1 ページ目を取得する。 */
+    private void launchAndGetFriends() throws Exception {
+        HttpResponseCache.install(mFolder.getRoot(), CACHE_SIZE);
+        HttpResponseCache.install(mCacheDir, CACHE_SIZE);
+        assertEquals(COUNT, mClient.getFriends(0, COUNT).entry.size());
+    }
+}
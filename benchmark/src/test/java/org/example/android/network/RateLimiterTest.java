@@ -0,0 +1,135 @@
+package org.example.android.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.impl.client.BasicResponseHandler;
+import org.example.android.benchmark.LocalTransport;
+import org.example.android.benchmark.StubHttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** リクエスト数の上限を設けた {@link StubHttpServer} を相手に、 {@link RateLimiter} が
+ * ヘッダから上限を学習して 429 を受け取らずに送り続けることと、
+ * 待たされているリクエストを優先度の高いものから送ることを確かめる。
+ */
+public class RateLimiterTest {
+    private static final String URL = "http://quota.example.com" + StubHttpServer.PEOPLE_PATH
+            + "@me/@friends?count=";
+    private static final int THREADS = 4;
+
+    private StubHttpServer mServer;
+    private ExecutorService mExecutor;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new StubHttpServer();
+        mServer.start();
+        ApiRequestUtils.setTransport(new LocalTransport(mServer.getPort()));
+        // 429 を再試行で隠さない
+        ApiRequestUtils.setRetryPolicy(null);
+        RateLimiter.configure(10, 4);
+        mExecutor = Executors.newFixedThreadPool(THREADS * 2);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mExecutor.shutdownNow();
+        mExecutor.awaitTermination(10, TimeUnit.SECONDS);
+        RateLimiter.configure(10, 4);
+        ApiRequestUtils.setRetryPolicy(new RetryPolicy());
+        ApiRequestUtils.getTransport().shutdown();
+        ApiRequestUtils.setTransport(null);
+        mServer.stop();
+    }
+
+    /** 2 秒に 20 件までのサーバに、 4 スレッドから 40 件を送る。 */
+    @Test
+    public void staysUnderQuota() throws Exception {
+        final int requests = 40;
+        mServer.setQuota(20, 2000);
+        long start = System.nanoTime();
+        List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+        for (int t = 0; t < THREADS; t++) {
+            // 同じリクエストにまとめられないよう、スレッドごとに件数を変える
+            final int count = t + 1;
+            results.add(mExecutor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws IOException {
+                    for (int i = 0; i < requests / THREADS; i++) {
+                        get(RequestPriority.NORMAL, count);
+                    }
+                    return requests / THREADS;
+                }
+            }));
+        }
+        int sent = 0;
+        for (Future<Integer> result : results) {
+            sent += result.get(60, TimeUnit.SECONDS);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        assertEquals(requests, sent);
+        assertEquals(requests, mServer.getFriendsRequestCount());
+        assertEquals(0, mServer.getTooManyRequestsCount());
+        // X-RateLimit-Reset は秒単位のため期間の終わりを遅めに見積もるが、上限の半分より遅くはならない
+        assertTrue(requests + " requests took " + seconds + "s", seconds < 8);
+    }
+
+    /** 上限を使い切って待っている間に来たリクエストは、優先度の高いものから送る。 */
+    @Test
+    public void waitingRequestsAreSentByPriority() throws Exception {
+        mServer.setQuota(1, 1000);
+        // 上限を使い切り、残りが 0 であることを学習させる
+        get(RequestPriority.NORMAL, 1);
+        long start = System.nanoTime();
+
+        final List<RequestPriority> order =
+            Collections.synchronizedList(new ArrayList<RequestPriority>());
+        List<Future<?>> results = new ArrayList<Future<?>>();
+        RequestPriority[] priorities = {
+            RequestPriority.LOW, RequestPriority.NORMAL, RequestPriority.HIGH
+        };
+        for (int i = 0; i < priorities.length; i++) {
+            final RequestPriority priority = priorities[i];
+            final int count = i + 2;
+            results.add(mExecutor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    get(priority, count);
+                    order.add(priority);
+                    return null;
+                }
+            }));
+            // 送り出した順に待たせる
+            Thread.sleep(50);
+        }
+        for (Future<?> result : results) {
+            result.get(60, TimeUnit.SECONDS);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        assertEquals(0, mServer.getTooManyRequestsCount());
+        // 期間が終わるたびに 1 件ずつ送る (3 秒足らず)
+        assertTrue("3 requests took " + seconds + "s", seconds < 5);
+        List<RequestPriority> expected = new ArrayList<RequestPriority>();
+        expected.add(RequestPriority.HIGH);
+        expected.add(RequestPriority.NORMAL);
+        expected.add(RequestPriority.LOW);
+        assertEquals(expected, order);
+    }
+
+    private static String get(RequestPriority priority, int count) throws IOException {
+        return ApiRequestUtils.doGetRequest(URL + count, null, new BasicResponseHandler(), null,
+                priority);
+    }
+}
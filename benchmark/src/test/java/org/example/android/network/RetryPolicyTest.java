@@ -0,0 +1,167 @@
+package org.example.android.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.impl.client.BasicResponseHandler;
+import org.apache.http.protocol.HttpContext;
+import org.example.android.benchmark.LocalTransport;
+import org.example.android.benchmark.StubHttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** 一時的な失敗を返す {@link StubHttpServer} を相手に、 {@link RetryPolicy} に従って
+ * GET が再試行されることを確かめる。
+ */
+public class RetryPolicyTest {
+    private static final String URL = "http://retry.example.com" + StubHttpServer.PEOPLE_PATH
+            + "@me/@friends?count=1";
+
+    private StubHttpServer mServer;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new StubHttpServer();
+        mServer.start();
+        ApiRequestUtils.setTransport(new LocalTransport(mServer.getPort()));
+        RateLimiter.setEnabled(false);
+        // 再試行でサーキットブレーカーが開かないようにする
+        CircuitBreaker.configure(100, 1000);
+        // 最大 3 回、 20 ms から 80 ms 待って再試行し、 Retry-After は 2 秒まで待つ
+        ApiRequestUtils.setRetryPolicy(new RetryPolicy(3, 20, 80, 2000, 0.2f, 10));
+    }
+
+    @After
+    public void tearDown() {
+        ApiRequestUtils.setRetryPolicy(new RetryPolicy());
+        CircuitBreaker.configure(5, 30 * 1000);
+        ApiRequestUtils.getTransport().shutdown();
+        ApiRequestUtils.setTransport(null);
+        RateLimiter.setEnabled(true);
+        mServer.stop();
+    }
+
+    @Test
+    public void retriesServiceUnavailableUntilSuccess() throws Exception {
+        mServer.addFriendsFailure(503, null);
+        mServer.addFriendsFailure(503, null);
+        get();
+        assertEquals(3, mServer.getFriendsRequestCount());
+    }
+
+    @Test
+    public void waitsForRetryAfter() throws Exception {
+        mServer.addFriendsFailure(503, "1");
+        long start = System.currentTimeMillis();
+        get();
+        long elapsed = System.currentTimeMillis() - start;
+        assertEquals(2, mServer.getFriendsRequestCount());
+        assertTrue("retried after " + elapsed + "ms", elapsed >= 1000);
+    }
+
+    @Test
+    public void doesNotRetryWhenRetryAfterIsTooLong() throws Exception {
+        mServer.addFriendsFailure(429, "60");
+        try {
+            get();
+            fail();
+        } catch (HttpResponseException e) {
+            assertEquals(429, e.getStatusCode());
+        }
+        assertEquals(1, mServer.getFriendsRequestCount());
+    }
+
+    @Test
+    public void givesUpAfterMaxRetries() throws Exception {
+        mServer.setFriendsFailing(500);
+        try {
+            get();
+            fail();
+        } catch (HttpResponseException e) {
+            assertEquals(500, e.getStatusCode());
+        }
+        assertEquals(4, mServer.getFriendsRequestCount());
+    }
+
+    @Test
+    public void doesNotRetryClientErrors() throws Exception {
+        mServer.addFriendsFailure(404, null);
+        try {
+            get();
+            fail();
+        } catch (HttpResponseException e) {
+            assertEquals(404, e.getStatusCode());
+        }
+        assertEquals(1, mServer.getFriendsRequestCount());
+    }
+
+    /** 予算を使い切った後は、サーバが失敗し続けても再試行しない。 */
+    @Test
+    public void budgetLimitsRetries() throws Exception {
+        // 予算は 2 回分から始まり、リクエスト 1 件ごとに 0.5 回分増える
+        ApiRequestUtils.setRetryPolicy(new RetryPolicy(3, 20, 80, 2000, 0.5f, 2));
+        mServer.setFriendsFailing(500);
+        for (int i = 0; i < 5; i++) {
+            try {
+                get();
+                fail();
+            } catch (HttpResponseException e) {
+                assertEquals(500, e.getStatusCode());
+            }
+        }
+        // 1 件目で 2 回分を使い切り、その後は 2 件ごとに積み立てた 1 回分だけ再試行する
+        assertEquals(5 + 2 + 1 + 1, mServer.getFriendsRequestCount());
+    }
+
+    @Test
+    public void retriesRefusedConnection() throws Exception {
+        ServerSocket socket = new ServerSocket(0);
+        int closedPort = socket.getLocalPort();
+        socket.close();
+        CountingTransport transport = new CountingTransport(new LocalTransport(closedPort));
+        ApiRequestUtils.setTransport(transport);
+        try {
+            get();
+            fail();
+        } catch (IOException e) {
+            // 接続できなかった
+        } finally {
+            transport.shutdown();
+        }
+        assertEquals(4, transport.mCount.get());
+    }
+
+    private static String get() throws IOException {
+        return ApiRequestUtils.doGetRequest(URL, null, new BasicResponseHandler());
+    }
+
+    /** 送信しようとしたリクエストを数えるトランスポート */
+    private static class CountingTransport implements HttpTransport {
+        private final HttpTransport mDelegate;
+        final AtomicInteger mCount = new AtomicInteger();
+
+        CountingTransport(HttpTransport delegate) {
+            mDelegate = delegate;
+        }
+
+        @Override
+        public HttpResponse execute(HttpUriRequest request, HttpContext context) throws IOException {
+            mCount.incrementAndGet();
+            return mDelegate.execute(request, context);
+        }
+
+        @Override
+        public void shutdown() {
+            mDelegate.shutdown();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package org.example.android.network;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.BasicResponseHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** 接続の確認を省いた {@link SharedHttpClient} が、サーバが閉じたプールの接続に送ったリクエストを
+ * 新しい接続で送り直すことを確かめる。
+ */
+public class SharedHttpClientTest {
+    private ServerSocket mServerSocket;
+    private Thread mServerThread;
+    private final AtomicInteger mConnections = new AtomicInteger();
+    private String mUrl;
+
+    /** keep-alive で 1 つのレスポンスを返した後、接続を閉じるサーバを開始する。 */
+    @Before
+    public void setUp() throws IOException {
+        mServerSocket = new ServerSocket(0, 8, InetAddress.getLoopbackAddress());
+        mUrl = "http://127.0.0.1:" + mServerSocket.getLocalPort() + "/";
+        mServerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        Socket socket = mServerSocket.accept();
+                        mConnections.incrementAndGet();
+                        respondOnce(socket);
+                        // クライアントはまだ接続をプールしている
+                        socket.close();
+                    }
+                } catch (IOException e) {
+                    // サーバを停止した
+                }
+            }
+        });
+        mServerThread.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        SharedHttpClient.shutdown();
+        mServerSocket.close();
+        mServerThread.join();
+    }
+
+    @Test
+    public void resendsGetOnConnectionClosedByServer() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            assertEquals("ok", SharedHttpClient.getInstance().execute(
+                    new HttpGet(mUrl), new BasicResponseHandler()));
+            // サーバが接続を閉じるのを待つ
+            Thread.sleep(50);
+        }
+        assertEquals(3, mConnections.get());
+    }
+
+    @Test
+    public void resendsPostOnConnectionClosedByServer() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            HttpPost post = new HttpPost(mUrl);
+            post.setEntity(new StringEntity("grant_type=refresh_token"));
+            assertEquals("ok", SharedHttpClient.getInstance().execute(
+                    post, new BasicResponseHandler()));
+            Thread.sleep(50);
+        }
+        assertEquals(3, mConnections.get());
+    }
+
+    private static void respondOnce(Socket socket) throws IOException {
+        BufferedReader in = new BufferedReader(
+                new InputStreamReader(socket.getInputStream(), "ISO-8859-1"));
+        int contentLength = 0;
+        String line;
+        while ((line = in.readLine()) != null && line.length() > 0) {
+            if (line.toLowerCase().startsWith("content-length:")) {
+                contentLength = Integer.parseInt(line.substring(15).trim());
+            }
+        }
+        for (int i = 0; i < contentLength; i++) {
+            in.read();
+        }
+        OutputStream out = socket.getOutputStream();
+        out.write(("HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\n"
+                + "Content-Length: 2\r\n\r\nok").getBytes("ISO-8859-1"));
+        out.flush();
+    }
+}
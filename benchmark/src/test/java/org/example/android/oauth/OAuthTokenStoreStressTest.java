@@ -0,0 +1,161 @@
+package org.example.android.oauth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.example.android.benchmark.BenchmarkContext;
+import org.junit.Test;
+
+/** 複数のスレッドから同時に読み書きしても、 {@link OAuthTokenStore} が
+ * Access Token と Refresh Token の組み合わせが崩れたトークンを返さないことと、
+ * flush() がいつまでも待たされないことを確かめる。
+ */
+public class OAuthTokenStoreStressTest {
+    private static final int WRITERS = 2;
+    private static final int READERS = 4;
+    private static final long DURATION_MS = 2000;
+
+    /** 書き込むトークンは、 Access Token と Refresh Token の末尾に同じ番号を付ける。 */
+    @Test
+    public void readsNeverSeeTornTokens() throws Exception {
+        final OAuthTokenStore store =
+            OAuthTokenStore.getInstance(new BenchmarkContext(), "stress-torn-read");
+        store.setToken("access-0-0", "refresh-0-0", 3600);
+        final long end = System.currentTimeMillis() + DURATION_MS;
+        ExecutorService executor = Executors.newFixedThreadPool(WRITERS + READERS);
+        try {
+            List<Future<Long>> writers = new ArrayList<Future<Long>>();
+            for (int w = 0; w < WRITERS; w++) {
+                final String writer = String.valueOf(w + 1);
+                writers.add(executor.submit(new Callable<Long>() {
+                    @Override
+                    public Long call() {
+                        long count = 0;
+                        while (System.currentTimeMillis() < end) {
+                            String suffix = "-" + writer + "-" + count++;
+                            store.setToken("access" + suffix, "refresh" + suffix, 3600);
+                        }
+                        return count;
+                    }
+                }));
+            }
+            List<Future<long[]>> readers = new ArrayList<Future<long[]>>();
+            for (int r = 0; r < READERS; r++) {
+                readers.add(executor.submit(new Callable<long[]>() {
+                    @Override
+                    public long[] call() {
+                        long reads = 0;
+                        long torn = 0;
+                        long backwards = 0;
+                        long lastVersion = 0;
+                        while (System.currentTimeMillis() < end) {
+                            OAuthToken token = store.getToken();
+                            reads++;
+                            if (!suffixOf(token.accessToken).equals(suffixOf(token.refreshToken))) {
+                                torn++;
+                            }
+                            if (token.version < lastVersion) {
+                                backwards++;
+                            }
+                            lastVersion = token.version;
+                        }
+                        return new long[] { reads, torn, backwards };
+                    }
+                }));
+            }
+
+            long writes = 0;
+            for (Future<Long> writer : writers) {
+                writes += writer.get();
+            }
+            long reads = 0;
+            long torn = 0;
+            long backwards = 0;
+            for (Future<long[]> reader : readers) {
+                long[] result = reader.get();
+                reads += result[0];
+                torn += result[1];
+                backwards += result[2];
+            }
+            assertTrue("no writes", writes > 0);
+            assertTrue("no reads", reads > 0);
+            assertEquals("torn reads in " + reads + " reads", 0, torn);
+            assertEquals("version went backwards", 0, backwards);
+        } finally {
+            executor.shutdownNow();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    /** 古いトークンを元にしたリフレッシュの結果は、その後に保存されたトークンを上書きしない。 */
+    @Test
+    public void compareAndSetWithStaleTokenKeepsNewerToken() {
+        OAuthTokenStore store =
+            OAuthTokenStore.getInstance(new BenchmarkContext(), "stress-compare-and-set");
+        store.setToken("access-old", "refresh-old", 3600);
+        OAuthToken stale = store.getToken();
+        store.setToken("access-login", "refresh-login", 3600);
+        OAuthToken newer = store.getToken();
+
+        OAuthToken refreshed = new OAuthToken("access-refreshed", "refresh-refreshed",
+                System.currentTimeMillis() + 3600 * 1000);
+        assertFalse(store.compareAndSetToken(stale, refreshed));
+        assertSame(newer, store.getToken());
+
+        assertTrue(store.compareAndSetToken(newer, refreshed));
+        assertEquals("access-refreshed", store.getToken().accessToken);
+        assertTrue(store.getToken().version > newer.version);
+    }
+
+    /** 他のスレッドが書き込み続けていても、 flush() は呼び出す前の変更を書き込んだ時点で戻る。 */
+    @Test
+    public void flushDoesNotWaitForLaterWrites() throws Exception {
+        // commit() に 0.5 ms かかるストレージ
+        final BenchmarkContext context = new BenchmarkContext(0, 500);
+        final OAuthTokenStore store = OAuthTokenStore.getInstance(context, "stress-flush");
+        final long end = System.currentTimeMillis() + DURATION_MS;
+        ExecutorService executor = Executors.newFixedThreadPool(WRITERS);
+        try {
+            for (int w = 0; w < WRITERS; w++) {
+                executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        long count = 0;
+                        while (System.currentTimeMillis() < end) {
+                            store.setToken("access-" + count, "refresh-" + count, 3600);
+                            count++;
+                        }
+                    }
+                });
+            }
+            int flushes = 0;
+            long slowest = 0;
+            while (System.currentTimeMillis() < end - 200) {
+                store.setToken("access-flush-" + flushes, "refresh-flush", 3600);
+                long start = System.nanoTime();
+                store.flush();
+                slowest = Math.max(slowest, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                flushes++;
+            }
+            assertTrue("no flushes", flushes > 0);
+            assertTrue("flush took " + slowest + "ms", slowest < 200);
+        } finally {
+            executor.shutdownNow();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    private static String suffixOf(String token) {
+        return token.substring(token.indexOf('-'));
+    }
+}
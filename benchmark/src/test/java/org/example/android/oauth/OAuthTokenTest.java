@@ -0,0 +1,36 @@
+package org.example.android.oauth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.apache.http.Header;
+import org.junit.Test;
+
+/** {@link OAuthToken#getAuthorizationHeader()} が、複数のアカウントのトークンを交互に使っても
+ * トークンごとに 1 つのヘッダを使い回すことを確かめる。
+ */
+public class OAuthTokenTest {
+
+    @Test
+    public void headerIsCachedPerToken() {
+        OAuthToken a = new OAuthToken("access-a", "refresh-a", 0);
+        OAuthToken b = new OAuthToken("access-b", "refresh-b", 0);
+        Header headerA = a.getAuthorizationHeader();
+        Header headerB = b.getAuthorizationHeader();
+
+        assertEquals("Authorization", headerA.getName());
+        assertEquals("OAuth access-a", headerA.getValue());
+        assertEquals("OAuth access-b", headerB.getValue());
+        for (int i = 0; i < 3; i++) {
+            assertSame(headerA, a.getAuthorizationHeader());
+            assertSame(headerB, b.getAuthorizationHeader());
+        }
+    }
+
+    @Test
+    public void storedTokenKeepsHeader() {
+        OAuthToken token = new OAuthToken("access", "refresh", 0);
+        Header header = token.getAuthorizationHeader();
+        assertSame(header, token.withVersion(7).getAuthorizationHeader());
+    }
+}
@@ -0,0 +1,72 @@
+package org.example.android.oauth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.example.android.benchmark.BenchmarkContext;
+import org.example.android.benchmark.LocalTransport;
+import org.example.android.benchmark.StubHttpServer;
+import org.example.android.network.ApiRequestUtils;
+import org.example.android.network.RateLimiter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import android.content.Context;
+
+/** {@link TokenRefreshScheduler} が、生成時に指定したアカウントのトークンをリフレッシュして
+ * そのアカウントの SharedPreferences に保存することを確かめる。
+ */
+public class TokenRefreshSchedulerTest {
+    /** {@link org.example.android.benchmark.Responses#token()} の Access Token */
+    private static final String REFRESHED_ACCESS_TOKEN = "2c7e4b1a9d8f6e5c3b2a1f0e9d8c7b6a5f4e3d2c";
+    private static final long TIMEOUT_MS = 10000;
+
+    private StubHttpServer mServer;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new StubHttpServer();
+        mServer.start();
+        ApiRequestUtils.setTransport(new LocalTransport(mServer.getPort()));
+        RateLimiter.setEnabled(false);
+    }
+
+    @After
+    public void tearDown() {
+        ApiRequestUtils.getTransport().shutdown();
+        ApiRequestUtils.setTransport(null);
+        RateLimiter.setEnabled(true);
+        mServer.stop();
+    }
+
+    @Test
+    public void refreshesTheStoreItWasCreatedFor() throws Exception {
+        BenchmarkContext context = new BenchmarkContext();
+        OAuthTokenStore other = OAuthTokenStore.getInstance(context, "scheduler-other");
+        other.setToken(new OAuthToken("access-other", "refresh-other",
+                System.currentTimeMillis() + 200));
+        OAuthTokenStore store = OAuthTokenStore.getInstance(context, "scheduler-target");
+        store.setToken(new OAuthToken("access-target", "refresh-target",
+                System.currentTimeMillis() + 200));
+
+        TokenRefreshScheduler scheduler = new TokenRefreshScheduler(store, 0);
+        scheduler.start();
+        try {
+            long end = System.currentTimeMillis() + TIMEOUT_MS;
+            while (!REFRESHED_ACCESS_TOKEN.equals(store.getToken().accessToken)
+                    && System.currentTimeMillis() < end) {
+                Thread.sleep(20);
+            }
+        } finally {
+            scheduler.stop();
+        }
+
+        assertEquals(REFRESHED_ACCESS_TOKEN, store.getToken().accessToken);
+        assertEquals("access-other", other.getToken().accessToken);
+        store.flush();
+        assertEquals(REFRESHED_ACCESS_TOKEN, context.getSharedPreferences(
+                "oauth_token_scheduler-target", Context.MODE_PRIVATE).getString("accessToken", null));
+        assertNull(OAuthTokenStore.getInstance(context).getToken().accessToken);
+    }
+}
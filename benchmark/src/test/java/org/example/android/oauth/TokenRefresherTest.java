@@ -0,0 +1,74 @@
+package org.example.android.oauth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.example.android.benchmark.LocalTransport;
+import org.example.android.benchmark.StubHttpServer;
+import org.example.android.network.ApiRequestUtils;
+import org.example.android.network.RateLimiter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** 同じ Refresh Token で同時にリフレッシュしても、 {@link TokenRefresher} が
+ * トークンエンドポイントに 1 回だけ POST し、すべての呼び出し元に同じトークンを返すことを確かめる。
+ */
+public class TokenRefresherTest {
+    private static final int CALLERS = 32;
+    /** すべての呼び出し元がリフレッシュを待ち始めるまで、応答を遅らせる */
+    private static final long TOKEN_DELAY_MS = 300;
+
+    private StubHttpServer mServer;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new StubHttpServer();
+        mServer.setTokenDelay(TOKEN_DELAY_MS);
+        mServer.start();
+        ApiRequestUtils.setTransport(new LocalTransport(mServer.getPort()));
+        RateLimiter.setEnabled(false);
+    }
+
+    @After
+    public void tearDown() {
+        ApiRequestUtils.getTransport().shutdown();
+        ApiRequestUtils.setTransport(null);
+        RateLimiter.setEnabled(true);
+        mServer.stop();
+    }
+
+    @Test
+    public void concurrentRefreshesSendOneRequest() throws Exception {
+        final CyclicBarrier start = new CyclicBarrier(CALLERS);
+        ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+        try {
+            List<Future<OAuthToken>> results = new ArrayList<Future<OAuthToken>>();
+            for (int i = 0; i < CALLERS; i++) {
+                results.add(executor.submit(new Callable<OAuthToken>() {
+                    @Override
+                    public OAuthToken call() throws Exception {
+                        start.await();
+                        return TokenRefresher.refresh("refresh-concurrent");
+                    }
+                }));
+            }
+            OAuthToken first = results.get(0).get(10, TimeUnit.SECONDS);
+            for (Future<OAuthToken> result : results) {
+                assertSame(first, result.get(10, TimeUnit.SECONDS));
+            }
+            assertEquals(1, mServer.getTokenRequestCount());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
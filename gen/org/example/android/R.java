@@ -30,8 +30,6 @@ public final class R {
         public static final int auth_progress_title=0x7f04000b;
         public static final int error_while_retrieving_data=0x7f040009;
         public static final int failed_to_authorize=0x7f040001;
-        public static final int footer_view_load_next_description=0x7f04000f;
-        public static final int footer_view_load_next_text=0x7f04000e;
         public static final int footer_view_loading_text=0x7f04000d;
         public static final int list_empty=0x7f040005;
         public static final int login=0x7f040003;
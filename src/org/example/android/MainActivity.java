@@ -1,74 +1,129 @@
 package org.example.android;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import org.apache.http.client.ClientProtocolException;
+import org.example.android.api.FriendListCache;
+import org.example.android.api.PagedFriendList;
 import org.example.android.api.PeopleApiClient;
-import org.example.android.api.PeopleApiResponse;
 import org.example.android.api.entity.MixiPerson;
+import org.example.android.network.ApiRequestUtils;
+import org.example.android.network.HttpResponseCache;
+import org.example.android.network.SharedHttpClient;
 import org.example.android.oauth.OAuthClient;
 import org.example.android.oauth.OAuthToken;
 import org.example.android.oauth.OAuthTokenStore;
 import org.example.android.oauth.TokenInvalidException;
+import org.example.android.oauth.TokenRefreshScheduler;
 
 import android.app.Dialog;
 import android.app.ListActivity;
 import android.app.ProgressDialog;
 import android.content.Intent;
+import android.database.SQLException;
 import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.Window;
+import android.widget.AbsListView;
 import android.widget.AdapterView;
-import android.widget.ArrayAdapter;
 import android.widget.ListView;
-import android.widget.TextView;
 import android.widget.Toast;
+import android.widget.AbsListView.OnScrollListener;
 import android.widget.AdapterView.OnItemClickListener;
 
 public class MainActivity extends ListActivity
-        implements OnItemClickListener {
+        implements OnItemClickListener, OnScrollListener, PagedFriendList.Listener {
     
     private static final String TAG = "MainActivity";
     private static final int DIALOG_PROGRESS = 1;
+    private static final String HTTP_CACHE_DIR = "http";
+    private static final long HTTP_CACHE_SIZE = 2 * 1024 * 1024;
+    private static final int FETCH_COUNT_PER_REQUEST = 20;
+    /** 表示範囲の前後に読み込んでおく件数 */
+    private static final int PREFETCH_DISTANCE = 20;
     
     private ListView mListView;
-    private View mFooterView;
-    private View mFooterLoadingView;
     
-    private ArrayAdapter<MixiPerson> mAdapter;
-    private PeopleLoaderTask mLoaderTask;
+    private PersonListAdapter mAdapter;
+    private PagedFriendList mFriends;
+    private TokenRefreshScheduler mRefreshScheduler;
+    private FriendListCache mFriendCache;
+    /** キャッシュの削除やトークンの書き込みを、要求した順に 1 つずつ実行する */
+    private ExecutorService mBackgroundExecutor;
+    /** onCreate が呼ばれた時刻。最初に一覧を表示するまでの時間の計測に使用する */
+    private long mCreatedAt;
+    private boolean mCacheContentLogged;
+    private boolean mServerContentLogged;
     
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        mCreatedAt = SystemClock.elapsedRealtime();
         requestWindowFeature(Window.FEATURE_INDETERMINATE_PROGRESS);
         setContentView(R.layout.main);
         setProgressBarIndeterminate(true);
+        SharedHttpClient.init(this);
+        HttpResponseCache.install(new File(getCacheDir(), HTTP_CACHE_DIR), HTTP_CACHE_SIZE);
+        mRefreshScheduler = new TokenRefreshScheduler(this);
+        mFriendCache = new FriendListCache(this);
+        mBackgroundExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, TAG + "-background");
+            }
+        });
 
-        // リストの末尾要素 (続きを取得/読込中) の構成
-        mFooterView = createFooterView();
-        mFooterLoadingView = createFooterLoadingView();
+        // 表示範囲の周辺だけを読み込む一覧
+        mFriends = new PagedFriendList(new PeopleApiClient(this), mFriendCache,
+                FETCH_COUNT_PER_REQUEST, PREFETCH_DISTANCE, this);
 
         // リストの構成
         mListView = (ListView) findViewById(android.R.id.list);
         mListView.setOnItemClickListener(this);
-        mListView.addFooterView(mFooterView, null, true);
+        mListView.setOnScrollListener(this);
         
         // リストにセットするアダプタ
-		mAdapter = new ArrayAdapter<MixiPerson>(this,
-				android.R.layout.simple_list_item_1, android.R.id.text1);
+        mAdapter = new PersonListAdapter(this, mFriends);
         mListView.setAdapter(mAdapter);
         
-        // まずインテントを処理して、何もなければトークン取得へ遷移
-        if (!parseIntent(getIntent()))
+        // まずインテントを処理して、何もなければ前回の一覧を表示しつつトークン取得へ遷移
+        if (!parseIntent(getIntent())) {
+            mFriends.loadCached();
             startLoadStoredToken();
+        }
     }
     
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mFriends.stop();
+        if (isFinishing()) {
+            // アプリの終了時はプール内の接続を閉じる
+            mRefreshScheduler.stop();
+            ApiRequestUtils.getTransport().shutdown();
+            flushTokenStore();
+        }
+        // 削除や書き込みが残っている間はデータベースを閉じない
+        final FriendListCache cache = mFriendCache;
+        mBackgroundExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                cache.close();
+            }
+        });
+        mBackgroundExecutor.shutdown();
+    }
+
     @Override
     protected void onNewIntent(Intent intent) {
         // インスタンスが生きている状態で新しい Intent を受け取った
@@ -111,33 +166,52 @@ public class MainActivity extends ListActivity
             i.setData(Uri.parse(person.profileUrl));
             startActivity(i);
         } else {
-            // read more
-            startLoadFromServer(parent.getCount() - 1);
+            // 読み込み中の行。取得に失敗して止まっている場合は再開する
+            mFriends.retry();
         }
     }
 
-    /** ListView 末尾の 続きを取得 の View を生成して返す
-     * @return {@link ListView#addFooterView(View)} にセットする View
-     */
-    private View createFooterView() {
-        View view = getLayoutInflater().inflate(android.R.layout.simple_list_item_2, null);
-        TextView text1 = (TextView) view.findViewById(android.R.id.text1);
-        TextView text2 = (TextView) view.findViewById(android.R.id.text2);
-        text1.setText(R.string.footer_view_load_next_text);
-        text2.setText(R.string.footer_view_load_next_description);
-        return view;
+    @Override
+    public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount,
+            int totalItemCount) {
+        mFriends.setVisibleRange(firstVisibleItem, visibleItemCount);
     }
-    
-    /** ListView 末尾の 読み込み中 の View を生成して返す
-     * @return {@link ListView#addFooterView(View)} にセットする View
-     */
-    private View createFooterLoadingView() {
-        View view = getLayoutInflater().inflate(android.R.layout.simple_list_item_1, null);
-        TextView text1 = (TextView) view.findViewById(android.R.id.text1);
-        text1.setText(R.string.footer_view_loading_text);
-        return view;
+
+    @Override
+    public void onScrollStateChanged(AbsListView view, int scrollState) {
     }
-    
+
+    @Override
+    public void onPageLoaded(int page, boolean fromServer) {
+        mAdapter.notifyDataSetChanged();
+        Log.v(TAG, mFriends.getLoadedCount() + " of " + mFriends.size() + " friends in memory: "
+                + mFriends.estimateHeapBytes() + " bytes");
+        if (fromServer && !mServerContentLogged) {
+            mServerContentLogged = true;
+            logTimeToFirstContent("server");
+        } else if (!fromServer && !mCacheContentLogged) {
+            mCacheContentLogged = true;
+            logTimeToFirstContent("cache");
+        }
+    }
+
+    @Override
+    public void onLoadingChanged(boolean loading) {
+        setProgressBarIndeterminateVisibility(loading);
+    }
+
+    @Override
+    public void onLoadFailed(Throwable error) {
+        if (error instanceof TokenInvalidException) {
+            // トークンが無効になりリフレッシュもできない場合は再ログインが必要
+            showToast(R.string.need_relogin);
+            clearLoginState();
+        } else {
+            showToast(String.format(getText(R.string.error_while_retrieving_data).toString(),
+                    error.getLocalizedMessage()));
+        }
+    }
+
     /** 保存済みの Access Token を読み込むタスクを開始する。 */
     private void startLoadStoredToken() {
         new TokenLoadTask().execute();
@@ -157,16 +231,6 @@ public class MainActivity extends ListActivity
         initiateLoginProcess();
     }
     
-    /** 友人一覧を取得するタスクを開始する。
-     * @param start 取得する先頭の index
-     */
-    private void startLoadFromServer(int start) {
-        if (mLoaderTask == null || !mLoaderTask.getStatus().equals(AsyncTask.Status.RUNNING)) {
-            mLoaderTask = new PeopleLoaderTask();
-            mLoaderTask.execute(start);
-        }
-    }
-    
     /** OAuth の認証フローを開始する。ブラウザで認可ページが開かれる。 */
     public void initiateLoginProcess() {
         OAuthClient.initiateLoginProcess(this);
@@ -219,10 +283,64 @@ public class MainActivity extends ListActivity
     /** ログイン状態を破棄してログアウト状態に戻す。リストもクリアする。
      */
     public void clearLoginState() {
-        OAuthTokenStore store = new OAuthTokenStore(MainActivity.this);
+        OAuthTokenStore store = OAuthTokenStore.getInstance(MainActivity.this);
         store.clearToken();
+        flushTokenStore();
+        mRefreshScheduler.stop();
+        clearResponseCache();
+        clearFriendCache();
         setLoginButtonVisibility(true);
-        mAdapter.clear();
+        mFriends.clear();
+        mAdapter.notifyDataSetChanged();
+    }
+
+    /** 保存待ちのトークンの変更を、バックグラウンドで SharedPreferences に書き込む。
+     * ログアウト直後にプロセスが終了しても、古いトークンでログインし直さないようにする。
+     */
+    private void flushTokenStore() {
+        final OAuthTokenStore store = OAuthTokenStore.getInstance(this);
+        mBackgroundExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                store.flush();
+            }
+        });
+    }
+
+    /** 前のアカウントのレスポンスが残らないよう、 HTTP キャッシュをバックグラウンドで削除する。 */
+    private void clearResponseCache() {
+        final HttpResponseCache cache = HttpResponseCache.getInstalled();
+        if (cache != null) {
+            mBackgroundExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    cache.evictAll();
+                }
+            });
+        }
+    }
+
+    /** 前のアカウントの友人一覧が残らないよう、保存した一覧をバックグラウンドで削除する。 */
+    private void clearFriendCache() {
+        final FriendListCache cache = mFriendCache;
+        mBackgroundExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    cache.clear();
+                } catch (SQLException e) {
+                    Log.w(TAG, "failed to clear cached friends", e);
+                }
+            }
+        });
+    }
+
+    /** 起動してから一覧を表示するまでの時間をログに出力する。
+     * @param source 表示した一覧の取得元
+     */
+    private void logTimeToFirstContent(String source) {
+        Log.i(TAG, "first content from " + source + " in "
+                + (SystemClock.elapsedRealtime() - mCreatedAt) + "ms");
     }
 
     /**
@@ -259,7 +377,7 @@ public class MainActivity extends ListActivity
                 if (result == null) {
                     showToast(R.string.failed_to_authorize);
                 } else {
-                    OAuthTokenStore store = new OAuthTokenStore(MainActivity.this);
+                    OAuthTokenStore store = OAuthTokenStore.getInstance(MainActivity.this);
                     store.setToken(result);
                     startLoadStoredToken();
                 }
@@ -277,7 +395,7 @@ public class MainActivity extends ListActivity
     class TokenLoadTask extends AsyncTask<Void,Void,OAuthToken> {
         @Override
         protected OAuthToken doInBackground(Void... params) {
-            OAuthTokenStore mTokenStore = new OAuthTokenStore(MainActivity.this);
+            OAuthTokenStore mTokenStore = OAuthTokenStore.getInstance(MainActivity.this);
             if (mTokenStore.hasToken()) {
                 return mTokenStore.getToken();
             }
@@ -289,71 +407,10 @@ public class MainActivity extends ListActivity
                 setLoginButtonVisibility(true);
             } else {
                 setLoginButtonVisibility(false);
-                startLoadFromServer(0);
-            }
-        }
-    }
-    
-    /** 友人一覧を取得するタスク。
-     * {@link #execute(Integer...)} の引数に取得開始インデックスを指定する。
-     */
-    /*package*/
-    class PeopleLoaderTask extends AsyncTask<Integer,Void,PeopleApiResponse> {
-        private static final int FETCH_COUNT_PER_REQUEST = 20;
-        private String errorMessage = null;
-        private boolean mNeedRelogin = false;
-        @Override
-        protected void onPreExecute() {
-            super.onPreExecute();
-            setProgressBarIndeterminateVisibility(true);
-            showToast(R.string.retrieving_friend_list);
-            
-            // footer view の切り替え
-            mListView.removeFooterView(mFooterView);
-            mListView.addFooterView(mFooterLoadingView);
-        }
-        @Override
-        protected PeopleApiResponse doInBackground(Integer... params) {
-            int startIndex = params[0];
-            PeopleApiClient client = new PeopleApiClient(MainActivity.this);
-            try {
-                return client.getFriends(startIndex, FETCH_COUNT_PER_REQUEST);
-            } catch (TokenInvalidException e) {
-                Log.w(TAG, "token is no longer valid");
-                // トークンが無効になりリフレッシュもできない場合は再ログインが必要
-            	mNeedRelogin = true; 
-            } catch (ClientProtocolException e) {
-                Log.w(TAG, "request failed", e);
-                errorMessage = e.getLocalizedMessage();
-            } catch (IOException e) {
-                Log.w(TAG, "request failed", e);
-                errorMessage = e.getLocalizedMessage();
-            }
-            return null;
-        }
-        @Override
-        protected void onPostExecute(PeopleApiResponse result) {
-            super.onPostExecute(result);
-            setProgressBarIndeterminateVisibility(false);
-            mListView.removeFooterView(mFooterLoadingView);
-            
-            if (result != null) {
-                for (MixiPerson person : result.entry) {
-                    mAdapter.add(person);
-                }
-                // more items?
-                int remain = result.totalResults - mAdapter.getCount();
-                if (remain > 0) {
-                    showToast(String.format(getText(R.string.remaining_list_count).toString(),
-                            remain));
-                    mListView.addFooterView(mFooterView);
-                }
-            } else if (mNeedRelogin) {
-            	showToast(R.string.need_relogin);
-            	clearLoginState();
-            } else {
-                showToast(String.format(getText(R.string.error_while_retrieving_data).toString(),
-                        errorMessage));
+                // 期限切れ前にバックグラウンドでリフレッシュする
+                mRefreshScheduler.start();
+                showToast(R.string.retrieving_friend_list);
+                mFriends.start();
             }
         }
     }
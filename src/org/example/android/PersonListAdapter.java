@@ -0,0 +1,58 @@
+package org.example.android;
+
+import org.example.android.api.PagedFriendList;
+import org.example.android.api.entity.MixiPerson;
+
+import android.content.Context;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+
+/** {@link PagedFriendList} を参照して友人一覧を表示するアダプタ。
+ * 件数は一覧全体の件数を返し、まだ読み込んでいない位置には読み込み中の表示をする。
+ * {@link #getItem(int)} は呼び出されるたびに {@link MixiPerson} を生成し、
+ * 読み込んでいない位置では null を返す。
+ */
+public class PersonListAdapter extends BaseAdapter {
+    private final LayoutInflater mInflater;
+    private final PagedFriendList mList;
+    private final CharSequence mLoadingText;
+
+    public PersonListAdapter(Context context, PagedFriendList list) {
+        mInflater = LayoutInflater.from(context);
+        mList = list;
+        mLoadingText = context.getText(R.string.footer_view_loading_text);
+    }
+
+    @Override
+    public int getCount() {
+        return mList.size();
+    }
+
+    @Override
+    public MixiPerson getItem(int position) {
+        return mList.get(position);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return position;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        View view = convertView;
+        if (view == null) {
+            view = mInflater.inflate(android.R.layout.simple_list_item_1, parent, false);
+        }
+        TextView text = (TextView) view.findViewById(android.R.id.text1);
+        if (mList.isLoaded(position)) {
+            text.setText(mList.getDisplayName(position));
+        } else {
+            text.setText(mLoadingText);
+        }
+        return view;
+    }
+}
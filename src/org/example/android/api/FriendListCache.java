@@ -0,0 +1,176 @@
+package org.example.android.api;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.example.android.api.entity.MixiPerson;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+/** 友人一覧をローカルの SQLite データベースに保存するキャッシュ。
+ * 起動直後、サーバからの応答を待たずに前回の一覧を表示するためと、
+ * メモリから破棄したページを再び表示する時に読み込むために使用する。
+ * 行は一覧の中の位置をキーにして保存する。
+ * サーバから取得したページは {@link #update(int, List)} で保存済みの行と比較し、
+ * 内容が変わった行だけをページごとに 1 つのトランザクションで書き込む。
+ * <p>
+ * データベースへのアクセスは UI スレッド以外から行うこと。
+ */
+public class FriendListCache extends SQLiteOpenHelper {
+    private static final String TAG = "FriendListCache";
+    private static final String DATABASE_NAME = "friends.db";
+    private static final int DATABASE_VERSION = 1;
+
+    private static final String TABLE = "friends";
+    private static final String COLUMN_POSITION = "position";
+    private static final String COLUMN_DISPLAY_NAME = "display_name";
+    private static final String COLUMN_PROFILE_URL = "profile_url";
+
+    private static final String SQL_REPLACE = "INSERT OR REPLACE INTO " + TABLE + " ("
+            + COLUMN_POSITION + ", " + COLUMN_DISPLAY_NAME + ", " + COLUMN_PROFILE_URL
+            + ") VALUES (?, ?, ?)";
+
+    public FriendListCache(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE + " ("
+                + COLUMN_POSITION + " INTEGER PRIMARY KEY, "
+                + COLUMN_DISPLAY_NAME + " TEXT, "
+                + COLUMN_PROFILE_URL + " TEXT)");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // キャッシュなので、作り直してサーバから取得し直す
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE);
+        onCreate(db);
+    }
+
+    /** 保存されている行の数を返す。 */
+    public int size() {
+        Cursor c = getReadableDatabase().rawQuery("SELECT COUNT(*) FROM " + TABLE, null);
+        try {
+            return c.moveToNext() ? c.getInt(0) : 0;
+        } finally {
+            c.close();
+        }
+    }
+
+    /** 保存されている一覧のうち、指定した範囲を先頭から順に返す。
+     * @param startIndex 読み込みを開始する位置
+     * @param count 読み込む件数
+     * @return 保存されている一覧。保存されていない場合は空のリスト
+     */
+    public List<MixiPerson> load(int startIndex, int count) {
+        SQLiteDatabase db = getReadableDatabase();
+        Cursor c = db.query(TABLE, new String[] { COLUMN_DISPLAY_NAME, COLUMN_PROFILE_URL },
+                COLUMN_POSITION + " >= ? AND " + COLUMN_POSITION + " < ?",
+                new String[] { String.valueOf(startIndex), String.valueOf(startIndex + count) },
+                null, null, COLUMN_POSITION);
+        try {
+            ArrayList<MixiPerson> people = new ArrayList<MixiPerson>(c.getCount());
+            while (c.moveToNext()) {
+                MixiPerson person = new MixiPerson();
+                person.displayName = c.getString(0);
+                person.profileUrl = c.getString(1);
+                people.add(person);
+            }
+            return people;
+        } finally {
+            c.close();
+        }
+    }
+
+    /** サーバから取得したページを保存する。保存済みの行と内容が同じ行は書き込まない。
+     * @param startIndex ページの先頭の位置
+     * @param people ページに含まれる友人
+     * @return 書き込んだ行数
+     */
+    public int update(int startIndex, List<MixiPerson> people) {
+        int count = people.size();
+        if (count == 0) {
+            return 0;
+        }
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            String[] names = new String[count];
+            String[] urls = new String[count];
+            boolean[] stored = new boolean[count];
+            Cursor c = db.query(TABLE,
+                    new String[] { COLUMN_POSITION, COLUMN_DISPLAY_NAME, COLUMN_PROFILE_URL },
+                    COLUMN_POSITION + " >= ? AND " + COLUMN_POSITION + " < ?",
+                    new String[] { String.valueOf(startIndex), String.valueOf(startIndex + count) },
+                    null, null, null);
+            try {
+                while (c.moveToNext()) {
+                    int i = c.getInt(0) - startIndex;
+                    names[i] = c.getString(1);
+                    urls[i] = c.getString(2);
+                    stored[i] = true;
+                }
+            } finally {
+                c.close();
+            }
+
+            int written = 0;
+            SQLiteStatement replace = db.compileStatement(SQL_REPLACE);
+            try {
+                for (int i = 0; i < count; i++) {
+                    MixiPerson person = people.get(i);
+                    if (stored[i] && equals(names[i], person.displayName)
+                            && equals(urls[i], person.profileUrl)) {
+                        continue;
+                    }
+                    replace.bindLong(1, startIndex + i);
+                    bindStringOrNull(replace, 2, person.displayName);
+                    bindStringOrNull(replace, 3, person.profileUrl);
+                    replace.execute();
+                    replace.clearBindings();
+                    written++;
+                }
+            } finally {
+                replace.close();
+            }
+            db.setTransactionSuccessful();
+            Log.v(TAG, "updated " + written + " of " + count + " rows from " + startIndex);
+            return written;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /** 指定した件数より後ろの行を削除する。友人が減った場合に、一覧の取得を終えた後で呼び出す。
+     * @param size 残す件数
+     * @return 削除した行数
+     */
+    public int truncate(int size) {
+        return getWritableDatabase().delete(TABLE, COLUMN_POSITION + " >= ?",
+                new String[] { String.valueOf(size) });
+    }
+
+    /** 保存されている一覧をすべて削除する。 */
+    public void clear() {
+        getWritableDatabase().delete(TABLE, null, null);
+    }
+
+    private static void bindStringOrNull(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
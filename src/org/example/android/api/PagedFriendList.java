@@ -0,0 +1,419 @@
+package org.example.android.api;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+
+import org.example.android.api.entity.MixiPerson;
+import org.example.android.network.ApiFuture;
+import org.example.android.network.ApiRequestUtils;
+import org.example.android.network.RequestPriority;
+
+import android.database.SQLException;
+import android.os.Handler;
+import android.util.Log;
+import android.util.SparseArray;
+
+/** 友人一覧のうち、表示している位置の周辺のページだけをメモリに保持するリスト。
+ * {@link #setVisibleRange(int, int)} で表示範囲を通知すると、
+ * 表示範囲の前後 prefetchDistance 件までのページを読み込み、それより離れたページは破棄する。
+ * 保持するページ数は表示範囲の大きさで決まり、どこまでスクロールしても増えない。
+ * <p>
+ * ページはまず {@link FriendListCache} から読み込んで表示し、 {@link #start()} の後は
+ * サーバから取得し直してキャッシュを更新する。一度サーバから取得したページは、
+ * 破棄された後で再び表示される時にはキャッシュから読み込む。
+ * <p>
+ * UI スレッドから使用すること。 {@link Listener} も UI スレッドで呼ばれる。
+ */
+public class PagedFriendList {
+    private static final String TAG = "PagedFriendList";
+
+    /** 読み込みの状態を受け取るリスナ */
+    public interface Listener {
+        /** ページを読み込んだ。
+         * @param page ページ番号
+         * @param fromServer サーバから取得した場合 true, キャッシュから読み込んだ場合 false
+         */
+        void onPageLoaded(int page, boolean fromServer);
+        /** 読み込み中かどうかが変わった。 */
+        void onLoadingChanged(boolean loading);
+        /** サーバからの取得に失敗した。 {@link PagedFriendList#retry()} を呼ぶまで取得を止める。 */
+        void onLoadFailed(Throwable error);
+    }
+
+    /** 1 ページ分の読み込み結果 */
+    private static class PageResult {
+        List<MixiPerson> people;
+        /** 全体の件数。キャッシュから読み込んだ場合は保存されている件数 */
+        int totalResults;
+        boolean fromServer;
+    }
+
+    private final PeopleApiClient mClient;
+    private final FriendListCache mCache;
+    private final int mPrefetchDistance;
+    private final Listener mListener;
+    private final Handler mHandler = new Handler();
+    private final Executor mMainExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            mHandler.post(command);
+        }
+    };
+
+    private int mPageSize;
+    /** サーバのページサイズに合わせたかどうか */
+    private boolean mPageSizeConfirmed;
+    private final SparseArray<PersonStore> mPages = new SparseArray<PersonStore>();
+    private final SparseArray<Future<?>> mLoading = new SparseArray<Future<?>>();
+    /** このセッションでサーバから取得し、キャッシュが最新になっているページ */
+    private final BitSet mFresh = new BitSet();
+    /** キャッシュからの読み込みを済ませたページ。破棄されたら読み込み直す */
+    private final BitSet mCacheRead = new BitSet();
+    /** 全体の件数。不明な場合は -1 */
+    private int mTotalResults = -1;
+    private boolean mTotalFromServer;
+    private boolean mOnline;
+    private boolean mFailed;
+    /** {@link #clear()} の前に開始した読み込みの結果を捨てるための番号 */
+    private int mGeneration;
+    private int mFirstVisible;
+    private int mVisibleCount = 1;
+
+    /** リストを生成する。
+     * @param client 使用する {@link PeopleApiClient}
+     * @param cache ページを保存する {@link FriendListCache}
+     * @param pageSize 1 回のリクエストで取得する件数
+     * @param prefetchDistance 表示範囲の前後に読み込んでおく件数
+     * @param listener 読み込みの状態を受け取るリスナ
+     */
+    public PagedFriendList(PeopleApiClient client, FriendListCache cache, int pageSize,
+            int prefetchDistance, Listener listener) {
+        if (pageSize <= 0 || prefetchDistance < 0)
+            throw new IllegalArgumentException("invalid page size or prefetch distance");
+        mClient = client;
+        mCache = cache;
+        mPageSize = pageSize;
+        mPrefetchDistance = prefetchDistance;
+        mListener = listener;
+    }
+
+    /** 件数を返す。全体の件数が分かるまでは、読み込んだ範囲の件数を返す。 */
+    public int size() {
+        if (mTotalResults >= 0) {
+            return mTotalResults;
+        }
+        PersonStore first = mPages.get(0);
+        return first == null ? 0 : first.size();
+    }
+
+    /** 指定した位置を含むページを読み込んでいるかどうかを返す。 */
+    public boolean isLoaded(int position) {
+        PersonStore store = mPages.get(position / mPageSize);
+        return store != null && position % mPageSize < store.size();
+    }
+
+    /** 指定した位置の友人を返す。
+     * @return 位置を含むページを読み込んでいない場合は null
+     */
+    public MixiPerson get(int position) {
+        PersonStore store = mPages.get(position / mPageSize);
+        int offset = position % mPageSize;
+        return store == null || offset >= store.size() ? null : store.get(offset);
+    }
+
+    /** 指定した位置の友人の displayName を返す。
+     * @return 位置を含むページを読み込んでいない場合は null
+     */
+    public String getDisplayName(int position) {
+        PersonStore store = mPages.get(position / mPageSize);
+        int offset = position % mPageSize;
+        return store == null || offset >= store.size() ? null : store.getDisplayName(offset);
+    }
+
+    /** 読み込み中のページがあるかどうかを返す。 */
+    public boolean isLoading() {
+        return mLoading.size() > 0;
+    }
+
+    /** メモリに保持しているページの合計件数を返す。 */
+    public int getLoadedCount() {
+        int count = 0;
+        for (int i = 0; i < mPages.size(); i++) {
+            count += mPages.valueAt(i).size();
+        }
+        return count;
+    }
+
+    /** メモリに保持しているページのヒープ使用量の見積もりを返す。 */
+    public long estimateHeapBytes() {
+        long bytes = 0;
+        for (int i = 0; i < mPages.size(); i++) {
+            bytes += mPages.valueAt(i).estimateHeapBytes();
+        }
+        return bytes;
+    }
+
+    /** サーバから取得する前に、表示範囲のページをキャッシュから読み込む。 */
+    public void loadCached() {
+        updateWindow();
+    }
+
+    /** サーバからの取得を開始する。それまではキャッシュからのみ読み込む。 */
+    public void start() {
+        mOnline = true;
+        mFailed = false;
+        updateWindow();
+    }
+
+    /** 取得に失敗して止まっている場合に、取得を再開する。 */
+    public void retry() {
+        if (mFailed) {
+            mFailed = false;
+            updateWindow();
+        }
+    }
+
+    /** 実行中の読み込みを中断し、サーバからの取得を止める。読み込んだページは保持する。 */
+    public void stop() {
+        mOnline = false;
+        // 空の範囲を指定して、すべて中断する
+        cancelLoading(0, -1);
+    }
+
+    /** 読み込みを中断し、読み込んだページをすべて破棄する。ログアウト時に使用する。 */
+    public void clear() {
+        stop();
+        mGeneration++;
+        mPages.clear();
+        mFresh.clear();
+        mCacheRead.clear();
+        mTotalResults = -1;
+        mTotalFromServer = false;
+        mPageSizeConfirmed = false;
+        mFailed = false;
+    }
+
+    /** 表示範囲を通知する。 {@link android.widget.AbsListView.OnScrollListener#onScroll} から呼び出す。
+     * @param firstVisible 表示している先頭の位置
+     * @param visibleCount 表示している件数
+     */
+    public void setVisibleRange(int firstVisible, int visibleCount) {
+        if (firstVisible == mFirstVisible && visibleCount == mVisibleCount) {
+            return;
+        }
+        mFirstVisible = firstVisible;
+        mVisibleCount = visibleCount;
+        updateWindow();
+    }
+
+    /** 表示範囲に合わせてページを読み込み、離れたページを破棄する。 */
+    private void updateWindow() {
+        int lastVisible = mFirstVisible + Math.max(mVisibleCount, 1) - 1;
+        int firstVisiblePage = mFirstVisible / mPageSize;
+        int lastVisiblePage = lastVisible / mPageSize;
+        int firstPage = Math.max(0, mFirstVisible - mPrefetchDistance) / mPageSize;
+        int lastPage = (lastVisible + mPrefetchDistance) / mPageSize;
+        if (mTotalResults < 0) {
+            // 件数が分かるまでは先頭のページだけ読み込む
+            lastPage = firstPage;
+        } else {
+            lastPage = Math.min(lastPage, Math.max(0, (mTotalResults - 1) / mPageSize));
+        }
+
+        // 表示範囲から 1 ページ以上離れたページを破棄する
+        for (int i = mPages.size() - 1; i >= 0; i--) {
+            int page = mPages.keyAt(i);
+            if (page < firstPage - 1 || page > lastPage + 1) {
+                mPages.remove(page);
+                mCacheRead.clear(page);
+            }
+        }
+        cancelLoading(firstPage, lastPage);
+        if (mTotalResults == 0) {
+            return;
+        }
+
+        // 表示中のページを先に、前後の先読みは低い優先度で読み込む
+        for (int page = firstVisiblePage; page <= Math.min(lastVisiblePage, lastPage); page++) {
+            requestPage(page, RequestPriority.NORMAL);
+        }
+        for (int page = firstPage; page <= lastPage; page++) {
+            if (page < firstVisiblePage || page > lastVisiblePage) {
+                requestPage(page, RequestPriority.LOW);
+            }
+        }
+    }
+
+    /** 指定した範囲外のページの読み込みを中断する。 */
+    private void cancelLoading(int firstPage, int lastPage) {
+        boolean wasLoading = isLoading();
+        for (int i = mLoading.size() - 1; i >= 0; i--) {
+            int page = mLoading.keyAt(i);
+            if (page < firstPage || page > lastPage) {
+                Future<?> future = mLoading.valueAt(i);
+                mLoading.remove(page);
+                future.cancel(true);
+            }
+        }
+        notifyLoadingChanged(wasLoading);
+    }
+
+    private void requestPage(int page, RequestPriority priority) {
+        if (mFailed || mLoading.get(page) != null) {
+            return;
+        }
+        boolean loaded = mPages.get(page) != null;
+        if (!loaded && !mCacheRead.get(page)) {
+            readFromCache(page);
+        } else if (mOnline && !mFresh.get(page)) {
+            fetchFromServer(page, priority);
+        }
+    }
+
+    /** ページをキャッシュから読み込む。キャッシュにない場合や最新でない場合は、
+     * 読み込みの後の {@link #updateWindow()} でサーバから取得する。
+     */
+    private void readFromCache(final int page) {
+        final int startIndex = page * mPageSize;
+        final int count = mPageSize;
+        ApiFuture<PageResult> future = new ApiFuture<PageResult>(new Callable<PageResult>() {
+            @Override
+            public PageResult call() throws Exception {
+                PageResult result = new PageResult();
+                try {
+                    result.people = mCache.load(startIndex, count);
+                    result.totalResults = mCache.size();
+                } catch (SQLException e) {
+                    Log.w(TAG, "failed to read cached friends", e);
+                }
+                return result;
+            }
+        }, ApiRequestUtils.getExecutor());
+        load(page, future);
+        future.submit();
+    }
+
+    /** ページをサーバから取得し、キャッシュを更新する。 */
+    private void fetchFromServer(int page, RequestPriority priority) {
+        final int startIndex = page * mPageSize;
+        ApiFuture<PageResult> future = mClient
+                .getFriendsAsync(PeopleApiClient.defaultQuery(startIndex, mPageSize), priority)
+                .then(new ApiFuture.Continuation<PeopleApiResponse, PageResult>() {
+                    @Override
+                    public PageResult then(PeopleApiResponse response) throws Exception {
+                        if (response == null)
+                            throw new IOException("failed to parse friends");
+                        saveToCache(startIndex, response);
+                        PageResult result = new PageResult();
+                        result.people = response.entry;
+                        result.totalResults = response.totalResults;
+                        result.fromServer = true;
+                        return result;
+                    }
+                });
+        load(page, future);
+    }
+
+    private void saveToCache(int startIndex, PeopleApiResponse response) {
+        try {
+            mCache.update(startIndex, response.entry);
+            if (startIndex + response.entry.size() >= response.totalResults) {
+                // 友人が減っていた場合は、保存済みの末尾の行を削除する
+                mCache.truncate(response.totalResults);
+            }
+        } catch (SQLException e) {
+            Log.w(TAG, "failed to save friends", e);
+        }
+    }
+
+    /** 読み込みを登録し、完了したら UI スレッドで結果を反映する。 */
+    private void load(final int page, final ApiFuture<PageResult> future) {
+        final int generation = mGeneration;
+        boolean wasLoading = isLoading();
+        mLoading.put(page, future);
+        notifyLoadingChanged(wasLoading);
+        future.addCallback(new ApiFuture.Callback<PageResult>() {
+            @Override
+            public void onSuccess(PageResult result) {
+                if (finishLoading(page, future, generation)) {
+                    deliver(page, result);
+                }
+            }
+            @Override
+            public void onFailure(Throwable error) {
+                if (!finishLoading(page, future, generation) || error instanceof CancellationException) {
+                    return;
+                }
+                Log.w(TAG, "failed to load page " + page, error);
+                mFailed = true;
+                mListener.onLoadFailed(error);
+            }
+        }, mMainExecutor);
+    }
+
+    /** 完了した読み込みの登録を外す。
+     * @return 結果を反映してよい場合 true
+     */
+    private boolean finishLoading(int page, Future<?> future, int generation) {
+        if (generation != mGeneration || mLoading.get(page) != future) {
+            return false;
+        }
+        boolean wasLoading = isLoading();
+        mLoading.remove(page);
+        notifyLoadingChanged(wasLoading);
+        return true;
+    }
+
+    /** 読み込んだページを反映し、続けて必要なページを読み込む。 */
+    private void deliver(int page, PageResult result) {
+        mCacheRead.set(page);
+        if (result.fromServer) {
+            mTotalResults = result.totalResults;
+            mTotalFromServer = true;
+            int received = result.people.size();
+            if (!mPageSizeConfirmed) {
+                mPageSizeConfirmed = true;
+                // サーバ側で件数が制限された場合は、そのページサイズに合わせて読み込み直す
+                if (received > 0 && received < mPageSize
+                        && page * mPageSize + received < mTotalResults) {
+                    Log.v(TAG, "page size limited by server: " + received);
+                    // 古いページサイズで開始した読み込みは、新しいページ番号と位置がずれる
+                    cancelLoading(0, -1);
+                    mGeneration++;
+                    mPageSize = received;
+                    mPages.clear();
+                    mFresh.clear();
+                    mCacheRead.clear();
+                    updateWindow();
+                    return;
+                }
+            }
+            mFresh.set(page);
+        } else {
+            if (result.people == null || result.people.isEmpty()) {
+                // キャッシュから消えていた場合は、サーバから取得し直す
+                mFresh.clear(page);
+            } else if (!mTotalFromServer) {
+                mTotalResults = result.totalResults;
+            }
+        }
+        if (result.people != null && !result.people.isEmpty()) {
+            mPages.put(page, new PersonStore(result.people));
+            mListener.onPageLoaded(page, result.fromServer);
+        }
+        // 件数の判明した後の先読みや、キャッシュから読み込んだページの取得し直し
+        updateWindow();
+    }
+
+    private void notifyLoadingChanged(boolean wasLoading) {
+        boolean loading = isLoading();
+        if (loading != wasLoading) {
+            mListener.onLoadingChanged(loading);
+        }
+    }
+}
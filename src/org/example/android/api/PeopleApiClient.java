@@ -4,21 +4,19 @@ import java.io.IOException;
 import java.util.ArrayList;
 
 import org.apache.http.HttpResponse;
-import org.apache.http.NameValuePair;
 import org.apache.http.client.ClientProtocolException;
-import org.apache.http.client.HttpResponseException;
-import org.apache.http.client.ResponseHandler;
-import org.apache.http.message.BasicNameValuePair;
-import org.apache.http.protocol.HTTP;
-import org.apache.http.util.EntityUtils;
 import org.example.android.api.entity.MixiPerson;
+import org.example.android.network.ApiFuture;
 import org.example.android.network.ApiRequestUtils;
+import org.example.android.network.JsonStreamReader;
+import org.example.android.network.MalformedJsonException;
+import org.example.android.network.RequestBatcher;
+import org.example.android.network.RequestPriority;
+import org.example.android.network.ResponseBody;
+import org.example.android.network.StreamingResponseHandler;
 import org.example.android.oauth.OAuthClient;
 import org.example.android.oauth.OAuthTokenStore;
 import org.example.android.oauth.TokenExpiredException;
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
 
 import android.content.Context;
 import android.util.Log;
@@ -29,17 +27,43 @@ import android.util.Log;
 public class PeopleApiClient {
     
     private static final String ENDPOINT_URL = "http://api.mixi-platform.com/2/people/@me/@friends";
+    /** 友人一覧の表示に必要なフィールドだけを取得するクエリ */
+    private static final PeopleQuery DEFAULT_QUERY = new PeopleQuery.Builder()
+            .fields(PeopleQuery.FIELD_DISPLAY_NAME, PeopleQuery.FIELD_PROFILE_URL)
+            .build();
     private final OAuthTokenStore mTokenStore;
+    private volatile RequestBatcher mBatcher;
     
     /** People API クライアントのコンストラクタ。
      * @param context Context
      */
     public PeopleApiClient(Context context) {
-        mTokenStore = new OAuthTokenStore(context);
+        mTokenStore = OAuthTokenStore.getInstance(context);
+    }
+
+    /** 指定したアカウントの Access Token を使用する People API クライアントのコンストラクタ。
+     * @param context Context
+     * @param account {@link OAuthTokenStore#getInstance(Context, String)} に指定するアカウント
+     */
+    public PeopleApiClient(Context context, String account) {
+        mTokenStore = OAuthTokenStore.getInstance(context, account);
+    }
+    
+    /** 非同期リクエストをまとめて送信する {@link RequestBatcher} を設定する。
+     * 設定した場合、 {@link #getFriendsAsync(int, int)} はバッチを経由して送信される。
+     * バッチはバッチャーの OAuthTokenStore で認証されるため、このクライアントと同じストアを使うこと。
+     * @param batcher 使用する RequestBatcher。バッチを使用しない場合は null
+     * @throws IllegalArgumentException batcher がこのクライアントと別の OAuthTokenStore を使う場合
+     */
+    public void setBatcher(RequestBatcher batcher) {
+        if (batcher != null && batcher.getTokenStore() != mTokenStore)
+            throw new IllegalArgumentException("batcher uses another account's token store");
+        mBatcher = batcher;
     }
     
     /**
      * 認可ユーザー自身の友人一覧を取得する。 /@me/@friends を指定されたクエリで呼び出す。
+     * 取得するフィールドは displayName と profileUrl に限定される。
      * @param startIndex 取得開始するインデックス
      * @param count 取得件数
      * @return {@link PeopleApiResponse}
@@ -48,72 +72,161 @@ public class PeopleApiClient {
      */
     public PeopleApiResponse getFriends(int startIndex, int count)
             throws ClientProtocolException, IOException {
-        ArrayList<NameValuePair> request = new ArrayList<NameValuePair>();
-        request.add(new BasicNameValuePair("startIndex", String.valueOf(startIndex)));
-        request.add(new BasicNameValuePair("count", String.valueOf(count)));
-        return ApiRequestUtils.doGetRequest(ENDPOINT_URL, request,
-                new PeopleApiReponseHandler(), mTokenStore);
+        return getFriends(DEFAULT_QUERY.page(startIndex, count));
+    }
+
+    /**
+     * 認可ユーザー自身の友人一覧を、指定したクエリで取得する。
+     * @param query 取得するフィールドや並び順を指定した {@link PeopleQuery}
+     * @return {@link PeopleApiResponse}
+     * @throws ClientProtocolException
+     * @throws IOException
+     */
+    public PeopleApiResponse getFriends(PeopleQuery query)
+            throws ClientProtocolException, IOException {
+        return ApiRequestUtils.doGetRequest(query.getTemplate(ENDPOINT_URL),
+                new PeopleApiReponseHandler(query), mTokenStore, RequestPriority.NORMAL,
+                query.getStartIndex(), query.getCount());
+    }
+    
+    /**
+     * 認可ユーザー自身の友人一覧を非同期に取得する。
+     * {@link RequestBatcher} が設定されている場合は、他のリクエストとまとめて送信される。
+     * @param startIndex 取得開始するインデックス
+     * @param count 取得件数
+     * @return {@link PeopleApiResponse} を結果とする {@link ApiFuture}
+     */
+    public ApiFuture<PeopleApiResponse> getFriendsAsync(int startIndex, int count) {
+        return getFriendsAsync(DEFAULT_QUERY.page(startIndex, count));
+    }
+
+    /**
+     * 認可ユーザー自身の友人一覧を、指定したクエリで非同期に取得する。
+     * @param query 取得するフィールドや並び順を指定した {@link PeopleQuery}
+     * @return {@link PeopleApiResponse} を結果とする {@link ApiFuture}
+     */
+    public ApiFuture<PeopleApiResponse> getFriendsAsync(PeopleQuery query) {
+        return getFriendsAsync(query, RequestPriority.NORMAL);
+    }
+
+    /**
+     * 認可ユーザー自身の友人一覧を、優先度を指定して非同期に取得する。
+     * @param query 取得するフィールドや並び順を指定した {@link PeopleQuery}
+     * @param priority リクエストの優先度。先読みには {@link RequestPriority#LOW} を指定する
+     * @return {@link PeopleApiResponse} を結果とする {@link ApiFuture}
+     */
+    public ApiFuture<PeopleApiResponse> getFriendsAsync(PeopleQuery query,
+            RequestPriority priority) {
+        RequestBatcher batcher = mBatcher;
+        if (batcher != null) {
+            return batcher.get(ENDPOINT_URL, query.toParameters(),
+                    new PeopleApiReponseHandler(query), priority);
+        }
+        return ApiRequestUtils.doGetRequestAsync(query.getTemplate(ENDPOINT_URL),
+                new PeopleApiReponseHandler(query), mTokenStore, priority,
+                query.getStartIndex(), query.getCount());
+    }
+
+    /** 友人一覧の表示に使用するデフォルトのクエリを、指定した範囲で返す。 */
+    /*package*/ static PeopleQuery defaultQuery(int startIndex, int count) {
+        return DEFAULT_QUERY.page(startIndex, count);
     }
     
-    /** People API のレスポンスをパースし、 PeopleApiResponse として返す
+    /** People API のレスポンスをパースし、 PeopleApiResponse として返す。
+     * クエリで指定されなかったフィールドは読み飛ばす。
      */
-    private static class PeopleApiReponseHandler
-            implements ResponseHandler<PeopleApiResponse> {
+    /*package*/ static class PeopleApiReponseHandler
+            extends StreamingResponseHandler<PeopleApiResponse> {
         private static final String TAG = "PeopleApiResponseHandler";
+        private final PeopleQuery mQuery;
+
+        PeopleApiReponseHandler(PeopleQuery query) {
+            mQuery = query;
+        }
 
         @Override
-        public PeopleApiResponse handleResponse(HttpResponse response)
+        protected PeopleApiResponse handleResponse(HttpResponse response, ResponseBody body)
                 throws ClientProtocolException, IOException {
-            if (response == null)
-                throw new NullPointerException("response is null");
             int statusCode = response.getStatusLine().getStatusCode();
             switch (statusCode) {
                 case 401:   // Authorization Required
                     boolean retryable = OAuthClient.isTokenExpiredResponse(response);
                     throw new TokenExpiredException("invalid token", retryable);
                 case 200:   // OK
-                    return parsePeopleFromResponse(EntityUtils.toString(response.getEntity(),
-                            HTTP.UTF_8));
+                    return parsePeopleFromResponse(body);
             }
-            throw new HttpResponseException(statusCode, "unexpected response: "
-                    + response.getStatusLine().toString() + ": "
-                    + EntityUtils.toString(response.getEntity()));
+            throw unexpectedResponse(response, body);
         }
 
-        /** String の JSON レスポンスをパースして {@link PeopleApiResponse} を返す。
+        /** レスポンスの JSON をストリームから読みながらパースして {@link PeopleApiResponse} を返す。
+         * レスポンス全体を文字列や JSONObject として保持せず、不要なフィールドは読み飛ばす。
+         * 
+         * 読み込んだレスポンスのサイズは {@link PeopleApiResponse#responseBytes} に記録する。
          * 
-         * @param string JSON を含む文字列
+         * @param body JSON を含むレスポンスの本文
          * @return {@link PeopleApiResponse}
+         * @throws IOException
          */
-        private PeopleApiResponse parsePeopleFromResponse(String string) {
-            PeopleApiResponse res = new PeopleApiResponse();
-            ArrayList<MixiPerson> people = new ArrayList<MixiPerson>();
+        private PeopleApiResponse parsePeopleFromResponse(ResponseBody body) throws IOException {
+            JsonStreamReader reader = body.getJsonReader();
             try {
+                PeopleApiResponse res = new PeopleApiResponse();
+                res.entry = new ArrayList<MixiPerson>();
                 // 外側
-                JSONObject json = new JSONObject(string);
-                res.itemsPerPage = json.getInt("itemsPerPage");
-                res.startIndex = json.getInt("startIndex");
-                res.totalResults = json.getInt("totalResults");
-                
-                // 内側(結果のリスト)
-                JSONArray entries = json.getJSONArray("entry");
-                int count = entries.length();
-                for (int i = 0; i < count; i++) {
-                    JSONObject entry = entries.getJSONObject(i);
-                    
-                    MixiPerson person = new MixiPerson();
-                    person.displayName = entry.getString("displayName");
-                    person.profileUrl  = entry.getString("profileUrl");
-                    
-                    people.add(person);
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    if (name.equals("itemsPerPage")) {
+                        res.itemsPerPage = reader.nextInt();
+                    } else if (name.equals("startIndex")) {
+                        res.startIndex = reader.nextInt();
+                    } else if (name.equals("totalResults")) {
+                        res.totalResults = reader.nextInt();
+                    } else if (name.equals("entry")) {
+                        // 内側(結果のリスト)
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            res.entry.add(parsePerson(reader));
+                        }
+                        reader.endArray();
+                    } else {
+                        reader.skipValue();
+                    }
                 }
-                res.entry = people;
-
+                reader.endObject();
+                res.responseBytes = body.getByteCount();
+                Log.v(TAG, "fields=" + mQuery.getFieldsDescription() + ", "
+                        + res.entry.size() + " entries, " + res.responseBytes + " bytes");
                 return res;
-            } catch (JSONException e) {
+            } catch (MalformedJsonException e) {
                 Log.w(TAG, "something went wrong while parsing json", e);
+            } finally {
+                reader.close();
             }
             return null;
         }
+
+        private MixiPerson parsePerson(JsonStreamReader reader) throws IOException {
+            MixiPerson person = new MixiPerson();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (!mQuery.hasField(name)) {
+                    reader.skipValue();
+                } else if (name.equals(PeopleQuery.FIELD_ID)) {
+                    person.id = reader.nextString();
+                } else if (name.equals(PeopleQuery.FIELD_DISPLAY_NAME)) {
+                    person.displayName = reader.nextString();
+                } else if (name.equals(PeopleQuery.FIELD_PROFILE_URL)) {
+                    person.profileUrl = reader.nextString();
+                } else if (name.equals(PeopleQuery.FIELD_THUMBNAIL_URL)) {
+                    person.thumbnailUrl = reader.nextString();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            return person;
+        }
     }
 }
\ No newline at end of file
@@ -10,4 +10,6 @@ public class PeopleApiResponse {
     public int totalResults;
     public int startIndex;
     public int itemsPerPage;
+    /** 読み込んだレスポンス本文のバイト数 (展開後) */
+    public long responseBytes;
 }
\ No newline at end of file
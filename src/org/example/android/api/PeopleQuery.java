@@ -0,0 +1,244 @@
+package org.example.android.api;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.http.NameValuePair;
+import org.apache.http.message.BasicNameValuePair;
+import org.example.android.network.RequestTemplate;
+
+/** People API のクエリ。 {@link Builder} で生成する。
+ * fields で取得するフィールドを指定すると、レスポンスには指定したフィールドだけが含まれる。
+ *
+ * <pre>
+ * PeopleQuery query = new PeopleQuery.Builder()
+ *         .fields(PeopleQuery.FIELD_DISPLAY_NAME, PeopleQuery.FIELD_PROFILE_URL)
+ *         .sortBy(PeopleQuery.FIELD_DISPLAY_NAME, PeopleQuery.SortOrder.ASCENDING)
+ *         .page(0, 20)
+ *         .build();
+ * </pre>
+ */
+public class PeopleQuery {
+    public static final String FIELD_ID = "id";
+    public static final String FIELD_DISPLAY_NAME = "displayName";
+    public static final String FIELD_PROFILE_URL = "profileUrl";
+    public static final String FIELD_THUMBNAIL_URL = "thumbnailUrl";
+
+    /** 並び順 */
+    public enum SortOrder {
+        ASCENDING("ascending"), DESCENDING("descending");
+
+        private final String mValue;
+
+        private SortOrder(String value) {
+            mValue = value;
+        }
+    }
+
+    /** 絞り込みの条件 */
+    public enum FilterOp {
+        CONTAINS("contains"), EQUALS("equals"), STARTS_WITH("startsWith"), PRESENT("present");
+
+        private final String mValue;
+
+        private FilterOp(String value) {
+            mValue = value;
+        }
+    }
+
+    private final Set<String> mFields;
+    private final String mSortBy;
+    private final SortOrder mSortOrder;
+    private final String mFilterBy;
+    private final FilterOp mFilterOp;
+    private final String mFilterValue;
+    private final int mStartIndex;
+    private final int mCount;
+    /** 取得範囲だけが異なるクエリの間で共有する、リクエストのテンプレート */
+    private final AtomicReference<RequestTemplate> mTemplate;
+
+    private PeopleQuery(Builder builder) {
+        mFields = builder.mFields == null ? null
+                : Collections.unmodifiableSet(new LinkedHashSet<String>(builder.mFields));
+        mSortBy = builder.mSortBy;
+        mSortOrder = builder.mSortOrder;
+        mFilterBy = builder.mFilterBy;
+        mFilterOp = builder.mFilterOp;
+        mFilterValue = builder.mFilterValue;
+        mStartIndex = builder.mStartIndex;
+        mCount = builder.mCount;
+        mTemplate = builder.mTemplate != null ? builder.mTemplate
+                : new AtomicReference<RequestTemplate>();
+    }
+
+    /** 取得するフィールドを返す。すべてのフィールドを取得する場合は null */
+    public Set<String> getFields() {
+        return mFields;
+    }
+
+    /** 指定したフィールドがレスポンスに含まれるかどうかを返す。 */
+    public boolean hasField(String field) {
+        return mFields == null || mFields.contains(field);
+    }
+
+    public int getStartIndex() {
+        return mStartIndex;
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    /** 取得範囲だけを変更したクエリを返す。
+     * @param startIndex 取得開始するインデックス
+     * @param count 取得件数
+     * @return 新しい {@link PeopleQuery}
+     */
+    public PeopleQuery page(int startIndex, int count) {
+        return new Builder(this).page(startIndex, count).build();
+    }
+
+    /** リクエストに付与するクエリパラメータを返す。 */
+    public List<NameValuePair> toParameters() {
+        ArrayList<NameValuePair> params = new ArrayList<NameValuePair>();
+        if (mFields != null) {
+            params.add(new BasicNameValuePair("fields", join(mFields)));
+        }
+        if (mSortBy != null) {
+            params.add(new BasicNameValuePair("sortBy", mSortBy));
+            params.add(new BasicNameValuePair("sortOrder", mSortOrder.mValue));
+        }
+        if (mFilterBy != null) {
+            params.add(new BasicNameValuePair("filterBy", mFilterBy));
+            params.add(new BasicNameValuePair("filterOp", mFilterOp.mValue));
+            if (mFilterValue != null) {
+                params.add(new BasicNameValuePair("filterValue", mFilterValue));
+            }
+        }
+        params.add(new BasicNameValuePair("startIndex", String.valueOf(mStartIndex)));
+        params.add(new BasicNameValuePair("count", String.valueOf(mCount)));
+        return params;
+    }
+
+    /** 取得範囲以外のパラメータを埋め込んだテンプレートを返す。
+     * 可変のパラメータは startIndex と count の順。
+     * テンプレートは {@link #page(int, int)} で生成したクエリと共有される。
+     * @param endpointUrl リクエスト先の URL
+     */
+    /*package*/ RequestTemplate getTemplate(String endpointUrl) {
+        RequestTemplate template = mTemplate.get();
+        if (template == null || !template.getEndpointUrl().equals(endpointUrl)) {
+            template = new RequestTemplate(endpointUrl, toFixedParameters(),
+                    "startIndex", "count");
+            mTemplate.set(template);
+        }
+        return template;
+    }
+
+    /** リクエストに付与するクエリパラメータのうち、取得範囲以外のものを返す。 */
+    private List<NameValuePair> toFixedParameters() {
+        List<NameValuePair> params = toParameters();
+        // 末尾の startIndex と count を除く
+        return params.subList(0, params.size() - 2);
+    }
+
+    /** フィールドの指定をログなどに出力するための文字列を返す。 */
+    /*package*/ String getFieldsDescription() {
+        return mFields == null ? "(all)" : join(mFields);
+    }
+
+    private static String join(Set<String> values) {
+        StringBuilder sb = new StringBuilder();
+        for (String value : values) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(value);
+        }
+        return sb.toString();
+    }
+
+    /** {@link PeopleQuery} を生成するビルダー */
+    public static class Builder {
+        private Set<String> mFields;
+        private String mSortBy;
+        private SortOrder mSortOrder;
+        private String mFilterBy;
+        private FilterOp mFilterOp;
+        private String mFilterValue;
+        private int mStartIndex;
+        private int mCount = 20;
+        /** 取得範囲以外が元のクエリと同じ間は、元のクエリのテンプレートを共有する */
+        private AtomicReference<RequestTemplate> mTemplate;
+
+        public Builder() {
+        }
+
+        /** 既存のクエリと同じ内容のビルダーを生成する。 */
+        public Builder(PeopleQuery query) {
+            mFields = query.mFields;
+            mSortBy = query.mSortBy;
+            mSortOrder = query.mSortOrder;
+            mFilterBy = query.mFilterBy;
+            mFilterOp = query.mFilterOp;
+            mFilterValue = query.mFilterValue;
+            mStartIndex = query.mStartIndex;
+            mCount = query.mCount;
+            mTemplate = query.mTemplate;
+        }
+
+        /** 取得するフィールドを指定する。指定しない場合はすべてのフィールドを取得する。 */
+        public Builder fields(String... fields) {
+            if (fields.length == 0)
+                throw new IllegalArgumentException("at least one field is required");
+            mFields = new LinkedHashSet<String>(Arrays.asList(fields));
+            mTemplate = null;
+            return this;
+        }
+
+        /** 並び順を指定する。 */
+        public Builder sortBy(String field, SortOrder order) {
+            if (field == null || order == null)
+                throw new NullPointerException("field and order must not be null");
+            mSortBy = field;
+            mSortOrder = order;
+            mTemplate = null;
+            return this;
+        }
+
+        /** 絞り込みの条件を指定する。
+         * @param field 絞り込みに使用するフィールド
+         * @param op 条件
+         * @param value 比較する値。 {@link FilterOp#PRESENT} の場合は null
+         */
+        public Builder filter(String field, FilterOp op, String value) {
+            if (field == null || op == null)
+                throw new NullPointerException("field and op must not be null");
+            if (value == null && op != FilterOp.PRESENT)
+                throw new IllegalArgumentException("value is required for " + op);
+            mFilterBy = field;
+            mFilterOp = op;
+            mFilterValue = value;
+            mTemplate = null;
+            return this;
+        }
+
+        /** 取得範囲を指定する。 */
+        public Builder page(int startIndex, int count) {
+            if (startIndex < 0 || count <= 0)
+                throw new IllegalArgumentException("invalid range");
+            mStartIndex = startIndex;
+            mCount = count;
+            return this;
+        }
+
+        public PeopleQuery build() {
+            return new PeopleQuery(this);
+        }
+    }
+}
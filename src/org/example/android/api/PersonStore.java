@@ -0,0 +1,238 @@
+package org.example.android.api;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.example.android.api.entity.MixiPerson;
+
+/** 友人一覧を列ごとの配列に詰めて保持するストア。
+ * displayName と profileUrl の文字はすべて 1 つの char 配列に連続して格納し、
+ * profileUrl の共通部分 (最後の '/' または '=' まで) は重複を除いて別に保持する。
+ * 1 人あたりのオブジェクトを持たないため、数千人規模の一覧でもヒープの使用量が小さい。
+ * {@link MixiPerson} や String は、参照された時にその都度生成する。
+ * <p>
+ * 保持するのは displayName と profileUrl だけで、それ以外のフィールドは捨てる。
+ * スレッドセーフではないため、 UI スレッドから使用すること。
+ */
+public class PersonStore {
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int INITIAL_CHAR_CAPACITY = 4096;
+
+    // ヒープ使用量の見積もりに使用する値 (32bit VM)
+    private static final int OBJECT_HEADER_BYTES = 8;
+    private static final int ARRAY_HEADER_BYTES = 12;
+    private static final int REFERENCE_BYTES = 4;
+    private static final int STRING_BYTES = 24;
+    /** ストア自身と、共通部分を保持する空の ArrayList と HashMap */
+    private static final int FIXED_BYTES = 48 + 64 + 120;
+
+    private char[] mChars;
+    private int mCharCount;
+    /** displayName の mChars 内の開始位置。 profileUrl の可変部分はその直後に続く */
+    private int[] mStart;
+    /** displayName の長さ。 null の場合は -1 */
+    private int[] mNameLength;
+    /** profileUrl の共通部分の番号。 null の場合は -1 */
+    private int[] mUrlPrefix;
+    private int mSize;
+
+    private final ArrayList<String> mPrefixes = new ArrayList<String>();
+    private final HashMap<String, Integer> mPrefixIndex = new HashMap<String, Integer>();
+    /** 同じ内容を MixiPerson のリストで保持した場合のヒープ使用量の見積もり */
+    private long mObjectHeapBytes;
+
+    /** 空のストアを生成する。追加するにつれて配列を拡張する。 */
+    public PersonStore() {
+        this(INITIAL_CAPACITY, INITIAL_CHAR_CAPACITY);
+    }
+
+    /** 指定した一覧を、ちょうどの大きさの配列に格納したストアを生成する。
+     * 後から追加しない 1 ページ分の一覧などに使用する。
+     */
+    public PersonStore(List<MixiPerson> people) {
+        this(people.size(), countChars(people));
+        addAll(people);
+    }
+
+    private PersonStore(int capacity, int charCapacity) {
+        mChars = new char[charCapacity];
+        mStart = new int[capacity];
+        mNameLength = new int[capacity];
+        mUrlPrefix = new int[capacity];
+    }
+
+    /** 保持している人数を返す。 */
+    public int size() {
+        return mSize;
+    }
+
+    /** 一覧の末尾に追加する。 */
+    public void add(MixiPerson person) {
+        ensureCapacity(mSize + 1);
+        String name = person.displayName;
+        String url = person.profileUrl;
+        int start = mCharCount;
+        mStart[mSize] = start;
+        if (name == null) {
+            mNameLength[mSize] = -1;
+        } else {
+            appendChars(name, 0);
+            mNameLength[mSize] = name.length();
+        }
+        if (url == null) {
+            mUrlPrefix[mSize] = -1;
+        } else {
+            int split = findPrefixEnd(url);
+            mUrlPrefix[mSize] = internPrefix(url.substring(0, split));
+            appendChars(url, split);
+        }
+        mSize++;
+        mObjectHeapBytes += estimateObjectBytes(person);
+    }
+
+    /** 一覧の末尾にまとめて追加する。 */
+    public void addAll(List<MixiPerson> people) {
+        ensureCapacity(mSize + people.size());
+        for (MixiPerson person : people) {
+            add(person);
+        }
+    }
+
+    /** すべて削除する。確保済みの配列は再利用する。 */
+    public void clear() {
+        mSize = 0;
+        mCharCount = 0;
+        mObjectHeapBytes = 0;
+        mPrefixes.clear();
+        mPrefixIndex.clear();
+    }
+
+    /** position 番目の displayName を返す。 */
+    public String getDisplayName(int position) {
+        checkPosition(position);
+        int length = mNameLength[position];
+        return length < 0 ? null : new String(mChars, mStart[position], length);
+    }
+
+    /** position 番目の profileUrl を返す。 */
+    public String getProfileUrl(int position) {
+        checkPosition(position);
+        int prefix = mUrlPrefix[position];
+        if (prefix < 0) {
+            return null;
+        }
+        int suffixStart = mStart[position] + Math.max(0, mNameLength[position]);
+        int suffixEnd = position + 1 < mSize ? mStart[position + 1] : mCharCount;
+        String prefixString = mPrefixes.get(prefix);
+        StringBuilder sb = new StringBuilder(prefixString.length() + suffixEnd - suffixStart);
+        sb.append(prefixString).append(mChars, suffixStart, suffixEnd - suffixStart);
+        return sb.toString();
+    }
+
+    /** position 番目の人を {@link MixiPerson} として返す。呼び出すたびに新しいインスタンスを生成する。 */
+    public MixiPerson get(int position) {
+        MixiPerson person = new MixiPerson();
+        person.displayName = getDisplayName(position);
+        person.profileUrl = getProfileUrl(position);
+        return person;
+    }
+
+    /** このストアが使用しているヒープのおおよそのバイト数を返す。 */
+    public long estimateHeapBytes() {
+        long bytes = FIXED_BYTES + arrayBytes(mChars.length * 2L) + arrayBytes(mStart.length * 4L) * 3;
+        bytes += arrayBytes(mPrefixes.size() * (long) REFERENCE_BYTES);
+        for (String prefix : mPrefixes) {
+            // リストとマップで共有する文字列と、マップのエントリ
+            bytes += STRING_BYTES + arrayBytes(prefix.length() * 2L) + 32;
+        }
+        return bytes;
+    }
+
+    /** 同じ内容を {@link MixiPerson} の ArrayList で保持した場合の、ヒープのおおよそのバイト数を返す。 */
+    public long estimateObjectHeapBytes() {
+        return mObjectHeapBytes + arrayBytes(mSize * (long) REFERENCE_BYTES);
+    }
+
+    private void checkPosition(int position) {
+        if (position < 0 || position >= mSize)
+            throw new IndexOutOfBoundsException("position: " + position + ", size: " + mSize);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= mStart.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, mStart.length * 2);
+        mStart = copyOf(mStart, newCapacity);
+        mNameLength = copyOf(mNameLength, newCapacity);
+        mUrlPrefix = copyOf(mUrlPrefix, newCapacity);
+    }
+
+    private void appendChars(String value, int from) {
+        int length = value.length() - from;
+        if (mCharCount + length > mChars.length) {
+            char[] chars = new char[Math.max(mCharCount + length, mChars.length * 2)];
+            System.arraycopy(mChars, 0, chars, 0, mCharCount);
+            mChars = chars;
+        }
+        value.getChars(from, value.length(), mChars, mCharCount);
+        mCharCount += length;
+    }
+
+    private int internPrefix(String prefix) {
+        Integer index = mPrefixIndex.get(prefix);
+        if (index == null) {
+            index = mPrefixes.size();
+            mPrefixes.add(prefix);
+            mPrefixIndex.put(prefix, index);
+        }
+        return index;
+    }
+
+    /** 一覧を格納するのに必要な文字数を返す。 */
+    private static int countChars(List<MixiPerson> people) {
+        int count = 0;
+        for (MixiPerson person : people) {
+            if (person.displayName != null) {
+                count += person.displayName.length();
+            }
+            if (person.profileUrl != null) {
+                count += person.profileUrl.length() - findPrefixEnd(person.profileUrl);
+            }
+        }
+        return count;
+    }
+
+    /** URL のうち、他の人と共通になりやすい部分 (最後の '/' または '=' まで) の長さを返す。 */
+    private static int findPrefixEnd(String url) {
+        int slash = url.lastIndexOf('/');
+        int equals = url.lastIndexOf('=');
+        return Math.max(slash, equals) + 1;
+    }
+
+    private static int[] copyOf(int[] array, int length) {
+        int[] copy = new int[length];
+        System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+        return copy;
+    }
+
+    private static long arrayBytes(long dataBytes) {
+        return align(ARRAY_HEADER_BYTES + dataBytes);
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    private static long estimateObjectBytes(MixiPerson person) {
+        long bytes = align(OBJECT_HEADER_BYTES + 4 * REFERENCE_BYTES);
+        bytes += estimateStringBytes(person.displayName);
+        bytes += estimateStringBytes(person.profileUrl);
+        return bytes;
+    }
+
+    private static long estimateStringBytes(String value) {
+        return value == null ? 0 : STRING_BYTES + arrayBytes(value.length() * 2L);
+    }
+}
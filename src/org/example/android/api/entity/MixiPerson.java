@@ -4,8 +4,10 @@
 package org.example.android.api.entity;
 
 public class MixiPerson {
+    public String id;
     public String profileUrl;
     public String displayName;
+    public String thumbnailUrl;
     
     @Override
     public String toString() {
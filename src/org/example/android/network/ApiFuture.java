@@ -0,0 +1,230 @@
+package org.example.android.network;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** 非同期の API リクエストの結果。
+ * {@link java.util.concurrent.Future} として結果を待つほか、完了時に呼ばれるコールバックの登録や、
+ * {@link #then(Continuation)} による後続処理の連結ができる。
+ * {@link #cancel(boolean)} した場合は、実行中の HTTP リクエストも中断する。
+ *
+ * @param <V> 結果の型
+ */
+public class ApiFuture<V> extends FutureTask<V> {
+
+    /** 完了時に呼び出されるコールバック */
+    public interface Callback<V> {
+        /** 成功した場合に呼ばれる。 */
+        void onSuccess(V result);
+        /** 失敗した場合に呼ばれる。キャンセルされた場合は {@link CancellationException} が渡される。 */
+        void onFailure(Throwable error);
+    }
+
+    /** 前の処理の結果を受け取って次の結果を返す後続処理 */
+    public interface Continuation<V, R> {
+        R then(V result) throws Exception;
+    }
+
+    private static final AtomicLong sSequence = new AtomicLong();
+
+    private final Executor mExecutor;
+    /** 同じ優先度の処理を、生成された順に実行するための番号 */
+    private final long mSequence = sSequence.getAndIncrement();
+    private volatile RequestPriority mPriority = RequestPriority.NORMAL;
+    private final ArrayList<Runnable> mListeners = new ArrayList<Runnable>();
+    private boolean mDone;
+    private Runnable mCancellationAction;
+
+    /** 非同期処理を生成する。実行するには {@link #submit()} を呼び出す。
+     * @param callable 実行する処理
+     * @param executor 処理と後続処理を実行する Executor
+     */
+    public ApiFuture(Callable<V> callable, Executor executor) {
+        super(callable);
+        mExecutor = executor;
+    }
+
+    /** 他の処理によって結果が設定される ApiFuture を生成する。
+     * 結果は {@link #setResult(Object)} または {@link #setFailure(Throwable)} で設定する。
+     * @param executor 後続処理を実行する Executor
+     */
+    /*package*/ ApiFuture(Executor executor) {
+        this(new Callable<V>() {
+            @Override
+            public V call() throws Exception {
+                throw new IllegalStateException("result must be set externally");
+            }
+        }, executor);
+    }
+
+    /** 処理を Executor に投入する。
+     * @return this
+     */
+    public ApiFuture<V> submit() {
+        mExecutor.execute(this);
+        return this;
+    }
+
+    /** Executor の待ち行列で使用する優先度を設定する。 {@link #submit()} より前に呼び出すこと。 */
+    /*package*/ void setPriority(RequestPriority priority) {
+        mPriority = priority;
+    }
+
+    /*package*/ RequestPriority getPriority() {
+        return mPriority;
+    }
+
+    /*package*/ long getSequence() {
+        return mSequence;
+    }
+
+    /** 結果を設定して完了する。既に完了している場合は何もしない。 */
+    /*package*/ void setResult(V result) {
+        set(result);
+    }
+
+    /** 失敗として完了する。既に完了している場合は何もしない。 */
+    /*package*/ void setFailure(Throwable error) {
+        setException(error);
+    }
+
+    /** キャンセルされた時に実行する処理を設定する。実行中のリクエストの中断に使用する。 */
+    /*package*/ synchronized void setCancellationAction(Runnable action) {
+        mCancellationAction = action;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean cancelled = super.cancel(mayInterruptIfRunning);
+        if (cancelled) {
+            Runnable action;
+            synchronized (this) {
+                action = mCancellationAction;
+            }
+            if (action != null) {
+                action.run();
+            }
+        }
+        return cancelled;
+    }
+
+    /** 完了時に呼ばれるコールバックを登録する。既に完了している場合はすぐに呼ばれる。
+     * コールバックは処理を完了したスレッドで呼ばれる。
+     * @param callback コールバック
+     * @return this
+     */
+    public ApiFuture<V> addCallback(Callback<? super V> callback) {
+        return addCallback(callback, null);
+    }
+
+    /** 完了時に呼ばれるコールバックを登録する。既に完了している場合はすぐに呼ばれる。
+     * @param callback コールバック
+     * @param executor コールバックを呼び出す Executor。 null の場合は処理を完了したスレッドで呼ばれる
+     * @return this
+     */
+    public ApiFuture<V> addCallback(final Callback<? super V> callback, final Executor executor) {
+        addListener(new Runnable() {
+            @Override
+            public void run() {
+                Runnable dispatch = new Runnable() {
+                    @Override
+                    public void run() {
+                        V result;
+                        try {
+                            result = getDone();
+                        } catch (Throwable error) {
+                            callback.onFailure(error);
+                            return;
+                        }
+                        callback.onSuccess(result);
+                    }
+                };
+                if (executor == null) {
+                    dispatch.run();
+                } else {
+                    executor.execute(dispatch);
+                }
+            }
+        });
+        return this;
+    }
+
+    /** この処理が成功した後に、その結果を使って次の処理を行う。
+     * 後続処理は同じ Executor で実行される。この処理が失敗した場合は、後続処理も同じ例外で失敗する。
+     * 返された ApiFuture をキャンセルすると、この処理もキャンセルされる。
+     * @param <R> 後続処理の結果の型
+     * @param continuation 後続処理
+     * @return 後続処理の結果
+     */
+    public <R> ApiFuture<R> then(final Continuation<? super V, ? extends R> continuation) {
+        final ApiFuture<V> upstream = this;
+        final ApiFuture<R> next = new ApiFuture<R>(new Callable<R>() {
+            @Override
+            public R call() throws Exception {
+                return continuation.then(upstream.getDone());
+            }
+        }, mExecutor);
+        next.setCancellationAction(new Runnable() {
+            @Override
+            public void run() {
+                upstream.cancel(true);
+            }
+        });
+        addListener(new Runnable() {
+            @Override
+            public void run() {
+                if (next.isDone()) {
+                    return;
+                }
+                if (upstream.isCancelled()) {
+                    next.cancel(false);
+                } else {
+                    next.submit();
+                }
+            }
+        });
+        return next;
+    }
+
+    @Override
+    protected void done() {
+        ArrayList<Runnable> listeners;
+        synchronized (mListeners) {
+            mDone = true;
+            listeners = new ArrayList<Runnable>(mListeners);
+            mListeners.clear();
+        }
+        for (Runnable listener : listeners) {
+            listener.run();
+        }
+    }
+
+    private void addListener(Runnable listener) {
+        synchronized (mListeners) {
+            if (!mDone) {
+                mListeners.add(listener);
+                return;
+            }
+        }
+        listener.run();
+    }
+
+    /** 完了済みの結果を返す。失敗していた場合は、その原因の例外を throw する。 */
+    private V getDone() throws Exception {
+        try {
+            return get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception)
+                throw (Exception) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw e;
+        }
+    }
+}
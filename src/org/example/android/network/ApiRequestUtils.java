@@ -1,9 +1,22 @@
 package org.example.android.network;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UnsupportedEncodingException;
+import java.net.SocketTimeoutException;
+import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
 import org.apache.http.NameValuePair;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.ResponseHandler;
@@ -11,16 +24,20 @@ import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpRequestBase;
-import org.apache.http.message.BasicHeader;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.impl.cookie.DateParseException;
+import org.apache.http.impl.cookie.DateUtils;
+import org.apache.http.protocol.BasicHttpContext;
 import org.apache.http.protocol.HTTP;
-import org.example.android.oauth.OAuthClient;
+import org.apache.http.protocol.HttpContext;
 import org.example.android.oauth.OAuthToken;
 import org.example.android.oauth.OAuthTokenStore;
 import org.example.android.oauth.TokenExpiredException;
 import org.example.android.oauth.TokenInvalidException;
+import org.example.android.oauth.TokenRefresher;
 
 import android.net.Uri;
-import android.net.http.AndroidHttpClient;
 import android.util.Log;
 
 /** API リクエストの発行に使用するユーティリティクラス。
@@ -29,6 +46,100 @@ import android.util.Log;
 public class ApiRequestUtils {
     static final String USER_AGENT = "AndroidOAuthExample/0.1";
     private static final String TAG = "ApiRequestUtils";
+    /** 非同期リクエストを同時に実行するスレッド数のデフォルト値 */
+    private static final int DEFAULT_ASYNC_THREADS = 4;
+
+    private static ExecutorService sExecutor;
+    /** Executor の待ち行列の順序。 {@link ApiFuture} は優先度、生成順に並べ、それ以外は NORMAL として扱う。 */
+    private static final Comparator<Runnable> TASK_ORDER = new Comparator<Runnable>() {
+        @Override
+        public int compare(Runnable lhs, Runnable rhs) {
+            int result = priorityOf(lhs).compareTo(priorityOf(rhs));
+            if (result != 0) {
+                return result;
+            }
+            long l = sequenceOf(lhs);
+            long r = sequenceOf(rhs);
+            return l < r ? -1 : (l == r ? 0 : 1);
+        }
+
+        private RequestPriority priorityOf(Runnable task) {
+            return task instanceof ApiFuture ? ((ApiFuture<?>) task).getPriority()
+                    : RequestPriority.NORMAL;
+        }
+
+        private long sequenceOf(Runnable task) {
+            return task instanceof ApiFuture ? ((ApiFuture<?>) task).getSequence() : 0;
+        }
+    };
+    private static volatile RequestMetricsListener sMetricsListener;
+    private static volatile RetryPolicy sRetryPolicy = new RetryPolicy();
+    private static volatile HttpTransport sTransport;
+    /** リクエストの優先度を HttpParams に格納する際のキー */
+    private static final String PRIORITY_PARAM = "org.example.android.network.priority";
+
+    /** GET リクエストが一時的に失敗した場合の再試行の方針を設定する。
+     * デフォルトでは {@link RetryPolicy#RetryPolicy()} の設定で再試行する。
+     * @param policy 使用する RetryPolicy。再試行しない場合は null
+     */
+    public static void setRetryPolicy(RetryPolicy policy) {
+        sRetryPolicy = policy;
+    }
+
+    /** リクエストの計測結果を受け取るリスナを設定する。
+     * 設定していない間は計測を行わない。
+     * @param listener 使用するリスナ。計測を止める場合は null
+     */
+    public static void setMetricsListener(RequestMetricsListener listener) {
+        sMetricsListener = listener;
+    }
+
+    /** リクエストの送信に使用するトランスポートを設定する。
+     * 設定しなかった場合は、 {@link SharedHttpClient} を使用する {@link HttpClientTransport} を使用する。
+     * 以前のトランスポートの接続は閉じないため、必要であれば呼び出し元で {@link HttpTransport#shutdown()} を呼ぶ。
+     * @param transport 使用する HttpTransport。デフォルトに戻す場合は null
+     */
+    public static synchronized void setTransport(HttpTransport transport) {
+        sTransport = transport;
+    }
+
+    /** リクエストの送信に使用するトランスポートを返す。 */
+    public static synchronized HttpTransport getTransport() {
+        if (sTransport == null) {
+            sTransport = new HttpClientTransport();
+        }
+        return sTransport;
+    }
+
+    /** 非同期リクエストの実行に使用する Executor を設定する。
+     * 設定しなかった場合は {@value #DEFAULT_ASYNC_THREADS} スレッドの Executor を使用する。
+     * @param executor 使用する ExecutorService
+     */
+    public static synchronized void setExecutor(ExecutorService executor) {
+        if (executor == null)
+            throw new NullPointerException("executor must not be null");
+        sExecutor = executor;
+    }
+
+    /** 非同期リクエストの実行に使用する Executor を返す。
+     * デフォルトの Executor は、待っているリクエストを優先度の高いものから順に実行する。
+     */
+    public static synchronized ExecutorService getExecutor() {
+        if (sExecutor == null) {
+            sExecutor = new ThreadPoolExecutor(DEFAULT_ASYNC_THREADS, DEFAULT_ASYNC_THREADS,
+                    0, TimeUnit.MILLISECONDS,
+                    new PriorityBlockingQueue<Runnable>(11, TASK_ORDER), new ThreadFactory() {
+                private final AtomicInteger mCount = new AtomicInteger();
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, TAG + " #" + mCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sExecutor;
+    }
     
     /** HTTP GET リクエストを発行する。
      * 
@@ -63,18 +174,127 @@ public class ApiRequestUtils {
     public static <T> T doGetRequest(String endpointUrl, List<NameValuePair> query,
             ResponseHandler<T> responseHandler, OAuthTokenStore store)
             throws ClientProtocolException, IOException {
-        Uri.Builder uriBuilder = Uri.parse(endpointUrl).buildUpon();
-        if (query != null) {
-            for (NameValuePair nvp : query) {
-                uriBuilder.appendQueryParameter(nvp.getName(), nvp.getValue());
-            }
+        return doGetRequest(endpointUrl, query, responseHandler, store, RequestPriority.NORMAL);
+    }
+
+    /** 優先度を指定して HTTP GET リクエストを発行する。
+     * 優先度は {@link RateLimiter} で待たされている間の順序に使用される。
+     * 同じリクエストが既に実行中の場合は、新しく送らずにその結果を待つ ({@link InFlightRequests})。
+     * 
+     * @param <T> 期待するレスポンスの型
+     * @param endpointUrl リクエスト先のURL
+     * @param query クエリパラメータを含む{@link NameValuePair}のリスト
+     * @param responseHandler レスポンスハンドラ
+     * @param store OAuth の Access Token を保持している OAuthTokenStore。認証しない場合は null
+     * @param priority リクエストの優先度
+     * @return リクエストが成功した場合、レスポンスハンドラによって処理されたレスポンスが返る
+     * @throws ClientProtocolException
+     * @throws IOException
+     */
+    public static <T> T doGetRequest(String endpointUrl, List<NameValuePair> query,
+            ResponseHandler<T> responseHandler, OAuthTokenStore store, RequestPriority priority)
+            throws ClientProtocolException, IOException {
+        return doGetRequest(createGetRequest(endpointUrl, query), responseHandler, store,
+                priority);
+    }
+
+    /** {@link RequestTemplate} に値を埋めて HTTP GET リクエストを発行する。
+     * URL の組み立て以外の動作は
+     * {@link #doGetRequest(String, List, ResponseHandler, OAuthTokenStore, RequestPriority)} と同じ。
+     * 
+     * @param <T> 期待するレスポンスの型
+     * @param template リクエストのテンプレート
+     * @param responseHandler レスポンスハンドラ
+     * @param store OAuth の Access Token を保持している OAuthTokenStore。認証しない場合は null
+     * @param priority リクエストの優先度
+     * @param values テンプレートの可変のパラメータの値
+     * @return リクエストが成功した場合、レスポンスハンドラによって処理されたレスポンスが返る
+     * @throws ClientProtocolException
+     * @throws IOException
+     */
+    public static <T> T doGetRequest(RequestTemplate template, ResponseHandler<T> responseHandler,
+            OAuthTokenStore store, RequestPriority priority, Object... values)
+            throws ClientProtocolException, IOException {
+        return doGetRequest(template.newGet(values), responseHandler, store, priority);
+    }
+
+    private static <T> T doGetRequest(HttpGet request, ResponseHandler<T> responseHandler,
+            OAuthTokenStore store, RequestPriority priority)
+            throws ClientProtocolException, IOException {
+        setPriority(request, priority);
+        if (!InFlightRequests.isEnabled()) {
+            return execute(request, responseHandler, store);
         }
-        HttpGet request = new HttpGet(uriBuilder.build().toString());
-        if (store == null) {
-            return executeRequest(request, responseHandler);
-        } else {
-            return executeRequestWithRefresh(request, responseHandler, store);
+        return InFlightRequests.execute(request, responseHandler, store,
+                newTask(request, responseHandler, store));
+    }
+
+    /** HTTP GET リクエストを非同期に発行する。
+     * リクエストは {@link #getExecutor()} のスレッドで実行される。
+     * store を指定した場合の動作は {@link #doGetRequest(String, List, ResponseHandler, OAuthTokenStore)}
+     * と同じ。
+     * 
+     * @param <T> 期待するレスポンスの型
+     * @param endpointUrl リクエスト先のURL
+     * @param query クエリパラメータを含む{@link NameValuePair}のリスト
+     * @param responseHandler レスポンスハンドラ
+     * @param store OAuth の Access Token を保持している OAuthTokenStore。認証しない場合は null
+     * @return リクエストの結果を表す {@link ApiFuture}
+     */
+    public static <T> ApiFuture<T> doGetRequestAsync(String endpointUrl,
+            List<NameValuePair> query, ResponseHandler<T> responseHandler,
+            OAuthTokenStore store) {
+        return doGetRequestAsync(endpointUrl, query, responseHandler, store,
+                RequestPriority.NORMAL);
+    }
+
+    /** 優先度を指定して HTTP GET リクエストを非同期に発行する。
+     * 同じリクエストが既に実行中の場合は、新しく送らずにその結果を共有する。
+     * 返された ApiFuture をキャンセルしても、他に同じ結果を待っている呼び出し元があれば
+     * リクエストは中断されない。
+     * 
+     * @param <T> 期待するレスポンスの型
+     * @param endpointUrl リクエスト先のURL
+     * @param query クエリパラメータを含む{@link NameValuePair}のリスト
+     * @param responseHandler レスポンスハンドラ
+     * @param store OAuth の Access Token を保持している OAuthTokenStore。認証しない場合は null
+     * @param priority リクエストの優先度
+     * @return リクエストの結果を表す {@link ApiFuture}
+     */
+    public static <T> ApiFuture<T> doGetRequestAsync(String endpointUrl,
+            List<NameValuePair> query, ResponseHandler<T> responseHandler,
+            OAuthTokenStore store, RequestPriority priority) {
+        return doGetRequestAsync(createGetRequest(endpointUrl, query), responseHandler, store,
+                priority);
+    }
+
+    /** {@link RequestTemplate} に値を埋めて HTTP GET リクエストを非同期に発行する。
+     * URL の組み立て以外の動作は
+     * {@link #doGetRequestAsync(String, List, ResponseHandler, OAuthTokenStore, RequestPriority)}
+     * と同じ。
+     * 
+     * @param <T> 期待するレスポンスの型
+     * @param template リクエストのテンプレート
+     * @param responseHandler レスポンスハンドラ
+     * @param store OAuth の Access Token を保持している OAuthTokenStore。認証しない場合は null
+     * @param priority リクエストの優先度
+     * @param values テンプレートの可変のパラメータの値
+     * @return リクエストの結果を表す {@link ApiFuture}
+     */
+    public static <T> ApiFuture<T> doGetRequestAsync(RequestTemplate template,
+            ResponseHandler<T> responseHandler, OAuthTokenStore store, RequestPriority priority,
+            Object... values) {
+        return doGetRequestAsync(template.newGet(values), responseHandler, store, priority);
+    }
+
+    private static <T> ApiFuture<T> doGetRequestAsync(HttpGet request,
+            ResponseHandler<T> responseHandler, OAuthTokenStore store, RequestPriority priority) {
+        setPriority(request, priority);
+        if (!InFlightRequests.isEnabled()) {
+            return submit(request, responseHandler, store);
         }
+        return InFlightRequests.submit(request, responseHandler, store,
+                newTask(request, responseHandler, store));
     }
 
     /** HTTP POST リクエストを発行する。
@@ -110,15 +330,91 @@ public class ApiRequestUtils {
     public static <T> T doPostRequest(String endpointUrl, List<NameValuePair> body,
             ResponseHandler<T> responseHandler, OAuthTokenStore store)
             throws ClientProtocolException, IOException {
+        return execute(createPostRequest(endpointUrl, body), responseHandler, store);
+    }
+
+    /** HTTP POST リクエストを非同期に発行する。
+     * リクエストは {@link #getExecutor()} のスレッドで実行される。
+     * store を指定した場合の動作は {@link #doPostRequest(String, List, ResponseHandler, OAuthTokenStore)}
+     * と同じ。
+     * 
+     * @param <T> 期待するレスポンスの型
+     * @param endpointUrl リクエスト先のURL
+     * @param body リクエストボディに含める{@link NameValuePair}のリスト
+     * @param responseHandler レスポンスハンドラ
+     * @param store OAuth の Access Token を保持している OAuthTokenStore。認証しない場合は null
+     * @return リクエストの結果を表す {@link ApiFuture}
+     * @throws UnsupportedEncodingException
+     */
+    public static <T> ApiFuture<T> doPostRequestAsync(String endpointUrl,
+            List<NameValuePair> body, ResponseHandler<T> responseHandler,
+            OAuthTokenStore store) throws UnsupportedEncodingException {
+        return submit(createPostRequest(endpointUrl, body), responseHandler, store);
+    }
+
+    /*package*/ static void setPriority(HttpRequestBase request, RequestPriority priority) {
+        if (priority == null)
+            throw new NullPointerException("priority must not be null");
+        request.getParams().setParameter(PRIORITY_PARAM, priority);
+    }
+
+    /*package*/ static RequestPriority getPriority(HttpRequestBase request) {
+        Object priority = request.getParams().getParameter(PRIORITY_PARAM);
+        return priority instanceof RequestPriority ? (RequestPriority) priority
+                : RequestPriority.NORMAL;
+    }
+
+    /*package*/ static HttpGet createGetRequest(String endpointUrl, List<NameValuePair> query) {
+        Uri.Builder uriBuilder = Uri.parse(endpointUrl).buildUpon();
+        if (query != null) {
+            for (NameValuePair nvp : query) {
+                uriBuilder.appendQueryParameter(nvp.getName(), nvp.getValue());
+            }
+        }
+        return new HttpGet(uriBuilder.build().toString());
+    }
+
+    /*package*/ static HttpPost createPostRequest(String endpointUrl, List<NameValuePair> body)
+            throws UnsupportedEncodingException {
         HttpPost request = new HttpPost(endpointUrl);
         UrlEncodedFormEntity entity = new UrlEncodedFormEntity(body, HTTP.UTF_8);
         request.setEntity(entity);
+        return request;
+    }
+
+    /*package*/ static <T> T execute(HttpRequestBase request, ResponseHandler<T> responseHandler,
+            OAuthTokenStore store) throws ClientProtocolException, IOException {
         if (store == null) {
             return executeRequest(request, responseHandler);
         } else {
             return executeRequestWithRefresh(request, responseHandler, store);
         }
     }
+
+    /** リクエストを Executor に投入する。キャンセルされた場合はリクエストを中断する。 */
+    private static <T> ApiFuture<T> submit(HttpRequestBase request,
+            ResponseHandler<T> responseHandler, OAuthTokenStore store) {
+        return newTask(request, responseHandler, store).submit();
+    }
+
+    /** リクエストを実行する ApiFuture を生成する。キャンセルされた場合はリクエストを中断する。 */
+    private static <T> ApiFuture<T> newTask(final HttpRequestBase request,
+            final ResponseHandler<T> responseHandler, final OAuthTokenStore store) {
+        ApiFuture<T> future = new ApiFuture<T>(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                return execute(request, responseHandler, store);
+            }
+        }, getExecutor());
+        future.setCancellationAction(new Runnable() {
+            @Override
+            public void run() {
+                request.abort();
+            }
+        });
+        future.setPriority(getPriority(request));
+        return future;
+    }
     
     
     /**
@@ -168,13 +464,12 @@ public class ApiRequestUtils {
             token = getValidAccessToken(store);
             if (token != null) {
                 // Authorization ヘッダを付与
-                authorizationHeader = 
-                    new BasicHeader("Authorization", "OAuth " + token.accessToken);
+                authorizationHeader = token.getAuthorizationHeader();
                 request.addHeader(authorizationHeader);
             }
         }
         try {
-            return executeRequest(request, responseHandler);
+            return executeRequest(request, responseHandler, store.getAccount());
         } catch (TokenExpiredException e) {
             if (!e.isRetryable()) {
                 Log.w(TAG, "Access token is invalid.");
@@ -186,7 +481,8 @@ public class ApiRequestUtils {
                     Log.v(TAG, "Access token has been expired. Trying to refresh.");
                     if (authorizationHeader != null)
                         request.removeHeader(authorizationHeader);
-                    store.setToken(OAuthClient.refreshToken(token.refreshToken));
+                    notifyTokenRefresh(RequestMetricsListener.RefreshTrigger.UNAUTHORIZED_RESPONSE);
+                    storeRefreshedToken(store, token, TokenRefresher.refresh(token.refreshToken));
                     return executeRequestWithRefresh(request, responseHandler, store, true);
                 }
             }
@@ -194,7 +490,7 @@ public class ApiRequestUtils {
         }
     }
    
-    /** HttpClient のインスタンスを生成し、 HTTP リクエストを行う。
+    /** 設定された {@link HttpTransport} を使用して HTTP リクエストを行う。
      * 
      * @param <T> 期待するレスポンスの型
      * @param request リクエスト内容
@@ -205,33 +501,337 @@ public class ApiRequestUtils {
      */
     private static <T> T executeRequest(HttpRequestBase request, ResponseHandler<T> responseHandler)
             throws ClientProtocolException, IOException {
-        AndroidHttpClient client = AndroidHttpClient.newInstance(USER_AGENT);
+        return executeRequest(request, responseHandler, null);
+    }
+
+    /** 設定された {@link HttpTransport} を使用して HTTP リクエストを行う。
+     * GET リクエストが通信エラーや 5xx, 429 で失敗した場合は、 {@link RetryPolicy} に従って再試行する。
+     * 送信先のホストへのリクエストが続けて失敗している間は、 {@link CircuitBreaker} により
+     * リクエストを送らずに {@link CircuitOpenException} を throw する。
+     * {@link HttpResponseCache} から返すことのできる GET は、サーキットブレーカーとレート制限に関係なく
+     * キャッシュから返す。
+     * 送信前には {@link RateLimiter} により、エンドポイントとアカウントごとの制限に従って待つ。
+     * 
+     * @param <T> 期待するレスポンスの型
+     * @param request リクエスト内容
+     * @param responseHandler 期待する型を返す {@link ResponseHandler}
+     * @param account キャッシュとレート制限のキーに使用するアカウント。認証しない場合は null
+     * @return リクエストに成功した場合はその内容を返す。
+     * @throws ClientProtocolException
+     * @throws IOException
+     */
+    /*package*/ static <T> T executeRequest(HttpRequestBase request,
+            ResponseHandler<T> responseHandler, String account)
+            throws ClientProtocolException, IOException {
+        CircuitBreaker breaker = CircuitBreaker.forHost(request.getURI().getHost());
+        // 冪等な GET だけを再試行する
+        RetryPolicy policy = request instanceof HttpGet ? sRetryPolicy : null;
+        if (policy != null) {
+            policy.onRequest();
+        }
+        RateLimiter limiter = RateLimiter.forEndpoint(RequestMetrics.endpointOf(request.getURI()),
+                account);
+        RequestPriority priority = getPriority(request);
+        int retryCount = 0;
+        while (true) {
+            GuardedTransport transport =
+                new GuardedTransport(getTransport(), breaker, limiter, priority);
+            RetryingResponseHandler<T> handler =
+                new RetryingResponseHandler<T>(responseHandler, policy, retryCount);
+            long delayMs;
+            try {
+                T result = executeMeasuredRequest(transport, request, handler, account);
+                recordOutcome(transport);
+                return result;
+            } catch (RetryableResponseException e) {
+                recordOutcome(transport);
+                delayMs = e.getDelayMs();
+            } catch (IOException e) {
+                if (!transport.hasSent() || transport.getStatusCode() != 0) {
+                    // 送信しなかった場合 (キャッシュ、サーキットブレーカー、レート制限) と
+                    // レスポンスを受け取った後の失敗は再試行しない
+                    recordOutcome(transport);
+                    throw e;
+                }
+                if (request.isAborted()) {
+                    breaker.onAborted();
+                    throw e;
+                }
+                breaker.onFailure();
+                delayMs = policy != null && isRetryable(e) ? policy.acquireRetry(retryCount, -1) : -1;
+                if (delayMs < 0) {
+                    throw e;
+                }
+                Log.v(TAG, "request failed: " + e + ", retrying in " + delayMs + "ms");
+            } catch (RuntimeException e) {
+                recordOutcome(transport);
+                throw e;
+            }
+            try {
+                Thread.sleep(delayMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while waiting to retry");
+            }
+            retryCount++;
+        }
+    }
+
+    /** ネットワークに送信したリクエストの結果をサーキットブレーカーに記録する。
+     * キャッシュから返したレスポンスは、ホストの健全性の判断に使わない。
+     */
+    private static void recordOutcome(GuardedTransport transport) {
+        if (!transport.hasSent()) {
+            return;
+        }
+        CircuitBreaker breaker = transport.mBreaker;
+        int statusCode = transport.getStatusCode();
+        if (statusCode >= 500) {
+            breaker.onFailure();
+        } else if (statusCode != 0) {
+            breaker.onSuccess();
+        } else {
+            breaker.onAborted();
+        }
+    }
+
+    /** 通信エラーが一時的なもので、再試行してよいかどうかを返す。 */
+    private static boolean isRetryable(IOException e) {
+        if (e instanceof ClientProtocolException || e instanceof MalformedJsonException
+                || e instanceof CircuitOpenException || e instanceof ResponseTooLargeException) {
+            return false;
+        }
+        if (e instanceof InterruptedIOException) {
+            // タイムアウト以外の中断は再試行しない
+            return e instanceof SocketTimeoutException || e instanceof ConnectTimeoutException;
+        }
+        return !Thread.currentThread().isInterrupted();
+    }
+
+    private static <T> T executeMeasuredRequest(HttpTransport transport, HttpRequestBase request,
+            ResponseHandler<T> responseHandler, String account)
+            throws ClientProtocolException, IOException {
+        RequestMetricsListener listener = sMetricsListener;
+        if (listener == null) {
+            return executeRequest(transport, request, responseHandler, account, null);
+        }
+        RequestMetrics metrics = new RequestMetrics(request);
+        HttpContext context = new BasicHttpContext();
+        context.setAttribute(RequestMetrics.CONTEXT_KEY, metrics);
+        Throwable failure = null;
+        try {
+            return executeRequest(transport, request, metrics.wrap(responseHandler), account, context);
+        } catch (IOException e) {
+            failure = e;
+            throw e;
+        } catch (RuntimeException e) {
+            failure = e;
+            throw e;
+        } finally {
+            metrics.finish(failure);
+            listener.onRequestFinished(metrics);
+        }
+    }
+
+    private static <T> T executeRequest(HttpTransport transport, HttpRequestBase request,
+            ResponseHandler<T> responseHandler, String account, HttpContext context)
+            throws ClientProtocolException, IOException {
+        HttpResponseCache cache = HttpResponseCache.getInstalled();
+        if (cache != null && request instanceof HttpGet) {
+            return cache.execute(transport, request, account, responseHandler, context);
+        }
+        HttpResponse response = transport.execute(request, context);
+        ResponseBody.attachRequest(response, request);
+        boolean handled = false;
         try {
-            return client.execute(request, responseHandler);
+            T result = responseHandler.handleResponse(response);
+            handled = true;
+            return result;
         } finally {
-            client.close();
+            // コネクションを解放するために本文を読み切る。中断した場合は接続が破棄されている
+            HttpEntity entity = response.getEntity();
+            if (entity != null && !request.isAborted()) {
+                try {
+                    entity.consumeContent();
+                } catch (IOException e) {
+                    if (handled)
+                        throw e;
+                    // ハンドラの例外を優先する
+                    Log.v(TAG, "failed to consume content: " + e);
+                }
+            }
+        }
+    }
+
+    /** Retry-After ヘッダ (秒数または日時) から待ち時間を返す。指定がない場合は -1 */
+    /*package*/ static long getRetryAfterMs(HttpResponse response) {
+        Header header = response.getFirstHeader("Retry-After");
+        if (header == null) {
+            return -1;
+        }
+        String value = header.getValue().trim();
+        try {
+            return Math.max(0, Long.parseLong(value) * 1000);
+        } catch (NumberFormatException e) {
+            // 日時で指定されている
+        }
+        try {
+            return Math.max(0, DateUtils.parseDate(value).getTime() - System.currentTimeMillis());
+        } catch (DateParseException e) {
+            return -1;
+        }
+    }
+
+    /** {@link RequestMetricsListener} にトークンのリフレッシュを通知する。 */
+    /*package*/ static void notifyTokenRefresh(RequestMetricsListener.RefreshTrigger trigger) {
+        RequestMetricsListener listener = sMetricsListener;
+        if (listener != null) {
+            listener.onTokenRefresh(trigger);
         }
     }
     
     /**
      * {@link OAuthTokenStore} から Access Token を取得して返す。既に期限が切れていた場合はリフレッシュを試みる。
+     * 同時に複数のリクエストが期限切れを検出した場合も、リフレッシュは {@link TokenRefresher} により 1 回にまとめられる。
      * 
      * @param store OAuthTokenStore のインスタンス
      * @return 現時点で有効な Access Token
      * @throws ClientProtocolException
      * @throws IOException
      */
-	private static OAuthToken getValidAccessToken(OAuthTokenStore store)
+	/*package*/ static OAuthToken getValidAccessToken(OAuthTokenStore store)
 			throws ClientProtocolException, IOException {
         OAuthToken token = store.getToken();
         if (token != null && token.accessToken != null) {
             if (token.expiresOn < System.currentTimeMillis()) {
                 // expired, try to refresh first
-                token = OAuthClient.refreshToken(token.refreshToken);
-                // save
-                store.setToken(token);
+                notifyTokenRefresh(RequestMetricsListener.RefreshTrigger.EXPIRED_BEFORE_REQUEST);
+                token = storeRefreshedToken(store, token,
+                        TokenRefresher.refresh(token.refreshToken));
             }
         }
         return token;
 	}
+
+    /** リフレッシュして得たトークンを、リフレッシュ前のトークンが保存されたままの場合にだけ保存する。
+     * リフレッシュの間に他のスレッドが新しいトークンを保存していた場合は、そちらを優先する。
+     * 
+     * @param store OAuthTokenStore のインスタンス
+     * @param expected リフレッシュ前のトークン
+     * @param refreshed リフレッシュして得たトークン
+     * @return 保存されている最新のトークン
+     * @throws IOException リフレッシュの結果が空だった場合
+     */
+    /*package*/ static OAuthToken storeRefreshedToken(OAuthTokenStore store, OAuthToken expected,
+            OAuthToken refreshed) throws IOException {
+        if (refreshed == null)
+            throw new IOException("empty token response");
+        if (!store.compareAndSetToken(expected, refreshed)) {
+            Log.v(TAG, "A newer token has been stored while refreshing.");
+        }
+        return store.getToken();
+    }
+
+    /** ネットワークに送信する直前に {@link RateLimiter} で待ち、 {@link CircuitBreaker} を確認するトランスポート。
+     * 1 回の送信ごとに生成し、送信したかどうかと受け取ったステータスコードを記録する。
+     * 受け取ったレスポンスは RateLimiter に渡し、制限を学習させる。
+     * キャッシュから返す場合は呼ばれないため、キャッシュはホストの状態や制限に関係なく使用できる。
+     */
+    private static class GuardedTransport implements HttpTransport {
+        private final HttpTransport mTransport;
+        private final CircuitBreaker mBreaker;
+        private final RateLimiter mLimiter;
+        private final RequestPriority mPriority;
+        private boolean mSent;
+        private int mStatusCode;
+
+        GuardedTransport(HttpTransport transport, CircuitBreaker breaker, RateLimiter limiter,
+                RequestPriority priority) {
+            mTransport = transport;
+            mBreaker = breaker;
+            mLimiter = limiter;
+            mPriority = priority;
+        }
+
+        /** ネットワークに送信した場合 true */
+        boolean hasSent() {
+            return mSent;
+        }
+
+        /** ネットワークから受け取ったステータスコード。受け取っていない場合は 0 */
+        int getStatusCode() {
+            return mStatusCode;
+        }
+
+        @Override
+        public HttpResponse execute(HttpUriRequest request, HttpContext context) throws IOException {
+            if (mLimiter != null) {
+                mLimiter.acquire(mPriority);
+            }
+            mBreaker.acquire();
+            mSent = true;
+            HttpResponse response = mTransport.execute(request, context);
+            mStatusCode = response.getStatusLine().getStatusCode();
+            if (mLimiter != null) {
+                mLimiter.onResponse(response);
+            }
+            return response;
+        }
+
+        @Override
+        public void shutdown() {
+            mTransport.shutdown();
+        }
+    }
+
+    /** 再試行できる一時的なエラーのレスポンスを受け取った場合に、
+     * 元のハンドラを呼ばずに {@link RetryableResponseException} を throw するハンドラ。
+     * 再試行しない場合は元のハンドラにレスポンスを渡す。
+     */
+    private static class RetryingResponseHandler<T> implements ResponseHandler<T> {
+        private final ResponseHandler<T> mHandler;
+        private final RetryPolicy mPolicy;
+        private final int mRetryCount;
+        private int mStatusCode;
+
+        RetryingResponseHandler(ResponseHandler<T> handler, RetryPolicy policy, int retryCount) {
+            mHandler = handler;
+            mPolicy = policy;
+            mRetryCount = retryCount;
+        }
+
+        /** 受け取ったレスポンスのステータスコード。受け取っていない場合は 0 */
+        int getStatusCode() {
+            return mStatusCode;
+        }
+
+        @Override
+        public T handleResponse(HttpResponse response) throws ClientProtocolException, IOException {
+            mStatusCode = response.getStatusLine().getStatusCode();
+            if (mPolicy != null && isRetryableStatus(mStatusCode)) {
+                long delayMs = mPolicy.acquireRetry(mRetryCount, getRetryAfterMs(response));
+                if (delayMs >= 0) {
+                    Log.v(TAG, "server returned " + mStatusCode + ", retrying in " + delayMs + "ms");
+                    HttpEntity entity = response.getEntity();
+                    if (entity != null) {
+                        entity.consumeContent();
+                    }
+                    throw new RetryableResponseException(mStatusCode, delayMs);
+                }
+            }
+            return mHandler.handleResponse(response);
+        }
+
+        private static boolean isRetryableStatus(int statusCode) {
+            switch (statusCode) {
+                case 429:   // Too Many Requests
+                case 500:   // Internal Server Error
+                case 502:   // Bad Gateway
+                case 503:   // Service Unavailable
+                case 504:   // Gateway Timeout
+                    return true;
+            }
+            return false;
+        }
+    }
 }
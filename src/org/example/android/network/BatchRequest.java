@@ -0,0 +1,426 @@
+package org.example.android.network;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.util.EntityUtils;
+import org.example.android.oauth.OAuthClient;
+import org.example.android.oauth.OAuthToken;
+import org.example.android.oauth.OAuthTokenStore;
+import org.example.android.oauth.TokenExpiredException;
+import org.example.android.oauth.TokenRefresher;
+import org.json.JSONObject;
+
+import android.util.Log;
+
+/** 複数の API リクエストを 1 回の HTTP リクエストにまとめて発行するバッチ。
+ * リクエストは次の形式の JSON としてバッチ用のエンドポイントに POST される。
+ * <pre>
+ * [{"method":"GET","relative_url":"/2/people/@me/@friends?startIndex=0&amp;count=20"}, ...]
+ * </pre>
+ * リクエストにヘッダが設定されている場合は、レスポンスと同じ形式の "headers" として含める。
+ * レスポンスは、リクエストと同じ順序で次の形式の JSON 配列として返される。
+ * 実行されなかったリクエストに対応する要素は null となる。
+ * <pre>
+ * [{"code":200,"headers":[{"name":"Content-Type","value":"application/json"}],"body":"..."}, ...]
+ * </pre>
+ * 各要素は追加時に指定した {@link ResponseHandler} で処理され、その結果が
+ * {@link ApiFuture} に設定される。 Access Token の期限切れで失敗した要素は、
+ * トークンをリフレッシュした後に、それらだけをまとめて 1 回だけ再送する。
+ * 要素が 1 件だけの場合は、バッチにせず通常のリクエストとして発行する。
+ */
+public class BatchRequest {
+    private static final String TAG = "BatchRequest";
+    private static final String CONTENT_TYPE_JSON = "application/json";
+
+    private final String mEndpointUrl;
+    private final OAuthTokenStore mStore;
+    private final ArrayList<Item<?>> mItems = new ArrayList<Item<?>>();
+    private boolean mExecuted;
+
+    /** バッチを生成する。
+     * @param endpointUrl バッチリクエストを受け付けるエンドポイントの URL
+     * @param store OAuth の Access Token を保持している OAuthTokenStore。認証しない場合は null
+     */
+    public BatchRequest(String endpointUrl, OAuthTokenStore store) {
+        mEndpointUrl = endpointUrl;
+        mStore = store;
+    }
+
+    /** HTTP GET リクエストをバッチに追加する。
+     * @param <T> 期待するレスポンスの型
+     * @param endpointUrl リクエスト先のURL
+     * @param query クエリパラメータを含む{@link NameValuePair}のリスト
+     * @param responseHandler このリクエストのレスポンスを処理するハンドラ
+     * @return リクエストの結果を表す {@link ApiFuture}
+     */
+    public <T> ApiFuture<T> addGet(String endpointUrl, List<NameValuePair> query,
+            ResponseHandler<T> responseHandler) {
+        return addGet(endpointUrl, query, responseHandler, RequestPriority.NORMAL);
+    }
+
+    /** HTTP GET リクエストを、優先度を指定してバッチに追加する。
+     * バッチは、含まれるリクエストのうち最も高い優先度で送信される。
+     * @param <T> 期待するレスポンスの型
+     * @param endpointUrl リクエスト先のURL
+     * @param query クエリパラメータを含む{@link NameValuePair}のリスト
+     * @param responseHandler このリクエストのレスポンスを処理するハンドラ
+     * @param priority リクエストの優先度
+     * @return リクエストの結果を表す {@link ApiFuture}
+     */
+    public <T> ApiFuture<T> addGet(String endpointUrl, List<NameValuePair> query,
+            ResponseHandler<T> responseHandler, RequestPriority priority) {
+        HttpGet request = ApiRequestUtils.createGetRequest(endpointUrl, query);
+        ApiRequestUtils.setPriority(request, priority);
+        return add(request, responseHandler);
+    }
+
+    /** HTTP POST リクエストをバッチに追加する。
+     * @param <T> 期待するレスポンスの型
+     * @param endpointUrl リクエスト先のURL
+     * @param body リクエストボディに含める{@link NameValuePair}のリスト
+     * @param responseHandler このリクエストのレスポンスを処理するハンドラ
+     * @return リクエストの結果を表す {@link ApiFuture}
+     * @throws UnsupportedEncodingException
+     */
+    public <T> ApiFuture<T> addPost(String endpointUrl, List<NameValuePair> body,
+            ResponseHandler<T> responseHandler) throws UnsupportedEncodingException {
+        return add(ApiRequestUtils.createPostRequest(endpointUrl, body), responseHandler);
+    }
+
+    /** バッチに含まれるリクエストの件数を返す。 */
+    public synchronized int size() {
+        return mItems.size();
+    }
+
+    /** バッチを送信し、すべてのリクエストの結果が設定されるまで待つ。
+     * 個々のリクエストの失敗は、それぞれの {@link ApiFuture} に設定される。
+     */
+    public void execute() {
+        ArrayList<Item<?>> items;
+        synchronized (this) {
+            if (mExecuted)
+                throw new IllegalStateException("batch already executed");
+            mExecuted = true;
+            items = new ArrayList<Item<?>>(mItems);
+        }
+        items = removeCancelled(items);
+        if (items.isEmpty()) {
+            return;
+        }
+        if (items.size() == 1) {
+            items.get(0).executeAlone(mStore);
+            return;
+        }
+        try {
+            send(items, false);
+        } catch (Throwable e) {
+            Log.w(TAG, "batch request failed", e);
+            for (Item<?> item : items) {
+                item.mFuture.setFailure(e);
+            }
+        }
+    }
+
+    /** バッチを {@link ApiRequestUtils#getExecutor()} のスレッドで送信する。
+     * Executor の待ち行列では、含まれるリクエストのうち最も高い優先度で扱われる。
+     */
+    public void executeAsync() {
+        ApiFuture<Void> task = new ApiFuture<Void>(new Callable<Void>() {
+            @Override
+            public Void call() {
+                execute();
+                return null;
+            }
+        }, ApiRequestUtils.getExecutor());
+        task.setPriority(getPriority());
+        task.submit();
+    }
+
+    /** 含まれるリクエストのうち最も高い優先度を返す。 */
+    private synchronized RequestPriority getPriority() {
+        return getPriority(mItems);
+    }
+
+    private static RequestPriority getPriority(List<Item<?>> items) {
+        RequestPriority highest = RequestPriority.LOW;
+        for (Item<?> item : items) {
+            RequestPriority priority = ApiRequestUtils.getPriority(item.mRequest);
+            if (priority.compareTo(highest) < 0) {
+                highest = priority;
+            }
+        }
+        return highest;
+    }
+
+    /** 生成済みのリクエストをバッチに追加する。リクエストのヘッダもバッチに含めて送信する。 */
+    /*package*/ synchronized <T> ApiFuture<T> add(HttpRequestBase request,
+            ResponseHandler<T> responseHandler) {
+        if (mExecuted)
+            throw new IllegalStateException("batch already executed");
+        Item<T> item = new Item<T>(request, responseHandler);
+        mItems.add(item);
+        return item.mFuture;
+    }
+
+    private void send(List<Item<?>> items, boolean isRetry)
+            throws ClientProtocolException, IOException {
+        OAuthToken token = null;
+        HttpPost post = new HttpPost(mEndpointUrl);
+        ApiRequestUtils.setPriority(post, getPriority(items));
+        if (mStore != null) {
+            token = ApiRequestUtils.getValidAccessToken(mStore);
+            if (token != null) {
+                post.addHeader(token.getAuthorizationHeader());
+            }
+        }
+        StringEntity entity = new StringEntity(toJson(items), HTTP.UTF_8);
+        entity.setContentType(CONTENT_TYPE_JSON);
+        post.setEntity(entity);
+        Log.v(TAG, "sending " + items.size() + " requests in a batch");
+
+        List<Item<?>> expired = ApiRequestUtils.executeRequest(post,
+                new BatchResponseHandler(items), mStore == null ? null : mStore.getAccount());
+        if (expired.isEmpty()) {
+            return;
+        }
+        if (isRetry || token == null) {
+            Log.e(TAG, "Access token is invalid even after refreshing.");
+            for (Item<?> item : expired) {
+                item.mFuture.setFailure(new TokenExpiredException("invalid token", false));
+            }
+            return;
+        }
+        Log.v(TAG, "Access token has been expired. Trying to refresh.");
+        ApiRequestUtils.notifyTokenRefresh(RequestMetricsListener.RefreshTrigger.UNAUTHORIZED_RESPONSE);
+        ApiRequestUtils.storeRefreshedToken(mStore, token,
+                TokenRefresher.refresh(token.refreshToken));
+        expired = removeCancelled(expired);
+        if (!expired.isEmpty()) {
+            send(expired, true);
+        }
+    }
+
+    private static ArrayList<Item<?>> removeCancelled(List<Item<?>> items) {
+        ArrayList<Item<?>> result = new ArrayList<Item<?>>(items.size());
+        for (Item<?> item : items) {
+            if (!item.mFuture.isDone()) {
+                result.add(item);
+            }
+        }
+        return result;
+    }
+
+    private static String toJson(List<Item<?>> items) throws IOException {
+        StringBuilder json = new StringBuilder();
+        json.append('[');
+        for (int i = 0; i < items.size(); i++) {
+            HttpRequestBase request = items.get(i).mRequest;
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"method\":").append(JSONObject.quote(request.getMethod()));
+            json.append(",\"relative_url\":").append(JSONObject.quote(relativeUrl(request.getURI())));
+            Header[] headers = request.getAllHeaders();
+            if (headers.length > 0) {
+                json.append(",\"headers\":[");
+                for (int j = 0; j < headers.length; j++) {
+                    if (j > 0) {
+                        json.append(',');
+                    }
+                    json.append("{\"name\":").append(JSONObject.quote(headers[j].getName()));
+                    json.append(",\"value\":").append(JSONObject.quote(headers[j].getValue()));
+                    json.append('}');
+                }
+                json.append(']');
+            }
+            if (request instanceof HttpEntityEnclosingRequestBase) {
+                HttpEntity body = ((HttpEntityEnclosingRequestBase) request).getEntity();
+                if (body != null) {
+                    json.append(",\"body\":").append(JSONObject.quote(EntityUtils.toString(body)));
+                }
+            }
+            json.append('}');
+        }
+        json.append(']');
+        return json.toString();
+    }
+
+    private static String relativeUrl(URI uri) {
+        String path = uri.getRawPath();
+        String query = uri.getRawQuery();
+        return query == null ? path : path + "?" + query;
+    }
+
+    /** バッチ内の 1 件のリクエスト */
+    private static class Item<T> {
+        final HttpRequestBase mRequest;
+        final ResponseHandler<T> mHandler;
+        final ApiFuture<T> mFuture;
+
+        Item(HttpRequestBase request, ResponseHandler<T> handler) {
+            mRequest = request;
+            mHandler = handler;
+            mFuture = new ApiFuture<T>(ApiRequestUtils.getExecutor());
+        }
+
+        /** バッチ内のレスポンスを処理して結果を設定する。
+         * @throws TokenExpiredException Access Token の期限切れで、リフレッシュ後に再試行できる場合
+         */
+        void handle(HttpResponse response) throws TokenExpiredException {
+            try {
+                mFuture.setResult(mHandler.handleResponse(response));
+            } catch (TokenExpiredException e) {
+                if (e.isRetryable())
+                    throw e;
+                mFuture.setFailure(e);
+            } catch (Throwable e) {
+                mFuture.setFailure(e);
+            }
+        }
+
+        /** バッチにせず、単独のリクエストとして実行する。 */
+        void executeAlone(OAuthTokenStore store) {
+            try {
+                mFuture.setResult(ApiRequestUtils.execute(mRequest, mHandler, store));
+            } catch (Throwable e) {
+                mFuture.setFailure(e);
+            }
+        }
+    }
+
+    /** バッチのレスポンスを分解し、それぞれのリクエストのハンドラに渡す。
+     * Access Token の期限切れで再試行が必要なリクエストのリストを返す。
+     */
+    private static class BatchResponseHandler extends StreamingResponseHandler<List<Item<?>>> {
+        private final List<Item<?>> mItems;
+
+        BatchResponseHandler(List<Item<?>> items) {
+            mItems = items;
+        }
+
+        @Override
+        protected List<Item<?>> handleResponse(HttpResponse response, ResponseBody body)
+                throws ClientProtocolException, IOException {
+            int statusCode = response.getStatusLine().getStatusCode();
+            switch (statusCode) {
+                case 401:   // Authorization Required
+                    if (OAuthClient.isTokenExpiredResponse(response)) {
+                        // バッチ全体が期限切れで拒否された
+                        return mItems;
+                    }
+                    throw new TokenExpiredException("invalid token", false);
+                case 200:   // OK
+                    return dispatch(body);
+            }
+            throw unexpectedResponse(response, body);
+        }
+
+        private List<Item<?>> dispatch(ResponseBody body) throws IOException {
+            ArrayList<Item<?>> expired = new ArrayList<Item<?>>();
+            JsonStreamReader reader = body.getJsonReader();
+            int index = 0;
+            try {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    if (index >= mItems.size()) {
+                        reader.skipValue();
+                        continue;
+                    }
+                    Item<?> item = mItems.get(index++);
+                    if (reader.peek() == JsonStreamReader.Token.NULL) {
+                        reader.nextNull();
+                        item.mFuture.setFailure(new IOException("request was not executed"));
+                        continue;
+                    }
+                    HttpResponse itemResponse = parseResponse(reader);
+                    try {
+                        item.handle(itemResponse);
+                    } catch (TokenExpiredException e) {
+                        expired.add(item);
+                    }
+                }
+                reader.endArray();
+            } finally {
+                reader.close();
+                // レスポンスに含まれていなかったリクエスト
+                for (int i = index; i < mItems.size(); i++) {
+                    mItems.get(i).mFuture.setFailure(
+                            new IOException("no response in the batch"));
+                }
+            }
+            return expired;
+        }
+
+        private static HttpResponse parseResponse(JsonStreamReader reader) throws IOException {
+            int code = 0;
+            String body = null;
+            ArrayList<Header> headers = new ArrayList<Header>();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (name.equals("code")) {
+                    code = reader.nextInt();
+                } else if (name.equals("headers")) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        String headerName = null;
+                        String headerValue = null;
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            String key = reader.nextName();
+                            if (key.equals("name")) {
+                                headerName = reader.nextString();
+                            } else if (key.equals("value")) {
+                                headerValue = reader.nextString();
+                            } else {
+                                reader.skipValue();
+                            }
+                        }
+                        reader.endObject();
+                        if (headerName != null) {
+                            headers.add(new BasicHeader(headerName, headerValue));
+                        }
+                    }
+                    reader.endArray();
+                } else if (name.equals("body")) {
+                    if (reader.peek() == JsonStreamReader.Token.NULL) {
+                        reader.nextNull();
+                    } else {
+                        body = reader.nextString();
+                    }
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            BasicHttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, code, null);
+            response.setHeaders(headers.toArray(new Header[headers.size()]));
+            if (body != null) {
+                StringEntity entity = new StringEntity(body, HTTP.UTF_8);
+                entity.setContentType(response.getFirstHeader(HTTP.CONTENT_TYPE));
+                response.setEntity(entity);
+            }
+            return response;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package org.example.android.network;
+
+/** レスポンスの読み込みに使用するバッファのプール。
+ * 同時に読み込むレスポンスの数は Executor のスレッド数程度なので、少数のバッファを使い回す。
+ * プールが空の場合は新しく生成し、プールが一杯の場合は返されたバッファを捨てる。
+ */
+/*package*/ class BufferPool {
+    /** バイト列のバッファのサイズ */
+    static final int BYTE_BUFFER_SIZE = 8 * 1024;
+    /** 文字のバッファのサイズ */
+    static final int CHAR_BUFFER_SIZE = 1024;
+    private static final int MAX_POOLED = 4;
+
+    private static final byte[][] sBytes = new byte[MAX_POOLED][];
+    private static int sByteCount;
+    private static final char[][] sChars = new char[MAX_POOLED][];
+    private static int sCharCount;
+
+    private BufferPool() {
+    }
+
+    static synchronized byte[] acquireBytes() {
+        if (sByteCount == 0) {
+            return new byte[BYTE_BUFFER_SIZE];
+        }
+        byte[] buffer = sBytes[--sByteCount];
+        sBytes[sByteCount] = null;
+        return buffer;
+    }
+
+    static synchronized void releaseBytes(byte[] buffer) {
+        if (sByteCount < MAX_POOLED) {
+            sBytes[sByteCount++] = buffer;
+        }
+    }
+
+    static synchronized char[] acquireChars() {
+        if (sCharCount == 0) {
+            return new char[CHAR_BUFFER_SIZE];
+        }
+        char[] buffer = sChars[--sCharCount];
+        sChars[sCharCount] = null;
+        return buffer;
+    }
+
+    static synchronized void releaseChars(char[] buffer) {
+        if (sCharCount < MAX_POOLED) {
+            sChars[sCharCount++] = buffer;
+        }
+    }
+}
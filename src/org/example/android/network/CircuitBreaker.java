@@ -0,0 +1,96 @@
+package org.example.android.network;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import android.util.Log;
+
+/** ホストごとのサーキットブレーカー。
+ * 一定回数続けて失敗 (通信エラーまたは 5xx) すると一定時間リクエストを送らずに失敗させる。
+ * その時間が過ぎた後は 1 件だけ試しに送り、成功すれば通常の状態に戻る。
+ */
+public class CircuitBreaker {
+    private static final String TAG = "CircuitBreaker";
+    private static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    private static final long DEFAULT_OPEN_MS = 30 * 1000;
+
+    private static final ConcurrentHashMap<String, CircuitBreaker> sBreakers =
+        new ConcurrentHashMap<String, CircuitBreaker>();
+    private static volatile int sFailureThreshold = DEFAULT_FAILURE_THRESHOLD;
+    private static volatile long sOpenMs = DEFAULT_OPEN_MS;
+
+    private final String mHost;
+    private int mFailures;
+    /** リクエストを止めている期限。止めていない場合は 0 */
+    private long mOpenUntil;
+    private boolean mProbing;
+
+    private CircuitBreaker(String host) {
+        mHost = host;
+    }
+
+    /** これから生成されるサーキットブレーカーの設定を変更する。
+     * @param failureThreshold リクエストを止めるまでの連続した失敗の回数
+     * @param openMs リクエストを止める時間
+     */
+    public static void configure(int failureThreshold, long openMs) {
+        if (failureThreshold <= 0 || openMs < 0)
+            throw new IllegalArgumentException("invalid circuit breaker configuration");
+        sFailureThreshold = failureThreshold;
+        sOpenMs = openMs;
+        sBreakers.clear();
+    }
+
+    /** ホストに対応するサーキットブレーカーを返す。 */
+    /*package*/ static CircuitBreaker forHost(String host) {
+        if (host == null) {
+            host = "";
+        }
+        CircuitBreaker breaker = sBreakers.get(host);
+        if (breaker == null) {
+            CircuitBreaker created = new CircuitBreaker(host);
+            breaker = sBreakers.putIfAbsent(host, created);
+            if (breaker == null) {
+                breaker = created;
+            }
+        }
+        return breaker;
+    }
+
+    /** リクエストを送ってよいか確認する。
+     * @throws CircuitOpenException リクエストを止めている場合
+     */
+    /*package*/ synchronized void acquire() throws CircuitOpenException {
+        if (mOpenUntil == 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (now < mOpenUntil || mProbing) {
+            throw new CircuitOpenException(mHost, Math.max(0, mOpenUntil - now));
+        }
+        // 試しに 1 件だけ送る
+        mProbing = true;
+    }
+
+    /*package*/ synchronized void onSuccess() {
+        if (mOpenUntil != 0) {
+            Log.v(TAG, mHost + " is healthy again");
+        }
+        mFailures = 0;
+        mOpenUntil = 0;
+        mProbing = false;
+    }
+
+    /** リクエストが中断された場合に呼ばれる。健全性の判断には使わない。 */
+    /*package*/ synchronized void onAborted() {
+        mProbing = false;
+    }
+
+    /*package*/ synchronized void onFailure() {
+        mFailures++;
+        if (mProbing || mFailures >= sFailureThreshold) {
+            Log.w(TAG, mHost + " is unhealthy, failing fast for " + sOpenMs + "ms");
+            mOpenUntil = System.currentTimeMillis() + sOpenMs;
+            mProbing = false;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package org.example.android.network;
+
+import java.io.IOException;
+
+/** {@link CircuitBreaker} がリクエストを止めているため、リクエストを送らずに失敗したことを示す例外 */
+public class CircuitOpenException extends IOException {
+    private static final long serialVersionUID = 2391658375632064141L;
+    private final long mRetryAfterMs;
+
+    public CircuitOpenException(String host, long retryAfterMs) {
+        super("circuit is open for " + host);
+        mRetryAfterMs = retryAfterMs;
+    }
+
+    /** リクエストを再開するまでのおおよその時間を返す。 */
+    public long getRetryAfterMs() {
+        return mRetryAfterMs;
+    }
+}
@@ -0,0 +1,189 @@
+package org.example.android.network;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.http.Header;
+import org.apache.http.HeaderElement;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.protocol.HttpContext;
+
+import android.util.Log;
+
+/** gzip / deflate による圧縮転送を有効にするインターセプタ。
+ * リクエストに Accept-Encoding を付与し、圧縮されたレスポンスはストリームのまま展開する。
+ * レスポンスハンドラには展開後のエンティティが渡されるため、圧縮を意識する必要はない。
+ * 本文を読み終えた時点で、圧縮率と削減できたバイト数をログに出力する。
+ * <p>
+ * 独自の {@link HttpTransport} で使用する場合は、 {@link MetricsInterceptor} と合わせて登録する。
+ */
+public class ContentEncodingInterceptor implements HttpRequestInterceptor, HttpResponseInterceptor {
+    private static final String TAG = "ContentEncoding";
+    private static final String ACCEPT_ENCODING = "gzip, deflate";
+
+    @Override
+    public void process(HttpRequest request, HttpContext context)
+            throws HttpException, IOException {
+        if (!request.containsHeader("Accept-Encoding")) {
+            request.addHeader("Accept-Encoding", ACCEPT_ENCODING);
+        }
+    }
+
+    @Override
+    public void process(HttpResponse response, HttpContext context)
+            throws HttpException, IOException {
+        HttpEntity entity = response.getEntity();
+        if (entity == null) {
+            return;
+        }
+        Header contentEncoding = entity.getContentEncoding();
+        if (contentEncoding == null) {
+            return;
+        }
+        for (HeaderElement element : contentEncoding.getElements()) {
+            String encoding = element.getName();
+            if (encoding.equalsIgnoreCase("gzip") || encoding.equalsIgnoreCase("x-gzip")
+                    || encoding.equalsIgnoreCase("deflate")) {
+                response.setEntity(new DecompressingEntity(entity, encoding));
+                response.removeHeaders("Content-Encoding");
+                response.removeHeaders("Content-Length");
+                return;
+            }
+        }
+    }
+
+    /** 圧縮されたエンティティを、読み出しながら展開するエンティティ。 */
+    static class DecompressingEntity extends HttpEntityWrapper {
+        private final String mEncoding;
+        private CountingInputStream mCompressed;
+        private CountingInputStream mDecompressed;
+        private boolean mReported;
+
+        DecompressingEntity(HttpEntity entity, String encoding) {
+            super(entity);
+            mEncoding = encoding;
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            if (mDecompressed == null) {
+                mCompressed = new CountingInputStream(wrappedEntity.getContent());
+                InputStream decoder;
+                if (mEncoding.equalsIgnoreCase("deflate")) {
+                    decoder = createInflaterStream(mCompressed);
+                } else {
+                    decoder = new GZIPInputStream(mCompressed);
+                }
+                mDecompressed = new CountingInputStream(decoder) {
+                    @Override
+                    protected void onEndOfStream() {
+                        report();
+                    }
+                };
+            }
+            return mDecompressed;
+        }
+
+        @Override
+        public Header getContentEncoding() {
+            return null;
+        }
+
+        @Override
+        public long getContentLength() {
+            return -1;
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return false;
+        }
+
+        /** 展開後の長さは分からないが、受信する本文は Content-Length か chunked で区切られている。
+         * HttpClient はレスポンスのインターセプタを通した後のエンティティで接続を再利用できるかを判定し、
+         * 長さが分からず chunked でもない本文は接続を閉じて終端を示すものとみなすため、ここで true を返す。
+         */
+        @Override
+        public boolean isChunked() {
+            return wrappedEntity.isChunked() || wrappedEntity.getContentLength() >= 0;
+        }
+
+        @Override
+        public boolean isStreaming() {
+            return true;
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            InputStream in = getContent();
+            try {
+                byte[] buffer = new byte[2048];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+            } finally {
+                in.close();
+            }
+        }
+
+        @Override
+        public void consumeContent() throws IOException {
+            if (mDecompressed != null) {
+                mDecompressed.close();
+            }
+            super.consumeContent();
+        }
+
+        /** 受信した (圧縮された) バイト数 */
+        long getCompressedBytes() {
+            return mCompressed == null ? 0 : mCompressed.getCount();
+        }
+
+        /** 展開後のバイト数 */
+        long getDecompressedBytes() {
+            return mDecompressed == null ? 0 : mDecompressed.getCount();
+        }
+
+        private void report() {
+            if (mReported) {
+                return;
+            }
+            mReported = true;
+            long compressed = getCompressedBytes();
+            long decompressed = getDecompressedBytes();
+            if (decompressed > 0) {
+                Log.v(TAG, mEncoding + ": " + compressed + " -> " + decompressed + " bytes ("
+                        + (compressed * 100 / decompressed) + "%), saved "
+                        + (decompressed - compressed) + " bytes");
+            }
+        }
+
+        /** deflate は zlib 形式と生の deflate 形式のどちらも送られることがあるため、先頭で判別する。 */
+        private static InputStream createInflaterStream(InputStream in) throws IOException {
+            PushbackInputStream pushback = new PushbackInputStream(in, 2);
+            int b0 = pushback.read();
+            int b1 = pushback.read();
+            if (b1 != -1) {
+                pushback.unread(b1);
+            }
+            if (b0 != -1) {
+                pushback.unread(b0);
+            }
+            boolean zlib = b0 != -1 && b1 != -1 && (b0 & 0x0f) == 8
+                    && ((b0 << 8) | b1) % 31 == 0;
+            return new InflaterInputStream(pushback, new Inflater(!zlib));
+        }
+    }
+}
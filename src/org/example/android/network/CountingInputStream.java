@@ -0,0 +1,58 @@
+package org.example.android.network;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/** 読み出したバイト数を数える InputStream。 */
+public class CountingInputStream extends FilterInputStream {
+    private long mCount;
+
+    public CountingInputStream(InputStream in) {
+        super(in);
+    }
+
+    /** これまでに読み出したバイト数を返す。 */
+    public long getCount() {
+        return mCount;
+    }
+
+    /** ストリームの終端に達した時、または close された時に呼ばれる。 */
+    protected void onEndOfStream() {
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b == -1) {
+            onEndOfStream();
+        } else {
+            mCount++;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+        int read = super.read(buffer, offset, count);
+        if (read == -1) {
+            onEndOfStream();
+        } else {
+            mCount += read;
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        mCount += skipped;
+        return skipped;
+    }
+
+    @Override
+    public void close() throws IOException {
+        onEndOfStream();
+        super.close();
+    }
+}
@@ -0,0 +1,518 @@
+package org.example.android.network;
+
+import java.io.ByteArrayOutputStream;
+import java.net.ProtocolException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/** HTTP/2 のヘッダ圧縮 (HPACK, RFC 7541) のエンコーダとデコーダ。
+ * ヘッダは名前と値の組 (長さ 2 の String 配列) のリストで扱い、名前は小文字であること。
+ * 文字列は ISO-8859-1 として 1 文字を 1 バイトに対応させる。
+ * 動的テーブルは接続ごとに状態を持つため、 {@link Http2Connection} が接続ごとに
+ * {@link Encoder} と {@link Decoder} を 1 つずつ生成し、ヘッダブロックを送受信する順に使用する。
+ */
+/*package*/ final class Hpack {
+    /** 動的テーブルの最大サイズの初期値 (SETTINGS_HEADER_TABLE_SIZE のデフォルト値) */
+    static final int DEFAULT_TABLE_SIZE = 4096;
+
+    /** 静的テーブル (RFC 7541 Appendix A)。インデックスは 1 から始まる */
+    private static final String[][] STATIC_TABLE = {
+        { ":authority", "" },
+        { ":method", "GET" },
+        { ":method", "POST" },
+        { ":path", "/" },
+        { ":path", "/index.html" },
+        { ":scheme", "http" },
+        { ":scheme", "https" },
+        { ":status", "200" },
+        { ":status", "204" },
+        { ":status", "206" },
+        { ":status", "304" },
+        { ":status", "400" },
+        { ":status", "404" },
+        { ":status", "500" },
+        { "accept-charset", "" },
+        { "accept-encoding", "gzip, deflate" },
+        { "accept-language", "" },
+        { "accept-ranges", "" },
+        { "accept", "" },
+        { "access-control-allow-origin", "" },
+        { "age", "" },
+        { "allow", "" },
+        { "authorization", "" },
+        { "cache-control", "" },
+        { "content-disposition", "" },
+        { "content-encoding", "" },
+        { "content-language", "" },
+        { "content-length", "" },
+        { "content-location", "" },
+        { "content-range", "" },
+        { "content-type", "" },
+        { "cookie", "" },
+        { "date", "" },
+        { "etag", "" },
+        { "expect", "" },
+        { "expires", "" },
+        { "from", "" },
+        { "host", "" },
+        { "if-match", "" },
+        { "if-modified-since", "" },
+        { "if-none-match", "" },
+        { "if-range", "" },
+        { "if-unmodified-since", "" },
+        { "last-modified", "" },
+        { "link", "" },
+        { "location", "" },
+        { "max-forwards", "" },
+        { "proxy-authenticate", "" },
+        { "proxy-authorization", "" },
+        { "range", "" },
+        { "referer", "" },
+        { "refresh", "" },
+        { "retry-after", "" },
+        { "server", "" },
+        { "set-cookie", "" },
+        { "strict-transport-security", "" },
+        { "transfer-encoding", "" },
+        { "user-agent", "" },
+        { "vary", "" },
+        { "via", "" },
+        { "www-authenticate", "" },
+    };
+
+    /** 名前から、その名前を持つ静的テーブルの最初のエントリのインデックス */
+    private static final HashMap<String, Integer> STATIC_NAMES = new HashMap<String, Integer>();
+    /** 名前と値から、静的テーブルのエントリのインデックス (値が空でないエントリのみ) */
+    private static final HashMap<String, Integer> STATIC_ENTRIES = new HashMap<String, Integer>();
+
+    /** Huffman 符号 (RFC 7541 Appendix B)。添字が記号で、 256 は EOS */
+    private static final int[] HUFFMAN_CODES = {
+        0x1ff8, 0x7fffd8, 0xfffffe2, 0xfffffe3, 0xfffffe4, 0xfffffe5, 0xfffffe6, 0xfffffe7,
+        0xfffffe8, 0xffffea, 0x3ffffffc, 0xfffffe9, 0xfffffea, 0x3ffffffd, 0xfffffeb, 0xfffffec,
+        0xfffffed, 0xfffffee, 0xfffffef, 0xffffff0, 0xffffff1, 0xffffff2, 0x3ffffffe, 0xffffff3,
+        0xffffff4, 0xffffff5, 0xffffff6, 0xffffff7, 0xffffff8, 0xffffff9, 0xffffffa, 0xffffffb,
+        0x14, 0x3f8, 0x3f9, 0xffa, 0x1ff9, 0x15, 0xf8, 0x7fa,
+        0x3fa, 0x3fb, 0xf9, 0x7fb, 0xfa, 0x16, 0x17, 0x18,
+        0x0, 0x1, 0x2, 0x19, 0x1a, 0x1b, 0x1c, 0x1d,
+        0x1e, 0x1f, 0x5c, 0xfb, 0x7ffc, 0x20, 0xffb, 0x3fc,
+        0x1ffa, 0x21, 0x5d, 0x5e, 0x5f, 0x60, 0x61, 0x62,
+        0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69, 0x6a,
+        0x6b, 0x6c, 0x6d, 0x6e, 0x6f, 0x70, 0x71, 0x72,
+        0xfc, 0x73, 0xfd, 0x1ffb, 0x7fff0, 0x1ffc, 0x3ffc, 0x22,
+        0x7ffd, 0x3, 0x23, 0x4, 0x24, 0x5, 0x25, 0x26,
+        0x27, 0x6, 0x74, 0x75, 0x28, 0x29, 0x2a, 0x7,
+        0x2b, 0x76, 0x2c, 0x8, 0x9, 0x2d, 0x77, 0x78,
+        0x79, 0x7a, 0x7b, 0x7ffe, 0x7fc, 0x3ffd, 0x1ffd, 0xffffffc,
+        0xfffe6, 0x3fffd2, 0xfffe7, 0xfffe8, 0x3fffd3, 0x3fffd4, 0x3fffd5, 0x7fffd9,
+        0x3fffd6, 0x7fffda, 0x7fffdb, 0x7fffdc, 0x7fffdd, 0x7fffde, 0xffffeb, 0x7fffdf,
+        0xffffec, 0xffffed, 0x3fffd7, 0x7fffe0, 0xffffee, 0x7fffe1, 0x7fffe2, 0x7fffe3,
+        0x7fffe4, 0x1fffdc, 0x3fffd8, 0x7fffe5, 0x3fffd9, 0x7fffe6, 0x7fffe7, 0xffffef,
+        0x3fffda, 0x1fffdd, 0xfffe9, 0x3fffdb, 0x3fffdc, 0x7fffe8, 0x7fffe9, 0x1fffde,
+        0x7fffea, 0x3fffdd, 0x3fffde, 0xfffff0, 0x1fffdf, 0x3fffdf, 0x7fffeb, 0x7fffec,
+        0x1fffe0, 0x1fffe1, 0x3fffe0, 0x1fffe2, 0x7fffed, 0x3fffe1, 0x7fffee, 0x7fffef,
+        0xfffea, 0x3fffe2, 0x3fffe3, 0x3fffe4, 0x7ffff0, 0x3fffe5, 0x3fffe6, 0x7ffff1,
+        0x3ffffe0, 0x3ffffe1, 0xfffeb, 0x7fff1, 0x3fffe7, 0x7ffff2, 0x3fffe8, 0x1ffffec,
+        0x3ffffe2, 0x3ffffe3, 0x3ffffe4, 0x7ffffde, 0x7ffffdf, 0x3ffffe5, 0xfffff1, 0x1ffffed,
+        0x7fff2, 0x1fffe3, 0x3ffffe6, 0x7ffffe0, 0x7ffffe1, 0x3ffffe7, 0x7ffffe2, 0xfffff2,
+        0x1fffe4, 0x1fffe5, 0x3ffffe8, 0x3ffffe9, 0xffffffd, 0x7ffffe3, 0x7ffffe4, 0x7ffffe5,
+        0xfffec, 0xfffff3, 0xfffed, 0x1fffe6, 0x3fffe9, 0x1fffe7, 0x1fffe8, 0x7ffff3,
+        0x3fffea, 0x3fffeb, 0x1ffffee, 0x1ffffef, 0xfffff4, 0xfffff5, 0x3ffffea, 0x7ffff4,
+        0x3ffffeb, 0x7ffffe6, 0x3ffffec, 0x3ffffed, 0x7ffffe7, 0x7ffffe8, 0x7ffffe9, 0x7ffffea,
+        0x7ffffeb, 0xffffffe, 0x7ffffec, 0x7ffffed, 0x7ffffee, 0x7ffffef, 0x7fffff0, 0x3ffffee,
+        0x3fffffff
+    };
+    /** Huffman 符号のビット数 */
+    private static final byte[] HUFFMAN_LENGTHS = {
+        13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28,
+        28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+        6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6,
+        5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10,
+        13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7,
+        7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6,
+        15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5,
+        6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28,
+        20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23,
+        24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+        22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23,
+        21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23,
+        26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25,
+        19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27,
+        20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23,
+        26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26,
+        30
+    };
+    /** Huffman 符号を復号する二分木。節 n の子は [n * 2 + ビット] にあり、
+     * 正の値は次の節、負の値は -(記号 + 1) の葉を表す。
+     */
+    private static final int[] HUFFMAN_TREE = new int[512];
+
+    static {
+        for (int i = STATIC_TABLE.length; i > 0; i--) {
+            String[] entry = STATIC_TABLE[i - 1];
+            STATIC_NAMES.put(entry[0], i);
+            if (entry[1].length() > 0) {
+                STATIC_ENTRIES.put(entry[0] + '\0' + entry[1], i);
+            }
+        }
+        int nodes = 1;
+        for (int symbol = 0; symbol < HUFFMAN_CODES.length; symbol++) {
+            int code = HUFFMAN_CODES[symbol];
+            int node = 0;
+            for (int bit = HUFFMAN_LENGTHS[symbol] - 1; bit > 0; bit--) {
+                int child = node * 2 + ((code >>> bit) & 1);
+                if (HUFFMAN_TREE[child] == 0) {
+                    HUFFMAN_TREE[child] = nodes++;
+                }
+                node = HUFFMAN_TREE[child];
+            }
+            HUFFMAN_TREE[node * 2 + (code & 1)] = -(symbol + 1);
+        }
+    }
+
+    private Hpack() {
+    }
+
+    /** ヘッダブロックを生成するエンコーダ。
+     * 機密性の高いヘッダを除き、値をインデックス付きで送って動的テーブルに追加するため、
+     * 同じ接続で繰り返し送る User-Agent などは 2 回目から 1 バイトになる。
+     */
+    static final class Encoder {
+        private final DynamicTable mTable = new DynamicTable(DEFAULT_TABLE_SIZE);
+        /** 次のヘッダブロックの先頭で通知するテーブルサイズ。通知しない場合は -1 */
+        private int mPendingSize = -1;
+        /** 前回の通知から後で最も小さくしたテーブルサイズ */
+        private int mSmallestPendingSize = -1;
+
+        /** 相手の SETTINGS_HEADER_TABLE_SIZE を反映する。
+         * このエンコーダは {@link #DEFAULT_TABLE_SIZE} より大きなテーブルは使わない。
+         */
+        void setMaxTableSize(int size) {
+            size = Math.min(size, DEFAULT_TABLE_SIZE);
+            if (mSmallestPendingSize < 0 || size < mSmallestPendingSize) {
+                mSmallestPendingSize = size;
+            }
+            mPendingSize = size;
+        }
+
+        /** ヘッダのリストをヘッダブロックにする。 */
+        byte[] encode(List<String[]> headers) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+            if (mPendingSize >= 0) {
+                // 途中で小さくした場合は、そのサイズで一度エントリを捨てたことを相手にも伝える
+                if (mSmallestPendingSize < mPendingSize) {
+                    mTable.setMaxSize(mSmallestPendingSize);
+                    writeInt(out, 0x20, 5, mSmallestPendingSize);
+                }
+                mTable.setMaxSize(mPendingSize);
+                writeInt(out, 0x20, 5, mPendingSize);
+                mPendingSize = -1;
+                mSmallestPendingSize = -1;
+            }
+            for (String[] header : headers) {
+                String name = header[0];
+                String value = header[1];
+                Integer index = STATIC_ENTRIES.get(name + '\0' + value);
+                if (index == null) {
+                    int dynamic = mTable.indexOf(name, value);
+                    if (dynamic > 0) {
+                        index = STATIC_TABLE.length + dynamic;
+                    }
+                }
+                if (index != null) {
+                    writeInt(out, 0x80, 7, index);
+                    continue;
+                }
+                Integer nameIndex = STATIC_NAMES.get(name);
+                if (nameIndex == null) {
+                    int dynamic = mTable.indexOfName(name);
+                    nameIndex = dynamic > 0 ? STATIC_TABLE.length + dynamic : 0;
+                }
+                if (isSensitive(name)) {
+                    // 中継するプロキシにもテーブルへの追加を禁止する
+                    writeInt(out, 0x10, 4, nameIndex);
+                } else {
+                    writeInt(out, 0x40, 6, nameIndex);
+                }
+                if (nameIndex == 0) {
+                    writeString(out, name);
+                }
+                writeString(out, value);
+                if (!isSensitive(name)) {
+                    mTable.add(name, value);
+                }
+            }
+            return out.toByteArray();
+        }
+
+        /** 圧縮の結果から推測されないよう、テーブルに入れないヘッダ */
+        private static boolean isSensitive(String name) {
+            return name.equals("authorization") || name.equals("proxy-authorization")
+                    || name.equals("cookie");
+        }
+    }
+
+    /** 受信したヘッダブロックを復号するデコーダ。 */
+    static final class Decoder {
+        private final DynamicTable mTable;
+        /** SETTINGS_HEADER_TABLE_SIZE で相手に通知した最大サイズ */
+        private final int mMaxTableSize;
+        private byte[] mBuffer;
+        private int mPosition;
+        private int mLimit;
+
+        /** SETTINGS_HEADER_TABLE_SIZE がデフォルト値のデコーダを生成する。 */
+        Decoder() {
+            this(DEFAULT_TABLE_SIZE);
+        }
+
+        /** @param maxTableSize SETTINGS_HEADER_TABLE_SIZE で相手に通知した最大サイズ */
+        Decoder(int maxTableSize) {
+            mMaxTableSize = maxTableSize;
+            mTable = new DynamicTable(maxTableSize);
+        }
+
+        /** ヘッダブロックを復号し、ヘッダのリストを返す。
+         * @throws ProtocolException ヘッダブロックが正しくない場合。接続を続けることはできない
+         */
+        List<String[]> decode(byte[] block, int offset, int length) throws ProtocolException {
+            mBuffer = block;
+            mPosition = offset;
+            mLimit = offset + length;
+            ArrayList<String[]> headers = new ArrayList<String[]>();
+            try {
+                while (mPosition < mLimit) {
+                    int b = mBuffer[mPosition] & 0xff;
+                    if ((b & 0x80) != 0) {
+                        headers.add(get(readInt(7)));
+                    } else if ((b & 0x40) != 0) {
+                        String[] header = readLiteral(6);
+                        mTable.add(header[0], header[1]);
+                        headers.add(header);
+                    } else if ((b & 0x20) != 0) {
+                        if (!headers.isEmpty())
+                            throw new ProtocolException("table size update after headers");
+                        int size = readInt(5);
+                        if (size > mMaxTableSize)
+                            throw new ProtocolException("table size too large: " + size);
+                        mTable.setMaxSize(size);
+                    } else {
+                        // インデックスなし、またはインデックス禁止
+                        headers.add(readLiteral(4));
+                    }
+                }
+            } finally {
+                mBuffer = null;
+            }
+            return headers;
+        }
+
+        private String[] readLiteral(int prefixBits) throws ProtocolException {
+            int nameIndex = readInt(prefixBits);
+            String name = nameIndex == 0 ? readString() : get(nameIndex)[0];
+            return new String[] { name, readString() };
+        }
+
+        private String[] get(int index) throws ProtocolException {
+            if (index <= 0)
+                throw new ProtocolException("invalid index: " + index);
+            if (index <= STATIC_TABLE.length) {
+                return STATIC_TABLE[index - 1];
+            }
+            String[] entry = mTable.get(index - STATIC_TABLE.length);
+            if (entry == null)
+                throw new ProtocolException("invalid index: " + index);
+            return entry;
+        }
+
+        private int readInt(int prefixBits) throws ProtocolException {
+            int max = (1 << prefixBits) - 1;
+            int value = mBuffer[mPosition++] & max;
+            if (value < max) {
+                return value;
+            }
+            for (int shift = 0; shift < 28; shift += 7) {
+                if (mPosition >= mLimit)
+                    throw new ProtocolException("truncated integer");
+                int b = mBuffer[mPosition++] & 0xff;
+                value += (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    if (value < 0)
+                        break;
+                    return value;
+                }
+            }
+            throw new ProtocolException("integer overflow");
+        }
+
+        private String readString() throws ProtocolException {
+            if (mPosition >= mLimit)
+                throw new ProtocolException("truncated string");
+            boolean huffman = (mBuffer[mPosition] & 0x80) != 0;
+            int length = readInt(7);
+            if (length > mLimit - mPosition)
+                throw new ProtocolException("truncated string");
+            int start = mPosition;
+            mPosition += length;
+            if (huffman) {
+                return huffmanDecode(mBuffer, start, length);
+            }
+            char[] chars = new char[length];
+            for (int i = 0; i < length; i++) {
+                chars[i] = (char) (mBuffer[start + i] & 0xff);
+            }
+            return new String(chars);
+        }
+    }
+
+    /** 動的テーブル。新しいエントリほど小さいインデックス (1 から) になる。 */
+    private static final class DynamicTable {
+        /** エントリごとに加算されるサイズ */
+        private static final int ENTRY_OVERHEAD = 32;
+
+        /** 古い順に並べたエントリ */
+        private final ArrayList<String[]> mEntries = new ArrayList<String[]>();
+        private int mSize;
+        private int mMaxSize;
+
+        DynamicTable(int maxSize) {
+            mMaxSize = maxSize;
+        }
+
+        void setMaxSize(int maxSize) {
+            mMaxSize = maxSize;
+            evict(0);
+        }
+
+        void add(String name, String value) {
+            int size = name.length() + value.length() + ENTRY_OVERHEAD;
+            if (size > mMaxSize) {
+                // 入りきらないエントリを追加すると、テーブルは空になる
+                mEntries.clear();
+                mSize = 0;
+                return;
+            }
+            evict(size);
+            mEntries.add(new String[] { name, value });
+            mSize += size;
+        }
+
+        /** インデックスのエントリを返す。範囲外の場合は null */
+        String[] get(int index) {
+            int position = mEntries.size() - index;
+            return position >= 0 && index > 0 ? mEntries.get(position) : null;
+        }
+
+        /** 名前と値が一致するエントリのインデックスを返す。ない場合は 0 */
+        int indexOf(String name, String value) {
+            for (int i = mEntries.size() - 1; i >= 0; i--) {
+                String[] entry = mEntries.get(i);
+                if (entry[0].equals(name) && entry[1].equals(value)) {
+                    return mEntries.size() - i;
+                }
+            }
+            return 0;
+        }
+
+        /** 名前が一致するエントリのインデックスを返す。ない場合は 0 */
+        int indexOfName(String name) {
+            for (int i = mEntries.size() - 1; i >= 0; i--) {
+                if (mEntries.get(i)[0].equals(name)) {
+                    return mEntries.size() - i;
+                }
+            }
+            return 0;
+        }
+
+        /** 追加するエントリの分を空けるまで、古いエントリから捨てる。 */
+        private void evict(int required) {
+            while (mSize + required > mMaxSize && !mEntries.isEmpty()) {
+                String[] entry = mEntries.remove(0);
+                mSize -= entry[0].length() + entry[1].length() + ENTRY_OVERHEAD;
+            }
+        }
+    }
+
+    /** 整数を、先頭バイトの下位 prefixBits ビットから書き込む。 */
+    private static void writeInt(ByteArrayOutputStream out, int flags, int prefixBits, int value) {
+        int max = (1 << prefixBits) - 1;
+        if (value < max) {
+            out.write(flags | value);
+            return;
+        }
+        out.write(flags | max);
+        value -= max;
+        while (value >= 0x80) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /** 文字列を、 Huffman 符号の方が短ければ Huffman 符号で書き込む。 */
+    private static void writeString(ByteArrayOutputStream out, String s) {
+        long bits = 0;
+        for (int i = 0; i < s.length(); i++) {
+            bits += HUFFMAN_LENGTHS[s.charAt(i) & 0xff];
+        }
+        int huffmanLength = (int) ((bits + 7) / 8);
+        if (huffmanLength >= s.length()) {
+            writeInt(out, 0x00, 7, s.length());
+            for (int i = 0; i < s.length(); i++) {
+                out.write(s.charAt(i));
+            }
+            return;
+        }
+        writeInt(out, 0x80, 7, huffmanLength);
+        long current = 0;
+        int pending = 0;
+        for (int i = 0; i < s.length(); i++) {
+            int symbol = s.charAt(i) & 0xff;
+            int length = HUFFMAN_LENGTHS[symbol];
+            current = (current << length) | HUFFMAN_CODES[symbol];
+            pending += length;
+            while (pending >= 8) {
+                pending -= 8;
+                out.write((int) (current >>> pending));
+            }
+            current &= (1L << pending) - 1;
+        }
+        if (pending > 0) {
+            // 余ったビットは EOS の先頭 (すべて 1) で埋める
+            out.write((int) ((current << (8 - pending)) | (0xff >>> pending)));
+        }
+    }
+
+    /** Huffman 符号を復号する。 */
+    /*package*/ static String huffmanDecode(byte[] buffer, int offset, int length)
+            throws ProtocolException {
+        StringBuilder sb = new StringBuilder(length * 8 / 5);
+        int node = 0;
+        int depth = 0;
+        boolean allOnes = true;
+        for (int i = offset; i < offset + length; i++) {
+            int b = buffer[i];
+            for (int bit = 7; bit >= 0; bit--) {
+                int direction = (b >>> bit) & 1;
+                int child = HUFFMAN_TREE[node * 2 + direction];
+                if (child < 0) {
+                    int symbol = -child - 1;
+                    if (symbol == 256)
+                        throw new ProtocolException("EOS in Huffman string");
+                    sb.append((char) symbol);
+                    node = 0;
+                    depth = 0;
+                    allOnes = true;
+                } else {
+                    node = child;
+                    depth++;
+                    allOnes &= direction == 1;
+                }
+            }
+        }
+        // 末尾の詰め物は 7 ビット以下の EOS の先頭でなければならない
+        if (depth > 7 || !allOnes)
+            throw new ProtocolException("invalid Huffman padding");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,1071 @@
+package org.example.android.network;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionReleaseTrigger;
+
+import android.util.Log;
+
+/** 平文の HTTP/2 (h2c) の 1 本の接続。 TLS を使わないため、ネゴシエーションを行わず
+ * 最初から HTTP/2 のプリフェイスを送る (prior knowledge, RFC 7540 3.4)。
+ * 1 つの接続に、複数のリクエストをストリームとして同時に載せる。
+ * <p>
+ * 受信はフレームを読み続ける専用のスレッドで行い、ストリームごとに本文を溜める。
+ * 本文は読み出した分だけ WINDOW_UPDATE で相手に送信を許すため、溜める量はウィンドウの大きさまでになる。
+ * 送信は複数のスレッドから行われるため、フレームの書き込みは mWriteLock で直列化する。
+ * 接続の状態はこのオブジェクトで同期し、ロックは mWriteLock の後に取得する。
+ */
+/*package*/ class Http2Connection {
+    private static final String TAG = "Http2Connection";
+
+    private static final byte[] PREFACE = {
+        'P', 'R', 'I', ' ', '*', ' ', 'H', 'T', 'T', 'P', '/', '2', '.', '0', '\r', '\n',
+        '\r', '\n', 'S', 'M', '\r', '\n', '\r', '\n'
+    };
+
+    private static final int TYPE_DATA = 0x0;
+    private static final int TYPE_HEADERS = 0x1;
+    private static final int TYPE_PRIORITY = 0x2;
+    private static final int TYPE_RST_STREAM = 0x3;
+    private static final int TYPE_SETTINGS = 0x4;
+    private static final int TYPE_PUSH_PROMISE = 0x5;
+    private static final int TYPE_PING = 0x6;
+    private static final int TYPE_GOAWAY = 0x7;
+    private static final int TYPE_WINDOW_UPDATE = 0x8;
+    private static final int TYPE_CONTINUATION = 0x9;
+
+    private static final int FLAG_END_STREAM = 0x1;
+    private static final int FLAG_ACK = 0x1;
+    private static final int FLAG_END_HEADERS = 0x4;
+    private static final int FLAG_PADDED = 0x8;
+    private static final int FLAG_PRIORITY = 0x20;
+
+    private static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+    private static final int SETTINGS_ENABLE_PUSH = 0x2;
+    private static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+    private static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+    private static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+
+    static final int NO_ERROR = 0x0;
+    static final int PROTOCOL_ERROR = 0x1;
+    static final int FLOW_CONTROL_ERROR = 0x3;
+    static final int FRAME_SIZE_ERROR = 0x6;
+    static final int REFUSED_STREAM = 0x7;
+    static final int CANCEL = 0x8;
+    static final int COMPRESSION_ERROR = 0x9;
+
+    private static final int DEFAULT_WINDOW_SIZE = 65535;
+    private static final int MAX_WINDOW_SIZE = Integer.MAX_VALUE;
+    /** 受信するフレームの最大長。 SETTINGS_MAX_FRAME_SIZE のデフォルト値のまま変えない */
+    private static final int MAX_FRAME_SIZE = 16384;
+    /** ストリームごとの受信ウィンドウ。 200 件のページ程度は WINDOW_UPDATE を待たずに受け取れる */
+    private static final int STREAM_WINDOW_SIZE = 1024 * 1024;
+    /** 接続全体の受信ウィンドウ */
+    private static final int CONNECTION_WINDOW_SIZE = 4 * STREAM_WINDOW_SIZE;
+    /** 連結したヘッダブロックの最大長 */
+    private static final int MAX_HEADER_BLOCK_SIZE = 256 * 1024;
+
+    private final String mAuthority;
+    private final Socket mSocket;
+    private final DataInputStream mIn;
+    private final OutputStream mOut;
+    private final int mReadTimeoutMs;
+    private final byte[] mFrameHeader = new byte[9];
+
+    private final Object mWriteLock = new Object();
+    /** mWriteLock で保護する */
+    private final Hpack.Encoder mEncoder = new Hpack.Encoder();
+    /** 受信スレッドだけが使用する */
+    private final Hpack.Decoder mDecoder = new Hpack.Decoder();
+
+    // 以下はこのオブジェクトで保護する
+    /** 開いているストリーム */
+    private final HashMap<Integer, Stream> mStreams = new HashMap<Integer, Stream>();
+    /** 同時に開けるストリーム数の空きを確保し、まだ番号を割り当てていないストリームの数 */
+    private int mReservedStreams;
+    private int mNextStreamId = 1;
+    private int mPeerMaxConcurrentStreams = Integer.MAX_VALUE;
+    private int mPeerInitialWindowSize = DEFAULT_WINDOW_SIZE;
+    private int mPeerMaxFrameSize = MAX_FRAME_SIZE;
+    /** 接続全体の送信ウィンドウ */
+    private long mSendWindow = DEFAULT_WINDOW_SIZE;
+    /** 読み出したが、まだ WINDOW_UPDATE で相手に返していない接続全体のバイト数 */
+    private int mUnacknowledgedBytes;
+    /** GOAWAY を受け取ったか、新しいストリームを開かないことにした */
+    private boolean mShuttingDown;
+    /** 接続が使えなくなった原因 */
+    private IOException mFailure;
+    /** 最後にフレームを受信した時刻 */
+    private long mLastFrameNanos;
+    /** 開いているストリームがなくなった時刻 */
+    private long mIdleSinceNanos;
+
+    private Http2Connection(String authority, Socket socket, int readTimeoutMs) throws IOException {
+        mAuthority = authority;
+        mSocket = socket;
+        mIn = new DataInputStream(new BufferedInputStream(socket.getInputStream(),
+                MAX_FRAME_SIZE + 9));
+        mOut = new BufferedOutputStream(socket.getOutputStream(), MAX_FRAME_SIZE + 9);
+        mReadTimeoutMs = readTimeoutMs;
+        mLastFrameNanos = mIdleSinceNanos = System.nanoTime();
+    }
+
+    /** 接続を確立し、プリフェイスを送って受信スレッドを開始する。
+     * サーバのプリフェイス (SETTINGS) は待たずに戻るため、すぐにリクエストを送信できる。
+     * @param host 接続先のホスト
+     * @param port 接続先のポート
+     * @param connectTimeoutMs 接続のタイムアウト (ミリ秒)
+     * @param readTimeoutMs ストリームのレスポンスを待つタイムアウト (ミリ秒)
+     */
+    static Http2Connection connect(String host, int port, int connectTimeoutMs, int readTimeoutMs)
+            throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            try {
+                socket.connect(new InetSocketAddress(host, port), connectTimeoutMs);
+            } catch (SocketTimeoutException e) {
+                throw new ConnectTimeoutException("Connect to " + host + ":" + port + " timed out");
+            }
+            String authority = port == 80 ? host : host + ":" + port;
+            Http2Connection connection = new Http2Connection(authority, socket, readTimeoutMs);
+            connection.start();
+            return connection;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    private void start() throws IOException {
+        synchronized (mWriteLock) {
+            mOut.write(PREFACE);
+            writeFrameHeader(12, TYPE_SETTINGS, 0, 0);
+            writeSetting(SETTINGS_ENABLE_PUSH, 0);
+            writeSetting(SETTINGS_INITIAL_WINDOW_SIZE, STREAM_WINDOW_SIZE);
+            writeFrameHeader(4, TYPE_WINDOW_UPDATE, 0, 0);
+            writeInt(CONNECTION_WINDOW_SIZE - DEFAULT_WINDOW_SIZE);
+            mOut.flush();
+        }
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                readFrames();
+            }
+        }, TAG + "-" + mAuthority);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /** Host ヘッダの代わりに :authority として送る値を返す。 */
+    String getAuthority() {
+        return mAuthority;
+    }
+
+    /** 新しいストリームを開ける場合 true */
+    synchronized boolean isUsable() {
+        return !mShuttingDown && mFailure == null;
+    }
+
+    /** 開いているストリームがない状態が、指定した時間以上続いている場合 true */
+    synchronized boolean isIdleFor(long millis) {
+        return mStreams.isEmpty() && mReservedStreams == 0
+                && System.nanoTime() - mIdleSinceNanos >= millis * 1000000L;
+    }
+
+    /** 新しいストリームを開かず、 GOAWAY を送って接続を閉じる。開いているストリームも失敗する。 */
+    void shutdown() {
+        synchronized (this) {
+            mShuttingDown = true;
+        }
+        try {
+            synchronized (mWriteLock) {
+                writeFrameHeader(8, TYPE_GOAWAY, 0, 0);
+                writeInt(0);
+                writeInt(NO_ERROR);
+                mOut.flush();
+            }
+        } catch (IOException e) {
+            // 閉じるので無視する
+        }
+        fail(new InterruptedIOException("connection shut down"));
+    }
+
+    /** リクエストのストリームを開き、ヘッダと本文を送信する。
+     * @param headers 疑似ヘッダを先頭に含むヘッダのリスト。名前は小文字
+     * @param body 本文。ない場合は null
+     * @throws RefusedStreamException この接続ではストリームを開けない。別の接続で送り直せる
+     */
+    Stream newStream(List<String[]> headers, byte[] body) throws IOException {
+        synchronized (this) {
+            long deadline = System.nanoTime() + mReadTimeoutMs * 1000000L;
+            while (isUsable()
+                    && mStreams.size() + mReservedStreams >= mPeerMaxConcurrentStreams) {
+                try {
+                    waitUntil(deadline);
+                } catch (SocketTimeoutException e) {
+                    throw new ConnectionPoolTimeoutException("Timeout waiting for a free stream");
+                }
+            }
+            checkUsable();
+            mReservedStreams++;
+        }
+        boolean endStream = body == null || body.length == 0;
+        Stream stream;
+        synchronized (mWriteLock) {
+            // 番号はヘッダを送る順に増えなければならないため、書き込みと同じロックの中で割り当てる
+            synchronized (this) {
+                mReservedStreams--;
+                if (!isUsable() || mNextStreamId < 0) {
+                    mShuttingDown = true;
+                    notifyAll();
+                    checkUsable();
+                }
+                stream = new Stream(mNextStreamId, mPeerInitialWindowSize);
+                mNextStreamId += 2;
+                mStreams.put(stream.mId, stream);
+            }
+            try {
+                writeHeaders(stream.mId, mEncoder.encode(headers), endStream);
+            } catch (IOException e) {
+                fail(e);
+                throw e;
+            }
+        }
+        if (!endStream) {
+            writeData(stream, body);
+        }
+        return stream;
+    }
+
+    private void checkUsable() throws IOException {
+        if (mFailure instanceof ProtocolNotSupportedException)
+            throw new ProtocolNotSupportedException(mFailure.getMessage());
+        if (mFailure != null)
+            throw new RefusedStreamException("connection failed: " + mFailure);
+        if (mShuttingDown)
+            throw new RefusedStreamException("connection is shutting down");
+    }
+
+    /** 送信ウィンドウが空くのを待ちながら、本文を DATA フレームで送信する。 */
+    private void writeData(Stream stream, byte[] body) throws IOException {
+        int offset = 0;
+        while (offset < body.length) {
+            int length;
+            synchronized (this) {
+                long deadline = System.nanoTime() + mReadTimeoutMs * 1000000L;
+                while (true) {
+                    if (stream.mEndOfStream || stream.mClosed) {
+                        // 相手が本文を待たずにレスポンスを返したか、ストリームが閉じられた
+                        return;
+                    }
+                    checkStream(stream);
+                    length = (int) Math.min(Math.min(mSendWindow, stream.mSendWindow),
+                            Math.min(body.length - offset, mPeerMaxFrameSize));
+                    if (length > 0) {
+                        break;
+                    }
+                    waitUntil(deadline);
+                }
+                mSendWindow -= length;
+                stream.mSendWindow -= length;
+            }
+            boolean last = offset + length == body.length;
+            try {
+                synchronized (mWriteLock) {
+                    writeFrameHeader(length, TYPE_DATA, last ? FLAG_END_STREAM : 0, stream.mId);
+                    mOut.write(body, offset, length);
+                    mOut.flush();
+                }
+            } catch (IOException e) {
+                fail(e);
+                throw e;
+            }
+            offset += length;
+        }
+    }
+
+    /** ヘッダブロックを HEADERS と、必要なら CONTINUATION に分けて送信する。 mWriteLock の中で呼ぶ。 */
+    private void writeHeaders(int streamId, byte[] block, boolean endStream) throws IOException {
+        int maxFrameSize = getPeerMaxFrameSize();
+        int length = Math.min(block.length, maxFrameSize);
+        int flags = (endStream ? FLAG_END_STREAM : 0) | (length == block.length ? FLAG_END_HEADERS : 0);
+        writeFrameHeader(length, TYPE_HEADERS, flags, streamId);
+        mOut.write(block, 0, length);
+        for (int offset = length; offset < block.length; offset += length) {
+            length = Math.min(block.length - offset, maxFrameSize);
+            writeFrameHeader(length, TYPE_CONTINUATION,
+                    offset + length == block.length ? FLAG_END_HEADERS : 0, streamId);
+            mOut.write(block, offset, length);
+        }
+        mOut.flush();
+    }
+
+    private synchronized int getPeerMaxFrameSize() {
+        return mPeerMaxFrameSize;
+    }
+
+    /** レスポンスヘッダを受信するまで待つ。 */
+    List<String[]> awaitHeaders(Stream stream) throws IOException {
+        try {
+            synchronized (this) {
+                long deadline = System.nanoTime() + mReadTimeoutMs * 1000000L;
+                while (stream.mResponseHeaders == null) {
+                    checkStream(stream);
+                    awaitFrame(deadline);
+                }
+                return stream.mResponseHeaders;
+            }
+        } catch (SocketTimeoutException e) {
+            close(stream, false);
+            throw e;
+        }
+    }
+
+    /** ストリームの本文を読み出す。読み出した分は相手に WINDOW_UPDATE で返す。 */
+    private int read(Stream stream, byte[] b, int off, int len) throws IOException {
+        int read = 0;
+        int streamIncrement = 0;
+        int connectionIncrement = 0;
+        boolean timedOut = false;
+        synchronized (this) {
+            long deadline = System.nanoTime() + mReadTimeoutMs * 1000000L;
+            while (stream.mData.isEmpty()) {
+                if (stream.mEndOfStream) {
+                    return -1;
+                }
+                checkStream(stream);
+                try {
+                    awaitFrame(deadline);
+                } catch (SocketTimeoutException e) {
+                    // 閉じるとロックを取得し直して RST_STREAM を送るため、ロックの外で閉じる
+                    timedOut = true;
+                    break;
+                }
+            }
+            if (!timedOut) {
+                byte[] chunk = stream.mData.getFirst();
+                read = Math.min(len, chunk.length - stream.mChunkOffset);
+                System.arraycopy(chunk, stream.mChunkOffset, b, off, read);
+                stream.mChunkOffset += read;
+                if (stream.mChunkOffset == chunk.length) {
+                    stream.mData.removeFirst();
+                    stream.mChunkOffset = 0;
+                }
+                stream.mUnacknowledgedBytes += read;
+                // 相手がもう送ってこないストリームには返さない
+                if (!stream.mEndOfStream && stream.mUnacknowledgedBytes >= STREAM_WINDOW_SIZE / 2) {
+                    streamIncrement = stream.mUnacknowledgedBytes;
+                    stream.mUnacknowledgedBytes = 0;
+                }
+                connectionIncrement = acknowledge(read);
+            }
+        }
+        if (timedOut) {
+            close(stream, false);
+            throw new SocketTimeoutException("Read timed out");
+        }
+        if (streamIncrement > 0) {
+            writeWindowUpdate(stream.mId, streamIncrement);
+        }
+        if (connectionIncrement > 0) {
+            writeWindowUpdate(0, connectionIncrement);
+        }
+        return read;
+    }
+
+    /** 読み出した、または捨てたバイト数を接続全体の分に加え、返すべき増分を返す。 */
+    private int acknowledge(int bytes) {
+        mUnacknowledgedBytes += bytes;
+        if (mUnacknowledgedBytes < CONNECTION_WINDOW_SIZE / 2) {
+            return 0;
+        }
+        int increment = mUnacknowledgedBytes;
+        mUnacknowledgedBytes = 0;
+        return increment;
+    }
+
+    /** 本文を読み出し終えたストリームを閉じる。途中の場合は RST_STREAM でキャンセルする。 */
+    private void close(Stream stream, boolean aborted) {
+        boolean reset;
+        int connectionIncrement;
+        synchronized (this) {
+            if (stream.mClosed) {
+                return;
+            }
+            stream.mClosed = true;
+            stream.mAborted = aborted;
+            reset = !stream.mEndOfStream && stream.mResetCode < 0 && mFailure == null;
+            // 読み出さずに捨てた本文の分は、接続全体のウィンドウに返す
+            int discarded = 0;
+            for (byte[] chunk : stream.mData) {
+                discarded += chunk.length;
+            }
+            discarded -= stream.mChunkOffset;
+            stream.mData.clear();
+            connectionIncrement = acknowledge(discarded);
+            removeStream(stream);
+            notifyAll();
+        }
+        if (reset) {
+            writeRstStream(stream.mId, CANCEL);
+        }
+        if (connectionIncrement > 0) {
+            writeWindowUpdate(0, connectionIncrement);
+        }
+    }
+
+    private void removeStream(Stream stream) {
+        if (mStreams.remove(stream.mId) != null && mStreams.isEmpty()) {
+            mIdleSinceNanos = System.nanoTime();
+            if (mShuttingDown && mReservedStreams == 0) {
+                // 新しいストリームを開かない接続は、最後のストリームが終わった時点で閉じる
+                fail(new IOException("connection shut down"));
+            }
+        }
+    }
+
+    /** ストリームが失敗していれば例外を throw する。このオブジェクトのロックの中で呼ぶ。 */
+    private void checkStream(Stream stream) throws IOException {
+        if (mFailure instanceof ProtocolNotSupportedException)
+            throw new ProtocolNotSupportedException(mFailure.getMessage());
+        if (stream.mAborted)
+            throw new InterruptedIOException("request aborted");
+        if (stream.mClosed)
+            throw new IOException("stream closed");
+        if (stream.mRefused)
+            throw new RefusedStreamException("stream " + stream.mId + " was not processed");
+        if (stream.mResetCode >= 0)
+            throw new IOException("stream reset by peer: error " + stream.mResetCode);
+        if (mFailure != null) {
+            IOException e = new IOException("connection failed: " + mFailure);
+            e.initCause(mFailure);
+            throw e;
+        }
+    }
+
+    /** フレームの受信を待つ。このオブジェクトのロックの中で呼ぶ。
+     * 時間切れまでに何も受信しなかった場合は、接続が切れている可能性があるため、
+     * 以降のリクエストには新しい接続を使わせる。
+     */
+    private void awaitFrame(long deadline) throws IOException {
+        long start = System.nanoTime();
+        try {
+            waitUntil(deadline);
+        } catch (SocketTimeoutException e) {
+            if (mLastFrameNanos - start < 0) {
+                mShuttingDown = true;
+            }
+            throw e;
+        }
+    }
+
+    private void waitUntil(long deadline) throws IOException {
+        long remaining = (deadline - System.nanoTime()) / 1000000L;
+        if (remaining <= 0)
+            throw new SocketTimeoutException("Read timed out");
+        try {
+            wait(remaining);
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("interrupted");
+        }
+    }
+
+    /** 接続を使えなくし、待っているストリームをすべて失敗させる。 */
+    private void fail(IOException cause) {
+        synchronized (this) {
+            if (mFailure != null) {
+                return;
+            }
+            mFailure = cause;
+            notifyAll();
+        }
+        try {
+            mSocket.close();
+        } catch (IOException e) {
+            // 閉じるので無視する
+        }
+    }
+
+    // ---- 受信 ----
+
+    /** 受信スレッドの処理。接続が閉じられるか、エラーが起きるまでフレームを読み続ける。 */
+    private void readFrames() {
+        IOException failure;
+        try {
+            try {
+                readFrameHeader();
+            } catch (EOFException e) {
+                // HTTP/1.1 のサーバには、プリフェイスを不正なリクエストとして応答せずに閉じるものがある
+                throw new ProtocolNotSupportedException(mAuthority + " closed without HTTP/2 preface");
+            }
+            // サーバのプリフェイスは SETTINGS フレームでなければならない
+            if ((mFrameHeader[3] & 0xff) != TYPE_SETTINGS || frameStreamId() != 0)
+                throw new ProtocolNotSupportedException(mAuthority + " does not speak HTTP/2");
+            while (true) {
+                readFrame();
+                readFrameHeader();
+            }
+        } catch (ConnectionErrorException e) {
+            Log.w(TAG, "closing connection to " + mAuthority, e);
+            synchronized (mWriteLock) {
+                try {
+                    writeFrameHeader(8, TYPE_GOAWAY, 0, 0);
+                    writeInt(0);
+                    writeInt(e.errorCode);
+                    mOut.flush();
+                } catch (IOException ignored) {
+                    // 閉じるので無視する
+                }
+            }
+            failure = e;
+        } catch (IOException e) {
+            failure = e;
+        }
+        fail(failure);
+    }
+
+    private void readFrameHeader() throws IOException {
+        mIn.readFully(mFrameHeader);
+        synchronized (this) {
+            mLastFrameNanos = System.nanoTime();
+        }
+    }
+
+    private int frameLength() {
+        return ((mFrameHeader[0] & 0xff) << 16) | ((mFrameHeader[1] & 0xff) << 8)
+                | (mFrameHeader[2] & 0xff);
+    }
+
+    private int frameStreamId() {
+        return (((mFrameHeader[5] & 0xff) << 24) | ((mFrameHeader[6] & 0xff) << 16)
+                | ((mFrameHeader[7] & 0xff) << 8) | (mFrameHeader[8] & 0xff)) & 0x7fffffff;
+    }
+
+    private void readFrame() throws IOException {
+        int length = frameLength();
+        int type = mFrameHeader[3] & 0xff;
+        int flags = mFrameHeader[4] & 0xff;
+        int streamId = frameStreamId();
+        if (length > MAX_FRAME_SIZE)
+            throw new ConnectionErrorException(FRAME_SIZE_ERROR, "frame too large: " + length);
+        switch (type) {
+            case TYPE_DATA:
+                onData(streamId, flags, length);
+                break;
+            case TYPE_HEADERS:
+                onHeaders(streamId, flags, length);
+                break;
+            case TYPE_RST_STREAM:
+                onRstStream(streamId, readPayload(length));
+                break;
+            case TYPE_SETTINGS:
+                onSettings(streamId, flags, readPayload(length));
+                break;
+            case TYPE_PUSH_PROMISE:
+                throw new ConnectionErrorException(PROTOCOL_ERROR, "push is disabled");
+            case TYPE_PING:
+                onPing(streamId, flags, readPayload(length));
+                break;
+            case TYPE_GOAWAY:
+                onGoAway(streamId, readPayload(length));
+                break;
+            case TYPE_WINDOW_UPDATE:
+                onWindowUpdate(streamId, readPayload(length));
+                break;
+            case TYPE_CONTINUATION:
+                throw new ConnectionErrorException(PROTOCOL_ERROR, "unexpected CONTINUATION");
+            case TYPE_PRIORITY:
+            default:
+                // 優先度と未知のフレームは無視する
+                skip(length);
+                break;
+        }
+    }
+
+    private byte[] readPayload(int length) throws IOException {
+        byte[] payload = new byte[length];
+        mIn.readFully(payload);
+        return payload;
+    }
+
+    private void skip(int length) throws IOException {
+        while (length > 0) {
+            int skipped = mIn.skipBytes(length);
+            if (skipped <= 0)
+                throw new EOFException();
+            length -= skipped;
+        }
+    }
+
+    private void onData(int streamId, int flags, int length) throws IOException {
+        if (streamId == 0)
+            throw new ConnectionErrorException(PROTOCOL_ERROR, "DATA on stream 0");
+        int padding = 0;
+        int dataLength = length;
+        if ((flags & FLAG_PADDED) != 0) {
+            if (length < 1)
+                throw new ConnectionErrorException(FRAME_SIZE_ERROR, "DATA too short");
+            padding = mIn.readUnsignedByte();
+            dataLength = length - 1 - padding;
+            if (dataLength < 0)
+                throw new ConnectionErrorException(PROTOCOL_ERROR, "padding too long");
+        }
+        byte[] data = readPayload(dataLength);
+        skip(padding);
+        boolean endStream = (flags & FLAG_END_STREAM) != 0;
+        int connectionIncrement;
+        synchronized (this) {
+            checkStreamId(streamId);
+            Stream stream = mStreams.get(streamId);
+            if (stream == null) {
+                // キャンセルしたストリームの残り。接続全体のウィンドウにだけ返す
+                connectionIncrement = acknowledge(length);
+            } else {
+                if (dataLength > 0) {
+                    stream.mData.addLast(data);
+                }
+                // 詰め物と長さのバイトは、読み出しを待たずに返す
+                stream.mUnacknowledgedBytes += length - dataLength;
+                connectionIncrement = acknowledge(length - dataLength);
+                if (endStream) {
+                    stream.mEndOfStream = true;
+                    removeStream(stream);
+                }
+                notifyAll();
+            }
+        }
+        if (connectionIncrement > 0) {
+            writeWindowUpdate(0, connectionIncrement);
+        }
+    }
+
+    private void onHeaders(int streamId, int flags, int length) throws IOException {
+        if (streamId == 0)
+            throw new ConnectionErrorException(PROTOCOL_ERROR, "HEADERS on stream 0");
+        byte[] payload = readPayload(length);
+        int offset = 0;
+        int padding = 0;
+        if ((flags & FLAG_PADDED) != 0) {
+            if (length < 1)
+                throw new ConnectionErrorException(FRAME_SIZE_ERROR, "HEADERS too short");
+            padding = payload[0] & 0xff;
+            offset = 1;
+        }
+        if ((flags & FLAG_PRIORITY) != 0) {
+            offset += 5;
+        }
+        int blockLength = length - offset - padding;
+        if (blockLength < 0)
+            throw new ConnectionErrorException(PROTOCOL_ERROR, "padding too long");
+        byte[] block = new byte[blockLength];
+        System.arraycopy(payload, offset, block, 0, blockLength);
+        boolean endStream = (flags & FLAG_END_STREAM) != 0;
+        while ((flags & FLAG_END_HEADERS) == 0) {
+            readFrameHeader();
+            if ((mFrameHeader[3] & 0xff) != TYPE_CONTINUATION || frameStreamId() != streamId)
+                throw new ConnectionErrorException(PROTOCOL_ERROR, "expected CONTINUATION");
+            int continuationLength = frameLength();
+            if (continuationLength > MAX_FRAME_SIZE)
+                throw new ConnectionErrorException(FRAME_SIZE_ERROR, "frame too large");
+            if (block.length + continuationLength > MAX_HEADER_BLOCK_SIZE)
+                throw new ConnectionErrorException(PROTOCOL_ERROR, "header block too large");
+            flags = mFrameHeader[4] & 0xff;
+            byte[] joined = new byte[block.length + continuationLength];
+            System.arraycopy(block, 0, joined, 0, block.length);
+            mIn.readFully(joined, block.length, continuationLength);
+            block = joined;
+        }
+        // 動的テーブルを相手と揃えるため、キャンセルしたストリームのヘッダも復号する
+        List<String[]> headers;
+        try {
+            headers = mDecoder.decode(block, 0, block.length);
+        } catch (ProtocolException e) {
+            throw new ConnectionErrorException(COMPRESSION_ERROR, e.getMessage());
+        }
+        boolean malformed = false;
+        synchronized (this) {
+            checkStreamId(streamId);
+            Stream stream = mStreams.get(streamId);
+            if (stream == null) {
+                return;
+            }
+            if (stream.mResponseHeaders == null) {
+                String status = getStatus(headers);
+                if (status == null) {
+                    malformed = true;
+                } else if (status.length() == 3 && status.charAt(0) == '1') {
+                    // 100 Continue などの中間レスポンスは読み捨てる
+                    malformed = endStream;
+                } else {
+                    stream.mResponseHeaders = headers;
+                }
+            } else if (!endStream) {
+                // 本文の後のトレイラーは END_STREAM を伴わなければならない
+                malformed = true;
+            }
+            if (malformed) {
+                stream.mResetCode = PROTOCOL_ERROR;
+                removeStream(stream);
+            } else if (endStream) {
+                stream.mEndOfStream = true;
+                removeStream(stream);
+            }
+            notifyAll();
+        }
+        if (malformed) {
+            writeRstStream(streamId, PROTOCOL_ERROR);
+        }
+    }
+
+    private static String getStatus(List<String[]> headers) {
+        for (String[] header : headers) {
+            if (header[0].equals(":status")) {
+                return header[1];
+            }
+        }
+        return null;
+    }
+
+    /** サーバから開始されたストリームや、まだ開いていないストリームへのフレームはエラーとする。 */
+    private void checkStreamId(int streamId) throws ConnectionErrorException {
+        if ((streamId & 1) == 0 || streamId >= mNextStreamId)
+            throw new ConnectionErrorException(PROTOCOL_ERROR, "frame on idle stream " + streamId);
+    }
+
+    private void onRstStream(int streamId, byte[] payload) throws IOException {
+        if (streamId == 0)
+            throw new ConnectionErrorException(PROTOCOL_ERROR, "RST_STREAM on stream 0");
+        if (payload.length != 4)
+            throw new ConnectionErrorException(FRAME_SIZE_ERROR, "RST_STREAM length");
+        int errorCode = readInt(payload, 0);
+        synchronized (this) {
+            checkStreamId(streamId);
+            Stream stream = mStreams.get(streamId);
+            if (stream == null) {
+                return;
+            }
+            // レスポンスを返し終えたストリームは既に閉じているので、ここでは常に失敗になる
+            if (errorCode == REFUSED_STREAM) {
+                stream.mRefused = true;
+            } else {
+                stream.mResetCode = errorCode;
+            }
+            removeStream(stream);
+            notifyAll();
+        }
+    }
+
+    private void onSettings(int streamId, int flags, byte[] payload) throws IOException {
+        if (streamId != 0)
+            throw new ConnectionErrorException(PROTOCOL_ERROR, "SETTINGS on stream " + streamId);
+        if ((flags & FLAG_ACK) != 0) {
+            if (payload.length != 0)
+                throw new ConnectionErrorException(FRAME_SIZE_ERROR, "SETTINGS ACK with payload");
+            return;
+        }
+        if (payload.length % 6 != 0)
+            throw new ConnectionErrorException(FRAME_SIZE_ERROR, "SETTINGS length");
+        int headerTableSize = -1;
+        synchronized (this) {
+            for (int i = 0; i < payload.length; i += 6) {
+                int id = ((payload[i] & 0xff) << 8) | (payload[i + 1] & 0xff);
+                long value = readInt(payload, i + 2) & 0xffffffffL;
+                switch (id) {
+                    case SETTINGS_HEADER_TABLE_SIZE:
+                        headerTableSize = (int) Math.min(value, Integer.MAX_VALUE);
+                        break;
+                    case SETTINGS_MAX_CONCURRENT_STREAMS:
+                        mPeerMaxConcurrentStreams = (int) Math.min(value, Integer.MAX_VALUE);
+                        break;
+                    case SETTINGS_INITIAL_WINDOW_SIZE:
+                        if (value > MAX_WINDOW_SIZE)
+                            throw new ConnectionErrorException(FLOW_CONTROL_ERROR,
+                                    "initial window too large: " + value);
+                        // 開いているストリームの送信ウィンドウも、差の分だけ増減する
+                        int delta = (int) value - mPeerInitialWindowSize;
+                        for (Stream stream : mStreams.values()) {
+                            stream.mSendWindow += delta;
+                        }
+                        mPeerInitialWindowSize = (int) value;
+                        break;
+                    case SETTINGS_MAX_FRAME_SIZE:
+                        if (value < MAX_FRAME_SIZE || value > 0xffffff)
+                            throw new ConnectionErrorException(PROTOCOL_ERROR,
+                                    "invalid max frame size: " + value);
+                        mPeerMaxFrameSize = (int) value;
+                        break;
+                    default:
+                        break;
+                }
+            }
+            notifyAll();
+        }
+        try {
+            synchronized (mWriteLock) {
+                if (headerTableSize >= 0) {
+                    mEncoder.setMaxTableSize(headerTableSize);
+                }
+                writeFrameHeader(0, TYPE_SETTINGS, FLAG_ACK, 0);
+                mOut.flush();
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void onPing(int streamId, int flags, byte[] payload) throws IOException {
+        if (streamId != 0)
+            throw new ConnectionErrorException(PROTOCOL_ERROR, "PING on stream " + streamId);
+        if (payload.length != 8)
+            throw new ConnectionErrorException(FRAME_SIZE_ERROR, "PING length");
+        if ((flags & FLAG_ACK) != 0) {
+            return;
+        }
+        try {
+            synchronized (mWriteLock) {
+                writeFrameHeader(8, TYPE_PING, FLAG_ACK, 0);
+                mOut.write(payload);
+                mOut.flush();
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void onGoAway(int streamId, byte[] payload) throws IOException {
+        if (streamId != 0)
+            throw new ConnectionErrorException(PROTOCOL_ERROR, "GOAWAY on stream " + streamId);
+        if (payload.length < 8)
+            throw new ConnectionErrorException(FRAME_SIZE_ERROR, "GOAWAY length");
+        int lastStreamId = readInt(payload, 0) & 0x7fffffff;
+        int errorCode = readInt(payload, 4);
+        Log.v(TAG, mAuthority + " sent GOAWAY: last stream " + lastStreamId + ", error " + errorCode);
+        synchronized (this) {
+            mShuttingDown = true;
+            // lastStreamId より後のストリームは処理されていないので、別の接続で送り直せる
+            ArrayList<Stream> refused = new ArrayList<Stream>();
+            for (Stream stream : mStreams.values()) {
+                if (stream.mId > lastStreamId) {
+                    refused.add(stream);
+                }
+            }
+            for (Stream stream : refused) {
+                stream.mRefused = true;
+                removeStream(stream);
+            }
+            notifyAll();
+        }
+    }
+
+    private void onWindowUpdate(int streamId, byte[] payload) throws IOException {
+        if (payload.length != 4)
+            throw new ConnectionErrorException(FRAME_SIZE_ERROR, "WINDOW_UPDATE length");
+        int increment = readInt(payload, 0) & 0x7fffffff;
+        boolean reset = false;
+        synchronized (this) {
+            if (streamId == 0) {
+                if (increment == 0)
+                    throw new ConnectionErrorException(PROTOCOL_ERROR, "zero window increment");
+                mSendWindow += increment;
+                if (mSendWindow > MAX_WINDOW_SIZE)
+                    throw new ConnectionErrorException(FLOW_CONTROL_ERROR, "window overflow");
+            } else {
+                Stream stream = mStreams.get(streamId);
+                if (stream != null) {
+                    stream.mSendWindow += increment;
+                    if (increment == 0 || stream.mSendWindow > MAX_WINDOW_SIZE) {
+                        stream.mResetCode = increment == 0 ? PROTOCOL_ERROR : FLOW_CONTROL_ERROR;
+                        removeStream(stream);
+                        reset = true;
+                    }
+                }
+            }
+            notifyAll();
+        }
+        if (reset) {
+            writeRstStream(streamId, increment == 0 ? PROTOCOL_ERROR : FLOW_CONTROL_ERROR);
+        }
+    }
+
+    // ---- 送信 ----
+
+    private void writeWindowUpdate(int streamId, int increment) {
+        try {
+            synchronized (mWriteLock) {
+                writeFrameHeader(4, TYPE_WINDOW_UPDATE, 0, streamId);
+                writeInt(increment);
+                mOut.flush();
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void writeRstStream(int streamId, int errorCode) {
+        try {
+            synchronized (mWriteLock) {
+                writeFrameHeader(4, TYPE_RST_STREAM, 0, streamId);
+                writeInt(errorCode);
+                mOut.flush();
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /** フレームヘッダを書き込む。 mWriteLock の中で呼ぶ。 */
+    private void writeFrameHeader(int length, int type, int flags, int streamId) throws IOException {
+        mOut.write(length >>> 16);
+        mOut.write(length >>> 8);
+        mOut.write(length);
+        mOut.write(type);
+        mOut.write(flags);
+        writeInt(streamId);
+    }
+
+    private void writeSetting(int id, int value) throws IOException {
+        mOut.write(id >>> 8);
+        mOut.write(id);
+        writeInt(value);
+    }
+
+    private void writeInt(int value) throws IOException {
+        mOut.write(value >>> 24);
+        mOut.write(value >>> 16);
+        mOut.write(value >>> 8);
+        mOut.write(value);
+    }
+
+    private static int readInt(byte[] b, int offset) {
+        return ((b[offset] & 0xff) << 24) | ((b[offset + 1] & 0xff) << 16)
+                | ((b[offset + 2] & 0xff) << 8) | (b[offset + 3] & 0xff);
+    }
+
+    /** 1 つのリクエストとレスポンスのストリーム。
+     * 状態は接続のオブジェクトで保護する。
+     * {@link HttpTransport} を使う側からは、 {@link #getInputStream()} で本文を読み出し、
+     * {@link ConnectionReleaseTrigger} としてリクエストの中断に使用する。
+     */
+    final class Stream implements ConnectionReleaseTrigger {
+        final int mId;
+        long mSendWindow;
+        List<String[]> mResponseHeaders;
+        final LinkedList<byte[]> mData = new LinkedList<byte[]>();
+        int mChunkOffset;
+        int mUnacknowledgedBytes;
+        /** 相手が END_STREAM を送った */
+        boolean mEndOfStream;
+        /** 受け取った RST_STREAM のエラーコード。受け取っていない場合は -1 */
+        int mResetCode = -1;
+        /** 相手が処理しなかった (REFUSED_STREAM か、 GOAWAY の lastStreamId より後) */
+        boolean mRefused;
+        /** こちらから閉じた */
+        boolean mClosed;
+        boolean mAborted;
+        private InputStream mInputStream;
+
+        private Stream(int id, int sendWindow) {
+            mId = id;
+            mSendWindow = sendWindow;
+        }
+
+        /** 相手から何らかの応答を受け取った場合 true */
+        boolean hasResponse() {
+            synchronized (Http2Connection.this) {
+                return mResponseHeaders != null || mResetCode >= 0;
+            }
+        }
+
+        /** 本文を読み出すストリームを返す。 close() すると、読み切っていない場合はキャンセルする。 */
+        synchronized InputStream getInputStream() {
+            if (mInputStream == null) {
+                mInputStream = new InputStream() {
+                    private final byte[] mSingle = new byte[1];
+
+                    @Override
+                    public int read() throws IOException {
+                        return read(mSingle, 0, 1) == -1 ? -1 : mSingle[0] & 0xff;
+                    }
+
+                    @Override
+                    public int read(byte[] b, int off, int len) throws IOException {
+                        if (len == 0) {
+                            return 0;
+                        }
+                        return Http2Connection.this.read(Stream.this, b, off, len);
+                    }
+
+                    @Override
+                    public int available() {
+                        synchronized (Http2Connection.this) {
+                            return mData.isEmpty() ? 0 : mData.getFirst().length - mChunkOffset;
+                        }
+                    }
+
+                    @Override
+                    public void close() {
+                        Http2Connection.this.close(Stream.this, false);
+                    }
+                };
+            }
+            return mInputStream;
+        }
+
+        @Override
+        public void releaseConnection() {
+            Http2Connection.this.close(this, false);
+        }
+
+        @Override
+        public void abortConnection() {
+            Http2Connection.this.close(this, true);
+        }
+    }
+
+    /** ストリームが相手に処理されなかったことを示す例外。同じリクエストを別の接続で送り直せる。 */
+    static class RefusedStreamException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        RefusedStreamException(String message) {
+            super(message);
+        }
+    }
+
+    /** 接続先が HTTP/2 のプリフェイスに応答しなかったことを示す例外。 */
+    static class ProtocolNotSupportedException extends ProtocolException {
+        private static final long serialVersionUID = 1L;
+
+        ProtocolNotSupportedException(String message) {
+            super(message);
+        }
+    }
+
+    /** 接続全体のエラー。 GOAWAY でエラーコードを通知して接続を閉じる。 */
+    private static class ConnectionErrorException extends ProtocolException {
+        private static final long serialVersionUID = 1L;
+        final int errorCode;
+
+        ConnectionErrorException(int errorCode, String message) {
+            super(message);
+            this.errorCode = errorCode;
+        }
+    }
+}
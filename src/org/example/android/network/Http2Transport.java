@@ -0,0 +1,322 @@
+package org.example.android.network;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpException;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.methods.AbortableHttpRequest;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.impl.EnglishReasonPhraseCatalog;
+import org.apache.http.impl.client.RequestWrapper;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicStatusLine;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HttpContext;
+
+import android.util.Log;
+
+/** http:// のリクエストを、ホストごとに 1 本の HTTP/2 の接続に多重化して送る {@link HttpTransport}。
+ * {@link HttpClientTransport} ではホストごとに 4 接続までしか同時に送れないが、
+ * このトランスポートはサーバの SETTINGS_MAX_CONCURRENT_STREAMS まで同じ接続で同時に送る。
+ * <p>
+ * TLS を使わない HTTP/2 (h2c) を、 Upgrade を経ずに最初から話す (prior knowledge) ため、
+ * サーバが h2c に対応している必要がある。接続の最初の応答が HTTP/2 でなかったホストには、
+ * 以降 fallback のトランスポートで送る。 https:// のリクエストは、 API level 8 の SSLSocket が
+ * ALPN に対応しておらず HTTP/2 をネゴシエーションできないため、常に fallback で送る。
+ * <pre>
+ * ApiRequestUtils.setTransport(new Http2Transport());
+ * </pre>
+ */
+public class Http2Transport implements HttpTransport {
+    private static final String TAG = "Http2Transport";
+
+    private static final HttpVersion HTTP_2_0 = new HttpVersion(2, 0);
+    private static final int CONNECTION_TIMEOUT_MS = 20 * 1000;
+    private static final int SOCKET_TIMEOUT_MS = 30 * 1000;
+    /** この時間以上使われていない接続は閉じて、次のリクエストでは接続し直す */
+    private static final long IDLE_CONNECTION_TIMEOUT_MS = 30 * 1000;
+    /** サーバが処理しなかったリクエストを送り直す回数 */
+    private static final int MAX_REFUSED_RETRIES = 3;
+
+    private final HttpTransport mFallback;
+    private final HashMap<String, Route> mRoutes = new HashMap<String, Route>();
+    private final ContentEncodingInterceptor mContentEncoding = new ContentEncodingInterceptor();
+    private final MetricsInterceptor mMetrics = new MetricsInterceptor();
+
+    /** HTTP/2 で送れないリクエストを、 {@link SharedHttpClient} の共有の HttpClient で送るトランスポートを生成する。 */
+    public Http2Transport() {
+        this(new HttpClientTransport());
+    }
+
+    /** トランスポートを生成する。
+     * @param fallback https:// のリクエストと、 h2c に対応していないホストへのリクエストを送るトランスポート
+     */
+    public Http2Transport(HttpTransport fallback) {
+        if (fallback == null)
+            throw new NullPointerException("fallback must not be null");
+        mFallback = fallback;
+    }
+
+    @Override
+    public HttpResponse execute(HttpUriRequest request, HttpContext context) throws IOException {
+        URI uri = request.getURI();
+        if (!"http".equalsIgnoreCase(uri.getScheme()) || uri.getHost() == null) {
+            return mFallback.execute(request, context);
+        }
+        Route route = getRoute(uri.getHost(), uri.getPort() < 0 ? 80 : uri.getPort());
+        if (route.isHttp1Only()) {
+            return mFallback.execute(request, context);
+        }
+        if (context == null) {
+            context = new BasicHttpContext();
+        }
+        // インターセプタが元のリクエストのヘッダを変えないよう、複製に対して処理する
+        RequestWrapper wrapper;
+        try {
+            wrapper = new RequestWrapper(request);
+            mContentEncoding.process(wrapper, context);
+            mMetrics.process(wrapper, context);
+        } catch (HttpException e) {
+            throw new ClientProtocolException(e);
+        }
+        HttpEntity entity = request instanceof HttpEntityEnclosingRequest
+                ? ((HttpEntityEnclosingRequest) request).getEntity() : null;
+        byte[] body = toByteArray(entity);
+        List<String[]> headers = createHeaders(wrapper, entity, body);
+
+        for (int attempt = 0; ; attempt++) {
+            Http2Connection connection = route.getConnection();
+            Http2Connection.Stream stream = null;
+            try {
+                stream = connection.newStream(headers, body);
+                if (request instanceof AbortableHttpRequest) {
+                    // 中断されている場合は IOException になる
+                    ((AbortableHttpRequest) request).setReleaseTrigger(stream);
+                }
+                return createResponse(request, stream, connection.awaitHeaders(stream), context);
+            } catch (Http2Connection.ProtocolNotSupportedException e) {
+                Log.w(TAG, "using HTTP/1.1 for " + route + ": " + e.getMessage());
+                route.setHttp1Only();
+                return mFallback.execute(request, context);
+            } catch (Http2Connection.RefusedStreamException e) {
+                if (attempt >= MAX_REFUSED_RETRIES || request.isAborted())
+                    throw e;
+                Log.v(TAG, "request was not processed, sending again: " + e.getMessage());
+            } catch (IOException e) {
+                if (stream != null) {
+                    stream.abortConnection();
+                }
+                // 使っていた接続が切れていた場合だけ、新しい接続で 1 回送り直す。
+                // 接続の最初のストリームで失敗した場合は、接続し直しても同じ結果になる
+                if (attempt > 0 || stream == null || stream.mId == 1 || stream.hasResponse()
+                        || connection.isUsable() || request.isAborted())
+                    throw e;
+                Log.v(TAG, "connection to " + route + " was lost, sending again: " + e);
+            }
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        synchronized (mRoutes) {
+            for (Route route : mRoutes.values()) {
+                route.shutdown();
+            }
+            mRoutes.clear();
+        }
+        mFallback.shutdown();
+    }
+
+    private Route getRoute(String host, int port) {
+        String key = host.toLowerCase(Locale.US) + ":" + port;
+        synchronized (mRoutes) {
+            Route route = mRoutes.get(key);
+            if (route == null) {
+                route = new Route(host, port);
+                mRoutes.put(key, route);
+            }
+            return route;
+        }
+    }
+
+    private static byte[] toByteArray(HttpEntity entity) throws IOException {
+        if (entity == null) {
+            return null;
+        }
+        long length = entity.getContentLength();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(
+                length > 0 && length < Integer.MAX_VALUE ? (int) length : 256);
+        entity.writeTo(out);
+        return out.toByteArray();
+    }
+
+    /** HTTP/2 のヘッダを組み立てる。接続ごとのヘッダは送らない (RFC 7540 8.1.2.2)。 */
+    private static List<String[]> createHeaders(HttpUriRequest request, HttpEntity entity,
+            byte[] body) {
+        URI uri = request.getURI();
+        String path = uri.getRawPath();
+        if (path == null || path.length() == 0) {
+            path = "/";
+        }
+        if (uri.getRawQuery() != null) {
+            path += "?" + uri.getRawQuery();
+        }
+        String authority = uri.getPort() < 0 ? uri.getHost() : uri.getHost() + ":" + uri.getPort();
+        List<String[]> headers = new ArrayList<String[]>();
+        headers.add(new String[] { ":method", request.getMethod() });
+        headers.add(new String[] { ":scheme", "http" });
+        headers.add(new String[] { ":authority", authority });
+        headers.add(new String[] { ":path", path });
+        boolean hasUserAgent = false;
+        for (Header header : request.getAllHeaders()) {
+            String name = header.getName().toLowerCase(Locale.US);
+            if (name.equals("connection") || name.equals("keep-alive")
+                    || name.equals("proxy-connection") || name.equals("transfer-encoding")
+                    || name.equals("upgrade") || name.equals("host") || name.equals("te")
+                    || name.equals("content-length")) {
+                continue;
+            }
+            hasUserAgent |= name.equals("user-agent");
+            headers.add(new String[] { name, header.getValue() });
+        }
+        if (!hasUserAgent) {
+            headers.add(new String[] { "user-agent", ApiRequestUtils.USER_AGENT });
+        }
+        if (entity != null) {
+            if (entity.getContentType() != null && !request.containsHeader("Content-Type")) {
+                headers.add(new String[] { "content-type", entity.getContentType().getValue() });
+            }
+            if (entity.getContentEncoding() != null && !request.containsHeader("Content-Encoding")) {
+                headers.add(new String[] {
+                        "content-encoding", entity.getContentEncoding().getValue() });
+            }
+            headers.add(new String[] { "content-length", String.valueOf(body.length) });
+        }
+        return headers;
+    }
+
+    private HttpResponse createResponse(HttpUriRequest request, Http2Connection.Stream stream,
+            List<String[]> headers, HttpContext context) throws IOException {
+        int status = -1;
+        for (String[] header : headers) {
+            if (header[0].equals(":status")) {
+                try {
+                    status = Integer.parseInt(header[1]);
+                } catch (NumberFormatException e) {
+                    // 下で扱う
+                }
+            }
+        }
+        if (status < 200 || status >= 600) {
+            stream.abortConnection();
+            throw new ClientProtocolException("invalid status: " + status);
+        }
+        BasicHttpResponse response = new BasicHttpResponse(new BasicStatusLine(HTTP_2_0, status,
+                EnglishReasonPhraseCatalog.INSTANCE.getReason(status, null)));
+        for (String[] header : headers) {
+            if (!header[0].startsWith(":")) {
+                response.addHeader(header[0], header[1]);
+            }
+        }
+        if (canHaveBody(request, status)) {
+            BasicHttpEntity entity = new BasicHttpEntity();
+            entity.setContent(stream.getInputStream());
+            entity.setContentLength(getContentLength(response));
+            entity.setContentType(response.getFirstHeader("Content-Type"));
+            entity.setContentEncoding(response.getFirstHeader("Content-Encoding"));
+            response.setEntity(entity);
+        } else {
+            stream.releaseConnection();
+        }
+        try {
+            // SharedHttpClient と同じく、受信したバイト数を数えてから展開する
+            mMetrics.process(response, context);
+            mContentEncoding.process(response, context);
+        } catch (HttpException e) {
+            stream.abortConnection();
+            throw new ClientProtocolException(e);
+        }
+        return response;
+    }
+
+    private static boolean canHaveBody(HttpUriRequest request, int status) {
+        return !"HEAD".equalsIgnoreCase(request.getMethod())
+                && status != HttpStatus.SC_NO_CONTENT && status != HttpStatus.SC_NOT_MODIFIED
+                && status != HttpStatus.SC_RESET_CONTENT;
+    }
+
+    private static long getContentLength(HttpResponse response) {
+        Header header = response.getFirstHeader("Content-Length");
+        if (header != null) {
+            try {
+                return Long.parseLong(header.getValue().trim());
+            } catch (NumberFormatException e) {
+                // 長さは分からないものとして扱う
+            }
+        }
+        return -1;
+    }
+
+    /** 接続先のホストとポートごとの接続。 */
+    private static class Route {
+        private final String mHost;
+        private final int mPort;
+        private Http2Connection mConnection;
+        private volatile boolean mHttp1Only;
+
+        Route(String host, int port) {
+            mHost = host;
+            mPort = port;
+        }
+
+        boolean isHttp1Only() {
+            return mHttp1Only;
+        }
+
+        void setHttp1Only() {
+            mHttp1Only = true;
+        }
+
+        /** 使える接続を返す。ない場合は接続する。
+         * 同時に呼ばれても接続は 1 本だけ確立し、他のスレッドはそれを待って同じ接続を使う。
+         */
+        synchronized Http2Connection getConnection() throws IOException {
+            Http2Connection connection = mConnection;
+            if (connection != null && connection.isUsable()) {
+                if (!connection.isIdleFor(IDLE_CONNECTION_TIMEOUT_MS)) {
+                    return connection;
+                }
+                // サーバや途中の経路が既に閉じている可能性があるため、使わずに閉じる
+                connection.shutdown();
+            }
+            mConnection = Http2Connection.connect(mHost, mPort, CONNECTION_TIMEOUT_MS,
+                    SOCKET_TIMEOUT_MS);
+            return mConnection;
+        }
+
+        synchronized void shutdown() {
+            if (mConnection != null) {
+                mConnection.shutdown();
+                mConnection = null;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return mHost + ":" + mPort;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package org.example.android.network;
+
+import java.io.IOException;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.protocol.HttpContext;
+
+/** HttpClient を使用する {@link HttpTransport}。
+ * HTTP/1.1 で、 1 つの接続では同時に 1 つのリクエストだけを送る。
+ * 並行するリクエストには、コネクションプールから別々の接続が割り当てられる。
+ */
+public class HttpClientTransport implements HttpTransport {
+    private final HttpClient mClient;
+
+    /** {@link SharedHttpClient} の共有の HttpClient を使用するトランスポートを生成する。 */
+    public HttpClientTransport() {
+        mClient = null;
+    }
+
+    /** 指定した HttpClient を使用するトランスポートを生成する。
+     * 圧縮の展開や計測を行うには、 {@link ContentEncodingInterceptor} と
+     * {@link MetricsInterceptor} を HttpClient に追加しておくこと。
+     * @param client 使用する HttpClient
+     */
+    public HttpClientTransport(HttpClient client) {
+        if (client == null)
+            throw new NullPointerException("client must not be null");
+        mClient = client;
+    }
+
+    @Override
+    public HttpResponse execute(HttpUriRequest request, HttpContext context) throws IOException {
+        return getClient().execute(request, context);
+    }
+
+    @Override
+    public void shutdown() {
+        if (mClient == null) {
+            SharedHttpClient.shutdown();
+        } else {
+            mClient.getConnectionManager().shutdown();
+        }
+    }
+
+    private HttpClient getClient() {
+        // 共有の HttpClient は shutdown() の後に作り直されるため、毎回取得する
+        return mClient != null ? mClient : SharedHttpClient.getInstance();
+    }
+}
@@ -0,0 +1,622 @@
+package org.example.android.network;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.http.Header;
+import org.apache.http.HeaderElement;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.impl.cookie.DateParseException;
+import org.apache.http.impl.cookie.DateUtils;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicStatusLine;
+import org.apache.http.protocol.HttpContext;
+
+import android.util.Log;
+
+/** GET リクエストのレスポンスをディスクにキャッシュするクラス。
+ * キャッシュはアカウントと URL (クエリを含む) をキーとして保存し、サイズの上限を超えた場合は
+ * 最も長く使われていないものから削除する。
+ * Cache-Control / Expires で新しいと判断できるレスポンスはネットワークを使わずに返し、
+ * 期限が切れたものは ETag / Last-Modified を用いた条件付きリクエストで再検証する。
+ * 304 Not Modified が返った場合は、本文を受信せずにキャッシュの内容を返す。
+ */
+public class HttpResponseCache {
+    private static final String TAG = "HttpResponseCache";
+
+    private static final int METADATA_VERSION = 1;
+    private static final String METADATA_SUFFIX = ".0";
+    private static final String BODY_SUFFIX = ".1";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static HttpResponseCache sInstalled;
+
+    private final File mDirectory;
+    private final long mMaxSize;
+    /** キーとエントリのサイズ。アクセス順に並ぶ */
+    private final LinkedHashMap<String, Long> mIndex =
+        new LinkedHashMap<String, Long>(16, 0.75f, true);
+    private long mSize;
+    private boolean mInitialized;
+
+    /** キャッシュを有効にする。ディレクトリの読み込みは最初にキャッシュを使用する時点まで遅延される。
+     * @param directory キャッシュを保存するディレクトリ
+     * @param maxSize キャッシュの最大サイズ (バイト)
+     * @return 有効になったキャッシュ
+     */
+    public static synchronized HttpResponseCache install(File directory, long maxSize) {
+        if (sInstalled == null || !sInstalled.mDirectory.equals(directory)) {
+            sInstalled = new HttpResponseCache(directory, maxSize);
+        }
+        return sInstalled;
+    }
+
+    /** 有効になっているキャッシュを返す。
+     * @return {@link #install(File, long)} されていなければ null
+     */
+    public static synchronized HttpResponseCache getInstalled() {
+        return sInstalled;
+    }
+
+    /** キャッシュを無効にする。保存されたレスポンスは削除しない。 */
+    /*package*/ static synchronized void uninstall() {
+        sInstalled = null;
+    }
+
+    private HttpResponseCache(File directory, long maxSize) {
+        mDirectory = directory;
+        mMaxSize = maxSize;
+    }
+
+    /** キャッシュを使用してリクエストを行う。
+     *
+     * @param <T> 期待するレスポンスの型
+     * @param transport 使用する HttpTransport
+     * @param request GET リクエスト
+     * @param account リクエストを行うアカウント。認証しない場合は null
+     * @param responseHandler 期待する型を返す {@link ResponseHandler}
+     * @return レスポンスハンドラによって処理されたレスポンス
+     * @throws ClientProtocolException
+     * @throws IOException
+     */
+    public <T> T execute(HttpTransport transport, HttpUriRequest request, String account,
+            ResponseHandler<T> responseHandler) throws ClientProtocolException, IOException {
+        return execute(transport, request, account, responseHandler, null);
+    }
+
+    /** キャッシュを使用してリクエストを行う。
+     *
+     * @param <T> 期待するレスポンスの型
+     * @param transport 使用する HttpTransport
+     * @param request GET リクエスト
+     * @param account リクエストを行うアカウント。認証しない場合は null
+     * @param responseHandler 期待する型を返す {@link ResponseHandler}
+     * @param context リクエストに使用する HttpContext。 null の場合はデフォルトのコンテキスト
+     * @return レスポンスハンドラによって処理されたレスポンス
+     * @throws ClientProtocolException
+     * @throws IOException
+     */
+    public <T> T execute(HttpTransport transport, HttpUriRequest request, String account,
+            ResponseHandler<T> responseHandler, HttpContext context)
+            throws ClientProtocolException, IOException {
+        RequestMetrics metrics = RequestMetrics.fromContext(context);
+        String key = createKey(account, request.getURI().toString());
+        Entry entry = get(key);
+        // 再検証の間に削除されないよう、本文はリクエスト前に開いておく
+        FileInputStream cachedBody = entry == null ? null : openBody(entry);
+        if (cachedBody == null) {
+            entry = null;
+            request.removeHeaders("If-None-Match");
+            request.removeHeaders("If-Modified-Since");
+        } else {
+            if (entry.isFresh()) {
+                Log.v(TAG, "cache hit: " + request.getURI());
+                if (metrics != null) {
+                    metrics.onCacheHit(HttpStatus.SC_OK);
+                }
+                return handleCachedResponse(entry, cachedBody, responseHandler);
+            }
+            if (entry.etag != null) {
+                request.setHeader("If-None-Match", entry.etag);
+            }
+            if (entry.lastModified != null) {
+                request.setHeader("If-Modified-Since", entry.lastModified);
+            }
+        }
+
+        HttpResponse response;
+        try {
+            response = transport.execute(request, context);
+        } catch (IOException e) {
+            closeQuietly(cachedBody);
+            throw e;
+        }
+        ResponseBody.attachRequest(response, request);
+        HttpEntity entity = response.getEntity();
+        CacheWritingInputStream cacheStream = null;
+        try {
+            int statusCode = response.getStatusLine().getStatusCode();
+            if (statusCode == HttpStatus.SC_NOT_MODIFIED && entry != null) {
+                Log.v(TAG, "not modified: " + request.getURI());
+                if (metrics != null) {
+                    metrics.onCacheHit(statusCode);
+                }
+                entry.expiresAt = computeExpiresAt(response);
+                updateMetadata(key, entry);
+                FileInputStream body = cachedBody;
+                cachedBody = null;
+                return handleCachedResponse(entry, body, responseHandler);
+            }
+            if (statusCode == HttpStatus.SC_OK && entity != null && isCacheable(response)) {
+                Entry newEntry = new Entry(key, response, computeExpiresAt(response));
+                cacheStream = new CacheWritingInputStream(entity.getContent(), key, newEntry);
+                response.setEntity(new InputStreamEntity(cacheStream, entity.getContentLength()));
+                copyEntityHeaders(entity, response.getEntity());
+            }
+            return responseHandler.handleResponse(response);
+        } finally {
+            closeQuietly(cachedBody);
+            if (request.isAborted()) {
+                // 本文が上限を超えるなどして中断した。残りは読まずに、書き込み途中のキャッシュを捨てる
+                if (cacheStream != null) {
+                    cacheStream.abort();
+                }
+            } else {
+                // コネクションをプールに戻すために本文を読み切る
+                HttpEntity current = response.getEntity();
+                if (current != null) {
+                    current.consumeContent();
+                }
+                if (current != entity && entity != null) {
+                    entity.consumeContent();
+                }
+            }
+        }
+    }
+
+    /** キャッシュをすべて削除する。 */
+    public synchronized void evictAll() {
+        ensureInitialized();
+        for (String key : mIndex.keySet()) {
+            deleteFiles(key);
+        }
+        mIndex.clear();
+        mSize = 0;
+    }
+
+    /** 現在のキャッシュの合計サイズを返す。 */
+    public synchronized long size() {
+        ensureInitialized();
+        return mSize;
+    }
+
+    /** キャッシュされた本文を開く。
+     * @return 開けなかった場合はエントリを削除して null を返す
+     */
+    private FileInputStream openBody(Entry entry) {
+        try {
+            return new FileInputStream(new File(mDirectory, entry.key + BODY_SUFFIX));
+        } catch (FileNotFoundException e) {
+            remove(entry.key);
+            return null;
+        }
+    }
+
+    private <T> T handleCachedResponse(Entry entry, FileInputStream in,
+            ResponseHandler<T> responseHandler) throws ClientProtocolException, IOException {
+        try {
+            BasicHttpResponse response = new BasicHttpResponse(
+                    new BasicStatusLine(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK"));
+            InputStreamEntity entity = new InputStreamEntity(in, in.getChannel().size());
+            entity.setContentType(entry.contentType);
+            response.setEntity(entity);
+            if (entry.contentType != null)
+                response.setHeader("Content-Type", entry.contentType);
+            if (entry.etag != null)
+                response.setHeader("ETag", entry.etag);
+            if (entry.lastModified != null)
+                response.setHeader("Last-Modified", entry.lastModified);
+            return responseHandler.handleResponse(response);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void closeQuietly(InputStream in) {
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    private static void copyEntityHeaders(HttpEntity from, HttpEntity to) {
+        InputStreamEntity entity = (InputStreamEntity) to;
+        entity.setContentType(from.getContentType());
+        entity.setContentEncoding(from.getContentEncoding());
+        entity.setChunked(from.isChunked());
+    }
+
+    private static boolean isCacheable(HttpResponse response) {
+        for (Header header : response.getHeaders("Cache-Control")) {
+            for (HeaderElement element : header.getElements()) {
+                if (element.getName().equalsIgnoreCase("no-store")) {
+                    return false;
+                }
+            }
+        }
+        return response.getFirstHeader("ETag") != null
+                || response.getFirstHeader("Last-Modified") != null
+                || computeExpiresAt(response) > System.currentTimeMillis();
+    }
+
+    /** Cache-Control: max-age または Expires ヘッダから、レスポンスの有効期限を計算する。
+     * @return 有効期限。再検証が必要な場合は 0
+     */
+    private static long computeExpiresAt(HttpResponse response) {
+        long now = System.currentTimeMillis();
+        for (Header header : response.getHeaders("Cache-Control")) {
+            for (HeaderElement element : header.getElements()) {
+                String name = element.getName();
+                if (name.equalsIgnoreCase("no-cache") || name.equalsIgnoreCase("must-revalidate")) {
+                    return 0;
+                }
+                if (name.equalsIgnoreCase("max-age") && element.getValue() != null) {
+                    try {
+                        return now + Long.parseLong(element.getValue()) * 1000;
+                    } catch (NumberFormatException e) {
+                        return 0;
+                    }
+                }
+            }
+        }
+        Header expires = response.getFirstHeader("Expires");
+        if (expires != null) {
+            try {
+                Date date = DateUtils.parseDate(expires.getValue());
+                return date.getTime();
+            } catch (DateParseException e) {
+                return 0;
+            }
+        }
+        return 0;
+    }
+
+    private synchronized Entry get(String key) {
+        ensureInitialized();
+        // get() で参照順を更新し、古い順ではなく使われていない順に追い出す
+        if (mIndex.get(key) == null) {
+            return null;
+        }
+        try {
+            return readMetadata(key);
+        } catch (IOException e) {
+            Log.w(TAG, "failed to read cache entry", e);
+            remove(key);
+            return null;
+        }
+    }
+
+    private synchronized void updateMetadata(String key, Entry entry) {
+        try {
+            writeMetadata(new File(mDirectory, key + METADATA_SUFFIX), entry);
+        } catch (IOException e) {
+            Log.w(TAG, "failed to update cache entry", e);
+            remove(key);
+        }
+    }
+
+    /** 一時ファイルに書き込み済みの本文とメタデータをキャッシュに登録する。 */
+    private synchronized void commit(String key, Entry entry, File tempBody) {
+        ensureInitialized();
+        File body = new File(mDirectory, key + BODY_SUFFIX);
+        File metadata = new File(mDirectory, key + METADATA_SUFFIX);
+        try {
+            File tempMetadata = new File(mDirectory, key + METADATA_SUFFIX + TEMP_SUFFIX);
+            writeMetadata(tempMetadata, entry);
+            remove(key);
+            if (!tempBody.renameTo(body) || !tempMetadata.renameTo(metadata)) {
+                throw new IOException("failed to rename cache files");
+            }
+            long size = body.length() + metadata.length();
+            mIndex.put(key, size);
+            mSize += size;
+            trimToSize();
+        } catch (IOException e) {
+            Log.w(TAG, "failed to write cache entry", e);
+            deleteFiles(key);
+            tempBody.delete();
+        }
+    }
+
+    private synchronized void remove(String key) {
+        Long size = mIndex.remove(key);
+        if (size != null) {
+            mSize -= size;
+        }
+        deleteFiles(key);
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Long>> it = mIndex.entrySet().iterator();
+        while (mSize > mMaxSize && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            mSize -= eldest.getValue();
+            deleteFiles(eldest.getKey());
+            it.remove();
+        }
+    }
+
+    private void deleteFiles(String key) {
+        new File(mDirectory, key + METADATA_SUFFIX).delete();
+        new File(mDirectory, key + BODY_SUFFIX).delete();
+    }
+
+    /** ディレクトリを走査してインデックスを構築する。古いファイルから順に並べる。 */
+    private void ensureInitialized() {
+        if (mInitialized) {
+            return;
+        }
+        mInitialized = true;
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.w(TAG, "failed to create cache directory: " + mDirectory);
+            return;
+        }
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long l = lhs.lastModified();
+                long r = rhs.lastModified();
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(TEMP_SUFFIX)) {
+                file.delete();
+            } else if (name.endsWith(METADATA_SUFFIX)) {
+                String key = name.substring(0, name.length() - METADATA_SUFFIX.length());
+                File body = new File(mDirectory, key + BODY_SUFFIX);
+                if (body.exists()) {
+                    long size = file.length() + body.length();
+                    mIndex.put(key, size);
+                    mSize += size;
+                } else {
+                    file.delete();
+                }
+            }
+        }
+        trimToSize();
+    }
+
+    private Entry readMetadata(String key) throws IOException {
+        DataInputStream in = new DataInputStream(
+                new FileInputStream(new File(mDirectory, key + METADATA_SUFFIX)));
+        try {
+            if (in.readInt() != METADATA_VERSION) {
+                throw new IOException("unknown cache version");
+            }
+            Entry entry = new Entry(key);
+            entry.etag = readNullableString(in);
+            entry.lastModified = readNullableString(in);
+            entry.contentType = readNullableString(in);
+            entry.expiresAt = in.readLong();
+            return entry;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void writeMetadata(File file, Entry entry) throws IOException {
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        try {
+            out.writeInt(METADATA_VERSION);
+            writeNullableString(out, entry.etag);
+            writeNullableString(out, entry.lastModified);
+            writeNullableString(out, entry.contentType);
+            out.writeLong(entry.expiresAt);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static String readNullableString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeNullableString(DataOutputStream out, String value)
+            throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    /** アカウントと URL からキャッシュのキーを生成する。ファイル名として使用できる文字列になる。 */
+    private static String createKey(String account, String uri) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            if (account != null) {
+                digest.update(account.getBytes("UTF-8"));
+            }
+            digest.update((byte) '\n');
+            byte[] hash = digest.digest(uri.getBytes("UTF-8"));
+            StringBuilder builder = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                builder.append(Character.forDigit((b >> 4) & 0xf, 16));
+                builder.append(Character.forDigit(b & 0xf, 16));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /** キャッシュされたレスポンスのメタデータ */
+    private static class Entry {
+        final String key;
+        String etag;
+        String lastModified;
+        String contentType;
+        long expiresAt;
+
+        Entry(String key) {
+            this.key = key;
+        }
+
+        Entry(String key, HttpResponse response, long expiresAt) {
+            this.key = key;
+            this.etag = getHeaderValue(response, "ETag");
+            this.lastModified = getHeaderValue(response, "Last-Modified");
+            this.contentType = getHeaderValue(response, "Content-Type");
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isFresh() {
+            return System.currentTimeMillis() < expiresAt;
+        }
+
+        private static String getHeaderValue(HttpResponse response, String name) {
+            Header header = response.getFirstHeader(name);
+            return header == null ? null : header.getValue();
+        }
+    }
+
+    /** 読み出した本文を一時ファイルに書き出し、最後まで読み終えたらキャッシュに登録する InputStream。
+     * 読み終える前に close された場合は、残りを読み切ってから登録する。
+     */
+    private class CacheWritingInputStream extends FilterInputStream {
+        private final String mKey;
+        private final Entry mEntry;
+        private final File mTempFile;
+        private FileOutputStream mOut;
+        private boolean mDone;
+
+        CacheWritingInputStream(InputStream in, String key, Entry entry) {
+            super(in);
+            mKey = key;
+            mEntry = entry;
+            // 同じキーのレスポンスを同時に書き込むことがあるため、一時ファイルはそれぞれ別にする
+            File tempFile = null;
+            try {
+                tempFile = File.createTempFile(key + BODY_SUFFIX, TEMP_SUFFIX, mDirectory);
+                mOut = new FileOutputStream(tempFile);
+            } catch (IOException e) {
+                Log.w(TAG, "failed to open cache file", e);
+                if (tempFile != null) {
+                    tempFile.delete();
+                }
+                mDone = true;
+            }
+            mTempFile = tempFile;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b == -1) {
+                finish(true);
+            } else {
+                write(new byte[] { (byte) b }, 0, 1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read;
+            try {
+                read = super.read(buffer, offset, count);
+            } catch (IOException e) {
+                finish(false);
+                throw e;
+            }
+            if (read == -1) {
+                finish(true);
+            } else {
+                write(buffer, offset, read);
+            }
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (!mDone) {
+                    byte[] buffer = new byte[1024];
+                    while (read(buffer, 0, buffer.length) != -1) {
+                        // 残りを読み切ってキャッシュに書き込む
+                    }
+                }
+            } finally {
+                finish(false);
+                super.close();
+            }
+        }
+
+        /** 残りを読み切らずに書き込みを中止し、一時ファイルを削除する。元のストリームは閉じない。 */
+        void abort() {
+            finish(false);
+        }
+
+        private void write(byte[] buffer, int offset, int count) {
+            if (mDone) {
+                return;
+            }
+            try {
+                mOut.write(buffer, offset, count);
+            } catch (IOException e) {
+                Log.w(TAG, "failed to write cache file", e);
+                finish(false);
+            }
+        }
+
+        private void finish(boolean success) {
+            if (mDone) {
+                return;
+            }
+            mDone = true;
+            try {
+                mOut.close();
+            } catch (IOException e) {
+                success = false;
+            }
+            if (success) {
+                commit(mKey, mEntry, mTempFile);
+            } else {
+                mTempFile.delete();
+            }
+        }
+    }
+}
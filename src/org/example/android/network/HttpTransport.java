@@ -0,0 +1,35 @@
+package org.example.android.network;
+
+import java.io.IOException;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.protocol.HttpContext;
+
+/** API リクエストを実際に送信するトランスポート。
+ * {@link ApiRequestUtils#setTransport(HttpTransport)} で設定する。
+ * 設定しなかった場合は {@link SharedHttpClient} を使用する {@link HttpClientTransport} を使用する。
+ * <p>
+ * 再試行、 Access Token の付与、キャッシュ、計測などは {@link ApiRequestUtils} が行うため、
+ * 実装はリクエストを送ってレスポンスを返すことだけを行えばよい。
+ * 複数のスレッドから同時に呼ばれるため、実装はスレッドセーフであること。
+ * 1 つの接続で複数のリクエストを多重化する実装では、同時に呼ばれたリクエストを同じ接続に載せてよい。
+ */
+public interface HttpTransport {
+
+    /** リクエストを送信し、レスポンスを返す。
+     * 呼び出し元は、本文を読み切るか {@link org.apache.http.HttpEntity#consumeContent()} を呼んで
+     * 接続を解放すること。
+     * 本文は gzip / deflate で圧縮されていれば展開してから返し、受信したバイト数などを
+     * context の {@link RequestMetrics} に記録すること。
+     * これには {@link ContentEncodingInterceptor} と {@link MetricsInterceptor} を使用できる。
+     * @param request リクエスト内容
+     * @param context リクエストに使用する HttpContext。 null の場合はデフォルトのコンテキスト
+     * @return レスポンス
+     * @throws IOException
+     */
+    HttpResponse execute(HttpUriRequest request, HttpContext context) throws IOException;
+
+    /** 保持している接続をすべて閉じる。アプリの終了時に呼び出す。 */
+    void shutdown();
+}
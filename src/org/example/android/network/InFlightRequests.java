@@ -0,0 +1,232 @@
+package org.example.android.network;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpGet;
+import org.example.android.oauth.OAuthToken;
+import org.example.android.oauth.OAuthTokenStore;
+
+import android.util.Log;
+
+/** 実行中の GET リクエストの一覧。
+ * URL とクエリ、 Access Token、レスポンスハンドラの種類が同じ GET リクエストが実行中の場合は、
+ * 新しくリクエストを送らずに、実行中のリクエストの結果を共有する。
+ * 同じ種類のレスポンスハンドラは、同じ URL に対して同じ結果を返すものとして扱う。
+ * 共有された結果のオブジェクトは変更しないこと。
+ * <p>
+ * 非同期のリクエストは呼び出し元ごとに別の {@link ApiFuture} を返し、
+ * 結果を待っている呼び出し元がすべてキャンセルした時にだけ、実行中のリクエストを中断する。
+ */
+public class InFlightRequests {
+    private static final String TAG = "InFlightRequests";
+
+    private static final ConcurrentHashMap<String, Shared<?>> sRequests =
+        new ConcurrentHashMap<String, Shared<?>>();
+    private static volatile boolean sEnabled = true;
+
+    private InFlightRequests() {
+    }
+
+    /** 同じリクエストの共有を有効または無効にする。デフォルトは有効。 */
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    /*package*/ static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /** 同じリクエストが実行中であればその結果を待ち、なければ source を呼び出し元のスレッドで実行する。
+     * 参加したリクエストがまだ Executor の待ち行列にある場合も、呼び出し元のスレッドで実行する。
+     * Executor のスレッドから呼ばれた場合に、待ち行列のリクエストを待ってスレッドを使い切らないようにするため。
+     * @param <T> 期待するレスポンスの型
+     * @param request リクエスト内容
+     * @param responseHandler レスポンスハンドラ
+     * @param store 使用する OAuthTokenStore。認証しない場合は null
+     * @param source まだ実行していない、リクエストを実行する ApiFuture
+     * @return レスポンスハンドラによって処理されたレスポンス
+     * @throws IOException
+     */
+    /*package*/ static <T> T execute(HttpGet request, ResponseHandler<T> responseHandler,
+            OAuthTokenStore store, ApiFuture<T> source) throws IOException {
+        Shared<T> shared = join(keyOf(request, responseHandler, store), request, source);
+        // 実行中または完了したリクエストに対しては何もしない
+        shared.mSource.run();
+        try {
+            return shared.mSource.get();
+        } catch (InterruptedException e) {
+            shared.release();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for " + request.getURI());
+        } catch (CancellationException e) {
+            throw new InterruptedIOException("request was cancelled: " + request.getURI());
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            IOException ioe = new IOException("request failed");
+            ioe.initCause(cause);
+            throw ioe;
+        }
+    }
+
+    /** 同じリクエストが実行中であればその結果を、なければ source を Executor に投入してその結果を返す。
+     * 返された ApiFuture をキャンセルしても、他に結果を待っている呼び出し元があればリクエストは続く。
+     * @param <T> 期待するレスポンスの型
+     * @param request リクエスト内容
+     * @param responseHandler レスポンスハンドラ
+     * @param store 使用する OAuthTokenStore。認証しない場合は null
+     * @param source まだ投入していない、リクエストを実行する ApiFuture
+     * @return 呼び出し元ごとの {@link ApiFuture}
+     */
+    /*package*/ static <T> ApiFuture<T> submit(HttpGet request,
+            ResponseHandler<T> responseHandler, OAuthTokenStore store, ApiFuture<T> source) {
+        final Shared<T> shared = join(keyOf(request, responseHandler, store), request, source);
+        final ApiFuture<T> future = new ApiFuture<T>(ApiRequestUtils.getExecutor());
+        future.setCancellationAction(new Runnable() {
+            @Override
+            public void run() {
+                shared.release();
+            }
+        });
+        shared.mSource.addCallback(new ApiFuture.Callback<T>() {
+            @Override
+            public void onSuccess(T result) {
+                future.setResult(result);
+            }
+            @Override
+            public void onFailure(Throwable error) {
+                future.setFailure(error);
+            }
+        });
+        if (shared.mSource == source) {
+            source.submit();
+        }
+        return future;
+    }
+
+    /** 実行中の同じリクエストに参加する。なければ source を登録する。
+     * @return 参加したリクエスト。 source を登録した場合は mSource が source になる
+     */
+    private static <T> Shared<T> join(String key, HttpGet request, ApiFuture<T> source) {
+        Shared<T> created = new Shared<T>(key, request.getURI().toString(), source);
+        for (;;) {
+            @SuppressWarnings("unchecked")
+            Shared<T> existing = (Shared<T>) sRequests.get(key);
+            if (existing != null && existing.acquire()) {
+                Log.v(TAG, "joined in-flight request: " + existing.mUri);
+                return existing;
+            }
+            boolean registered = existing == null ? sRequests.putIfAbsent(key, created) == null
+                    : sRequests.replace(key, existing, created);
+            if (registered) {
+                created.watch();
+                return created;
+            }
+        }
+    }
+
+    /** リクエストを共有するためのキーを生成する。 Access Token はダイジェストにして含める。 */
+    private static String keyOf(HttpGet request, ResponseHandler<?> responseHandler,
+            OAuthTokenStore store) {
+        StringBuilder key = new StringBuilder(request.getURI().toString());
+        key.append(' ').append(responseHandler.getClass().getName());
+        if (store != null) {
+            OAuthToken token = store.getToken();
+            String accessToken = token == null ? null : token.accessToken;
+            key.append(' ').append(accessToken == null ? null : digestOf(accessToken));
+        }
+        return key.toString();
+    }
+
+    private static String digestOf(String accessToken) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(accessToken.getBytes("UTF-8"));
+            StringBuilder builder = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                builder.append(Character.forDigit((b >> 4) & 0xf, 16));
+                builder.append(Character.forDigit(b & 0xf, 16));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /** 複数の呼び出し元で共有される実行中のリクエスト */
+    private static class Shared<T> {
+        private final String mKey;
+        /** ログ用の URL。キーには Access Token のダイジェストが含まれるため、ログにはこちらを使う */
+        private final String mUri;
+        private final ApiFuture<T> mSource;
+        /** 結果を待っている呼び出し元の数 */
+        private int mRefCount = 1;
+        /** 完了またはキャンセルされ、新しく参加できなくなった */
+        private boolean mClosed;
+
+        Shared(String key, String uri, ApiFuture<T> source) {
+            mKey = key;
+            mUri = uri;
+            mSource = source;
+        }
+
+        /** 完了した時に一覧から外れるようにする。 */
+        void watch() {
+            mSource.addCallback(new ApiFuture.Callback<T>() {
+                @Override
+                public void onSuccess(T result) {
+                    close();
+                }
+                @Override
+                public void onFailure(Throwable error) {
+                    close();
+                }
+            });
+        }
+
+        /** 呼び出し元を 1 つ追加する。
+         * @return 既に完了していて参加できない場合は false
+         */
+        synchronized boolean acquire() {
+            if (mClosed) {
+                return false;
+            }
+            mRefCount++;
+            return true;
+        }
+
+        /** 呼び出し元を 1 つ減らす。誰も待っていなくなった場合はリクエストを中断する。 */
+        void release() {
+            synchronized (this) {
+                if (mClosed || --mRefCount > 0) {
+                    return;
+                }
+            }
+            Log.v(TAG, "no one is waiting, cancelling: " + mUri);
+            close();
+            mSource.cancel(true);
+        }
+
+        private void close() {
+            synchronized (this) {
+                mClosed = true;
+            }
+            sRequests.remove(mKey, this);
+        }
+    }
+}
@@ -0,0 +1,541 @@
+package org.example.android.network;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/** JSON をストリームから 1 トークンずつ読み出すパーサ。
+ * JSONObject のようにドキュメント全体をメモリ上に構築せず、必要な値だけを取り出せる。
+ * 読み飛ばした値 ({@link #skipValue()}) は文字列としても生成しない。
+ * API Level 11 の android.util.JsonReader とほぼ同じ使い方ができる。
+ */
+public class JsonStreamReader implements Closeable {
+
+    /** JSON のトークンの種類 */
+    public enum Token {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY,
+        NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+    }
+
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_ARRAY = 2;
+    private static final int NONEMPTY_ARRAY = 3;
+    private static final int EMPTY_OBJECT = 4;
+    private static final int DANGLING_NAME = 5;
+    private static final int NONEMPTY_OBJECT = 6;
+
+    private static final int BUFFER_SIZE = 1024;
+    /** 名前のキャッシュのサイズ (2 のべき乗) */
+    private static final int NAME_CACHE_SIZE = 32;
+
+    private final Reader mIn;
+    private final char[] mBuffer;
+    private int mPos;
+    private int mLimit;
+
+    private int[] mStack = new int[16];
+    private int mStackSize = 0;
+    private Token mPeeked;
+
+    private final StringBuilder mBuilder = new StringBuilder();
+    /** 同じオブジェクトのキーを何度も生成しないためのキャッシュ */
+    private final String[] mNameCache = new String[NAME_CACHE_SIZE];
+
+    /** 指定した Reader から読み出すパーサを生成する。
+     * @param in 読み出し元の Reader
+     */
+    public JsonStreamReader(Reader in) {
+        this(in, new char[BUFFER_SIZE]);
+    }
+
+    /** 指定した Reader とバッファを使用するパーサを生成する。
+     * @param in 読み出し元の Reader
+     * @param buffer 読み出しに使用するバッファ
+     */
+    public JsonStreamReader(Reader in, char[] buffer) {
+        if (in == null)
+            throw new NullPointerException("in == null");
+        mIn = in;
+        mBuffer = buffer;
+        push(EMPTY_DOCUMENT);
+    }
+
+    /** 次のトークンの種類を、読み進めずに返す。
+     * @return 次のトークン
+     * @throws IOException
+     */
+    public Token peek() throws IOException {
+        if (mPeeked != null) {
+            return mPeeked;
+        }
+        int c;
+        switch (mStack[mStackSize - 1]) {
+            case EMPTY_ARRAY:
+                c = nextNonWhitespace();
+                if (c == ']') {
+                    return mPeeked = Token.END_ARRAY;
+                }
+                mStack[mStackSize - 1] = NONEMPTY_ARRAY;
+                mPos--;
+                return mPeeked = peekValue();
+            case NONEMPTY_ARRAY:
+                c = nextNonWhitespace();
+                if (c == ']') {
+                    return mPeeked = Token.END_ARRAY;
+                } else if (c != ',') {
+                    throw syntaxError("expected ',' or ']'");
+                }
+                return mPeeked = peekValue();
+            case EMPTY_OBJECT:
+            case NONEMPTY_OBJECT:
+                c = nextNonWhitespace();
+                if (c == '}') {
+                    return mPeeked = Token.END_OBJECT;
+                }
+                if (mStack[mStackSize - 1] == NONEMPTY_OBJECT) {
+                    if (c != ',') {
+                        throw syntaxError("expected ',' or '}'");
+                    }
+                    c = nextNonWhitespace();
+                }
+                if (c != '"') {
+                    throw syntaxError("expected name");
+                }
+                mStack[mStackSize - 1] = DANGLING_NAME;
+                return mPeeked = Token.NAME;
+            case DANGLING_NAME:
+                if (nextNonWhitespace() != ':') {
+                    throw syntaxError("expected ':'");
+                }
+                mStack[mStackSize - 1] = NONEMPTY_OBJECT;
+                return mPeeked = peekValue();
+            case EMPTY_DOCUMENT:
+                mStack[mStackSize - 1] = NONEMPTY_DOCUMENT;
+                return mPeeked = peekValue();
+            default:
+                // NONEMPTY_DOCUMENT
+                if (fillIfNeeded() && nextNonWhitespaceOrEnd() != -1) {
+                    throw syntaxError("unexpected content after the document");
+                }
+                return mPeeked = Token.END_DOCUMENT;
+        }
+    }
+
+    /** 現在のオブジェクトまたは配列に、まだ要素があるかどうかを返す。
+     * @return 要素がある場合 true
+     * @throws IOException
+     */
+    public boolean hasNext() throws IOException {
+        Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY
+                && token != Token.END_DOCUMENT;
+    }
+
+    public void beginObject() throws IOException {
+        expect(Token.BEGIN_OBJECT);
+        push(EMPTY_OBJECT);
+    }
+
+    public void endObject() throws IOException {
+        expect(Token.END_OBJECT);
+        mStackSize--;
+    }
+
+    public void beginArray() throws IOException {
+        expect(Token.BEGIN_ARRAY);
+        push(EMPTY_ARRAY);
+    }
+
+    public void endArray() throws IOException {
+        expect(Token.END_ARRAY);
+        mStackSize--;
+    }
+
+    /** オブジェクトのキーを読み出す。
+     * @return キーの文字列
+     * @throws IOException
+     */
+    public String nextName() throws IOException {
+        expect(Token.NAME);
+        readString();
+        return internName();
+    }
+
+    /** 文字列の値を読み出す。数値の場合はその文字列表現を、 null の場合は null を返す。
+     * @return 値の文字列
+     * @throws IOException
+     */
+    public String nextString() throws IOException {
+        Token token = peek();
+        mPeeked = null;
+        switch (token) {
+            case STRING:
+                readString();
+                return mBuilder.toString();
+            case NUMBER:
+                readLiteral();
+                return mBuilder.toString();
+            case NULL:
+                readLiteral();
+                return null;
+            default:
+                throw syntaxError("expected a string but was " + token);
+        }
+    }
+
+    public int nextInt() throws IOException {
+        long value = nextLong();
+        if (value != (int) value) {
+            throw syntaxError("out of int range: " + value);
+        }
+        return (int) value;
+    }
+
+    /** 数値の値を読み出す。文字列で表現された数値も受け付ける。
+     * @return 値
+     * @throws IOException
+     */
+    public long nextLong() throws IOException {
+        Token token = peek();
+        mPeeked = null;
+        if (token == Token.NUMBER) {
+            readLiteral();
+        } else if (token == Token.STRING) {
+            readString();
+        } else {
+            throw syntaxError("expected a number but was " + token);
+        }
+        return parseLong(mBuilder);
+    }
+
+    public boolean nextBoolean() throws IOException {
+        expect(Token.BOOLEAN);
+        readLiteral();
+        if (equals(mBuilder, "true")) {
+            return true;
+        } else if (equals(mBuilder, "false")) {
+            return false;
+        }
+        throw syntaxError("expected a boolean");
+    }
+
+    public void nextNull() throws IOException {
+        expect(Token.NULL);
+        readLiteral();
+        if (!equals(mBuilder, "null")) {
+            throw syntaxError("expected null");
+        }
+    }
+
+    /** 次の値を読み飛ばす。値がオブジェクトや配列の場合は、その中身もすべて読み飛ばす。
+     * @throws IOException
+     */
+    public void skipValue() throws IOException {
+        int depth = 0;
+        do {
+            Token token = peek();
+            switch (token) {
+                case BEGIN_OBJECT:
+                    beginObject();
+                    depth++;
+                    break;
+                case BEGIN_ARRAY:
+                    beginArray();
+                    depth++;
+                    break;
+                case END_OBJECT:
+                    endObject();
+                    depth--;
+                    break;
+                case END_ARRAY:
+                    endArray();
+                    depth--;
+                    break;
+                case NAME:
+                case STRING:
+                    mPeeked = null;
+                    skipString();
+                    break;
+                case END_DOCUMENT:
+                    throw syntaxError("unexpected end of document");
+                default:
+                    mPeeked = null;
+                    skipLiteral();
+                    break;
+            }
+        } while (depth > 0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        mPeeked = null;
+        mStackSize = 0;
+        mIn.close();
+    }
+
+    private void push(int scope) {
+        if (mStackSize == mStack.length) {
+            int[] newStack = new int[mStackSize * 2];
+            System.arraycopy(mStack, 0, newStack, 0, mStackSize);
+            mStack = newStack;
+        }
+        mStack[mStackSize++] = scope;
+    }
+
+    private void expect(Token expected) throws IOException {
+        Token token = peek();
+        if (token != expected) {
+            throw syntaxError("expected " + expected + " but was " + token);
+        }
+        mPeeked = null;
+    }
+
+    /** 値の先頭を読み、その種類を返す。文字列の場合は開始の '"' の直後まで読み進める。 */
+    private Token peekValue() throws IOException {
+        int c = nextNonWhitespace();
+        switch (c) {
+            case '{':
+                return Token.BEGIN_OBJECT;
+            case '[':
+                return Token.BEGIN_ARRAY;
+            case '"':
+                return Token.STRING;
+            case 't':
+            case 'f':
+                mPos--;
+                return Token.BOOLEAN;
+            case 'n':
+                mPos--;
+                return Token.NULL;
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    mPos--;
+                    return Token.NUMBER;
+                }
+                throw syntaxError("unexpected character '" + (char) c + "'");
+        }
+    }
+
+    private boolean fillIfNeeded() throws IOException {
+        if (mPos < mLimit) {
+            return true;
+        }
+        mPos = 0;
+        mLimit = 0;
+        int read;
+        while ((read = mIn.read(mBuffer, mLimit, mBuffer.length - mLimit)) == 0) {
+            // 0 バイトの読み込みは再試行する
+        }
+        if (read == -1) {
+            return false;
+        }
+        mLimit = read;
+        return true;
+    }
+
+    private int nextNonWhitespaceOrEnd() throws IOException {
+        while (fillIfNeeded()) {
+            char c = mBuffer[mPos++];
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                return c;
+            }
+        }
+        return -1;
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        int c = nextNonWhitespaceOrEnd();
+        if (c == -1) {
+            throw syntaxError("unexpected end of input");
+        }
+        return c;
+    }
+
+    private char nextChar() throws IOException {
+        if (!fillIfNeeded()) {
+            throw syntaxError("unexpected end of input");
+        }
+        return mBuffer[mPos++];
+    }
+
+    /** 文字列の終わりの '"' まで読み、エスケープを解除して mBuilder に格納する。 */
+    private void readString() throws IOException {
+        StringBuilder builder = mBuilder;
+        builder.setLength(0);
+        fill:
+        while (true) {
+            if (!fillIfNeeded()) {
+                throw syntaxError("unterminated string");
+            }
+            // エスケープのない区間はまとめてコピーする
+            int start = mPos;
+            while (mPos < mLimit) {
+                char c = mBuffer[mPos++];
+                if (c == '"') {
+                    builder.append(mBuffer, start, mPos - 1 - start);
+                    return;
+                } else if (c == '\\') {
+                    builder.append(mBuffer, start, mPos - 1 - start);
+                    builder.append(readEscapeCharacter());
+                    continue fill;
+                }
+            }
+            builder.append(mBuffer, start, mPos - start);
+        }
+    }
+
+    private void skipString() throws IOException {
+        while (true) {
+            char c = nextChar();
+            if (c == '"') {
+                return;
+            } else if (c == '\\') {
+                readEscapeCharacter();
+            }
+        }
+    }
+
+    private char readEscapeCharacter() throws IOException {
+        char c = nextChar();
+        switch (c) {
+            case 'u':
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    char h = nextChar();
+                    value <<= 4;
+                    if (h >= '0' && h <= '9') {
+                        value += h - '0';
+                    } else if (h >= 'a' && h <= 'f') {
+                        value += h - 'a' + 10;
+                    } else if (h >= 'A' && h <= 'F') {
+                        value += h - 'A' + 10;
+                    } else {
+                        throw syntaxError("invalid unicode escape");
+                    }
+                }
+                return (char) value;
+            case 't':
+                return '\t';
+            case 'b':
+                return '\b';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 'f':
+                return '\f';
+            default:
+                // '"', '\\', '/' など
+                return c;
+        }
+    }
+
+    /** 数値・真偽値・null のリテラルを mBuilder に読み出す。 */
+    private void readLiteral() throws IOException {
+        mBuilder.setLength(0);
+        while (fillIfNeeded()) {
+            char c = mBuffer[mPos];
+            if (isLiteralEnd(c)) {
+                break;
+            }
+            mBuilder.append(c);
+            mPos++;
+        }
+        if (mBuilder.length() == 0) {
+            throw syntaxError("expected a literal");
+        }
+    }
+
+    private void skipLiteral() throws IOException {
+        while (fillIfNeeded() && !isLiteralEnd(mBuffer[mPos])) {
+            mPos++;
+        }
+    }
+
+    private static boolean isLiteralEnd(char c) {
+        switch (c) {
+            case ',':
+            case '}':
+            case ']':
+            case ':':
+            case ' ':
+            case '\n':
+            case '\r':
+            case '\t':
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /** mBuilder の内容と同じ名前をキャッシュから探し、なければ生成してキャッシュする。 */
+    private String internName() {
+        StringBuilder builder = mBuilder;
+        int length = builder.length();
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + builder.charAt(i);
+        }
+        int index = (hash ^ (hash >>> 16)) & (NAME_CACHE_SIZE - 1);
+        String cached = mNameCache[index];
+        if (cached != null && equals(builder, cached)) {
+            return cached;
+        }
+        String name = builder.toString();
+        mNameCache[index] = name;
+        return name;
+    }
+
+    private static boolean equals(StringBuilder builder, String string) {
+        int length = builder.length();
+        if (length != string.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (builder.charAt(i) != string.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** 文字列を生成せずに整数へ変換する。小数や指数表記の場合のみ double として解釈する。 */
+    private long parseLong(StringBuilder builder) throws IOException {
+        int length = builder.length();
+        if (length == 0) {
+            throw syntaxError("expected a number");
+        }
+        boolean negative = builder.charAt(0) == '-';
+        int i = negative ? 1 : 0;
+        if (i == length || length - i > 18) {
+            return parseDouble(builder);
+        }
+        long value = 0;
+        for (; i < length; i++) {
+            char c = builder.charAt(i);
+            if (c < '0' || c > '9') {
+                return parseDouble(builder);
+            }
+            value = value * 10 + (c - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    private long parseDouble(StringBuilder builder) throws IOException {
+        try {
+            double value = Double.parseDouble(builder.toString());
+            long result = (long) value;
+            if (result != value) {
+                throw new NumberFormatException("not an integer: " + builder);
+            }
+            return result;
+        } catch (NumberFormatException e) {
+            throw syntaxError(e.getMessage());
+        }
+    }
+
+    private MalformedJsonException syntaxError(String message) {
+        return new MalformedJsonException(message);
+    }
+}
@@ -0,0 +1,100 @@
+package org.example.android.network;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/** ロックを使わずに記録できる、2 のべき乗の区間によるヒストグラム。
+ * 値 v は [2^(i-1), 2^i) の区間 i に数えられるため、パーセンタイルは最大 2 倍の誤差を含む。
+ * {@link #snapshot()} は記録と並行して呼び出せるが、各区間を個別に読み出すため、
+ * 取得中に記録された値を一部だけ含むことがある。
+ */
+public class LatencyHistogram {
+    private static final int BUCKET_COUNT = 40;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    /** 値を記録する。負の値 (計測できなかった値) は無視する。 */
+    public void record(long value) {
+        if (value < 0) {
+            return;
+        }
+        int bucket = Math.min(64 - Long.numberOfLeadingZeros(value), BUCKET_COUNT - 1);
+        mBuckets.incrementAndGet(bucket);
+        mCount.incrementAndGet();
+        mSum.addAndGet(value);
+        long max;
+        while (value > (max = mMax.get())) {
+            if (mMax.compareAndSet(max, value)) {
+                break;
+            }
+        }
+    }
+
+    /** 現在の内容のスナップショットを返す。 */
+    public Snapshot snapshot() {
+        long[] buckets = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets[i] = mBuckets.get(i);
+        }
+        return new Snapshot(buckets, mCount.get(), mSum.get(), mMax.get());
+    }
+
+    /** ヒストグラムのある時点の内容 */
+    public static class Snapshot {
+        private final long[] mBuckets;
+        private final long mCount;
+        private final long mSum;
+        private final long mMax;
+
+        Snapshot(long[] buckets, long count, long sum, long max) {
+            mBuckets = buckets;
+            mCount = count;
+            mSum = sum;
+            mMax = max;
+        }
+
+        public long getCount() {
+            return mCount;
+        }
+
+        public long getMax() {
+            return mMax;
+        }
+
+        public long getMean() {
+            return mCount == 0 ? 0 : mSum / mCount;
+        }
+
+        /** パーセンタイルの推定値 (その値を含む区間の上限) を返す。
+         * @param percentile 0 から 100 の値
+         */
+        public long getPercentile(double percentile) {
+            long total = 0;
+            for (long count : mBuckets) {
+                total += count;
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(total * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < mBuckets.length; i++) {
+                seen += mBuckets[i];
+                if (seen >= rank && mBuckets[i] > 0) {
+                    long upper = i == 0 ? 0 : (1L << i) - 1;
+                    return Math.min(upper, mMax);
+                }
+            }
+            return mMax;
+        }
+
+        @Override
+        public String toString() {
+            return "n=" + mCount + " mean=" + getMean() + " p50=" + getPercentile(50)
+                    + " p90=" + getPercentile(90) + " p99=" + getPercentile(99) + " max=" + mMax;
+        }
+    }
+}
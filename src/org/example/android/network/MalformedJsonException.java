@@ -0,0 +1,10 @@
+package org.example.android.network;
+
+import java.io.IOException;
+
+public class MalformedJsonException extends IOException {
+    private static final long serialVersionUID = 4863624153826716519L;
+    public MalformedJsonException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,194 @@
+package org.example.android.network;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** リクエストの計測結果をエンドポイントごとに集計する {@link RequestMetricsListener}。
+ * 集計はロックを使わずに行うため、リクエストのスレッドをほとんど妨げない。
+ * 集計結果は {@link #snapshot()} で取得する。
+ *
+ * <pre>
+ * MetricsAggregator metrics = new MetricsAggregator();
+ * ApiRequestUtils.setMetricsListener(metrics);
+ * ...
+ * Log.i(TAG, metrics.snapshot().toString());
+ * </pre>
+ */
+public class MetricsAggregator implements RequestMetricsListener {
+    private final ConcurrentHashMap<String, EndpointStats> mEndpoints =
+        new ConcurrentHashMap<String, EndpointStats>();
+    private final AtomicLong mRefreshBeforeRequest = new AtomicLong();
+    private final AtomicLong mRefreshOnUnauthorized = new AtomicLong();
+
+    @Override
+    public void onRequestFinished(RequestMetrics metrics) {
+        String key = metrics.getMethod() + " " + metrics.getEndpoint();
+        EndpointStats stats = mEndpoints.get(key);
+        if (stats == null) {
+            EndpointStats created = new EndpointStats();
+            stats = mEndpoints.putIfAbsent(key, created);
+            if (stats == null) {
+                stats = created;
+            }
+        }
+        stats.record(metrics);
+    }
+
+    @Override
+    public void onTokenRefresh(RefreshTrigger trigger) {
+        switch (trigger) {
+            case EXPIRED_BEFORE_REQUEST:
+                mRefreshBeforeRequest.incrementAndGet();
+                break;
+            case UNAUTHORIZED_RESPONSE:
+                mRefreshOnUnauthorized.incrementAndGet();
+                break;
+        }
+    }
+
+    /** これまでの集計結果を返す。 */
+    public Snapshot snapshot() {
+        TreeMap<String, EndpointSnapshot> endpoints = new TreeMap<String, EndpointSnapshot>();
+        for (Map.Entry<String, EndpointStats> entry : mEndpoints.entrySet()) {
+            endpoints.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return new Snapshot(Collections.unmodifiableMap(endpoints),
+                mRefreshBeforeRequest.get(), mRefreshOnUnauthorized.get());
+    }
+
+    /** 集計結果をすべて破棄する。 */
+    public void reset() {
+        mEndpoints.clear();
+        mRefreshBeforeRequest.set(0);
+        mRefreshOnUnauthorized.set(0);
+    }
+
+    /** 1 つのエンドポイントの集計 */
+    private static class EndpointStats {
+        final LatencyHistogram mTotal = new LatencyHistogram();
+        final LatencyHistogram mConnect = new LatencyHistogram();
+        final LatencyHistogram mFirstByte = new LatencyHistogram();
+        final LatencyHistogram mBodyRead = new LatencyHistogram();
+        final LatencyHistogram mParse = new LatencyHistogram();
+        final AtomicLong mRequests = new AtomicLong();
+        final AtomicLong mFailures = new AtomicLong();
+        final AtomicLong mCacheHits = new AtomicLong();
+        final AtomicLong mBytesIn = new AtomicLong();
+        final AtomicLong mBytesOut = new AtomicLong();
+        final ConcurrentHashMap<Integer, AtomicLong> mStatusCodes =
+            new ConcurrentHashMap<Integer, AtomicLong>();
+
+        void record(RequestMetrics metrics) {
+            mRequests.incrementAndGet();
+            if (metrics.getFailure() != null) {
+                mFailures.incrementAndGet();
+            }
+            if (metrics.isCacheHit()) {
+                mCacheHits.incrementAndGet();
+            }
+            mTotal.record(metrics.getTotalTimeUs());
+            mConnect.record(metrics.getConnectTimeUs());
+            mFirstByte.record(metrics.getTimeToFirstByteUs());
+            mBodyRead.record(metrics.getBodyReadTimeUs());
+            mParse.record(metrics.getParseTimeUs());
+            mBytesIn.addAndGet(metrics.getBytesIn());
+            mBytesOut.addAndGet(metrics.getBytesOut());
+            Integer status = metrics.getStatusCode();
+            AtomicLong counter = mStatusCodes.get(status);
+            if (counter == null) {
+                AtomicLong created = new AtomicLong();
+                counter = mStatusCodes.putIfAbsent(status, created);
+                if (counter == null) {
+                    counter = created;
+                }
+            }
+            counter.incrementAndGet();
+        }
+
+        EndpointSnapshot snapshot() {
+            TreeMap<Integer, Long> statusCodes = new TreeMap<Integer, Long>();
+            for (Map.Entry<Integer, AtomicLong> entry : mStatusCodes.entrySet()) {
+                statusCodes.put(entry.getKey(), entry.getValue().get());
+            }
+            return new EndpointSnapshot(mRequests.get(), mFailures.get(), mCacheHits.get(),
+                    mBytesIn.get(), mBytesOut.get(), Collections.unmodifiableMap(statusCodes),
+                    mTotal.snapshot(), mConnect.snapshot(), mFirstByte.snapshot(),
+                    mBodyRead.snapshot(), mParse.snapshot());
+        }
+    }
+
+    /** 1 つのエンドポイントの集計結果。時間はマイクロ秒。 */
+    public static class EndpointSnapshot {
+        public final long requests;
+        public final long failures;
+        public final long cacheHits;
+        public final long bytesIn;
+        public final long bytesOut;
+        /** ステータスコードごとの件数。レスポンスを受信できなかったものは 0 に数える。 */
+        public final Map<Integer, Long> statusCodes;
+        public final LatencyHistogram.Snapshot total;
+        public final LatencyHistogram.Snapshot connect;
+        public final LatencyHistogram.Snapshot firstByte;
+        public final LatencyHistogram.Snapshot bodyRead;
+        public final LatencyHistogram.Snapshot parse;
+
+        EndpointSnapshot(long requests, long failures, long cacheHits, long bytesIn,
+                long bytesOut, Map<Integer, Long> statusCodes, LatencyHistogram.Snapshot total,
+                LatencyHistogram.Snapshot connect, LatencyHistogram.Snapshot firstByte,
+                LatencyHistogram.Snapshot bodyRead, LatencyHistogram.Snapshot parse) {
+            this.requests = requests;
+            this.failures = failures;
+            this.cacheHits = cacheHits;
+            this.bytesIn = bytesIn;
+            this.bytesOut = bytesOut;
+            this.statusCodes = statusCodes;
+            this.total = total;
+            this.connect = connect;
+            this.firstByte = firstByte;
+            this.bodyRead = bodyRead;
+            this.parse = parse;
+        }
+
+        @Override
+        public String toString() {
+            return "requests=" + requests + " failures=" + failures + " cacheHits=" + cacheHits
+                    + " status=" + statusCodes + " in=" + bytesIn + "B out=" + bytesOut + "B"
+                    + "\n  total(us):     " + total
+                    + "\n  connect(us):   " + connect
+                    + "\n  firstByte(us): " + firstByte
+                    + "\n  bodyRead(us):  " + bodyRead
+                    + "\n  parse(us):     " + parse;
+        }
+    }
+
+    /** 集計結果全体 */
+    public static class Snapshot {
+        /** "メソッド URL" をキーとした、エンドポイントごとの集計結果 */
+        public final Map<String, EndpointSnapshot> endpoints;
+        /** リクエスト前に有効期限切れを検出して行ったリフレッシュの回数 */
+        public final long refreshesBeforeRequest;
+        /** 401 を受け取って行ったリフレッシュの回数 */
+        public final long refreshesOnUnauthorized;
+
+        Snapshot(Map<String, EndpointSnapshot> endpoints, long refreshesBeforeRequest,
+                long refreshesOnUnauthorized) {
+            this.endpoints = endpoints;
+            this.refreshesBeforeRequest = refreshesBeforeRequest;
+            this.refreshesOnUnauthorized = refreshesOnUnauthorized;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("token refreshes: before request=").append(refreshesBeforeRequest)
+                    .append(", on 401=").append(refreshesOnUnauthorized);
+            for (Map.Entry<String, EndpointSnapshot> entry : endpoints.entrySet()) {
+                sb.append('\n').append(entry.getKey()).append(' ').append(entry.getValue());
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package org.example.android.network;
+
+import java.io.IOException;
+
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.protocol.HttpContext;
+
+/** {@link RequestMetrics} が HttpContext に設定されているリクエストについて、
+ * 送信と受信のタイミング、送受信したバイト数を記録するインターセプタ。
+ * 実際に受信したバイト数を数えるため、レスポンスのインターセプタは
+ * {@link ContentEncodingInterceptor} よりも前に登録すること。
+ * <p>
+ * HttpClient を使わないトランスポートでは、送信の直前と、レスポンスヘッダを受信した直後に
+ * それぞれの process を呼び出す。
+ */
+public class MetricsInterceptor implements HttpRequestInterceptor, HttpResponseInterceptor {
+
+    @Override
+    public void process(HttpRequest request, HttpContext context)
+            throws HttpException, IOException {
+        RequestMetrics metrics = RequestMetrics.fromContext(context);
+        if (metrics != null) {
+            metrics.onRequestSent(request);
+        }
+    }
+
+    @Override
+    public void process(HttpResponse response, HttpContext context)
+            throws HttpException, IOException {
+        RequestMetrics metrics = RequestMetrics.fromContext(context);
+        if (metrics != null) {
+            metrics.onResponseReceived(response);
+        }
+    }
+}
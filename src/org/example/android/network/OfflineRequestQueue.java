@@ -0,0 +1,724 @@
+package org.example.android.network;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.message.BasicNameValuePair;
+import org.example.android.oauth.OAuthClient;
+import org.example.android.oauth.OAuthTokenStore;
+import org.example.android.oauth.TokenExpiredException;
+import org.example.android.oauth.TokenInvalidException;
+import org.example.android.oauth.TokenRefresher;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.util.Log;
+
+/** ネットワークに接続できない間も、 API への書き込み (POST) を失わずに送信するためのキュー。
+ * {@link #enqueue(String, List)} はリクエストを追記専用のジャーナルファイルに書き込み、
+ * ディスクに同期してから返る。キューに入ったリクエストは、接続が回復した時に追加された順に
+ * {@link BatchRequest} にまとめて送信し、成功するか、サーバに拒否されるまで保持する。
+ * 通信エラーや 5xx で送信できなかった場合は、指数的に間隔を空けて再送する。
+ * <p>
+ * 各リクエストには追加時に生成した Idempotency-Key ヘッダを付けて送るため、応答を受け取る前に
+ * 接続が切れて再送した場合も、サーバは重複したリクエストを見分けることができる。
+ * Access Token は再送のたびに開始時に一度だけ確認し、期限切れであればリフレッシュする。
+ * 再送の途中で期限切れになった場合のリフレッシュも、 {@link TokenRefresher} によって 1 回にまとめられる。
+ * <p>
+ * 同時に送信するバッチは maxConcurrency 件までとする。 1 の場合は前のバッチの応答を受け取ってから
+ * 次のバッチを送るため、サーバで実行される順序も追加された順と同じになる。
+ * <p>
+ * ジャーナルの読み書きを行うため、 UI スレッド以外から呼び出すこと。
+ *
+ * <pre>
+ * OfflineRequestQueue queue = new OfflineRequestQueue(journal, BATCH_ENDPOINT, store);
+ * queue.start(context);
+ * String key = queue.enqueue(url, body);
+ * </pre>
+ */
+public class OfflineRequestQueue {
+    private static final String TAG = "OfflineRequestQueue";
+
+    /** サーバが重複したリクエストを見分けるために付けるヘッダ */
+    public static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+    /** 1 つのバッチに含めるリクエストの最大件数のデフォルト値 */
+    public static final int DEFAULT_MAX_BATCH_SIZE = 10;
+    /** 同時に送信するバッチの数のデフォルト値 */
+    public static final int DEFAULT_MAX_CONCURRENCY = 1;
+
+    private static final byte RECORD_ADD = 'A';
+    private static final byte RECORD_DONE = 'D';
+    /** レコードの前後に付ける長さ (int) とチェックサム (long) のバイト数 */
+    private static final int RECORD_OVERHEAD = 4 + 8;
+    /** これより長いレコードは壊れているものとして扱う */
+    private static final int MAX_RECORD_BYTES = 1024 * 1024;
+    /** 完了のレコードがこの数に達したら、ジャーナルを書き直す */
+    private static final int COMPACT_THRESHOLD = 64;
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final long INITIAL_BACKOFF_MS = 5 * 1000;
+    private static final long MAX_BACKOFF_MS = 5 * 60 * 1000;
+
+    private static final StatusResponseHandler STATUS_HANDLER = new StatusResponseHandler();
+
+    /** キューに入れたリクエストの結果を受け取るリスナ。再送を行うスレッドから呼ばれる。 */
+    public interface Listener {
+
+        /** リクエストの送信に成功し、キューから削除された時に呼ばれる。
+         * @param idempotencyKey {@link #enqueue(String, List)} が返したキー
+         * @param statusCode レスポンスのステータスコード
+         */
+        void onRequestSent(String idempotencyKey, int statusCode);
+
+        /** リクエストがサーバに拒否され、キューから削除された時に呼ばれる。
+         * @param idempotencyKey {@link #enqueue(String, List)} が返したキー
+         * @param error サーバが返したエラー
+         */
+        void onRequestRejected(String idempotencyKey, HttpResponseException error);
+    }
+
+    private final File mJournal;
+    private final String mBatchEndpointUrl;
+    private final OAuthTokenStore mStore;
+    private final int mMaxBatchSize;
+    private final int mMaxConcurrency;
+    private final Random mRandom = new Random();
+    private volatile Listener mListener;
+
+    /** 送信待ちのリクエスト。追加された順に並ぶ */
+    private final LinkedHashMap<String, Entry> mPending = new LinkedHashMap<String, Entry>();
+    private boolean mLoaded;
+    private FileOutputStream mOut;
+    /** ジャーナルのうち、正しく書き込まれたレコードのバイト数 */
+    private long mJournalLength;
+    /** ジャーナルに含まれる完了のレコードの数 */
+    private int mDoneRecords;
+
+    private ScheduledExecutorService mExecutor;
+    private ScheduledFuture<?> mPendingReplay;
+    private BroadcastReceiver mReceiver;
+    private Context mContext;
+    private long mBackoffMs;
+    /** stop() された。送信中だったバッチの結果はジャーナルに記録せず、次に開始した時に再送する */
+    private boolean mStopped;
+
+    private final Runnable mReplayTask = new Runnable() {
+        @Override
+        public void run() {
+            replayPending();
+        }
+    };
+
+    /** デフォルトのバッチサイズと同時送信数でキューを生成する。
+     * @param journal キューを保存するジャーナルファイル
+     * @param batchEndpointUrl バッチリクエストを受け付けるエンドポイントの URL
+     * @param store OAuth の Access Token を保持している OAuthTokenStore。認証しない場合は null
+     */
+    public OfflineRequestQueue(File journal, String batchEndpointUrl, OAuthTokenStore store) {
+        this(journal, batchEndpointUrl, store, DEFAULT_MAX_BATCH_SIZE, DEFAULT_MAX_CONCURRENCY);
+    }
+
+    /** キューを生成する。ジャーナルは最初に使用する時点で読み込む。
+     * @param journal キューを保存するジャーナルファイル
+     * @param batchEndpointUrl バッチリクエストを受け付けるエンドポイントの URL
+     * @param store OAuth の Access Token を保持している OAuthTokenStore。認証しない場合は null
+     * @param maxBatchSize 1 つのバッチに含めるリクエストの最大件数
+     * @param maxConcurrency 同時に送信するバッチの最大数
+     */
+    public OfflineRequestQueue(File journal, String batchEndpointUrl, OAuthTokenStore store,
+            int maxBatchSize, int maxConcurrency) {
+        if (maxBatchSize <= 0 || maxConcurrency <= 0)
+            throw new IllegalArgumentException("invalid batch size or concurrency");
+        mJournal = journal;
+        mBatchEndpointUrl = batchEndpointUrl;
+        mStore = store;
+        mMaxBatchSize = maxBatchSize;
+        mMaxConcurrency = maxConcurrency;
+    }
+
+    /** リクエストの結果を受け取るリスナを設定する。
+     * @param listener 使用するリスナ。結果を受け取らない場合は null
+     */
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /** HTTP POST リクエストをキューに追加する。
+     * ジャーナルに書き込んでディスクに同期してから返るため、返った後はプロセスが終了しても失われない。
+     * {@link #start(Context)} されていれば、再送を待っている間を除いて、すぐに送信を試みる。
+     * @param endpointUrl リクエスト先のURL
+     * @param body リクエストボディに含める{@link NameValuePair}のリスト
+     * @return リクエストに付けた Idempotency-Key
+     * @throws IOException ジャーナルに書き込めなかった場合や、リクエストが大きすぎる場合。
+     *     リクエストはキューに追加されない
+     */
+    public String enqueue(String endpointUrl, List<NameValuePair> body) throws IOException {
+        if (endpointUrl == null)
+            throw new NullPointerException("endpointUrl must not be null");
+        Entry entry = new Entry(UUID.randomUUID().toString(), endpointUrl,
+                body == null ? new ArrayList<NameValuePair>() : new ArrayList<NameValuePair>(body));
+        synchronized (this) {
+            ensureLoaded();
+            appendRecord(entry.toRecord(), true);
+            mPending.put(entry.mKey, entry);
+        }
+        Log.v(TAG, "enqueued " + entry.mKey + ": " + endpointUrl);
+        synchronized (this) {
+            // 再送を待っている間は、その時刻まで送信しない
+            if (mBackoffMs == 0) {
+                scheduleReplay(0);
+            }
+        }
+        return entry.mKey;
+    }
+
+    /** 送信待ちのリクエストの件数を返す。 */
+    public synchronized int size() {
+        try {
+            ensureLoaded();
+        } catch (IOException e) {
+            Log.w(TAG, "failed to load journal", e);
+        }
+        return mPending.size();
+    }
+
+    /** 接続の回復の監視を開始し、キューに残っているリクエストの送信を試みる。
+     * 既に開始している場合は何もしない。
+     * @param context Context
+     */
+    public synchronized void start(Context context) {
+        if (mExecutor != null)
+            return;
+        mStopped = false;
+        mExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, TAG);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mContext = context.getApplicationContext();
+        mReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context c, Intent intent) {
+                if (!intent.getBooleanExtra(ConnectivityManager.EXTRA_NO_CONNECTIVITY, false)) {
+                    Log.v(TAG, "connectivity changed, replaying");
+                    replay();
+                }
+            }
+        };
+        mContext.registerReceiver(mReceiver,
+                new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+        scheduleReplay(0);
+    }
+
+    /** 接続の監視と再送を停止する。送信中のリクエストはキューに残り、次に開始した時に再送される。 */
+    public synchronized void stop() {
+        mStopped = true;
+        if (mReceiver != null) {
+            mContext.unregisterReceiver(mReceiver);
+            mReceiver = null;
+        }
+        if (mPendingReplay != null) {
+            mPendingReplay.cancel(false);
+            mPendingReplay = null;
+        }
+        if (mExecutor != null) {
+            mExecutor.shutdownNow();
+            mExecutor = null;
+        }
+        closeJournal();
+    }
+
+    /** 再送の待ち時間を無視して、すぐに送信を試みる。
+     * 再ログインした後など、以前の失敗の原因が解消された時に呼び出す。
+     * {@link #start(Context)} 前や {@link #stop()} 後に呼び出した場合は何もしない。
+     */
+    public synchronized void replay() {
+        mBackoffMs = 0;
+        scheduleReplay(0);
+    }
+
+    private synchronized void scheduleReplay(long delayMs) {
+        if (mExecutor == null)
+            return;
+        if (mPendingReplay != null)
+            mPendingReplay.cancel(false);
+        mPendingReplay = mExecutor.schedule(mReplayTask, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /** 送信待ちのリクエストをバッチにまとめて送信する。 */
+    private void replayPending() {
+        List<Entry> entries;
+        synchronized (this) {
+            try {
+                ensureLoaded();
+            } catch (IOException e) {
+                Log.w(TAG, "failed to load journal", e);
+                return;
+            }
+            entries = new ArrayList<Entry>(mPending.values());
+        }
+        if (entries.isEmpty()) {
+            return;
+        }
+        if (mStore != null) {
+            try {
+                // 再送の開始時に一度だけ確認し、期限切れであればここでリフレッシュしておく
+                if (ApiRequestUtils.getValidAccessToken(mStore) == null) {
+                    Log.v(TAG, "Not logged in. Waiting for login.");
+                    return;
+                }
+            } catch (TokenInvalidException e) {
+                // 再ログインした後に replay() が呼ばれるまで待つ
+                Log.w(TAG, "Access token is invalid. Waiting for login.", e);
+                return;
+            } catch (IOException e) {
+                retryLater(e);
+                return;
+            }
+        }
+
+        Log.v(TAG, "replaying " + entries.size() + " requests");
+        final Session session = new Session();
+        final Semaphore slots = new Semaphore(mMaxConcurrency);
+        try {
+            for (int i = 0; i < entries.size() && !session.isFailed(); i += mMaxBatchSize) {
+                final List<Entry> batch =
+                    entries.subList(i, Math.min(i + mMaxBatchSize, entries.size()));
+                slots.acquire();
+                ApiRequestUtils.getExecutor().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            send(batch, session);
+                        } finally {
+                            slots.release();
+                        }
+                    }
+                });
+            }
+            // 送信中のバッチがすべて終わるまで待つ
+            slots.acquire(mMaxConcurrency);
+            slots.release(mMaxConcurrency);
+        } catch (InterruptedException e) {
+            // stop() された。送信中のリクエストは次に開始した時に再送する
+            return;
+        }
+
+        Throwable error = session.getError();
+        if (error instanceof TokenExpiredException) {
+            // リフレッシュしても認証できないので、再ログインした後に replay() が呼ばれるまで待つ
+            Log.w(TAG, "Access token is invalid. Waiting for login.", error);
+        } else if (error != null) {
+            retryLater(error);
+        } else {
+            synchronized (this) {
+                mBackoffMs = 0;
+            }
+        }
+        compactJournal();
+    }
+
+    /** 1 つのバッチを送信し、結果に応じてリクエストをキューから削除する。 */
+    private void send(List<Entry> entries, Session session) {
+        if (session.isFailed()) {
+            // 前のバッチが失敗したので、次の再送に回す
+            return;
+        }
+        BatchRequest batch = new BatchRequest(mBatchEndpointUrl, mStore);
+        ArrayList<ApiFuture<Integer>> futures = new ArrayList<ApiFuture<Integer>>(entries.size());
+        try {
+            for (Entry entry : entries) {
+                HttpPost request = ApiRequestUtils.createPostRequest(entry.mUrl, entry.mBody);
+                request.addHeader(IDEMPOTENCY_KEY_HEADER, entry.mKey);
+                futures.add(batch.add(request, STATUS_HANDLER));
+            }
+        } catch (IOException e) {
+            session.fail(e);
+            return;
+        }
+        batch.execute();
+
+        Listener listener = mListener;
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            try {
+                int statusCode = futures.get(i).get();
+                if (complete(entry) && listener != null) {
+                    listener.onRequestSent(entry.mKey, statusCode);
+                }
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (isRejected(cause)) {
+                    Log.w(TAG, "request was rejected: " + entry.mKey, cause);
+                    if (complete(entry) && listener != null) {
+                        listener.onRequestRejected(entry.mKey, (HttpResponseException) cause);
+                    }
+                } else {
+                    // キューに残して後で再送する
+                    session.fail(cause);
+                }
+            } catch (InterruptedException e) {
+                // execute() の後なので、結果は既に設定されている
+                Thread.currentThread().interrupt();
+                session.fail(e);
+                return;
+            }
+        }
+    }
+
+    /** 再送しても成功しない、サーバに拒否されたエラーかどうかを返す。 */
+    private static boolean isRejected(Throwable error) {
+        if (!(error instanceof HttpResponseException)) {
+            return false;
+        }
+        int statusCode = ((HttpResponseException) error).getStatusCode();
+        // 408 Request Timeout と 429 Too Many Requests は再送する
+        return statusCode >= 400 && statusCode < 500 && statusCode != 408 && statusCode != 429;
+    }
+
+    private void retryLater(Throwable error) {
+        long delay;
+        synchronized (this) {
+            mBackoffMs = mBackoffMs == 0 ? INITIAL_BACKOFF_MS
+                    : Math.min(mBackoffMs * 2, MAX_BACKOFF_MS);
+            delay = mBackoffMs / 2 + (long) (mRandom.nextFloat() * mBackoffMs / 2);
+        }
+        Log.w(TAG, "Failed to replay requests. Retrying in " + delay + "ms", error);
+        scheduleReplay(delay);
+    }
+
+    /** 送信を終えたリクエストをキューから削除し、ジャーナルに完了を記録する。
+     * {@link #stop()} の後に終わったリクエストは、キューに残して次に開始した時に再送する。
+     * @return キューに残っていて、削除した場合は true
+     */
+    private synchronized boolean complete(Entry entry) {
+        if (mStopped || mPending.remove(entry.mKey) == null) {
+            return false;
+        }
+        try {
+            // 記録が失われても、再送したリクエストは Idempotency-Key でサーバが見分けるため、
+            // 完了の記録ではディスクへの同期を待たない
+            appendRecord(Entry.toDoneRecord(entry.mKey), false);
+            mDoneRecords++;
+        } catch (IOException e) {
+            Log.w(TAG, "failed to record completion of " + entry.mKey, e);
+        }
+        return true;
+    }
+
+    /** ジャーナルを読み込む。末尾の書きかけのレコードは破棄する。 */
+    private void ensureLoaded() throws IOException {
+        if (mLoaded) {
+            return;
+        }
+        mPending.clear();
+        mDoneRecords = 0;
+        long length = 0;
+        if (mJournal.exists()) {
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(mJournal)));
+            try {
+                byte[] payload;
+                while ((payload = readRecord(in)) != null) {
+                    try {
+                        applyRecord(payload);
+                    } catch (IOException e) {
+                        break;
+                    }
+                    length += payload.length + RECORD_OVERHEAD;
+                }
+            } finally {
+                in.close();
+            }
+            if (length < mJournal.length()) {
+                Log.w(TAG, "discarding " + (mJournal.length() - length)
+                        + " bytes of broken records at the end of the journal");
+                truncateJournal(length);
+            }
+        }
+        mJournalLength = length;
+        mLoaded = true;
+        Log.v(TAG, "loaded " + mPending.size() + " pending requests");
+    }
+
+    /** 長さとチェックサムを確認してレコードを 1 つ読み込む。
+     * @return レコードの内容。終端に達した場合や壊れている場合は null
+     */
+    private static byte[] readRecord(DataInputStream in) throws IOException {
+        try {
+            int length = in.readInt();
+            if (length < 0 || length > MAX_RECORD_BYTES) {
+                return null;
+            }
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+            long checksum = in.readLong();
+            return checksum == checksumOf(payload) ? payload : null;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private void applyRecord(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte type = in.readByte();
+        String key = Entry.readString(in);
+        if (type == RECORD_ADD) {
+            mPending.put(key, Entry.read(key, in));
+        } else if (type == RECORD_DONE) {
+            mPending.remove(key);
+            mDoneRecords++;
+        } else {
+            throw new IOException("unknown record type: " + type);
+        }
+    }
+
+    /** レコードに長さとチェックサムを付けてジャーナルの末尾に追記する。
+     * 書き込みに失敗した場合は、書きかけのレコードを取り除く。
+     * {@link #stop()} の後は、書き込むたびにジャーナルを閉じる。
+     */
+    private void appendRecord(byte[] payload, boolean sync) throws IOException {
+        if (payload.length > MAX_RECORD_BYTES)
+            throw new IOException("record is too large: " + payload.length + " bytes");
+        byte[] record = frame(payload);
+        try {
+            if (mOut == null) {
+                mOut = new FileOutputStream(mJournal, true);
+            }
+            mOut.write(record);
+            if (sync) {
+                mOut.getFD().sync();
+            }
+            mJournalLength += record.length;
+        } catch (IOException e) {
+            closeJournal();
+            truncateJournal(mJournalLength);
+            throw e;
+        } finally {
+            if (mStopped) {
+                closeJournal();
+            }
+        }
+    }
+
+    /** 送信待ちのリクエストがなくなった場合や、完了のレコードが増えた場合にジャーナルを書き直す。 */
+    private synchronized void compactJournal() {
+        if (!mLoaded) {
+            return;
+        }
+        if (mPending.isEmpty() ? mJournalLength == 0 : mDoneRecords < COMPACT_THRESHOLD) {
+            return;
+        }
+        closeJournal();
+        File temp = new File(mJournal.getPath() + TEMP_SUFFIX);
+        try {
+            long length = 0;
+            FileOutputStream out = new FileOutputStream(temp);
+            try {
+                for (Entry entry : mPending.values()) {
+                    byte[] record = frame(entry.toRecord());
+                    out.write(record);
+                    length += record.length;
+                }
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(mJournal)) {
+                throw new IOException("failed to rename journal");
+            }
+            mJournalLength = length;
+            mDoneRecords = 0;
+            Log.v(TAG, "compacted journal to " + mPending.size() + " requests");
+        } catch (IOException e) {
+            Log.w(TAG, "failed to compact journal", e);
+            temp.delete();
+        }
+    }
+
+    private void truncateJournal(long length) {
+        try {
+            RandomAccessFile file = new RandomAccessFile(mJournal, "rw");
+            try {
+                file.setLength(length);
+            } finally {
+                file.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "failed to truncate journal", e);
+        }
+    }
+
+    private void closeJournal() {
+        if (mOut != null) {
+            try {
+                mOut.close();
+            } catch (IOException e) {
+                Log.w(TAG, "failed to close journal", e);
+            }
+            mOut = null;
+        }
+    }
+
+    private static byte[] frame(byte[] payload) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(payload.length + RECORD_OVERHEAD);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(payload.length);
+        out.write(payload);
+        out.writeLong(checksumOf(payload));
+        return bytes.toByteArray();
+    }
+
+    private static long checksumOf(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return crc.getValue();
+    }
+
+    /** キューに入っている 1 件のリクエスト */
+    private static class Entry {
+        final String mKey;
+        final String mUrl;
+        final List<NameValuePair> mBody;
+
+        Entry(String key, String url, List<NameValuePair> body) {
+            mKey = key;
+            mUrl = url;
+            mBody = body;
+        }
+
+        byte[] toRecord() throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(RECORD_ADD);
+            writeString(out, mKey);
+            writeString(out, mUrl);
+            out.writeInt(mBody.size());
+            for (NameValuePair nvp : mBody) {
+                writeString(out, nvp.getName());
+                writeNullableString(out, nvp.getValue());
+            }
+            return bytes.toByteArray();
+        }
+
+        static byte[] toDoneRecord(String key) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(RECORD_DONE);
+            writeString(out, key);
+            return bytes.toByteArray();
+        }
+
+        static Entry read(String key, DataInputStream in) throws IOException {
+            String url = readString(in);
+            int count = in.readInt();
+            if (count < 0)
+                throw new IOException("invalid parameter count: " + count);
+            ArrayList<NameValuePair> body = new ArrayList<NameValuePair>(count);
+            for (int i = 0; i < count; i++) {
+                String name = readString(in);
+                body.add(new BasicNameValuePair(name, readNullableString(in)));
+            }
+            return new Entry(key, url, body);
+        }
+
+        private static String readNullableString(DataInputStream in) throws IOException {
+            return in.readBoolean() ? readString(in) : null;
+        }
+
+        private static void writeNullableString(DataOutputStream out, String value)
+                throws IOException {
+            out.writeBoolean(value != null);
+            if (value != null) {
+                writeString(out, value);
+            }
+        }
+
+        /** 長さ (int) と UTF-8 のバイト列で書き込まれた文字列を読み込む。 */
+        static String readString(DataInputStream in) throws IOException {
+            int length = in.readInt();
+            if (length < 0 || length > MAX_RECORD_BYTES)
+                throw new IOException("invalid string length: " + length);
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            return new String(bytes, "UTF-8");
+        }
+
+        /** 文字列を長さ (int) と UTF-8 のバイト列で書き込む。
+         * writeUTF と異なり、 64KB を超える文字列も書き込める。
+         */
+        private static void writeString(DataOutputStream out, String value) throws IOException {
+            byte[] bytes = value.getBytes("UTF-8");
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    /** 1 回の再送の状態。最初の失敗を保持する。 */
+    private static class Session {
+        private Throwable mError;
+
+        synchronized void fail(Throwable error) {
+            if (mError == null) {
+                mError = error;
+            }
+        }
+
+        synchronized boolean isFailed() {
+            return mError != null;
+        }
+
+        synchronized Throwable getError() {
+            return mError;
+        }
+    }
+
+    /** 2xx のレスポンスのステータスコードを返すハンドラ。 */
+    private static class StatusResponseHandler extends StreamingResponseHandler<Integer> {
+        @Override
+        protected Integer handleResponse(HttpResponse response, ResponseBody body)
+                throws ClientProtocolException, IOException {
+            int statusCode = response.getStatusLine().getStatusCode();
+            if (statusCode == 401) {   // Authorization Required
+                boolean retryable = OAuthClient.isTokenExpiredResponse(response);
+                throw new TokenExpiredException("invalid token", retryable);
+            }
+            if (statusCode >= 200 && statusCode < 300) {
+                return statusCode;
+            }
+            throw unexpectedResponse(response, body);
+        }
+    }
+}
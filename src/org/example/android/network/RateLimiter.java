@@ -0,0 +1,236 @@
+package org.example.android.network;
+
+import java.io.InterruptedIOException;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+
+import android.util.Log;
+
+/** エンドポイントとアカウントの組ごとのトークンバケットによるレート制限。
+ * Access Token ではなくアカウントごとに持つため、トークンをリフレッシュしても学習した制限は引き継がれる。
+ * トークンが足りない間、リクエストは優先度の高いものから順に待たされる。
+ * <p>
+ * レスポンスに X-RateLimit-Remaining と X-RateLimit-Reset (または RateLimit-Remaining と
+ * RateLimit-Reset) が含まれる場合は、残りの回数をリセットまでの時間で均等に使うよう、
+ * その 9 割の速度に合わせる。残りが 0 の場合はリセットまで送信を止め、再開した時に 1 件だけ送って
+ * 新しい残りの回数を知る。 429 を受け取った場合は速度を半分にし、 Retry-After の間は送信を止める。
+ * ヘッダで制限が分からない場合は、 429 の後、成功するたびに少しずつ元の速度に戻す。
+ */
+public class RateLimiter {
+    private static final String TAG = "RateLimiter";
+    private static final double DEFAULT_RATE = 10;
+    private static final int DEFAULT_BURST = 4;
+    private static final double MIN_RATE = 0.05;
+    /** ヘッダから求めた速度に掛ける係数。制限のすぐ下に保つ */
+    private static final double SAFETY_RATIO = 0.9;
+    /** 429 の後に、成功 1 回ごとに戻す速度 (回/秒) */
+    private static final double RECOVERY_STEP = 0.5;
+    /** これより大きい Reset の値は UNIX 時刻 (秒) とみなす */
+    private static final long EPOCH_THRESHOLD = 1000000000L;
+
+    private static final ConcurrentHashMap<String, RateLimiter> sLimiters =
+        new ConcurrentHashMap<String, RateLimiter>();
+    private static volatile double sDefaultRate = DEFAULT_RATE;
+    private static volatile int sDefaultBurst = DEFAULT_BURST;
+    private static volatile boolean sEnabled = true;
+
+    private final String mKey;
+    private final double mMaxRate;
+    private final int mBurst;
+    private final PriorityQueue<Waiter> mWaiters = new PriorityQueue<Waiter>(8, new Comparator<Waiter>() {
+        @Override
+        public int compare(Waiter lhs, Waiter rhs) {
+            int result = lhs.mPriority.compareTo(rhs.mPriority);
+            if (result != 0) {
+                return result;
+            }
+            return lhs.mSequence < rhs.mSequence ? -1 : (lhs.mSequence == rhs.mSequence ? 0 : 1);
+        }
+    });
+    private double mRate;
+    private double mTokens;
+    private long mLastRefillNanos;
+    /** この時刻まで送信を止める。止めていない場合は 0 */
+    private long mBlockedUntil;
+    /** ヘッダから制限を知ることができた場合 true */
+    private boolean mLearned;
+    private long mSequence;
+
+    private RateLimiter(String key, double rate, int burst) {
+        mKey = key;
+        mMaxRate = rate;
+        mRate = rate;
+        mBurst = burst;
+        mTokens = burst;
+        mLastRefillNanos = System.nanoTime();
+    }
+
+    /** これから生成されるレート制限の設定を変更する。
+     * @param ratePerSecond 制限が分からない場合の 1 秒あたりのリクエスト数の上限
+     * @param burst 連続して送ることのできるリクエスト数
+     */
+    public static void configure(double ratePerSecond, int burst) {
+        if (ratePerSecond <= 0 || burst <= 0)
+            throw new IllegalArgumentException("invalid rate limit");
+        sDefaultRate = ratePerSecond;
+        sDefaultBurst = burst;
+        sLimiters.clear();
+    }
+
+    /** レート制限を有効または無効にする。デフォルトでは有効。 */
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    /** エンドポイントとアカウントの組に対応する RateLimiter を返す。
+     * レート制限が無効な場合は null を返す。
+     * @param endpoint クエリを除いたリクエスト先の URL
+     * @param account リクエストを行うアカウント。認証しない場合は null
+     */
+    /*package*/ static RateLimiter forEndpoint(String endpoint, String account) {
+        if (!sEnabled) {
+            return null;
+        }
+        String key = account == null ? endpoint : endpoint + "#" + account;
+        RateLimiter limiter = sLimiters.get(key);
+        if (limiter == null) {
+            RateLimiter created = new RateLimiter(key, sDefaultRate, sDefaultBurst);
+            limiter = sLimiters.putIfAbsent(key, created);
+            if (limiter == null) {
+                limiter = created;
+            }
+        }
+        return limiter;
+    }
+
+    /** リクエストを送るためのトークンを 1 つ取得する。足りない場合は取得できるまで待つ。
+     * @param priority リクエストの優先度
+     * @throws InterruptedIOException 待っている間に割り込まれた場合
+     */
+    /*package*/ synchronized void acquire(RequestPriority priority) throws InterruptedIOException {
+        refill();
+        if (mWaiters.isEmpty() && mBlockedUntil == 0 && mTokens >= 1) {
+            mTokens -= 1;
+            return;
+        }
+        Waiter waiter = new Waiter(priority, mSequence++);
+        mWaiters.add(waiter);
+        try {
+            while (true) {
+                refill();
+                long waitMs = computeWaitMs();
+                if (waitMs == 0 && mWaiters.peek() == waiter) {
+                    mTokens -= 1;
+                    return;
+                }
+                wait(waitMs);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for rate limit");
+        } finally {
+            mWaiters.remove(waiter);
+            notifyAll();
+        }
+    }
+
+    /** レスポンスのステータスとヘッダから制限を学習する。 */
+    /*package*/ synchronized void onResponse(HttpResponse response) {
+        refill();
+        long now = System.currentTimeMillis();
+        int statusCode = response.getStatusLine().getStatusCode();
+        long remaining = getLongHeader(response, "X-RateLimit-Remaining", "RateLimit-Remaining");
+        long resetMs = getResetMs(response, now);
+
+        if (remaining > 0 && resetMs > 0) {
+            mLearned = true;
+            mRate = Math.max(MIN_RATE, remaining * 1000.0 / resetMs * SAFETY_RATIO);
+            mTokens = Math.min(mTokens, remaining);
+            mBlockedUntil = 0;
+        } else if (remaining == 0 && resetMs > 0) {
+            // リセット後の上限は分からないため、速度はそのままにしてリセットまで止める
+            mLearned = true;
+            mTokens = 0;
+            mBlockedUntil = Math.max(mBlockedUntil, now + resetMs);
+        } else if (statusCode == 429) {
+            mRate = Math.max(MIN_RATE, mRate / 2);
+            mTokens = 0;
+        } else if (!mLearned && statusCode < 400 && mRate < mMaxRate) {
+            mRate = Math.min(mMaxRate, mRate + RECOVERY_STEP);
+        }
+        if (statusCode == 429) {
+            long retryAfterMs = ApiRequestUtils.getRetryAfterMs(response);
+            if (retryAfterMs > 0) {
+                mBlockedUntil = Math.max(mBlockedUntil, now + retryAfterMs);
+            }
+            Log.w(TAG, mKey + " is throttled, rate=" + mRate + "/s");
+        }
+        notifyAll();
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        if (mBlockedUntil != 0) {
+            // 止めている間は積み立てず、再開した時点で 1 件だけ送れるようにする
+            if (System.currentTimeMillis() >= mBlockedUntil) {
+                mBlockedUntil = 0;
+                mTokens = Math.max(mTokens, 1);
+            }
+        } else {
+            mTokens = Math.min(mBurst, mTokens + (now - mLastRefillNanos) / 1e9 * mRate);
+        }
+        mLastRefillNanos = now;
+    }
+
+    /** トークンを取得できるまでの待ち時間を返す。すぐに取得できる場合は 0 */
+    private long computeWaitMs() {
+        if (mBlockedUntil != 0) {
+            return Math.max(1, mBlockedUntil - System.currentTimeMillis());
+        }
+        if (mTokens >= 1) {
+            return 0;
+        }
+        return Math.max(1, (long) Math.ceil((1 - mTokens) / mRate * 1000));
+    }
+
+    private static long getLongHeader(HttpResponse response, String... names) {
+        for (String name : names) {
+            Header header = response.getFirstHeader(name);
+            if (header != null) {
+                try {
+                    return Long.parseLong(header.getValue().trim());
+                } catch (NumberFormatException e) {
+                    // 次の候補を試す
+                }
+            }
+        }
+        return -1;
+    }
+
+    /** 制限がリセットされるまでの時間を返す。分からない場合は -1 */
+    private static long getResetMs(HttpResponse response, long now) {
+        long reset = getLongHeader(response, "X-RateLimit-Reset", "RateLimit-Reset");
+        if (reset < 0) {
+            return -1;
+        }
+        if (reset > EPOCH_THRESHOLD) {
+            return Math.max(0, reset * 1000 - now);
+        }
+        return reset * 1000;
+    }
+
+    /** トークンを待っているリクエスト */
+    private static class Waiter {
+        final RequestPriority mPriority;
+        final long mSequence;
+
+        Waiter(RequestPriority priority, long sequence) {
+            mPriority = priority;
+            mSequence = sequence;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package org.example.android.network;
+
+import java.io.UnsupportedEncodingException;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.NameValuePair;
+import org.apache.http.client.ResponseHandler;
+import org.example.android.oauth.OAuthTokenStore;
+
+/** 短い時間内に発行された API リクエストを、自動的に {@link BatchRequest} にまとめて送信するクラス。
+ * 最初のリクエストが追加されてから window ミリ秒が経過するか、
+ * まとめたリクエストが maxBatchSize 件に達した時点で送信する。
+ */
+public class RequestBatcher {
+    private static ScheduledExecutorService sTimer;
+
+    private final String mEndpointUrl;
+    private final OAuthTokenStore mStore;
+    private final long mWindowMs;
+    private final int mMaxBatchSize;
+    private BatchRequest mCurrent;
+
+    /** RequestBatcher を生成する。
+     * @param endpointUrl バッチリクエストを受け付けるエンドポイントの URL
+     * @param store OAuth の Access Token を保持している OAuthTokenStore。認証しない場合は null
+     * @param windowMs リクエストをまとめる時間 (ミリ秒)
+     * @param maxBatchSize 1 つのバッチに含めるリクエストの最大件数
+     */
+    public RequestBatcher(String endpointUrl, OAuthTokenStore store, long windowMs,
+            int maxBatchSize) {
+        if (windowMs < 0 || maxBatchSize <= 0)
+            throw new IllegalArgumentException("invalid window or batch size");
+        mEndpointUrl = endpointUrl;
+        mStore = store;
+        mWindowMs = windowMs;
+        mMaxBatchSize = maxBatchSize;
+    }
+
+    /** バッチリクエストの認証に使用する OAuthTokenStore を返す。認証しない場合は null */
+    public OAuthTokenStore getTokenStore() {
+        return mStore;
+    }
+
+    /** HTTP GET リクエストを次のバッチに追加する。
+     * @param <T> 期待するレスポンスの型
+     * @param endpointUrl リクエスト先のURL
+     * @param query クエリパラメータを含む{@link NameValuePair}のリスト
+     * @param responseHandler このリクエストのレスポンスを処理するハンドラ
+     * @return リクエストの結果を表す {@link ApiFuture}
+     */
+    public <T> ApiFuture<T> get(String endpointUrl, List<NameValuePair> query,
+            ResponseHandler<T> responseHandler) {
+        return get(endpointUrl, query, responseHandler, RequestPriority.NORMAL);
+    }
+
+    /** HTTP GET リクエストを、優先度を指定して次のバッチに追加する。
+     * バッチは、含まれるリクエストのうち最も高い優先度で送信される。
+     * @param <T> 期待するレスポンスの型
+     * @param endpointUrl リクエスト先のURL
+     * @param query クエリパラメータを含む{@link NameValuePair}のリスト
+     * @param responseHandler このリクエストのレスポンスを処理するハンドラ
+     * @param priority リクエストの優先度
+     * @return リクエストの結果を表す {@link ApiFuture}
+     */
+    public synchronized <T> ApiFuture<T> get(String endpointUrl, List<NameValuePair> query,
+            ResponseHandler<T> responseHandler, RequestPriority priority) {
+        ApiFuture<T> future = currentBatch().addGet(endpointUrl, query, responseHandler, priority);
+        flushIfFull();
+        return future;
+    }
+
+    /** HTTP POST リクエストを次のバッチに追加する。
+     * @param <T> 期待するレスポンスの型
+     * @param endpointUrl リクエスト先のURL
+     * @param body リクエストボディに含める{@link NameValuePair}のリスト
+     * @param responseHandler このリクエストのレスポンスを処理するハンドラ
+     * @return リクエストの結果を表す {@link ApiFuture}
+     * @throws UnsupportedEncodingException
+     */
+    public synchronized <T> ApiFuture<T> post(String endpointUrl, List<NameValuePair> body,
+            ResponseHandler<T> responseHandler) throws UnsupportedEncodingException {
+        ApiFuture<T> future = currentBatch().addPost(endpointUrl, body, responseHandler);
+        flushIfFull();
+        return future;
+    }
+
+    /** まとめているリクエストを、待ち時間の経過を待たずに送信する。 */
+    public synchronized void flush() {
+        if (mCurrent != null) {
+            mCurrent.executeAsync();
+            mCurrent = null;
+        }
+    }
+
+    private BatchRequest currentBatch() {
+        if (mCurrent == null) {
+            final BatchRequest batch = new BatchRequest(mEndpointUrl, mStore);
+            mCurrent = batch;
+            getTimer().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    flush(batch);
+                }
+            }, mWindowMs, TimeUnit.MILLISECONDS);
+        }
+        return mCurrent;
+    }
+
+    private void flushIfFull() {
+        if (mCurrent.size() >= mMaxBatchSize) {
+            flush();
+        }
+    }
+
+    /** 指定したバッチがまだ送信されていなければ送信する。 */
+    private synchronized void flush(BatchRequest batch) {
+        if (mCurrent == batch) {
+            flush();
+        }
+    }
+
+    private static synchronized ScheduledExecutorService getTimer() {
+        if (sTimer == null) {
+            sTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "RequestBatcher");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sTimer;
+    }
+}
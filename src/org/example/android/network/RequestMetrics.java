@@ -0,0 +1,269 @@
+package org.example.android.network;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.protocol.HttpContext;
+
+/** 1 回の API リクエストの計測結果。
+ * 時間はすべてマイクロ秒で、計測できなかった項目は -1 となる。
+ * <ul>
+ * <li>接続時間: リクエストの開始から、接続を確立して送信を始めるまで (プールの待ち時間を含む)</li>
+ * <li>最初のバイトまでの時間: 送信を始めてから、レスポンスヘッダを受信するまで</li>
+ * <li>本文の読み込み時間: レスポンスハンドラが本文のストリームの読み込みに費やした時間</li>
+ * <li>パース時間: レスポンスハンドラの処理時間から、本文の読み込み時間を除いたもの</li>
+ * </ul>
+ * 受信バイト数は圧縮を展開する前の、実際に受信したバイト数で数える。
+ * インスタンスはリクエストを実行するスレッドからのみ更新される。
+ */
+public final class RequestMetrics {
+    /** {@link HttpContext} に計測対象の RequestMetrics を格納する際のキー */
+    /*package*/ static final String CONTEXT_KEY = "org.example.android.network.RequestMetrics";
+
+    private final String mMethod;
+    private final String mEndpoint;
+    private final long mStartNanos;
+    private long mConnectedNanos;
+    private long mFirstByteNanos;
+    private long mHandlerNanos = -1;
+    private long mBodyReadNanos;
+    private long mTotalNanos = -1;
+    private long mBytesIn;
+    private CountingInputStream mBody;
+    private long mBytesOut;
+    private int mStatusCode;
+    private boolean mCacheHit;
+    private Throwable mFailure;
+
+    /*package*/ RequestMetrics(HttpUriRequest request) {
+        mMethod = request.getMethod();
+        mEndpoint = endpointOf(request.getURI());
+        mStartNanos = System.nanoTime();
+    }
+
+    /** HTTP メソッドを返す。 */
+    public String getMethod() {
+        return mMethod;
+    }
+
+    /** クエリを除いたリクエスト先の URL を返す。 */
+    public String getEndpoint() {
+        return mEndpoint;
+    }
+
+    /** HTTP ステータスコードを返す。レスポンスを受信できなかった場合は 0 */
+    public int getStatusCode() {
+        return mStatusCode;
+    }
+
+    /** {@link HttpResponseCache} に保存された本文を使用した場合 true */
+    public boolean isCacheHit() {
+        return mCacheHit;
+    }
+
+    /** リクエストが例外で失敗した場合はその例外、成功した場合は null を返す。 */
+    public Throwable getFailure() {
+        return mFailure;
+    }
+
+    public long getConnectTimeUs() {
+        return mConnectedNanos == 0 ? -1 : toMicros(mConnectedNanos - mStartNanos);
+    }
+
+    public long getTimeToFirstByteUs() {
+        return mConnectedNanos == 0 || mFirstByteNanos == 0 ? -1
+                : toMicros(mFirstByteNanos - mConnectedNanos);
+    }
+
+    public long getBodyReadTimeUs() {
+        return mHandlerNanos < 0 ? -1 : toMicros(mBodyReadNanos);
+    }
+
+    public long getParseTimeUs() {
+        return mHandlerNanos < 0 ? -1 : toMicros(Math.max(0, mHandlerNanos - mBodyReadNanos));
+    }
+
+    public long getTotalTimeUs() {
+        return mTotalNanos < 0 ? -1 : toMicros(mTotalNanos);
+    }
+
+    /** 受信したバイト数 (ステータス行とヘッダを含む) */
+    public long getBytesIn() {
+        return mBytesIn;
+    }
+
+    /** 送信したバイト数 (リクエスト行とヘッダを含む) */
+    public long getBytesOut() {
+        return mBytesOut;
+    }
+
+    @Override
+    public String toString() {
+        return mMethod + " " + mEndpoint + " " + mStatusCode + (mCacheHit ? " (cache)" : "")
+                + " total=" + getTotalTimeUs() + "us connect=" + getConnectTimeUs()
+                + "us ttfb=" + getTimeToFirstByteUs() + "us read=" + getBodyReadTimeUs()
+                + "us parse=" + getParseTimeUs() + "us in=" + mBytesIn + "B out=" + mBytesOut + "B";
+    }
+
+    /** HttpContext に格納された RequestMetrics を返す。計測していない場合は null */
+    /*package*/ static RequestMetrics fromContext(HttpContext context) {
+        return context == null ? null : (RequestMetrics) context.getAttribute(CONTEXT_KEY);
+    }
+
+    /** 接続を確立し、リクエストを送信する直前に呼ばれる。 */
+    /*package*/ void onRequestSent(HttpRequest request) {
+        if (mConnectedNanos == 0) {
+            mConnectedNanos = System.nanoTime();
+        }
+        long bytes = request.getRequestLine().toString().length() + 2;
+        for (Header header : request.getAllHeaders()) {
+            bytes += header.getName().length() + header.getValue().length() + 4;
+        }
+        bytes += 2;
+        if (request instanceof HttpEntityEnclosingRequest) {
+            HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+            if (entity != null && entity.getContentLength() > 0) {
+                bytes += entity.getContentLength();
+            }
+        }
+        mBytesOut += bytes;
+    }
+
+    /** レスポンスヘッダを受信した時に呼ばれる。受信したバイト数を数えるため、エンティティを置き換える。 */
+    /*package*/ void onResponseReceived(HttpResponse response) {
+        mFirstByteNanos = System.nanoTime();
+        mStatusCode = response.getStatusLine().getStatusCode();
+        long bytes = response.getStatusLine().toString().length() + 2;
+        for (Header header : response.getAllHeaders()) {
+            bytes += header.getName().length() + header.getValue().length() + 4;
+        }
+        mBytesIn += bytes + 2;
+        HttpEntity entity = response.getEntity();
+        if (entity != null) {
+            response.setEntity(new HttpEntityWrapper(entity) {
+                @Override
+                public InputStream getContent() throws IOException {
+                    if (mBody == null) {
+                        mBody = new CountingInputStream(wrappedEntity.getContent());
+                    }
+                    return mBody;
+                }
+            });
+        }
+    }
+
+    /** キャッシュに保存された本文でレスポンスを返した時に呼ばれる。 */
+    /*package*/ void onCacheHit(int statusCode) {
+        mCacheHit = true;
+        if (mStatusCode == 0) {
+            mStatusCode = statusCode;
+        }
+    }
+
+    /** レスポンスハンドラの処理時間を計測するハンドラを返す。
+     * ハンドラが本文のストリームの読み込みに費やした時間 (展開を含む) は、本文の読み込み時間として別に数える。
+     */
+    /*package*/ <T> ResponseHandler<T> wrap(final ResponseHandler<T> handler) {
+        return new ResponseHandler<T>() {
+            @Override
+            public T handleResponse(HttpResponse response)
+                    throws ClientProtocolException, IOException {
+                long start = System.nanoTime();
+                HttpEntity entity = response.getEntity();
+                if (entity != null) {
+                    response.setEntity(new TimingEntity(entity));
+                }
+                try {
+                    return handler.handleResponse(response);
+                } finally {
+                    mHandlerNanos = System.nanoTime() - start;
+                }
+            }
+        };
+    }
+
+    /** リクエストが終了した時に呼ばれる。
+     * @param failure 失敗した場合はその例外。成功した場合は null
+     */
+    /*package*/ void finish(Throwable failure) {
+        mTotalNanos = System.nanoTime() - mStartNanos;
+        mFailure = failure;
+        if (mBody != null) {
+            mBytesIn += mBody.getCount();
+            mBody = null;
+        }
+    }
+
+    private static long toMicros(long nanos) {
+        return nanos / 1000;
+    }
+
+    /** クエリを除いた URL を返す。 */
+    /*package*/ static String endpointOf(URI uri) {
+        StringBuilder sb = new StringBuilder();
+        if (uri.getScheme() != null) {
+            sb.append(uri.getScheme()).append("://");
+        }
+        if (uri.getRawAuthority() != null) {
+            sb.append(uri.getRawAuthority());
+        }
+        if (uri.getRawPath() != null) {
+            sb.append(uri.getRawPath());
+        }
+        return sb.toString();
+    }
+
+    /** 本文の読み込み時間を計測するエンティティ */
+    private class TimingEntity extends HttpEntityWrapper {
+        private InputStream mContent;
+
+        TimingEntity(HttpEntity entity) {
+            super(entity);
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            if (mContent == null) {
+                mContent = new TimingInputStream(wrappedEntity.getContent());
+            }
+            return mContent;
+        }
+    }
+
+    private class TimingInputStream extends FilterInputStream {
+        TimingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = System.nanoTime();
+            try {
+                return super.read();
+            } finally {
+                mBodyReadNanos += System.nanoTime() - start;
+            }
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            long start = System.nanoTime();
+            try {
+                return super.read(buffer, offset, count);
+            } finally {
+                mBodyReadNanos += System.nanoTime() - start;
+            }
+        }
+    }
+}
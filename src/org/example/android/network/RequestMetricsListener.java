@@ -0,0 +1,26 @@
+package org.example.android.network;
+
+/** API リクエストの計測結果を受け取るリスナ。
+ * {@link ApiRequestUtils#setMetricsListener(RequestMetricsListener)} で設定する。
+ * リクエストを実行したスレッドから呼ばれるため、実装はスレッドセーフかつ軽量であること。
+ */
+public interface RequestMetricsListener {
+
+    /** トークンのリフレッシュが必要になった理由 */
+    enum RefreshTrigger {
+        /** リクエスト前に Access Token の有効期限切れを検出した */
+        EXPIRED_BEFORE_REQUEST,
+        /** サーバが期限切れの 401 を返した */
+        UNAUTHORIZED_RESPONSE
+    }
+
+    /** リクエストが終了した時に呼ばれる。失敗した場合も呼ばれる。
+     * @param metrics リクエストの計測結果
+     */
+    void onRequestFinished(RequestMetrics metrics);
+
+    /** Access Token のリフレッシュを行う時に呼ばれる。
+     * @param trigger リフレッシュが必要になった理由
+     */
+    void onTokenRefresh(RefreshTrigger trigger);
+}
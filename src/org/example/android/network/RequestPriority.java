@@ -0,0 +1,11 @@
+package org.example.android.network;
+
+/** {@link RateLimiter} で待たされているリクエストを送る順序を決める優先度。 */
+public enum RequestPriority {
+    /** ユーザーの操作に直接応えるリクエスト */
+    HIGH,
+    /** 通常のリクエスト */
+    NORMAL,
+    /** 先読みや同期など、遅れても構わないリクエスト */
+    LOW
+}
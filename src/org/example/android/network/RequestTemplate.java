@@ -0,0 +1,93 @@
+package org.example.android.network;
+
+import java.util.List;
+
+import org.apache.http.NameValuePair;
+import org.apache.http.client.methods.HttpGet;
+
+import android.net.Uri;
+
+/** 事前に組み立てておく GET リクエストのテンプレート。
+ * エンドポイントの URL と固定のクエリパラメータは生成時に一度だけエンコードしておき、
+ * リクエストごとに変わるパラメータの値だけを後から埋める。
+ * {@link Uri.Builder} や {@link NameValuePair} のリストをリクエストのたびに作らずに済む。
+ * <p>
+ * 生成した後は変更できないため、複数のスレッドから共有してよい。
+ *
+ * <pre>
+ * RequestTemplate template = new RequestTemplate(url, fixedParams, "startIndex", "count");
+ * ApiRequestUtils.doGetRequest(template, handler, store, RequestPriority.NORMAL, 20, 20);
+ * </pre>
+ */
+public class RequestTemplate {
+    /** 1 つの値に見込む文字数 */
+    private static final int ESTIMATED_VALUE_LENGTH = 12;
+
+    private final String mEndpointUrl;
+    /** エンドポイントと固定のパラメータをエンコードした URL */
+    private final String mPrefix;
+    /** 可変のパラメータごとの "&amp;name=" または "?name=" */
+    private final String[] mSlots;
+    private final int mEstimatedLength;
+
+    /** テンプレートを生成する。
+     * @param endpointUrl リクエスト先の URL
+     * @param fixedParams すべてのリクエストで同じ値のクエリパラメータ。なければ null
+     * @param variableNames リクエストごとに値を指定するクエリパラメータの名前
+     */
+    public RequestTemplate(String endpointUrl, List<NameValuePair> fixedParams,
+            String... variableNames) {
+        Uri.Builder uriBuilder = Uri.parse(endpointUrl).buildUpon();
+        if (fixedParams != null) {
+            for (NameValuePair nvp : fixedParams) {
+                uriBuilder.appendQueryParameter(nvp.getName(), nvp.getValue());
+            }
+        }
+        mEndpointUrl = endpointUrl;
+        mPrefix = uriBuilder.build().toString();
+        mSlots = new String[variableNames.length];
+        boolean hasQuery = mPrefix.indexOf('?') >= 0;
+        int length = mPrefix.length();
+        for (int i = 0; i < variableNames.length; i++) {
+            mSlots[i] = (hasQuery ? "&" : "?") + Uri.encode(variableNames[i]) + "=";
+            hasQuery = true;
+            length += mSlots[i].length() + ESTIMATED_VALUE_LENGTH;
+        }
+        mEstimatedLength = length;
+    }
+
+    /** テンプレートの元になったエンドポイントの URL を返す。 */
+    public String getEndpointUrl() {
+        return mEndpointUrl;
+    }
+
+    /** 可変のパラメータの値を埋めた URL を返す。
+     * @param values 可変のパラメータの値。生成時に指定した名前と同じ順に指定する。
+     *        {@link Integer} と {@link Long} はそのまま、それ以外は文字列にしてエンコードする
+     * @return URL
+     */
+    public String buildUrl(Object... values) {
+        if (values.length != mSlots.length)
+            throw new IllegalArgumentException("expected " + mSlots.length + " values but got "
+                    + values.length);
+        StringBuilder sb = new StringBuilder(mEstimatedLength);
+        sb.append(mPrefix);
+        for (int i = 0; i < values.length; i++) {
+            sb.append(mSlots[i]);
+            Object value = values[i];
+            if (value instanceof Integer) {
+                sb.append(((Integer) value).intValue());
+            } else if (value instanceof Long) {
+                sb.append(((Long) value).longValue());
+            } else if (value != null) {
+                sb.append(Uri.encode(value.toString()));
+            }
+        }
+        return sb.toString();
+    }
+
+    /** 可変のパラメータの値を埋めた GET リクエストを生成する。 */
+    /*package*/ HttpGet newGet(Object... values) {
+        return new HttpGet(buildUrl(values));
+    }
+}
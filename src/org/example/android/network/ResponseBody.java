@@ -0,0 +1,368 @@
+package org.example.android.network;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ConnectionReleaseTrigger;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.DefaultedHttpParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.util.EntityUtils;
+
+import android.util.Log;
+
+/** {@link StreamingResponseHandler} に渡されるレスポンスの本文。
+ * 本文は {@link #getStream()}, {@link #getReader()}, {@link #getJsonReader()} のいずれか 1 つで
+ * 先頭から順に読み出す。読み出しには {@link BufferPool} のバッファを使用し、本文全体のコピーは作らない。
+ * <p>
+ * 読み出したバイト数が上限を超えると {@link ResponseTooLargeException} を throw し、接続を破棄する。
+ * 接続の破棄は、レスポンスに関連付けられたリクエストを中断して行う。
+ * {@link #close()} の後は、このオブジェクトから得た Reader などを使用しないこと。
+ */
+public class ResponseBody implements Closeable {
+    private static final String TAG = "ResponseBody";
+    private static final InputStream EMPTY = new ByteArrayInputStream(new byte[0]);
+    /** レスポンスに関連付けたリクエストを保持するパラメータ名 */
+    private static final String PARAM_REQUEST = "org.example.android.network.request";
+
+    private final InputStream mContent;
+    private final HttpUriRequest mRequest;
+    private final String mCharset;
+    private final BoundedInputStream mIn;
+    private byte[] mByteBuffer;
+    private char[] mCharBuffer;
+    private Reader mReader;
+    private boolean mClosed;
+
+    /** レスポンスの本文を生成する。
+     * @param entity レスポンスのエンティティ。本文がない場合は null
+     * @param maxBytes 読み出せるバイト数の上限
+     * @param request 上限を超えた時に中断するリクエスト。分からない場合は null
+     * @throws ResponseTooLargeException Content-Length が上限を超えている場合
+     * @throws IOException
+     */
+    /*package*/ ResponseBody(HttpEntity entity, long maxBytes, HttpUriRequest request)
+            throws IOException {
+        mRequest = request;
+        if (entity == null) {
+            mContent = EMPTY;
+            mCharset = HTTP.UTF_8;
+        } else {
+            mContent = entity.getContent();
+            String charset = EntityUtils.getContentCharSet(entity);
+            mCharset = charset == null ? HTTP.UTF_8 : charset;
+        }
+        mIn = new BoundedInputStream(mContent, maxBytes);
+        if (entity != null && entity.getContentLength() > maxBytes) {
+            abort();
+            throw new ResponseTooLargeException(maxBytes);
+        }
+    }
+
+    /** 本文をバイト列として読み出すストリームを返す。 close しても接続は閉じない。 */
+    public InputStream getStream() {
+        return mIn;
+    }
+
+    /** 本文を文字として読み出す Reader を返す。文字コードは Content-Type に従い、指定がなければ UTF-8 */
+    public Reader getReader() {
+        if (mReader == null) {
+            if (mCharset.equalsIgnoreCase(HTTP.UTF_8)) {
+                mByteBuffer = BufferPool.acquireBytes();
+                mReader = new Utf8Reader(mIn, mByteBuffer);
+            } else {
+                mReader = new InputStreamReader(mIn, Charset.forName(mCharset));
+            }
+        }
+        return mReader;
+    }
+
+    /** 本文を JSON として読み出すパーサを返す。 1 つの本文につき 1 回だけ呼び出すこと。 */
+    public JsonStreamReader getJsonReader() {
+        if (mCharBuffer == null) {
+            mCharBuffer = BufferPool.acquireChars();
+        }
+        return new JsonStreamReader(getReader(), mCharBuffer);
+    }
+
+    /** エラーメッセージに含めるため、本文の先頭を最大 maxChars 文字まで読み出す。
+     * @param maxChars 読み出す最大の文字数
+     * @return 読み出した文字列
+     * @throws IOException
+     */
+    public String readSnippet(int maxChars) throws IOException {
+        Reader reader = getReader();
+        StringBuilder sb = new StringBuilder(Math.min(maxChars, 256));
+        if (mCharBuffer == null) {
+            mCharBuffer = BufferPool.acquireChars();
+        }
+        while (sb.length() < maxChars) {
+            int read = reader.read(mCharBuffer, 0,
+                    Math.min(mCharBuffer.length, maxChars - sb.length()));
+            if (read == -1) {
+                break;
+            }
+            sb.append(mCharBuffer, 0, read);
+        }
+        return sb.toString();
+    }
+
+    /** これまでに読み出したバイト数を返す。 */
+    public long getByteCount() {
+        return mIn.getCount();
+    }
+
+    /** 読み残した本文を上限まで読み捨てて接続を再利用できるようにし、バッファをプールに返す。
+     * 上限を超える場合や読み捨てに失敗した場合は、接続を破棄する。
+     */
+    @Override
+    public void close() {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        try {
+            if (mIn.isExceeded()) {
+                abort();
+            } else {
+                byte[] buffer = mByteBuffer != null ? mByteBuffer : BufferPool.acquireBytes();
+                try {
+                    while (mIn.read(buffer, 0, buffer.length) != -1) {
+                        // 読み捨てる
+                    }
+                } finally {
+                    if (buffer != mByteBuffer) {
+                        BufferPool.releaseBytes(buffer);
+                    }
+                }
+                mContent.close();
+            }
+        } catch (IOException e) {
+            Log.v(TAG, "discarding connection: " + e);
+            abort();
+        } finally {
+            if (mByteBuffer != null) {
+                BufferPool.releaseBytes(mByteBuffer);
+                mByteBuffer = null;
+            }
+            if (mCharBuffer != null) {
+                BufferPool.releaseChars(mCharBuffer);
+                mCharBuffer = null;
+            }
+        }
+    }
+
+    /** ネットワークから受け取ったレスポンスに、送信したリクエストを関連付ける。
+     * 本文が上限を超えた時は、このリクエストを中断して接続を破棄する。
+     * @param response レスポンス
+     * @param request 送信したリクエスト
+     */
+    /*package*/ static void attachRequest(HttpResponse response, HttpUriRequest request) {
+        HttpParams params = new BasicHttpParams();
+        params.setParameter(PARAM_REQUEST, request);
+        response.setParams(new DefaultedHttpParams(params, response.getParams()));
+    }
+
+    /** レスポンスに関連付けられたリクエストを返す。関連付けられていない場合は null */
+    /*package*/ static HttpUriRequest getRequest(HttpResponse response) {
+        return (HttpUriRequest) response.getParams().getParameter(PARAM_REQUEST);
+    }
+
+    /** 本文を読み出さずに接続を破棄する。
+     * 本文のストリームを閉じると、展開やキャッシュへの書き込みのために残りを読み切ることがあるため、
+     * リクエストが分かっている場合はストリームを閉じずにリクエストを中断する。
+     */
+    private void abort() {
+        if (mRequest != null) {
+            try {
+                mRequest.abort();
+                return;
+            } catch (UnsupportedOperationException e) {
+                // 中断できないリクエストは、ストリームを閉じて破棄する
+            }
+        }
+        try {
+            if (mContent instanceof ConnectionReleaseTrigger) {
+                ((ConnectionReleaseTrigger) mContent).abortConnection();
+            } else {
+                mContent.close();
+            }
+        } catch (IOException e) {
+            Log.v(TAG, "failed to abort connection: " + e);
+        }
+    }
+
+    /** 上限を超えて読み出すと例外を throw するストリーム。 close しても元のストリームは閉じない。 */
+    private static class BoundedInputStream extends CountingInputStream {
+        private final long mMaxBytes;
+
+        BoundedInputStream(InputStream in, long maxBytes) {
+            super(in);
+            mMaxBytes = maxBytes;
+        }
+
+        boolean isExceeded() {
+            return getCount() > mMaxBytes;
+        }
+
+        @Override
+        public int read() throws IOException {
+            checkLimit();
+            int b = super.read();
+            checkLimit();
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            checkLimit();
+            // 上限の 1 バイト先まで読めば、超えたかどうかが分かる
+            long remaining = mMaxBytes - getCount() + 1;
+            int read = super.read(buffer, offset, (int) Math.min(count, remaining));
+            checkLimit();
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            checkLimit();
+            long skipped = super.skip(Math.min(n, mMaxBytes - getCount() + 1));
+            checkLimit();
+            return skipped;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        private void checkLimit() throws ResponseTooLargeException {
+            if (isExceeded()) {
+                throw new ResponseTooLargeException(mMaxBytes);
+            }
+        }
+    }
+
+    /** バイト列のバッファを使って UTF-8 を直接デコードする Reader。
+     * InputStreamReader のように、生成するたびに内部のバッファを確保しない。
+     * 不正なバイト列は U+FFFD に置き換える。 close しても元のストリームは閉じない。
+     */
+    private static class Utf8Reader extends Reader {
+        private static final char REPLACEMENT = '\uFFFD';
+
+        private final InputStream mIn;
+        private final byte[] mBuffer;
+        private int mPos;
+        private int mLimit;
+        private boolean mEof;
+        /** 前回の呼び出しで返しきれなかったサロゲートペアの下位。なければ 0 */
+        private char mPendingLow;
+
+        Utf8Reader(InputStream in, byte[] buffer) {
+            mIn = in;
+            mBuffer = buffer;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            int n = 0;
+            if (mPendingLow != 0) {
+                cbuf[off + n++] = mPendingLow;
+                mPendingLow = 0;
+            }
+            while (n < len) {
+                if (mPos >= mLimit && (n > 0 || !fill(1))) {
+                    // 読めた分だけを返すか、終端
+                    break;
+                }
+                int b = mBuffer[mPos] & 0xff;
+                if (b < 0x80) {
+                    cbuf[off + n++] = (char) b;
+                    mPos++;
+                    continue;
+                }
+                if (b < 0xc2 || b > 0xf4) {
+                    cbuf[off + n++] = REPLACEMENT;
+                    mPos++;
+                    continue;
+                }
+                int extra = b >= 0xf0 ? 3 : b >= 0xe0 ? 2 : 1;
+                if (mLimit - mPos <= extra) {
+                    if (n > 0) {
+                        break;
+                    }
+                    if (!fill(extra + 1)) {
+                        // 途中で終端に達した
+                        cbuf[off + n++] = REPLACEMENT;
+                        mPos = mLimit;
+                        continue;
+                    }
+                }
+                int codePoint = b & (0x3f >> extra);
+                boolean valid = true;
+                for (int i = 1; i <= extra; i++) {
+                    int c = mBuffer[mPos + i] & 0xff;
+                    if ((c & 0xc0) != 0x80) {
+                        valid = false;
+                        break;
+                    }
+                    codePoint = (codePoint << 6) | (c & 0x3f);
+                }
+                if (!valid) {
+                    cbuf[off + n++] = REPLACEMENT;
+                    mPos++;
+                    continue;
+                }
+                mPos += extra + 1;
+                if (codePoint < 0x10000) {
+                    cbuf[off + n++] = (char) codePoint;
+                } else {
+                    codePoint -= 0x10000;
+                    cbuf[off + n++] = (char) (0xd800 + (codePoint >> 10));
+                    char low = (char) (0xdc00 + (codePoint & 0x3ff));
+                    if (n < len) {
+                        cbuf[off + n++] = low;
+                    } else {
+                        mPendingLow = low;
+                    }
+                }
+            }
+            return n == 0 ? -1 : n;
+        }
+
+        /** 未処理のバイトが minBytes 以上になるまで読み込む。
+         * @return 終端に達して minBytes に満たない場合は false
+         */
+        private boolean fill(int minBytes) throws IOException {
+            if (mPos > 0) {
+                System.arraycopy(mBuffer, mPos, mBuffer, 0, mLimit - mPos);
+                mLimit -= mPos;
+                mPos = 0;
+            }
+            while (mLimit < minBytes && !mEof) {
+                int read = mIn.read(mBuffer, mLimit, mBuffer.length - mLimit);
+                if (read == -1) {
+                    mEof = true;
+                } else {
+                    mLimit += read;
+                }
+            }
+            return mLimit >= minBytes;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
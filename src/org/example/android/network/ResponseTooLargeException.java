@@ -0,0 +1,19 @@
+package org.example.android.network;
+
+import java.io.IOException;
+
+/** レスポンスの本文が上限のサイズを超えたため、読み込みを中止したことを示す例外 */
+public class ResponseTooLargeException extends IOException {
+    private static final long serialVersionUID = -4627150883152019862L;
+    private final long mMaxBytes;
+
+    public ResponseTooLargeException(long maxBytes) {
+        super("response body exceeds " + maxBytes + " bytes");
+        mMaxBytes = maxBytes;
+    }
+
+    /** 本文のサイズの上限を返す。 */
+    public long getMaxBytes() {
+        return mMaxBytes;
+    }
+}
@@ -0,0 +1,85 @@
+package org.example.android.network;
+
+import java.util.Random;
+
+/** 一時的な失敗に対する、冪等なリクエストの再試行の方針。
+ * 待ち時間は再試行のたびに倍になり (上限あり)、その後半をランダムにずらす。
+ * 再試行の予算は、リクエスト 1 件ごとに budgetRatio だけ増え、再試行 1 回ごとに 1 減る。
+ * 予算が足りない場合は再試行しないため、障害時にも再試行がリクエストの一定の割合を超えない。
+ */
+public class RetryPolicy {
+    private static final int DEFAULT_MAX_RETRIES = 3;
+    private static final long DEFAULT_INITIAL_BACKOFF_MS = 500;
+    private static final long DEFAULT_MAX_BACKOFF_MS = 8 * 1000;
+    private static final long DEFAULT_MAX_RETRY_AFTER_MS = 30 * 1000;
+    private static final float DEFAULT_BUDGET_RATIO = 0.2f;
+    private static final float DEFAULT_MAX_BUDGET = 10;
+
+    private final int mMaxRetries;
+    private final long mInitialBackoffMs;
+    private final long mMaxBackoffMs;
+    private final long mMaxRetryAfterMs;
+    private final float mBudgetRatio;
+    private final float mMaxBudget;
+    private final Random mRandom = new Random();
+    private float mBudget;
+
+    /** デフォルトの設定で RetryPolicy を生成する。
+     * 最大 3 回、 0.5 秒から 8 秒まで待って再試行し、再試行はリクエストの 2 割までに制限する。
+     */
+    public RetryPolicy() {
+        this(DEFAULT_MAX_RETRIES, DEFAULT_INITIAL_BACKOFF_MS, DEFAULT_MAX_BACKOFF_MS,
+                DEFAULT_MAX_RETRY_AFTER_MS, DEFAULT_BUDGET_RATIO, DEFAULT_MAX_BUDGET);
+    }
+
+    /** RetryPolicy を生成する。
+     * @param maxRetries 1 件のリクエストあたりの最大再試行回数
+     * @param initialBackoffMs 最初の再試行までの待ち時間
+     * @param maxBackoffMs 待ち時間の上限
+     * @param maxRetryAfterMs Retry-After で指定された待ち時間がこれを超える場合は再試行しない
+     * @param budgetRatio リクエスト 1 件ごとに増える再試行の予算
+     * @param maxBudget 再試行の予算の上限。最初はこの値から始まる
+     */
+    public RetryPolicy(int maxRetries, long initialBackoffMs, long maxBackoffMs,
+            long maxRetryAfterMs, float budgetRatio, float maxBudget) {
+        if (maxRetries < 0 || initialBackoffMs < 0 || maxBackoffMs < initialBackoffMs
+                || maxRetryAfterMs < 0 || budgetRatio < 0 || maxBudget < 0)
+            throw new IllegalArgumentException("invalid retry policy");
+        mMaxRetries = maxRetries;
+        mInitialBackoffMs = initialBackoffMs;
+        mMaxBackoffMs = maxBackoffMs;
+        mMaxRetryAfterMs = maxRetryAfterMs;
+        mBudgetRatio = budgetRatio;
+        mMaxBudget = maxBudget;
+        mBudget = maxBudget;
+    }
+
+    public int getMaxRetries() {
+        return mMaxRetries;
+    }
+
+    /** リクエストを開始する時に呼ばれ、再試行の予算を積み立てる。 */
+    /*package*/ synchronized void onRequest() {
+        mBudget = Math.min(mMaxBudget, mBudget + mBudgetRatio);
+    }
+
+    /** 再試行するかどうかを判断し、再試行する場合は予算を消費して待ち時間を返す。
+     * @param retryCount これまでに再試行した回数
+     * @param retryAfterMs サーバから Retry-After で指定された待ち時間。指定がない場合は -1
+     * @return 再試行までの待ち時間。再試行しない場合は -1
+     */
+    /*package*/ long acquireRetry(int retryCount, long retryAfterMs) {
+        if (retryCount >= mMaxRetries || retryAfterMs > mMaxRetryAfterMs) {
+            return -1;
+        }
+        synchronized (this) {
+            if (mBudget < 1) {
+                return -1;
+            }
+            mBudget -= 1;
+        }
+        long backoff = Math.min(mMaxBackoffMs, mInitialBackoffMs << Math.min(retryCount, 30));
+        long delay = backoff / 2 + (long) (mRandom.nextFloat() * backoff / 2);
+        return Math.max(delay, retryAfterMs);
+    }
+}
@@ -0,0 +1,27 @@
+package org.example.android.network;
+
+import java.io.IOException;
+
+/** 一時的なエラーのレスポンスを受け取り、再試行することを示す例外。
+ * {@link ApiRequestUtils} の内部でのみ使用する。
+ */
+class RetryableResponseException extends IOException {
+    private static final long serialVersionUID = -6902137722934916372L;
+    private final int mStatusCode;
+    private final long mDelayMs;
+
+    RetryableResponseException(int statusCode, long delayMs) {
+        super("retryable response: " + statusCode);
+        mStatusCode = statusCode;
+        mDelayMs = delayMs;
+    }
+
+    int getStatusCode() {
+        return mStatusCode;
+    }
+
+    /** 再試行までの待ち時間 */
+    long getDelayMs() {
+        return mDelayMs;
+    }
+}
@@ -0,0 +1,170 @@
+package org.example.android.network;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpVersion;
+import org.apache.http.client.HttpClient;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+import org.apache.http.protocol.HTTP;
+
+import android.content.Context;
+import android.net.SSLCertificateSocketFactory;
+import android.net.SSLSessionCache;
+import android.util.Log;
+
+/** プロセス全体で共有する HttpClient を保持するクラス。
+ * 接続はコネクションプールで keep-alive され、リクエストごとの TCP 接続や
+ * TLS ハンドシェイクを省略できる。一定時間使われなかった接続は自動的に破棄する。
+ * レスポンスは gzip / deflate で圧縮して受け取り、読み出し時に展開する。
+ */
+public final class SharedHttpClient {
+    private static final String TAG = "SharedHttpClient";
+
+    /** プール全体で保持する最大接続数 */
+    private static final int MAX_TOTAL_CONNECTIONS = 8;
+    /** 1 つのホスト (route) あたりの最大接続数 */
+    private static final int MAX_CONNECTIONS_PER_ROUTE = 4;
+    /** プールから接続を取得するまでの待ち時間 */
+    private static final long CONNECTION_POOL_TIMEOUT_MS = 10 * 1000;
+    private static final int CONNECTION_TIMEOUT_MS = 20 * 1000;
+    private static final int SOCKET_TIMEOUT_MS = 30 * 1000;
+    private static final int SOCKET_BUFFER_SIZE = 8192;
+    /** この時間以上使われていない接続はプールから破棄する */
+    private static final long IDLE_CONNECTION_TIMEOUT_MS = 30 * 1000;
+    /** アイドル接続を確認する間隔 */
+    private static final long IDLE_CHECK_INTERVAL_MS = 15 * 1000;
+
+    private static DefaultHttpClient sClient;
+    private static IdleConnectionMonitor sMonitor;
+    private static SSLSessionCache sSessionCache;
+
+    private SharedHttpClient() {
+    }
+
+    /** TLS セッションを永続化するためのキャッシュを設定する。
+     * 以降に生成される HttpClient では、プロセスの再起動をまたいで TLS セッションが再利用される。
+     * 呼び出さなかった場合も、プロセス内ではセッションは再利用される。
+     * @param context Context
+     */
+    public static synchronized void init(Context context) {
+        if (sSessionCache == null) {
+            sSessionCache = new SSLSessionCache(context.getApplicationContext());
+        }
+    }
+
+    /** 共有の HttpClient を返す。まだ生成されていない場合は生成する。
+     * @return 共有の {@link HttpClient}
+     */
+    public static synchronized HttpClient getInstance() {
+        if (sClient == null) {
+            sClient = createClient();
+            sMonitor = new IdleConnectionMonitor(sClient.getConnectionManager());
+            sMonitor.start();
+        }
+        return sClient;
+    }
+
+    /** 共有の HttpClient を破棄し、プール内の接続をすべて閉じる。
+     * 破棄後に {@link #getInstance()} を呼び出した場合は、新しいインスタンスが生成される。
+     */
+    public static synchronized void shutdown() {
+        if (sMonitor != null) {
+            sMonitor.shutdown();
+            sMonitor = null;
+        }
+        if (sClient != null) {
+            Log.v(TAG, "shutting down the connection pool");
+            sClient.getConnectionManager().shutdown();
+            sClient = null;
+        }
+    }
+
+    private static DefaultHttpClient createClient() {
+        HttpParams params = new BasicHttpParams();
+        HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
+        HttpProtocolParams.setContentCharset(params, HTTP.UTF_8);
+        HttpProtocolParams.setUserAgent(params, ApiRequestUtils.USER_AGENT);
+
+        HttpConnectionParams.setConnectionTimeout(params, CONNECTION_TIMEOUT_MS);
+        HttpConnectionParams.setSoTimeout(params, SOCKET_TIMEOUT_MS);
+        HttpConnectionParams.setSocketBufferSize(params, SOCKET_BUFFER_SIZE);
+        // 接続を再利用するたびに 1 ms 待って切断を確かめる処理を行わない。
+        // サーバが閉じていた接続に送った場合は NoHttpResponseException となり、 HttpClient が再送する。
+        HttpConnectionParams.setStaleCheckingEnabled(params, false);
+
+        ConnManagerParams.setMaxTotalConnections(params, MAX_TOTAL_CONNECTIONS);
+        ConnManagerParams.setMaxConnectionsPerRoute(params,
+                new ConnPerRouteBean(MAX_CONNECTIONS_PER_ROUTE));
+        ConnManagerParams.setTimeout(params, CONNECTION_POOL_TIMEOUT_MS);
+
+        SchemeRegistry registry = new SchemeRegistry();
+        registry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+        registry.register(new Scheme("https", createSSLSocketFactory(), 443));
+
+        ClientConnectionManager manager = new ThreadSafeClientConnManager(params, registry);
+        DefaultHttpClient client = new DefaultHttpClient(manager, params);
+        // gzip / deflate で圧縮されたレスポンスを受け取る
+        ContentEncodingInterceptor contentEncoding = new ContentEncodingInterceptor();
+        // 受信したバイト数を展開前に数えるため、計測はレスポンスの展開より先に行う
+        MetricsInterceptor metrics = new MetricsInterceptor();
+        client.addRequestInterceptor(contentEncoding);
+        client.addRequestInterceptor(metrics);
+        client.addResponseInterceptor(metrics);
+        client.addResponseInterceptor(contentEncoding);
+        return client;
+    }
+
+    private static SSLSocketFactory createSSLSocketFactory() {
+        if (sSessionCache == null) {
+            return SSLSocketFactory.getSocketFactory();
+        }
+        return SSLCertificateSocketFactory.getHttpSocketFactory(SOCKET_TIMEOUT_MS, sSessionCache);
+    }
+
+    /** 期限切れの接続と、一定時間使われていない接続を定期的に閉じるスレッド。 */
+    private static class IdleConnectionMonitor extends Thread {
+        private final ClientConnectionManager mManager;
+        private volatile boolean mShutdown;
+
+        IdleConnectionMonitor(ClientConnectionManager manager) {
+            super(TAG + "-IdleConnectionMonitor");
+            setDaemon(true);
+            mManager = manager;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!mShutdown) {
+                    synchronized (this) {
+                        wait(IDLE_CHECK_INTERVAL_MS);
+                    }
+                    mManager.closeExpiredConnections();
+                    mManager.closeIdleConnections(IDLE_CONNECTION_TIMEOUT_MS,
+                            TimeUnit.MILLISECONDS);
+                }
+            } catch (InterruptedException e) {
+                // 終了
+            }
+        }
+
+        void shutdown() {
+            mShutdown = true;
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package org.example.android.network;
+
+import java.io.IOException;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.ResponseHandler;
+
+/** レスポンスの本文をストリームとして処理する {@link ResponseHandler}。
+ * 本文は {@link ResponseBody} としてサブクラスに渡される。
+ * 本文を文字列にまとめて読み込むことはせず、読み込みには使い回しのバッファを使用する。
+ * 本文が上限のサイズを超えた場合は {@link ResponseTooLargeException} を throw する。
+ * 処理が終わると、読み残した本文は上限まで読み捨てられ、バッファはプールに返される。
+ *
+ * @param <T> 期待するレスポンスの型
+ */
+public abstract class StreamingResponseHandler<T> implements ResponseHandler<T> {
+    /** 本文のサイズの上限のデフォルト値 */
+    public static final long DEFAULT_MAX_BODY_BYTES = 1024 * 1024;
+    /** エラーメッセージに含める本文の最大の文字数 */
+    private static final int ERROR_SNIPPET_CHARS = 512;
+
+    private static volatile long sDefaultMaxBodyBytes = DEFAULT_MAX_BODY_BYTES;
+
+    /** 本文のサイズの上限。 0 以下の場合はデフォルトの上限を使用する */
+    private final long mMaxBodyBytes;
+
+    /** デフォルトの上限を使用するハンドラを生成する。 */
+    protected StreamingResponseHandler() {
+        this(0);
+    }
+
+    /** 本文のサイズの上限を指定してハンドラを生成する。
+     * @param maxBodyBytes 本文のサイズの上限。 0 以下の場合はデフォルトの上限を使用する
+     */
+    protected StreamingResponseHandler(long maxBodyBytes) {
+        mMaxBodyBytes = maxBodyBytes;
+    }
+
+    /** 上限を指定していないハンドラで使用する、本文のサイズの上限を設定する。
+     * @param maxBodyBytes 本文のサイズの上限
+     */
+    public static void setDefaultMaxBodyBytes(long maxBodyBytes) {
+        if (maxBodyBytes <= 0)
+            throw new IllegalArgumentException("maxBodyBytes must be positive");
+        sDefaultMaxBodyBytes = maxBodyBytes;
+    }
+
+    @Override
+    public final T handleResponse(HttpResponse response)
+            throws ClientProtocolException, IOException {
+        if (response == null)
+            throw new NullPointerException("response is null");
+        long maxBytes = mMaxBodyBytes > 0 ? mMaxBodyBytes : sDefaultMaxBodyBytes;
+        ResponseBody body = new ResponseBody(response.getEntity(), maxBytes,
+                ResponseBody.getRequest(response));
+        try {
+            return handleResponse(response, body);
+        } finally {
+            body.close();
+        }
+    }
+
+    /** レスポンスを処理する。
+     * @param response レスポンス。本文は body から読み出すこと
+     * @param body レスポンスの本文
+     * @return 処理したレスポンス
+     * @throws ClientProtocolException
+     * @throws IOException
+     */
+    protected abstract T handleResponse(HttpResponse response, ResponseBody body)
+            throws ClientProtocolException, IOException;
+
+    /** 想定していないステータスコードのレスポンスを表す例外を生成する。
+     * メッセージには本文の先頭だけを含める。
+     * @param response レスポンス
+     * @param body レスポンスの本文
+     * @return throw する例外
+     * @throws IOException
+     */
+    protected static HttpResponseException unexpectedResponse(HttpResponse response,
+            ResponseBody body) throws IOException {
+        return new HttpResponseException(response.getStatusLine().getStatusCode(),
+                "unexpected response: " + response.getStatusLine().toString() + ": "
+                + body.readSnippet(ERROR_SNIPPET_CHARS));
+    }
+}
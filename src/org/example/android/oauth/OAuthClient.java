@@ -8,14 +8,12 @@ import org.apache.http.HeaderElement;
 import org.apache.http.HttpResponse;
 import org.apache.http.NameValuePair;
 import org.apache.http.client.ClientProtocolException;
-import org.apache.http.client.HttpResponseException;
-import org.apache.http.client.ResponseHandler;
 import org.apache.http.message.BasicNameValuePair;
-import org.apache.http.protocol.HTTP;
-import org.apache.http.util.EntityUtils;
 import org.example.android.network.ApiRequestUtils;
-import org.json.JSONException;
-import org.json.JSONObject;
+import org.example.android.network.JsonStreamReader;
+import org.example.android.network.MalformedJsonException;
+import org.example.android.network.ResponseBody;
+import org.example.android.network.StreamingResponseHandler;
 
 import android.content.Context;
 import android.content.Intent;
@@ -118,15 +116,13 @@ public class OAuthClient {
     
     /** エンドポイントからのレスポンスをパースし、 OAuthToken として返す
      */
-    private static class TokenReponseHandler
-            implements ResponseHandler<OAuthToken> {
+    /*package*/ static class TokenReponseHandler
+            extends StreamingResponseHandler<OAuthToken> {
         private static final String TAG = "TokenResponseHandler";
 
         @Override
-        public OAuthToken handleResponse(HttpResponse response)
+        protected OAuthToken handleResponse(HttpResponse response, ResponseBody body)
                 throws ClientProtocolException, IOException {
-            if (response == null)
-                throw new NullPointerException("response is null");
             int statusCode = response.getStatusLine().getStatusCode();
             switch (statusCode) {
             	case 401:
@@ -134,25 +130,47 @@ public class OAuthClient {
             		throw new TokenInvalidException(getOAuthError(response));
                 case 200:
                     Log.v(TAG, "got response successfully");
-                    return parseTokenFromResponse(EntityUtils.toString(response.getEntity(),
-                            HTTP.UTF_8));
+                    return parseTokenFromResponse(body);
             }
-            throw new HttpResponseException(statusCode, "unexpected response: "
-                    + response.getStatusLine().toString() + ": "
-                    + EntityUtils.toString(response.getEntity()));
+            throw unexpectedResponse(response, body);
         }
 
-        private OAuthToken parseTokenFromResponse(String string) {
+        /** レスポンスの JSON をストリームから読みながらパースして {@link OAuthToken} を返す。
+         * @param body JSON を含むレスポンスの本文
+         * @return {@link OAuthToken}。必要なフィールドが揃っていない場合は null
+         * @throws IOException
+         */
+        private OAuthToken parseTokenFromResponse(ResponseBody body) throws IOException {
+            JsonStreamReader reader = body.getJsonReader();
             try {
-                JSONObject json = new JSONObject(string);
-                OAuthToken token = new OAuthToken();
-                token.accessToken = json.getString("access_token");
-                token.refreshToken = json.getString("refresh_token");
-                token.expiresOn = System.currentTimeMillis() + json.getLong("expires_in") * 1000;
-                return token;
-            } catch (JSONException e) {
+                String accessToken = null;
+                String refreshToken = null;
+                long expiresIn = -1;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    if (name.equals("access_token")) {
+                        accessToken = reader.nextString();
+                    } else if (name.equals("refresh_token")) {
+                        refreshToken = reader.nextString();
+                    } else if (name.equals("expires_in")) {
+                        expiresIn = reader.nextLong();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                if (accessToken == null || refreshToken == null || expiresIn < 0) {
+                    Log.w(TAG, "token response is missing required fields");
+                    return null;
+                }
+                return new OAuthToken(accessToken, refreshToken,
+                        System.currentTimeMillis() + expiresIn * 1000);
+            } catch (MalformedJsonException e) {
                 Log.w(TAG, "something went wrong while parsing json", e);
                 return null;
+            } finally {
+                reader.close();
             }
         }
     }
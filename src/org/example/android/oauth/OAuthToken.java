@@ -3,8 +3,57 @@
  */
 package org.example.android.oauth;
 
-public class OAuthToken {
-    public String accessToken;
-    public String refreshToken;
-    public long expiresOn;
-}
\ No newline at end of file
+import org.apache.http.Header;
+import org.apache.http.message.BasicHeader;
+
+/** Access Token と Refresh Token の組。生成した後は変更できないため、スレッド間で自由に共有してよい。
+ * トークンを更新する場合は、新しい OAuthToken を生成して {@link OAuthTokenStore} に保存する。
+ */
+public final class OAuthToken {
+    /** ログインしていない状態を表すトークン */
+    public static final OAuthToken EMPTY = new OAuthToken(null, null, 0);
+
+    public final String accessToken;
+    public final String refreshToken;
+    public final long expiresOn;
+    /** {@link OAuthTokenStore} に保存された順に増える番号。保存前のトークンは 0 */
+    public final long version;
+    /** Access Token から生成した Authorization ヘッダ。最初に使用する時に生成する */
+    private Header mAuthorizationHeader;
+
+    /** トークンを生成する。
+     * @param accessToken Access Token
+     * @param refreshToken Refresh Token
+     * @param expiresOn Access Token の有効期限 (エポックからのミリ秒)
+     */
+    public OAuthToken(String accessToken, String refreshToken, long expiresOn) {
+        this(accessToken, refreshToken, expiresOn, 0);
+    }
+
+    private OAuthToken(String accessToken, String refreshToken, long expiresOn, long version) {
+        this.accessToken = accessToken;
+        this.refreshToken = refreshToken;
+        this.expiresOn = expiresOn;
+        this.version = version;
+    }
+
+    /** Access Token を送信する Authorization ヘッダを返す。
+     * 同じトークンに対しては、最初に生成したヘッダを使い回す。
+     */
+    public Header getAuthorizationHeader() {
+        // BasicHeader は変更できないため、複数のスレッドが同時に生成しても同じ内容になる
+        Header header = mAuthorizationHeader;
+        if (header == null) {
+            header = new BasicHeader("Authorization", "OAuth " + accessToken);
+            mAuthorizationHeader = header;
+        }
+        return header;
+    }
+
+    /** 内容が同じで、番号だけが異なるトークンを返す。 */
+    /*package*/ OAuthToken withVersion(long version) {
+        OAuthToken token = new OAuthToken(accessToken, refreshToken, expiresOn, version);
+        token.mAuthorizationHeader = mAuthorizationHeader;
+        return token;
+    }
+}
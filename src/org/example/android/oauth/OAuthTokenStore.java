@@ -1,74 +1,256 @@
 package org.example.android.oauth;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
+
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.net.Uri;
 import android.preference.PreferenceManager;
+import android.util.Log;
 
 /**
- * Do not call methods in this class from UI thread. Every get/set methods using
- * SharedPreferences to read/save the tokens and sometimes they stuck for a
- * while unexpectedly that causes ANR.
+ * Holds the token of one account in memory and shares one instance per
+ * account across the process. Each account is locked independently, so a
+ * slow read or refresh for one account never blocks another.
+ * The token is an immutable {@link OAuthToken} snapshot published through an
+ * {@link AtomicReference}: once loaded, reading it never locks, and every
+ * change replaces the whole snapshot with compare-and-set and a new version.
+ * A refresh should store its result with
+ * {@link #compareAndSetToken(OAuthToken, OAuthToken)} so that it cannot
+ * overwrite a newer token stored in the meantime.
+ * The default account uses the fixed keys in the default SharedPreferences;
+ * every other account has its own preferences file, so an account's token is
+ * not read from disk until the account is first used.
+ * SharedPreferences is read only once, on the first access to the token, and
+ * every change is written back asynchronously on a shared pool of daemon
+ * threads. Each account writes in order on at most one of those threads, so a
+ * slow commit for one account does not delay another. Writes requested while
+ * a previous write is still pending are coalesced into one.
+ * The first access still reads from disk, so prefer doing it off the UI thread.
+ * Call {@link #flush()} when the token must be on disk before continuing.
  */
 public class OAuthTokenStore {
+    private static final String TAG = "OAuthTokenStore";
+    /** The account of the store returned by {@link #getInstance(Context)}. */
+    public static final String DEFAULT_ACCOUNT = "@me";
+    private static final String PREFERENCES_PREFIX = "oauth_token_";
+
+    private static final ConcurrentHashMap<String, OAuthTokenStore> sInstances =
+        new ConcurrentHashMap<String, OAuthTokenStore>();
+    /** Shared by every account; idle threads exit, so idle accounts hold no thread. */
+    private static ExecutorService sWriters;
+
     private final Context mApplicationContext;
-    private OAuthToken mToken;
-    public OAuthTokenStore(Context context) {
+    private final String mAccount;
+    /** null until the token is read from SharedPreferences */
+    private final AtomicReference<OAuthToken> mToken = new AtomicReference<OAuthToken>();
+    private boolean mWritePending;
+    private boolean mClearPending;
+    /** true while a write task of this store is queued or running */
+    private boolean mWriting;
+    /** counts requested writes; {@link #flush()} waits until mWritten catches up */
+    private long mRequested;
+    private long mWritten;
+
+    private final Runnable mWriteTask = new Runnable() {
+        @Override
+        public void run() {
+            writeToSharedPreferences();
+        }
+    };
+
+    /** Returns the store of {@link #DEFAULT_ACCOUNT}. */
+    public static OAuthTokenStore getInstance(Context context) {
+        return getInstance(context, DEFAULT_ACCOUNT);
+    }
+    /**
+     * Returns the store of the given account, creating it on first use.
+     * Creating a store does not touch the disk.
+     */
+    public static OAuthTokenStore getInstance(Context context, String account) {
+        if (account == null)
+            throw new NullPointerException("account must not be null");
+        OAuthTokenStore store = sInstances.get(account);
+        if (store == null) {
+            OAuthTokenStore created = new OAuthTokenStore(context, account);
+            store = sInstances.putIfAbsent(account, created);
+            if (store == null) {
+                store = created;
+            }
+        }
+        return store;
+    }
+    private OAuthTokenStore(Context context, String account) {
         mApplicationContext = context.getApplicationContext();
-        mToken = readTokenFromSharedPreferences();
+        mAccount = account;
+    }
+    private static synchronized ExecutorService getWriters() {
+        if (sWriters == null) {
+            sWriters = Executors.newCachedThreadPool(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, TAG);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sWriters;
+    }
+    /** Returns the account this store holds the token of. */
+    public String getAccount() {
+        return mAccount;
     }
+    /** Returns the current snapshot. Never null; {@link OAuthToken#accessToken} is null when logged out. */
     public OAuthToken getToken() {
-        return mToken;
+        OAuthToken token = mToken.get();
+        return token != null ? token : load();
     }
     public boolean hasToken() {
-        return mToken.accessToken != null;
+        return getToken().accessToken != null;
     }
     public boolean isTokenExpired() {
-        return mToken.expiresOn < System.currentTimeMillis();
+        return getToken().expiresOn < System.currentTimeMillis();
     }
     public void setToken(OAuthToken token) {
         if (token == null)
             throw new NullPointerException("token must not be null");
-        mToken = token;
-        saveToken();
+        publish(token, false);
     }
     public void setToken(String accessToken, String refreshToken, long expiresIn) {
         if (accessToken == null || refreshToken == null)
             throw new NullPointerException("token must not be null");
-        mToken.accessToken = accessToken;
-        mToken.refreshToken = refreshToken;
-        mToken.expiresOn = System.currentTimeMillis() + expiresIn * 1000;
-        saveToken();
+        publish(new OAuthToken(accessToken, refreshToken,
+                System.currentTimeMillis() + expiresIn * 1000), false);
     }
     public void updateAccessToken(String accessToken) {
         if (accessToken == null)
             throw new NullPointerException("access token must not be null");
-        mToken.accessToken = accessToken;
-        saveToken();
+        OAuthToken current;
+        OAuthToken next;
+        do {
+            current = getToken();
+            next = new OAuthToken(accessToken, current.refreshToken, current.expiresOn)
+                    .withVersion(current.version + 1);
+        } while (!mToken.compareAndSet(current, next));
+        saveToken(false);
+    }
+    /**
+     * Stores the token only if the current snapshot is still {@code expected}.
+     * @return false if another token has been stored since {@code expected} was read
+     */
+    public boolean compareAndSetToken(OAuthToken expected, OAuthToken token) {
+        if (token == null)
+            throw new NullPointerException("token must not be null");
+        if (getToken() != expected
+                || !mToken.compareAndSet(expected, token.withVersion(expected.version + 1))) {
+            return false;
+        }
+        saveToken(false);
+        return true;
+    }
+    public void clearToken() {
+        publish(OAuthToken.EMPTY, true);
+    }
+    /**
+     * Blocks until every change made so far to this account has been written
+     * to SharedPreferences. Do not call this from the UI thread.
+     */
+    public synchronized void flush() {
+        // later writes are not waited for, so callers never starve under constant updates
+        long requested = mRequested;
+        try {
+            while (mWritten < requested) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    /** Replaces the snapshot unconditionally. */
+    private void publish(OAuthToken token, boolean clear) {
+        OAuthToken current;
+        do {
+            current = mToken.get();
+        } while (!mToken.compareAndSet(current,
+                token.withVersion(current == null ? 1 : current.version + 1)));
+        saveToken(clear);
+    }
+    /** Reads the token on the first access. Only this first access locks. */
+    private synchronized OAuthToken load() {
+        if (mToken.get() == null) {
+            // a token stored meanwhile by publish() wins over the one on disk
+            mToken.compareAndSet(null, readTokenFromSharedPreferences());
+        }
+        return mToken.get();
     }
     private OAuthToken readTokenFromSharedPreferences() {
         SharedPreferences pref = getPreferences();
-        OAuthToken token = new OAuthToken();
-        token.accessToken = pref.getString("accessToken", null);
-        token.refreshToken = pref.getString("refreshToken", null);
-        token.expiresOn = pref.getLong("expiredOn", 0);
-        return token;
+        return new OAuthToken(pref.getString("accessToken", null),
+                pref.getString("refreshToken", null),
+                pref.getLong("expiredOn", 0)).withVersion(1);
     }
-    private void saveToken() {
-        SharedPreferences pref = getPreferences();
-        SharedPreferences.Editor editor = pref.edit();
-        editor.putString("accessToken", mToken.accessToken);
-        editor.putString("refreshToken", mToken.refreshToken);
-        editor.putLong("expiredOn", mToken.expiresOn);
-        editor.commit();
+    /** Marks a write pending and starts this account's writer unless it is already running. */
+    private synchronized void saveToken(boolean clear) {
+        if (clear) {
+            mClearPending = true;
+        }
+        mWritePending = true;
+        mRequested++;
+        if (!mWriting) {
+            mWriting = true;
+            getWriters().execute(mWriteTask);
+        }
     }
-    public void clearToken() {
-        SharedPreferences pref = getPreferences();
-        SharedPreferences.Editor editor = pref.edit();
-        editor.clear();
+    /** Writes until no change is pending, so one account never writes on two threads. */
+    private void writeToSharedPreferences() {
+        while (true) {
+            boolean clear;
+            long requested;
+            synchronized (this) {
+                if (!mWritePending) {
+                    mWriting = false;
+                    return;
+                }
+                mWritePending = false;
+                clear = mClearPending;
+                mClearPending = false;
+                requested = mRequested;
+            }
+            try {
+                write(clear);
+            } catch (RuntimeException e) {
+                Log.w(TAG, "failed to save token", e);
+            }
+            synchronized (this) {
+                mWritten = requested;
+                notifyAll();
+            }
+        }
+    }
+    private void write(boolean clear) {
+        // the latest snapshot, so coalesced writes store the newest token
+        OAuthToken token = mToken.get();
+        SharedPreferences.Editor editor = getPreferences().edit();
+        if (clear) {
+            editor.clear();
+        }
+        if (token.accessToken != null) {
+            editor.putString("accessToken", token.accessToken);
+            editor.putString("refreshToken", token.refreshToken);
+            editor.putLong("expiredOn", token.expiresOn);
+        }
         editor.commit();
-        mToken = new OAuthToken();
     }
     private SharedPreferences getPreferences() {
-        return PreferenceManager.getDefaultSharedPreferences(mApplicationContext);
+        if (DEFAULT_ACCOUNT.equals(mAccount)) {
+            return PreferenceManager.getDefaultSharedPreferences(mApplicationContext);
+        }
+        return mApplicationContext.getSharedPreferences(
+                PREFERENCES_PREFIX + Uri.encode(mAccount), Context.MODE_PRIVATE);
     }
 }
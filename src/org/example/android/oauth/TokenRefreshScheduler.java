@@ -0,0 +1,190 @@
+package org.example.android.oauth;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import android.content.Context;
+import android.util.Log;
+
+/** Access Token の有効期限が切れる前に、バックグラウンドでリフレッシュを行うスケジューラ。
+ * {@link OAuthTokenStore} に保存されたトークンの expiresOn から skew だけ前の時点
+ * (ジッタを加えたもの) でリフレッシュを行うため、リクエスト時にリフレッシュを待つことはほとんどなくなる。
+ * 有効期間が skew より短いトークンでは、 skew を残りの有効期間の半分までに縮める。
+ * リフレッシュに失敗した場合は、指数的に間隔を空けて再試行する。
+ * 1 つのスケジューラは 1 つのアカウントの {@link OAuthTokenStore} だけをリフレッシュするため、
+ * 複数のアカウントを使う場合はアカウントごとに生成すること。
+ */
+public class TokenRefreshScheduler {
+    private static final String TAG = "TokenRefreshScheduler";
+
+    /** 有効期限のどれだけ前にリフレッシュを行うかのデフォルト値 */
+    public static final long DEFAULT_SKEW_MS = 5 * 60 * 1000;
+    /** リフレッシュ時刻を遅らせるジッタの最大値 (skew に対する割合) */
+    private static final float JITTER_RATIO = 0.2f;
+    private static final long INITIAL_BACKOFF_MS = 5 * 1000;
+    private static final long MAX_BACKOFF_MS = 5 * 60 * 1000;
+    /** リフレッシュに成功してから次のリフレッシュまでの最小間隔 */
+    private static final long MIN_REFRESH_INTERVAL_MS = 30 * 1000;
+
+    private final OAuthTokenStore mStore;
+    private final long mSkewMs;
+    private final Random mRandom = new Random();
+
+    private ScheduledExecutorService mExecutor;
+    private ScheduledFuture<?> mPending;
+    private long mBackoffMs;
+    /** リフレッシュ時刻を決めた時点のトークンの expiresOn */
+    private long mPlannedExpiresOn;
+    private long mRefreshAt;
+    private long mLastRefreshedAt;
+
+    private final Runnable mCheckTask = new Runnable() {
+        @Override
+        public void run() {
+            check();
+        }
+    };
+
+    /** {@link OAuthTokenStore#DEFAULT_ACCOUNT} のトークンを、デフォルトの skew でリフレッシュするスケジューラを生成する。
+     * @param context Context
+     */
+    public TokenRefreshScheduler(Context context) {
+        this(OAuthTokenStore.getInstance(context), DEFAULT_SKEW_MS);
+    }
+
+    /** {@link OAuthTokenStore#DEFAULT_ACCOUNT} のトークンをリフレッシュするスケジューラを生成する。
+     * @param context Context
+     * @param skewMs 有効期限のどれだけ前にリフレッシュを行うか (ミリ秒)
+     */
+    public TokenRefreshScheduler(Context context, long skewMs) {
+        this(OAuthTokenStore.getInstance(context), skewMs);
+    }
+
+    /** 指定したアカウントのトークンを、デフォルトの skew でリフレッシュするスケジューラを生成する。
+     * @param store リフレッシュするトークンを保持している OAuthTokenStore
+     */
+    public TokenRefreshScheduler(OAuthTokenStore store) {
+        this(store, DEFAULT_SKEW_MS);
+    }
+
+    /** スケジューラを生成する。
+     * @param store リフレッシュするトークンを保持している OAuthTokenStore
+     * @param skewMs 有効期限のどれだけ前にリフレッシュを行うか (ミリ秒)
+     */
+    public TokenRefreshScheduler(OAuthTokenStore store, long skewMs) {
+        if (store == null)
+            throw new NullPointerException("store must not be null");
+        if (skewMs < 0)
+            throw new IllegalArgumentException("skew must not be negative");
+        mStore = store;
+        mSkewMs = skewMs;
+    }
+
+    /** スケジューリングを開始する。既に開始している場合は、保存されたトークンを読み直して再スケジュールする。 */
+    public synchronized void start() {
+        if (mExecutor == null) {
+            mExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, TAG + "-" + mStore.getAccount());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        reschedule();
+    }
+
+    /** 保存されたトークンが更新されたときに呼び出し、次回のリフレッシュ時刻を計算し直す。
+     * {@link #start()} 前や {@link #stop()} 後に呼び出した場合は何もしない。
+     */
+    public synchronized void reschedule() {
+        mBackoffMs = 0;
+        scheduleCheck(0);
+    }
+
+    /** スケジューリングを停止する。 */
+    public synchronized void stop() {
+        if (mPending != null) {
+            mPending.cancel(false);
+            mPending = null;
+        }
+        if (mExecutor != null) {
+            mExecutor.shutdownNow();
+            mExecutor = null;
+        }
+    }
+
+    private synchronized void scheduleCheck(long delayMs) {
+        if (mExecutor == null)
+            return;
+        if (mPending != null)
+            mPending.cancel(false);
+        mPending = mExecutor.schedule(mCheckTask, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /** トークンの期限を確認し、リフレッシュ時刻を過ぎていればリフレッシュする。 */
+    private void check() {
+        OAuthTokenStore store = mStore;
+        OAuthToken token = store.getToken();
+        if (token == null || token.accessToken == null || token.refreshToken == null) {
+            // ログインしていないので、次に reschedule() されるまで何もしない
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        long refreshAt = getRefreshAt(token.expiresOn, now);
+        if (now < refreshAt) {
+            scheduleCheck(refreshAt - now);
+            return;
+        }
+
+        try {
+            Log.v(TAG, "Refreshing access token ahead of expiration.");
+            OAuthToken refreshed = TokenRefresher.refresh(token.refreshToken);
+            if (refreshed == null)
+                throw new IOException("empty token response");
+            if (!store.compareAndSetToken(token, refreshed)) {
+                // リフレッシュの間に再ログインなどで新しいトークンが保存された
+                Log.v(TAG, "A newer token has been stored while refreshing.");
+            }
+            synchronized (this) {
+                mBackoffMs = 0;
+                mLastRefreshedAt = System.currentTimeMillis();
+            }
+            scheduleCheck(0);
+        } catch (TokenInvalidException e) {
+            // リフレッシュできないトークンなので、再ログインされるまで停止する
+            Log.w(TAG, "Refresh token is no longer valid.", e);
+        } catch (IOException e) {
+            long delay = nextBackoff();
+            Log.w(TAG, "Failed to refresh access token. Retrying in " + delay + "ms", e);
+            scheduleCheck(delay);
+        }
+    }
+
+    /** トークンをリフレッシュする時刻を返す。
+     * 有効期間の短いトークンで、リフレッシュ直後のトークンの時刻がすぐに過ぎてしまい
+     * リフレッシュを繰り返すことのないよう、 skew は残りの有効期間の半分までとし、
+     * 前回のリフレッシュから {@link #MIN_REFRESH_INTERVAL_MS} は空ける。
+     */
+    private synchronized long getRefreshAt(long expiresOn, long now) {
+        if (expiresOn != mPlannedExpiresOn) {
+            mPlannedExpiresOn = expiresOn;
+            long skew = Math.min(mSkewMs, Math.max(expiresOn - now, 0) / 2);
+            long jitter = (long) (mRandom.nextFloat() * skew * JITTER_RATIO);
+            mRefreshAt = expiresOn - skew + jitter;
+        }
+        return Math.max(mRefreshAt, mLastRefreshedAt + MIN_REFRESH_INTERVAL_MS);
+    }
+
+    private synchronized long nextBackoff() {
+        mBackoffMs = mBackoffMs == 0 ? INITIAL_BACKOFF_MS : Math.min(mBackoffMs * 2, MAX_BACKOFF_MS);
+        return mBackoffMs / 2 + (long) (mRandom.nextFloat() * mBackoffMs / 2);
+    }
+}
@@ -0,0 +1,131 @@
+package org.example.android.oauth;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.apache.http.client.ClientProtocolException;
+
+import android.util.Log;
+
+/** Refresh Token ごとにトークンのリフレッシュを 1 回にまとめるクラス。
+ * 同じ Refresh Token で同時にリフレッシュが要求された場合、実際に
+ * {@link OAuthClient#refreshToken(String)} を呼び出すのは最初の 1 スレッドだけで、
+ * 他のスレッドはその結果を待って同じ {@link OAuthToken} を受け取る。
+ * リフレッシュ済みの Refresh Token は無効になるため、完了した結果もしばらく保持し、
+ * 遅れて古い Refresh Token でリフレッシュしようとした呼び出しにも同じ結果を返す。
+ */
+public class TokenRefresher {
+    private static final String TAG = "TokenRefresher";
+
+    /** 完了したリフレッシュの結果を保持する時間 */
+    private static final long RESULT_RETENTION_MS = 60 * 1000;
+
+    private static final ConcurrentHashMap<String, RefreshTask> sTasks =
+        new ConcurrentHashMap<String, RefreshTask>();
+
+    private TokenRefresher() {
+    }
+
+    /**
+     * Refresh Token を用いてトークンのリフレッシュを行う。
+     * 同じ Refresh Token のリフレッシュが実行中または直前に完了していれば、その結果を返す。
+     *
+     * @param refreshToken Refresh Token
+     * @return 取得したトークンを返す。
+     * @throws ClientProtocolException
+     * @throws IOException
+     */
+    public static OAuthToken refresh(final String refreshToken)
+            throws ClientProtocolException, IOException {
+        if (refreshToken == null)
+            throw new NullPointerException("refresh token must not be null");
+        purgeExpiredResults();
+
+        RefreshTask task = new RefreshTask(refreshToken);
+        RefreshTask running = sTasks.putIfAbsent(refreshToken, task);
+        if (running == null) {
+            // このスレッドがリフレッシュを実行する
+            running = task;
+            task.run();
+            if (!task.isSucceeded()) {
+                // 失敗した場合は、次の呼び出しで再試行できるように破棄する
+                sTasks.remove(refreshToken, task);
+            }
+        } else {
+            Log.v(TAG, "Waiting for the refresh already in flight.");
+        }
+        return running.getResult();
+    }
+
+    private static void purgeExpiredResults() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<String, RefreshTask>> it = sTasks.entrySet().iterator();
+        while (it.hasNext()) {
+            RefreshTask task = it.next().getValue();
+            if (task.isExpired(now)) {
+                it.remove();
+            }
+        }
+    }
+
+    /** 1 回分のリフレッシュ処理。 */
+    private static class RefreshTask extends FutureTask<OAuthToken> {
+        private volatile long mCompletedAt;
+        private volatile boolean mSucceeded;
+
+        RefreshTask(final String refreshToken) {
+            super(new Callable<OAuthToken>() {
+                @Override
+                public OAuthToken call() throws Exception {
+                    return OAuthClient.refreshToken(refreshToken);
+                }
+            });
+        }
+
+        @Override
+        protected void set(OAuthToken v) {
+            mSucceeded = v != null;
+            super.set(v);
+        }
+
+        @Override
+        protected void done() {
+            mCompletedAt = System.currentTimeMillis();
+        }
+
+        boolean isSucceeded() {
+            return mSucceeded;
+        }
+
+        boolean isExpired(long now) {
+            long completedAt = mCompletedAt;
+            return completedAt != 0 && now - completedAt > RESULT_RETENTION_MS;
+        }
+
+        OAuthToken getResult() throws IOException {
+            try {
+                return get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while waiting for token refresh");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException)
+                    throw (IOException) cause;
+                if (cause instanceof RuntimeException)
+                    throw (RuntimeException) cause;
+                if (cause instanceof Error)
+                    throw (Error) cause;
+                IOException ioe = new IOException("failed to refresh token");
+                ioe.initCause(cause);
+                throw ioe;
+            }
+        }
+    }
+}